@@ -19,6 +19,10 @@
 
 package edu.umd.cs.findbugs;
 
+import java.io.File;
+
+import javax.annotation.CheckForNull;
+
 import edu.umd.cs.findbugs.config.AnalysisFeatureSetting;
 import edu.umd.cs.findbugs.config.UserPreferences;
 
@@ -76,6 +80,22 @@ public class AnalysisOptions {
      */
     public boolean noClassOk;
 
+    /**
+     * Number of threads used to apply detectors to classes
+     */
+    public int threads = 1;
+
+    /**
+     * Estimated number of bytes the analysis cache may use, or 0 to bound the
+     * cache by entry counts
+     */
+    public long cacheBudget = 0;
+
+    /**
+     * Directory of the persistent store of class results, or null
+     */
+    public @CheckForNull File resultStore;
+
     String releaseName;
 
     String projectName;
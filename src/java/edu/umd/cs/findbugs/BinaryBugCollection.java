@@ -0,0 +1,818 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.WillClose;
+import javax.annotation.WillNotClose;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import edu.umd.cs.findbugs.charsets.UTF8;
+import edu.umd.cs.findbugs.io.IO;
+import edu.umd.cs.findbugs.xml.XMLAttributeList;
+import edu.umd.cs.findbugs.xml.XMLOutput;
+
+/**
+ * A BugCollection saved in a compact binary format, whose BugInstances are
+ * decoded when they are accessed.
+ * <p>
+ * The file holds the XML of the BugCollection as a stream of tokens (element
+ * start, element end, text) whose names, attribute values and texts refer to a
+ * table of the distinct strings, so that each class, method or signature name
+ * is stored once. The tokens of each BugInstance form a separate record, and
+ * an index gives the type, primary class and instance hash of each record,
+ * along with the records sorted by each of these keys. Opening a file only
+ * reads the string table and the tokens outside of the BugInstances (project,
+ * errors, statistics, history); a BugInstance is decoded from its record when
+ * it is accessed, by replaying its tokens through the SAXBugCollectionHandler
+ * used to read XML, so that both formats give the same BugInstances.
+ * <p>
+ * Layout of the file:
+ *
+ * <pre>
+ * "FBBC" version
+ * tokens of the collection before the BugInstances
+ * tokens of each BugInstance
+ * tokens of the collection after the BugInstances
+ * string table: count, then each string as (length, UTF-8 bytes)
+ * index: count, record offsets, type/class/hash string ids,
+ *        records sorted by type/class/hash
+ * bugs offset, footer offset, string table offset, index offset, "FBBC"
+ * </pre>
+ *
+ * Messages are not saved: the binary format is a storage format, to be
+ * converted to XML (e.g. with workflow.ConvertBugCollection) when a report
+ * with messages is needed. SortedBugCollection.readXML() reads both formats.
+ */
+public class BinaryBugCollection {
+
+    private static final int MAGIC = 0x46424243; // "FBBC"
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int TRAILER_SIZE = 20;
+
+    private static final int START_ELEMENT = 1;
+
+    private static final int END_ELEMENT = 2;
+
+    private static final int TEXT = 3;
+
+    private final ByteBuffer contents;
+
+    private final String name;
+
+    private final int bugsOffset;
+
+    private final int footerOffset;
+
+    private final String[] strings;
+
+    private final int bugCount;
+
+    private final IntBuffer recordOffsets;
+
+    private final IntBuffer typeIds;
+
+    private final IntBuffer classIds;
+
+    private final IntBuffer hashIds;
+
+    private final IntBuffer byType;
+
+    private final IntBuffer byClass;
+
+    private final IntBuffer byHash;
+
+    private final SortedBugCollection bugCollection;
+
+    private Map<String, Integer> stringIds;
+
+    /**
+     * Collection the BugInstances are decoded into, one at a time
+     */
+    private SortedBugCollection decodedBugs;
+
+    private SAXBugCollectionHandler bugHandler;
+
+    /**
+     * Open a binary bug collection file. The file is mapped in memory.
+     *
+     * @param file
+     *            the file
+     * @throws IOException
+     *             if the file cannot be read, or is not a binary bug
+     *             collection
+     */
+    public BinaryBugCollection(File file) throws IOException {
+        this(map(file), file.getPath());
+    }
+
+    /**
+     * Open a binary bug collection held in a buffer.
+     *
+     * @param contents
+     *            the bytes of the binary bug collection, between the
+     *            position and the limit of the buffer
+     * @param name
+     *            name of the bug collection, used in error messages
+     * @throws IOException
+     *             if the contents are not a binary bug collection
+     */
+    public BinaryBugCollection(ByteBuffer contents, String name) throws IOException {
+        this.contents = contents.slice();
+        this.name = name;
+        int length = this.contents.limit();
+        if (length < HEADER_SIZE + TRAILER_SIZE || this.contents.getInt(0) != MAGIC
+                || this.contents.getInt(length - 4) != MAGIC) {
+            throw new IOException(name + " is not a binary bug collection");
+        }
+        int version = this.contents.getInt(4);
+        if (version != FORMAT_VERSION) {
+            throw new IOException(name + " has unsupported binary bug collection version " + version);
+        }
+        int trailer = length - TRAILER_SIZE;
+        bugsOffset = this.contents.getInt(trailer);
+        footerOffset = this.contents.getInt(trailer + 4);
+        int stringTableOffset = this.contents.getInt(trailer + 8);
+        int indexOffset = this.contents.getInt(trailer + 12);
+        if (bugsOffset < HEADER_SIZE || footerOffset < bugsOffset || stringTableOffset < footerOffset
+                || indexOffset < stringTableOffset || indexOffset + 4 > trailer) {
+            throw new IOException(name + " is a corrupted binary bug collection");
+        }
+
+        ByteBuffer buffer = this.contents.duplicate();
+        buffer.position(stringTableOffset);
+        strings = new String[readVarInt(buffer)];
+        for (int i = 0; i < strings.length; i++) {
+            int size = readVarInt(buffer);
+            byte[] bytes = new byte[size];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, UTF8.charset);
+        }
+
+        bugCount = this.contents.getInt(indexOffset);
+        if (indexOffset + 4 + 28L * bugCount != trailer) {
+            throw new IOException(name + " is a corrupted binary bug collection");
+        }
+        buffer.position(indexOffset + 4);
+        IntBuffer index = buffer.slice().asIntBuffer();
+        recordOffsets = slice(index, 0);
+        typeIds = slice(index, 1);
+        classIds = slice(index, 2);
+        hashIds = slice(index, 3);
+        byType = slice(index, 4);
+        byClass = slice(index, 5);
+        byHash = slice(index, 6);
+
+        bugCollection = new SortedBugCollection();
+        SAXBugCollectionHandler handler = new SAXBugCollectionHandler(bugCollection);
+        ArrayList<String> elementStack = new ArrayList<String>();
+        try {
+            replay(handler, HEADER_SIZE, bugsOffset, elementStack);
+            replay(handler, footerOffset, stringTableOffset, elementStack);
+        } catch (SAXException e) {
+            throw newIOException(e);
+        }
+        bugCollection.bugsPopulated();
+    }
+
+    private IntBuffer slice(IntBuffer index, int n) {
+        IntBuffer result = index.duplicate();
+        result.position(n * bugCount);
+        result.limit((n + 1) * bugCount);
+        return result.slice();
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large for a binary bug collection");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private IOException newIOException(Exception e) {
+        IOException result = new IOException("Corrupted binary bug collection " + name);
+        result.initCause(e);
+        return result;
+    }
+
+    /**
+     * Return whether a file holds a binary bug collection.
+     *
+     * @param file
+     *            the file
+     * @return true if the file starts like a binary bug collection
+     */
+    public static boolean isBinary(File file) throws IOException {
+        if (file.length() < HEADER_SIZE + TRAILER_SIZE) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return whether an input stream holds a binary bug collection. The
+     * stream must support mark() and reset(): its position is not changed.
+     *
+     * @param in
+     *            the stream
+     * @return true if the stream starts like a binary bug collection
+     */
+    public static boolean isBinary(@WillNotClose InputStream in) throws IOException {
+        in.mark(4);
+        try {
+            byte[] magic = new byte[4];
+            int n = 0;
+            while (n < magic.length) {
+                int count = in.read(magic, n, magic.length - n);
+                if (count < 0) {
+                    return false;
+                }
+                n += count;
+            }
+            return ((magic[0] & 0xff) << 24 | (magic[1] & 0xff) << 16 | (magic[2] & 0xff) << 8 | magic[3] & 0xff) == MAGIC;
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Get the bug collection without its BugInstances: its project, errors,
+     * statistics and history.
+     */
+    public SortedBugCollection getBugCollection() {
+        return bugCollection;
+    }
+
+    /**
+     * Get the number of BugInstances.
+     */
+    public int getBugCount() {
+        return bugCount;
+    }
+
+    /**
+     * Get the type of a BugInstance, without decoding it.
+     *
+     * @param bug
+     *            index of the BugInstance
+     */
+    public String getBugType(int bug) {
+        return strings[typeIds.get(bug)];
+    }
+
+    /**
+     * Get the dotted name of the primary class of a BugInstance, without
+     * decoding it.
+     *
+     * @param bug
+     *            index of the BugInstance
+     * @return the class name, or "" if the BugInstance has no primary class
+     */
+    public String getPrimaryClassName(int bug) {
+        return strings[classIds.get(bug)];
+    }
+
+    /**
+     * Get the instance hash of a BugInstance, without decoding it.
+     *
+     * @param bug
+     *            index of the BugInstance
+     */
+    public String getInstanceHash(int bug) {
+        return strings[hashIds.get(bug)];
+    }
+
+    /**
+     * Decode a BugInstance. Each call decodes a new BugInstance object.
+     *
+     * @param bug
+     *            index of the BugInstance
+     * @return the BugInstance
+     */
+    public synchronized BugInstance getBug(int bug) {
+        if (bug < 0 || bug >= bugCount) {
+            throw new IndexOutOfBoundsException("BugInstance " + bug + " of " + bugCount);
+        }
+        int end = bug + 1 < bugCount ? recordOffsets.get(bug + 1) : footerOffset;
+        try {
+            if (bugHandler == null) {
+                decodedBugs = new SortedBugCollection();
+                bugHandler = new SAXBugCollectionHandler(decodedBugs);
+                bugHandler.startElement("", BugCollection.ROOT_ELEMENT_NAME, BugCollection.ROOT_ELEMENT_NAME,
+                        new AttributesImpl());
+            }
+            ArrayList<String> elementStack = new ArrayList<String>();
+            elementStack.add(BugCollection.ROOT_ELEMENT_NAME);
+            replay(bugHandler, recordOffsets.get(bug), end, elementStack);
+        } catch (SAXException e) {
+            throw new IllegalStateException("Couldn't decode BugInstance " + bug + " of " + name, e);
+        }
+        Iterator<BugInstance> i = decodedBugs.iterator();
+        if (!i.hasNext()) {
+            throw new IllegalStateException("No BugInstance in record " + bug + " of " + name);
+        }
+        BugInstance result = i.next();
+        decodedBugs.clearBugInstances();
+        return result;
+    }
+
+    /**
+     * Get all the BugInstances, in the order of the collection they were
+     * saved from. The BugInstances are decoded when they are accessed.
+     */
+    public List<BugInstance> getBugs() {
+        return new AbstractList<BugInstance>() {
+            @Override
+            public BugInstance get(int index) {
+                return getBug(index);
+            }
+
+            @Override
+            public int size() {
+                return bugCount;
+            }
+        };
+    }
+
+    /**
+     * Get the BugInstances of a given type. They are decoded when they are
+     * accessed.
+     *
+     * @param type
+     *            the bug type
+     */
+    public List<BugInstance> getBugsOfType(String type) {
+        return lookup(byType, typeIds, type);
+    }
+
+    /**
+     * Get the BugInstances whose primary class is a given class. They are
+     * decoded when they are accessed.
+     *
+     * @param className
+     *            dotted name of the class
+     */
+    public List<BugInstance> getBugsInClass(String className) {
+        return lookup(byClass, classIds, className);
+    }
+
+    /**
+     * Get the BugInstances with a given instance hash. They are decoded when
+     * they are accessed.
+     *
+     * @param instanceHash
+     *            the instance hash
+     */
+    public List<BugInstance> getBugsWithInstanceHash(String instanceHash) {
+        return lookup(byHash, hashIds, instanceHash);
+    }
+
+    private synchronized List<BugInstance> lookup(final IntBuffer sorted, IntBuffer keys, String key) {
+        if (stringIds == null) {
+            stringIds = new HashMap<String, Integer>();
+            for (int i = 0; i < strings.length; i++) {
+                stringIds.put(strings[i], i);
+            }
+        }
+        Integer id = stringIds.get(key);
+        if (id == null) {
+            return Collections.emptyList();
+        }
+        final int from = lowerBound(sorted, keys, id);
+        final int to = lowerBound(sorted, keys, id + 1);
+        return new AbstractList<BugInstance>() {
+            @Override
+            public BugInstance get(int index) {
+                if (index < 0 || index >= to - from) {
+                    throw new IndexOutOfBoundsException("BugInstance " + index + " of " + (to - from));
+                }
+                return getBug(sorted.get(from + index));
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        };
+    }
+
+    /**
+     * Find the first position of the sorted records whose key is at least the
+     * given one.
+     */
+    private int lowerBound(IntBuffer sorted, IntBuffer keys, int key) {
+        int low = 0;
+        int high = bugCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys.get(sorted.get(middle)) < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Read the whole bug collection, decoding all its BugInstances, into a
+     * SortedBugCollection.
+     *
+     * @param collection
+     *            the SortedBugCollection, populating its Project as a side
+     *            effect
+     */
+    public void readInto(SortedBugCollection collection) throws IOException {
+        readInto(collection, null);
+    }
+
+    /**
+     * Read the whole bug collection, decoding all its BugInstances, into a
+     * SortedBugCollection.
+     *
+     * @param collection
+     *            the SortedBugCollection, populating its Project as a side
+     *            effect
+     * @param base
+     *            the file the relative paths of the Project are relative to,
+     *            or null
+     */
+    void readInto(SortedBugCollection collection, @CheckForNull File base) throws IOException {
+        SAXBugCollectionHandler handler = new SAXBugCollectionHandler(collection, base);
+        ArrayList<String> elementStack = new ArrayList<String>();
+        try {
+            replay(handler, HEADER_SIZE, contents.getInt(contents.limit() - TRAILER_SIZE + 8), elementStack);
+        } catch (SAXException e) {
+            throw newIOException(e);
+        }
+    }
+
+    /**
+     * Send the SAX events of the tokens between two offsets to a handler.
+     */
+    private void replay(ContentHandler handler, int start, int end, ArrayList<String> elementStack)
+            throws SAXException {
+        ByteBuffer buffer = contents.duplicate();
+        buffer.position(start);
+        buffer.limit(end);
+        AttributesImpl attributes = new AttributesImpl();
+        while (buffer.hasRemaining()) {
+            int token = buffer.get();
+            switch (token) {
+            case START_ELEMENT: {
+                String elementName = strings[readVarInt(buffer)];
+                attributes.clear();
+                for (int n = readVarInt(buffer); n > 0; n--) {
+                    String attributeName = strings[readVarInt(buffer)];
+                    attributes.addAttribute("", attributeName, attributeName, "CDATA", strings[readVarInt(buffer)]);
+                }
+                elementStack.add(elementName);
+                handler.startElement("", elementName, elementName, attributes);
+                break;
+            }
+            case END_ELEMENT: {
+                if (elementStack.isEmpty()) {
+                    throw new SAXException("Unbalanced element end in " + name);
+                }
+                String elementName = elementStack.remove(elementStack.size() - 1);
+                handler.endElement("", elementName, elementName);
+                break;
+            }
+            case TEXT: {
+                char[] text = strings[readVarInt(buffer)].toCharArray();
+                handler.characters(text, 0, text.length);
+                break;
+            }
+            default:
+                throw new SAXException("Invalid token " + token + " in " + name);
+            }
+        }
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int result = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = buffer.get();
+            result |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Write a bug collection to a file in the binary format.
+     *
+     * @param collection
+     *            the bug collection
+     * @param file
+     *            the file
+     */
+    public static void write(SortedBugCollection collection, File file) throws IOException {
+        write(collection, new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /**
+     * Write a bug collection to a stream in the binary format.
+     *
+     * @param collection
+     *            the bug collection
+     * @param stream
+     *            the stream, which is closed
+     */
+    public static void write(SortedBugCollection collection, @WillClose OutputStream stream) throws IOException {
+        TokenWriter out = new TokenWriter(stream);
+        boolean withMessages = collection.getWithMessages();
+        collection.setWithMessages(false);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            collection.writePrologue(out);
+            if (collection.earlyStats && !collection.isMinimalXML()) {
+                collection.getProjectStats().writeXML(out, false);
+            }
+
+            int bugsOffset = out.size();
+            final List<Integer> types = new ArrayList<Integer>();
+            final List<Integer> classes = new ArrayList<Integer>();
+            final List<Integer> hashes = new ArrayList<Integer>();
+            List<Integer> offsets = new ArrayList<Integer>();
+            for (BugInstance bug : collection.getCollection()) {
+                offsets.add(out.size());
+                bug.writeXML(out, collection, false);
+                types.add(out.getStringId(bug.getType()));
+                ClassAnnotation primaryClass = bug.getPrimaryClass();
+                classes.add(out.getStringId(primaryClass != null ? primaryClass.getClassName() : ""));
+                hashes.add(out.getStringId(bug.getInstanceHash()));
+            }
+
+            int footerOffset = out.size();
+            collection.writeEpilogue(out);
+
+            int stringTableOffset = out.size();
+            out.writeStringTable();
+
+            int indexOffset = out.size();
+            out.writeInt(offsets.size());
+            writeInts(out, offsets);
+            writeInts(out, types);
+            writeInts(out, classes);
+            writeInts(out, hashes);
+            writeInts(out, sortedBy(types));
+            writeInts(out, sortedBy(classes));
+            writeInts(out, sortedBy(hashes));
+
+            out.writeInt(bugsOffset);
+            out.writeInt(footerOffset);
+            out.writeInt(stringTableOffset);
+            out.writeInt(indexOffset);
+            out.writeInt(MAGIC);
+            if (out.size() < 0) {
+                throw new IOException("Bug collection too large for the binary format");
+            }
+        } finally {
+            collection.setWithMessages(withMessages);
+            out.close();
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, List<Integer> values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Get the indices of the given keys, in increasing order of key.
+     */
+    private static List<Integer> sortedBy(final List<Integer> keys) {
+        List<Integer> result = new ArrayList<Integer>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            result.add(i);
+        }
+        Collections.sort(result, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return keys.get(o1).compareTo(keys.get(o2));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * XMLOutput writing the tokens of the binary format, and collecting the
+     * strings they refer to.
+     */
+    static class TokenWriter extends DataOutputStream implements XMLOutput {
+        private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+
+        private final List<String> strings = new ArrayList<String>();
+
+        private String pendingTag;
+
+        private final List<String> pendingAttributes = new ArrayList<String>();
+
+        TokenWriter(OutputStream out) {
+            super(new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+            });
+        }
+
+        int getStringId(String s) {
+            Integer id = stringIds.get(s);
+            if (id == null) {
+                id = strings.size();
+                stringIds.put(s, id);
+                strings.add(s);
+            }
+            return id;
+        }
+
+        void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        void writeStringTable() throws IOException {
+            writeVarInt(strings.size());
+            for (String s : strings) {
+                byte[] bytes = s.getBytes(UTF8.charset);
+                writeVarInt(bytes.length);
+                write(bytes);
+            }
+        }
+
+        private void writeStartElement(String tagName, List<String> attributes) throws IOException {
+            writeByte(START_ELEMENT);
+            writeVarInt(getStringId(tagName));
+            writeVarInt(attributes.size() / 2);
+            for (String s : attributes) {
+                writeVarInt(getStringId(s));
+            }
+        }
+
+        private static List<String> toList(XMLAttributeList attributeList) {
+            List<String> result = new ArrayList<String>();
+            for (Iterator<XMLAttributeList.NameValuePair> i = attributeList.iterator(); i.hasNext();) {
+                XMLAttributeList.NameValuePair pair = i.next();
+                result.add(pair.getName());
+                result.add(pair.getValue());
+            }
+            return result;
+        }
+
+        @Override
+        public void beginDocument() {
+        }
+
+        @Override
+        public void openTag(String tagName) throws IOException {
+            writeStartElement(tagName, Collections.<String> emptyList());
+        }
+
+        @Override
+        public void openTag(String tagName, XMLAttributeList attributeList) throws IOException {
+            writeStartElement(tagName, toList(attributeList));
+        }
+
+        @Override
+        public void startTag(String tagName) {
+            pendingTag = tagName;
+            pendingAttributes.clear();
+        }
+
+        @Override
+        public void addAttribute(String attributeName, String value) {
+            pendingAttributes.add(attributeName);
+            pendingAttributes.add(value);
+        }
+
+        @Override
+        public void stopTag(boolean close) throws IOException {
+            writeStartElement(pendingTag, pendingAttributes);
+            if (close) {
+                writeByte(END_ELEMENT);
+            }
+            pendingTag = null;
+        }
+
+        @Override
+        public void openCloseTag(String tagName) throws IOException {
+            openTag(tagName);
+            writeByte(END_ELEMENT);
+        }
+
+        @Override
+        public void openCloseTag(String tagName, XMLAttributeList attributeList) throws IOException {
+            openTag(tagName, attributeList);
+            writeByte(END_ELEMENT);
+        }
+
+        @Override
+        public void closeTag(String tagName) throws IOException {
+            writeByte(END_ELEMENT);
+        }
+
+        @Override
+        public void writeText(String text) throws IOException {
+            writeByte(TEXT);
+            writeVarInt(getStringId(text));
+        }
+
+        @Override
+        public void writeCDATA(String cdata) throws IOException {
+            writeText(cdata);
+        }
+
+        @Override
+        public void finish() {
+            // The collection is written by pieces: the stream is closed by
+            // write()
+        }
+    }
+
+    /**
+     * Read a binary bug collection from a stream.
+     *
+     * @param in
+     *            the stream, which is closed
+     * @param name
+     *            name of the bug collection, used in error messages
+     */
+    static BinaryBugCollection read(@WillClose InputStream in, String name) throws IOException {
+        try {
+            return new BinaryBugCollection(ByteBuffer.wrap(IO.readAll(in)), name);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -141,7 +141,7 @@ public class BugInstance implements Comparable<BugInstance>, XMLWriteable, Seria
     private int instanceOccurrenceMax;
 
     @CheckForNull
-    private DetectorFactory detectorFactory;
+    private transient DetectorFactory detectorFactory;
 
     private final AtomicReference<XmlProps> xmlProps;
 
@@ -2114,13 +2114,13 @@ public class BugInstance implements Comparable<BugInstance>, XMLWriteable, Seria
     }
 
     String getLongDescription() {
-        return getBugPattern().getLongDescription().replaceAll("BUG_PATTERN", type);
+        return getBugPattern().getLongDescription(type);
     }
 
     public String getAbridgedMessage() {
         BugPattern bugPattern = getBugPattern();
 
-        String pattern = getLongDescription().replaceAll(" in \\{1\\}", "");
+        String pattern = bugPattern.getAbridgedLongDescription(type);
         String shortPattern = bugPattern.getShortDescription();
 
         try {
@@ -2789,6 +2789,14 @@ public class BugInstance implements Comparable<BugInstance>, XMLWriteable, Seria
         return detectorFactory;
     }
 
+    /**
+     * Set the factory of the detector which reported this bug, without
+     * adjusting the priority (e.g., for a deserialized BugInstance).
+     */
+    void setDetectorFactory(@CheckForNull DetectorFactory detectorFactory) {
+        this.detectorFactory = detectorFactory;
+    }
+
     private void optionalAdd(Collection<BugAnnotation> c, BugAnnotation a) {
         if (a != null) {
             c.add(a);
@@ -55,6 +55,13 @@ public class BugPattern implements Comparable<BugPattern> {
 
     private boolean deprecated;
 
+    /**
+     * The long description with its BUG_PATTERN placeholder replaced, and its
+     * abridged form, computed on first use: they are needed for every
+     * BugInstance of this pattern written with messages.
+     */
+    private volatile String expandedLongDescription, abridgedLongDescription;
+
     /**
      * Constructor.
      *
@@ -166,6 +173,45 @@ public class BugPattern implements Comparable<BugPattern> {
         return longDescription;
     }
 
+    /**
+     * Get the long description of a BugInstance of the given type, with the
+     * BUG_PATTERN placeholder replaced by the type.
+     *
+     * @param bugType
+     *            the type of the BugInstance; differs from the type of this
+     *            pattern only for unknown patterns
+     */
+    String getLongDescription(String bugType) {
+        if (!type.equals(bugType)) {
+            return longDescription.replace("BUG_PATTERN", bugType);
+        }
+        String result = expandedLongDescription;
+        if (result == null) {
+            result = longDescription.replace("BUG_PATTERN", type);
+            expandedLongDescription = result;
+        }
+        return result;
+    }
+
+    /**
+     * Get the long description of a BugInstance of the given type, without
+     * the reference to the class it occurs in.
+     *
+     * @param bugType
+     *            the type of the BugInstance
+     */
+    String getAbridgedLongDescription(String bugType) {
+        if (!type.equals(bugType)) {
+            return getLongDescription(bugType).replace(" in {1}", "");
+        }
+        String result = abridgedLongDescription;
+        if (result == null) {
+            result = getLongDescription(bugType).replace(" in {1}", "");
+            abridgedLongDescription = result;
+        }
+        return result;
+    }
+
     /**
      * Get the HTML detail text describing the bug.
      */
@@ -0,0 +1,475 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.CheckForNull;
+
+import edu.umd.cs.findbugs.ba.AnalysisContext;
+import edu.umd.cs.findbugs.ba.AnalysisFeatures;
+import edu.umd.cs.findbugs.ba.ClassHash;
+import edu.umd.cs.findbugs.ba.FieldSummary;
+import edu.umd.cs.findbugs.ba.XClass;
+import edu.umd.cs.findbugs.ba.XField;
+import edu.umd.cs.findbugs.ba.XMethod;
+import edu.umd.cs.findbugs.ba.ch.Subtypes2;
+import edu.umd.cs.findbugs.ba.interproc.ParameterProperty;
+import edu.umd.cs.findbugs.ba.npe.ParameterNullnessPropertyDatabase;
+import edu.umd.cs.findbugs.ba.npe.ReturnValueNullnessPropertyDatabase;
+import edu.umd.cs.findbugs.charsets.UTF8;
+import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.DescriptorFactory;
+import edu.umd.cs.findbugs.classfile.Global;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+import edu.umd.cs.findbugs.classfile.analysis.ClassData;
+import edu.umd.cs.findbugs.log.Profiler;
+import edu.umd.cs.findbugs.plan.AnalysisPass;
+import edu.umd.cs.findbugs.plan.ExecutionPlan;
+import edu.umd.cs.findbugs.util.Util;
+
+/**
+ * Persistent store of the bugs reported for individual classes, which lets an
+ * analysis skip classes that did not change since a previous analysis.
+ * <p>
+ * The store is content addressed. The key of a class is a digest of the
+ * analysis configuration (FindBugs version, detectors and analysis features),
+ * of the summary of the class, and of the summaries of the classes it depends
+ * on: the classes referenced from its constant pool, its supertypes, its direct
+ * subtypes and its package-info class. The names of all the known subtypes of
+ * the class are part of the key as well, since some detectors describe them.
+ * The summary of a class covers its class file and what
+ * the first analysis pass learned about it (return value nullness,
+ * unconditionally dereferenced parameters and field summaries), so a class is
+ * analyzed again when the class or anything it relies on changed.
+ * <p>
+ * Only the bugs reported by {@link StatelessDetector}s are stored, since they
+ * depend on nothing but the class being visited and the interprocedural
+ * databases. Other detectors are applied to every class.
+ * <p>
+ * The store is used by the analysis thread only.
+ *
+ * @see FindBugs2#setResultStore(File)
+ */
+public class ClassResultStore {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte[] MISSING_CLASS = UTF8.getBytes("missing");
+
+    private final File directory;
+
+    private final byte[] configurationDigest;
+
+    /**
+     * Summary digests of the classes examined so far
+     */
+    private final Map<ClassDescriptor, byte[]> summaryDigests = new HashMap<ClassDescriptor, byte[]>();
+
+    /**
+     * Results found in the store, keyed by class
+     */
+    private final Map<ClassDescriptor, Map<String, byte[]>> storedResults = new HashMap<ClassDescriptor, Map<String, byte[]>>();
+
+    /**
+     * Results of the classes being analyzed, to be saved at the end of the
+     * analysis
+     */
+    private final Map<ClassDescriptor, Map<String, byte[]>> newResults = new LinkedHashMap<ClassDescriptor, Map<String, byte[]>>();
+
+    private final Map<ClassDescriptor, String> keys = new HashMap<ClassDescriptor, String>();
+
+    private final Profiler profiler;
+
+    /**
+     * Constructor.
+     *
+     * @param directory
+     *            directory holding the stored results
+     * @param executionPlan
+     *            the execution plan of the analysis
+     * @param profiler
+     *            the profiler counting store hits and misses
+     */
+    public ClassResultStore(File directory, ExecutionPlan executionPlan, Profiler profiler) {
+        this.directory = directory;
+        this.profiler = profiler;
+        this.configurationDigest = computeConfigurationDigest(executionPlan);
+    }
+
+    /**
+     * Return whether the bugs reported by detectors created by the given
+     * factory are stored.
+     *
+     * @param factory
+     *            a DetectorFactory
+     * @return true if the bugs are stored
+     */
+    public static boolean isStored(DetectorFactory factory) {
+        return factory.isDetectorClassSubtypeOf(StatelessDetector.class);
+    }
+
+    /**
+     * Look up the stored results of a class. If there are none, the class is
+     * analyzed and its results are saved by {@link #save()}.
+     *
+     * @param classDescriptor
+     *            an application class
+     * @return true if the results of the class are stored, and the detectors
+     *         whose bugs are stored need not be applied to the class
+     */
+    public boolean lookup(ClassDescriptor classDescriptor) {
+        if (storedResults.containsKey(classDescriptor)) {
+            return true;
+        }
+        if (keys.containsKey(classDescriptor)) {
+            // analyzed and not stored yet, or cannot be stored
+            return false;
+        }
+        String key = getKey(classDescriptor);
+        Map<String, byte[]> stored = key != null ? read(getFile(key)) : null;
+        if (stored != null) {
+            profiler.cacheHit(ClassResultStore.class);
+            storedResults.put(classDescriptor, stored);
+            return true;
+        }
+        profiler.cacheMiss(ClassResultStore.class);
+        if (key != null) {
+            newResults.put(classDescriptor, new HashMap<String, byte[]>());
+        }
+        return false;
+    }
+
+    /**
+     * Report the stored bugs found by a detector in a class.
+     *
+     * @param classDescriptor
+     *            a class whose results are stored
+     * @param factory
+     *            factory of the detector
+     * @param bugReporter
+     *            the BugReporter to report the bugs to
+     */
+    public void report(ClassDescriptor classDescriptor, DetectorFactory factory, BugReporter bugReporter) {
+        Map<String, byte[]> stored = storedResults.get(classDescriptor);
+        byte[] data = stored != null ? stored.get(factory.getFullName()) : null;
+        if (data == null) {
+            return;
+        }
+        List<BugInstance> bugs;
+        try {
+            bugs = deserializeBugs(data);
+        } catch (IOException e) {
+            AnalysisContext.logError("Could not read stored bugs of " + classDescriptor, e);
+            return;
+        }
+        for (BugInstance bug : bugs) {
+            bug.setDetectorFactory(factory);
+            bugReporter.reportBug(bug);
+        }
+    }
+
+    /**
+     * Record the bugs found by a detector in a class being analyzed.
+     *
+     * @param classDescriptor
+     *            a class whose results are not stored
+     * @param factory
+     *            factory of the detector
+     * @param bugs
+     *            the bugs reported by the detector, or null if it reported
+     *            none
+     */
+    public void record(ClassDescriptor classDescriptor, DetectorFactory factory, @CheckForNull List<BugInstance> bugs) {
+        Map<String, byte[]> results = newResults.get(classDescriptor);
+        if (results == null || bugs == null || bugs.isEmpty()) {
+            return;
+        }
+        try {
+            // Serialize right away: the reported bugs may still be changed
+            // by the bug reporters
+            results.put(factory.getFullName(), serializeBugs(bugs));
+        } catch (IOException e) {
+            AnalysisContext.logError("Could not store bugs of " + classDescriptor, e);
+            newResults.remove(classDescriptor);
+        }
+    }
+
+    /**
+     * Save the results of the classes analyzed.
+     */
+    public void save() {
+        for (Map.Entry<ClassDescriptor, Map<String, byte[]>> e : newResults.entrySet()) {
+            File file = getFile(keys.get(e.getKey()));
+            try {
+                write(file, e.getValue());
+            } catch (IOException ex) {
+                AnalysisContext.logError("Could not write " + file, ex);
+            }
+        }
+        newResults.clear();
+    }
+
+    private File getFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key.substring(2));
+    }
+
+    private static @CheckForNull Map<String, byte[]> read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))));
+            try {
+                if (in.readInt() != FORMAT_VERSION) {
+                    return null;
+                }
+                Map<String, byte[]> results = new HashMap<String, byte[]>();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String detector = in.readUTF();
+                    byte[] data = new byte[in.readInt()];
+                    in.readFully(data);
+                    results.put(detector, data);
+                }
+                return results;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            AnalysisContext.logError("Could not read " + file, e);
+            return null;
+        }
+    }
+
+    private static void write(File file, Map<String, byte[]> results) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        // Write to a temporary file first, so that concurrent analyses
+        // never see an incomplete file
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp))));
+            try {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(results.size());
+                for (Map.Entry<String, byte[]> e : results.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeInt(e.getValue().length);
+                    out.write(e.getValue());
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file) && !file.isFile()) {
+                throw new IOException("Could not rename " + tmp + " to " + file);
+            }
+        } finally {
+            if (tmp.exists() && !tmp.delete()) {
+                tmp.deleteOnExit();
+            }
+        }
+    }
+
+    private static byte[] serializeBugs(List<BugInstance> bugs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new ArrayList<BugInstance>(bugs));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<BugInstance> deserializeBugs(byte[] data) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+        try {
+            return (List<BugInstance>) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Stored bugs refer to unknown class " + e.getMessage(), e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] computeConfigurationDigest(ExecutionPlan executionPlan) {
+        MessageDigest digest = Util.getMD5Digest();
+        update(digest, "FindBugs " + Version.RELEASE + " " + FORMAT_VERSION);
+        for (Iterator<AnalysisPass> i = executionPlan.passIterator(); i.hasNext();) {
+            AnalysisPass pass = i.next();
+            for (Iterator<DetectorFactory> j = pass.iterator(); j.hasNext();) {
+                DetectorFactory factory = j.next();
+                Plugin plugin = factory.getPlugin();
+                update(digest, factory.getFullName() + " " + plugin.getPluginId() + " " + plugin.getVersion());
+            }
+            update(digest, "pass");
+        }
+        AnalysisContext analysisContext = AnalysisContext.currentAnalysisContext();
+        StringBuilder features = new StringBuilder();
+        for (int i = 0; i < AnalysisFeatures.NUM_BOOLEAN_ANALYSIS_PROPERTIES; i++) {
+            features.append(analysisContext.getBoolProperty(i) ? '1' : '0');
+        }
+        update(digest, features.toString());
+        return digest.digest();
+    }
+
+    /**
+     * @return the key of the results of a class, or null if the class cannot
+     *         be summarized
+     */
+    private @CheckForNull String getKey(ClassDescriptor classDescriptor) {
+        XClass xclass = getXClass(classDescriptor);
+        if (xclass == null) {
+            keys.put(classDescriptor, null);
+            return null;
+        }
+        Set<ClassDescriptor> subtypes;
+        Set<ClassDescriptor> directSubtypes;
+        try {
+            Subtypes2 subtypes2 = AnalysisContext.currentAnalysisContext().getSubtypes2();
+            subtypes = new TreeSet<ClassDescriptor>(subtypes2.getSubtypes(classDescriptor));
+            directSubtypes = subtypes2.getDirectSubtypes(classDescriptor);
+        } catch (ClassNotFoundException e) {
+            keys.put(classDescriptor, null);
+            return null;
+        }
+        MessageDigest digest = Util.getMD5Digest();
+        digest.update(configurationDigest);
+        digest.update(getSummaryDigest(classDescriptor));
+        for (ClassDescriptor dependency : getDependencies(xclass, directSubtypes)) {
+            update(digest, dependency.getClassName());
+            digest.update(getSummaryDigest(dependency));
+        }
+        update(digest, "subtypes");
+        for (ClassDescriptor subtype : subtypes) {
+            update(digest, subtype.getClassName());
+        }
+        String key = ClassHash.hashToString(digest.digest());
+        keys.put(classDescriptor, key);
+        return key;
+    }
+
+    private static Set<ClassDescriptor> getDependencies(XClass xclass, Set<ClassDescriptor> directSubtypes) {
+        TreeSet<ClassDescriptor> dependencies = new TreeSet<ClassDescriptor>(xclass.getReferencedClassDescriptors());
+        addSupertypes(xclass, dependencies);
+        dependencies.addAll(directSubtypes);
+        String className = xclass.getClassDescriptor().getClassName();
+        dependencies.add(DescriptorFactory.createClassDescriptor(className.substring(0, className.lastIndexOf('/') + 1)
+                + "package-info"));
+        dependencies.remove(xclass.getClassDescriptor());
+        return dependencies;
+    }
+
+    private static void addSupertypes(XClass xclass, Set<ClassDescriptor> supertypes) {
+        ClassDescriptor superclass = xclass.getSuperclassDescriptor();
+        if (superclass != null && supertypes.add(superclass)) {
+            XClass superXClass = getXClass(superclass);
+            if (superXClass != null) {
+                addSupertypes(superXClass, supertypes);
+            }
+        }
+        for (ClassDescriptor iface : xclass.getInterfaceDescriptorList()) {
+            if (supertypes.add(iface)) {
+                XClass ifaceXClass = getXClass(iface);
+                if (ifaceXClass != null) {
+                    addSupertypes(ifaceXClass, supertypes);
+                }
+            }
+        }
+    }
+
+    private byte[] getSummaryDigest(ClassDescriptor classDescriptor) {
+        byte[] result = summaryDigests.get(classDescriptor);
+        if (result == null) {
+            result = computeSummaryDigest(classDescriptor);
+            summaryDigests.put(classDescriptor, result);
+        }
+        return result;
+    }
+
+    private static byte[] computeSummaryDigest(ClassDescriptor classDescriptor) {
+        IAnalysisCache analysisCache = Global.getAnalysisCache();
+        XClass xclass = getXClass(classDescriptor);
+        if (xclass == null) {
+            return MISSING_CLASS;
+        }
+        ClassData classData;
+        try {
+            classData = analysisCache.getClassAnalysis(ClassData.class, classDescriptor);
+        } catch (CheckedAnalysisException e) {
+            return MISSING_CLASS;
+        }
+        AnalysisContext analysisContext = AnalysisContext.currentAnalysisContext();
+        MessageDigest digest = Util.getMD5Digest();
+        digest.update(classData.getData());
+        update(digest, analysisContext.isApplicationClass(classDescriptor) ? "application" : "library");
+
+        ReturnValueNullnessPropertyDatabase returnValueDatabase = analysisContext.getReturnValueNullnessPropertyDatabase();
+        ParameterNullnessPropertyDatabase derefParamDatabase = analysisContext.getUnconditionalDerefParamDatabase();
+        for (XMethod xmethod : xclass.getXMethods()) {
+            Boolean returnValue = returnValueDatabase.getProperty(xmethod.getMethodDescriptor());
+            ParameterProperty derefParams = derefParamDatabase.getProperty(xmethod.getMethodDescriptor());
+            if (returnValue != null || derefParams != null) {
+                update(digest, xmethod.getName() + xmethod.getSignature() + " " + returnValue + " " + derefParams);
+            }
+        }
+        FieldSummary fieldSummary = analysisContext.getFieldSummary();
+        for (XField xfield : xclass.getXFields()) {
+            update(digest, xfield.getName() + " " + fieldSummary.getSummary(xfield));
+        }
+        return digest.digest();
+    }
+
+    private static @CheckForNull XClass getXClass(ClassDescriptor classDescriptor) {
+        try {
+            return Global.getAnalysisCache().getClassAnalysis(XClass.class, classDescriptor);
+        } catch (CheckedAnalysisException e) {
+            return null;
+        }
+    }
+
+    private static void update(MessageDigest digest, String s) {
+        digest.update(UTF8.getBytes(s));
+        digest.update((byte) 0);
+    }
+}
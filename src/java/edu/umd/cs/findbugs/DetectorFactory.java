@@ -206,6 +206,13 @@ public class DetectorFactory {
         return plugin;
     }
 
+    /**
+     * @return the class of the detectors created by this factory
+     */
+    Class<?> getDetectorClass() {
+        return detectorCreator.getDetectorClass();
+    }
+
     /**
      * Determine whether the detector class is a subtype of the given class (or
      * interface).
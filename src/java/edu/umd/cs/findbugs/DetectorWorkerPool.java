@@ -0,0 +1,368 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.CheckForNull;
+
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+
+import edu.umd.cs.findbugs.ba.AnalysisContext;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.ba.type.TypeDataflow;
+import edu.umd.cs.findbugs.ba.vna.ValueNumberDataflow;
+import edu.umd.cs.findbugs.bcel.BCELUtil;
+import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.Global;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+import edu.umd.cs.findbugs.classfile.MethodDescriptor;
+import edu.umd.cs.findbugs.classfile.impl.ConcurrentAnalysisCache;
+import edu.umd.cs.findbugs.log.Profiler;
+import edu.umd.cs.findbugs.plan.AnalysisPass;
+
+/**
+ * Pool of worker threads used by a multi-threaded analysis. Detectors which do
+ * not keep state from one class to the next (i.e., implement
+ * {@link StatelessDetector}) are applied to classes on the workers, while the
+ * remaining detectors of the pass run on the analysis thread.
+ * <p>
+ * Every worker thread creates its own instances of the stateless detectors, so
+ * detectors are always confined to one thread. The bugs and errors reported
+ * while visiting a class, including the errors logged through the analysis
+ * cache, are recorded and handed back to the analysis thread, which reports
+ * them in the same order as a single-threaded analysis.
+ * <p>
+ * Much of the time of the detectors left on the analysis thread is spent
+ * computing the dataflow analyses of the methods. So the workers also compute
+ * some of the analyses requested for nearly every method ahead of the analysis
+ * thread, which then finds them in the analysis cache.
+ * <p>
+ * The worker threads are created by the analysis thread and therefore inherit
+ * its AnalysisContext and analysis cache.
+ *
+ * @see FindBugs2#setThreads(int)
+ */
+public class DetectorWorkerPool {
+
+    /**
+     * Method analyses computed by the workers for the detectors on the
+     * analysis thread. They depend only on the classes and on databases
+     * completed by earlier passes. The null value analyses are not among
+     * them: they depend on the return value and parameter databases built
+     * by detectors earlier in the same pass, as the analysis thread reaches
+     * each class.
+     */
+    private static final Class<?>[] PREFETCHED_ANALYSES = { ValueNumberDataflow.class, TypeDataflow.class,
+        OpcodeStack.StateTrace.class };
+
+    private final ExecutorService executor;
+
+    private final int numThreads;
+
+    /**
+     * Constructor.
+     *
+     * @param numThreads
+     *            number of worker threads
+     */
+    public DetectorWorkerPool(int numThreads) {
+        this.numThreads = numThreads;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FindBugs analysis worker " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return number of worker threads
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Return whether detectors created by the given factory may be applied to
+     * classes on a worker thread.
+     *
+     * @param factory
+     *            a DetectorFactory
+     * @return true if the detectors may run on a worker thread
+     */
+    public static boolean canRunOnWorker(DetectorFactory factory) {
+        return factory.isDetectorClassSubtypeOf(StatelessDetector.class);
+    }
+
+    /**
+     * Prepare the workers for an analysis pass.
+     *
+     * @param pass
+     *            the analysis pass
+     * @param bugReporter
+     *            the bug reporter bugs are finally reported to
+     * @return the work of the pass
+     */
+    public PassWork startPass(AnalysisPass pass, BugReporter bugReporter) {
+        return new PassWork(pass, bugReporter);
+    }
+
+    /**
+     * Stop all worker threads.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The part of an analysis pass executed by the worker threads.
+     */
+    public class PassWork {
+        private final DetectorFactory[] factories;
+
+        private final boolean[] runOnWorker;
+
+        private final BugReporter bugReporter;
+
+        private final List<Detector2[]> workerDetectors = Collections.synchronizedList(new ArrayList<Detector2[]>());
+
+        private final ThreadLocal<Worker> worker = new ThreadLocal<Worker>() {
+            @Override
+            protected Worker initialValue() {
+                Worker result = new Worker();
+                workerDetectors.add(result.detectors);
+                return result;
+            }
+        };
+
+        private boolean hasWorkerDetectors;
+
+        private boolean hasAnalysisThreadDetectors;
+
+        private boolean appliesToUnaffectedClasses;
+
+        PassWork(AnalysisPass pass, BugReporter bugReporter) {
+            this.bugReporter = bugReporter;
+            List<DetectorFactory> factoryList = new ArrayList<DetectorFactory>();
+            for (Iterator<DetectorFactory> i = pass.iterator(); i.hasNext();) {
+                factoryList.add(i.next());
+            }
+            factories = factoryList.toArray(new DetectorFactory[factoryList.size()]);
+            runOnWorker = new boolean[factories.length];
+            for (int i = 0; i < factories.length; i++) {
+                runOnWorker[i] = canRunOnWorker(factories[i]);
+                hasWorkerDetectors |= runOnWorker[i];
+                hasAnalysisThreadDetectors |= !runOnWorker[i];
+                appliesToUnaffectedClasses |= runOnWorker[i] && !IncrementalAnalysis.appliesToAffectedClassesOnly(factories[i]);
+            }
+        }
+
+        /**
+         * @param detectorIndex
+         *            index of a detector in the pass
+         * @return true if the detector is applied by the worker threads
+         *         rather than by the analysis thread
+         */
+        public boolean runsOnWorker(int detectorIndex) {
+            return runOnWorker[detectorIndex];
+        }
+
+        /**
+         * @return true if any detector of the pass is applied by the worker
+         *         threads
+         */
+        public boolean hasWorkerDetectors() {
+            return hasWorkerDetectors;
+        }
+
+        /**
+         * @return true if any detector applied by the worker threads has to
+         *         see the classes not affected by the change analyzed
+         *         incrementally
+         * @see IncrementalAnalysis#appliesToAffectedClassesOnly(DetectorFactory)
+         */
+        public boolean appliesToUnaffectedClasses() {
+            return appliesToUnaffectedClasses;
+        }
+
+        /**
+         * Schedule applying the worker detectors to a class.
+         *
+         * @param classDescriptor
+         *            the class to analyze
+         * @param isHuge
+         *            true if the class is too big to be analyzed by detectors
+         *            other than first pass detectors
+         * @param prefetch
+         *            true if the detectors on the analysis thread will analyze
+         *            the methods of the class
+         * @return the bugs and errors reported, see
+         *         {@link RecordingBugReporter#finishClass()}
+         */
+        public Future<RecordingBugReporter.Recording> submit(final ClassDescriptor classDescriptor, final boolean isHuge,
+                final boolean prefetch) {
+            return executor.submit(new Callable<RecordingBugReporter.Recording>() {
+                @Override
+                public RecordingBugReporter.Recording call() {
+                    return worker.get().analyze(classDescriptor, isHuge, prefetch && hasAnalysisThreadDetectors);
+                }
+            });
+        }
+
+        /**
+         * Wait for the worker detectors to finish a class, and report the
+         * errors they logged.
+         *
+         * @param result
+         *            the value returned by {@link #submit}, or null if the
+         *            class was not submitted
+         * @return the bugs reported for each detector of the pass
+         * @throws InterruptedException
+         *             if the analysis thread is interrupted
+         */
+        public @CheckForNull List<List<BugInstance>> getResult(@CheckForNull Future<RecordingBugReporter.Recording> result)
+                throws InterruptedException {
+            if (result == null) {
+                return null;
+            }
+            try {
+                RecordingBugReporter.Recording recording = result.get();
+                recording.reportErrors(bugReporter);
+                return recording.getBugs();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException("Unexpected exception in analysis worker", cause);
+            }
+        }
+
+        /**
+         * Call finishPass() on the instances the worker threads created of
+         * the given detector.
+         *
+         * @param detectorIndex
+         *            index of a detector in the pass
+         */
+        public void finishPass(int detectorIndex) {
+            synchronized (workerDetectors) {
+                for (Detector2[] detectors : workerDetectors) {
+                    detectors[detectorIndex].finishPass();
+                }
+            }
+        }
+
+        /**
+         * State of one worker thread.
+         */
+        private class Worker {
+            final RecordingBugReporter recorder = new RecordingBugReporter(bugReporter);
+
+            final Detector2[] detectors = new Detector2[factories.length];
+
+            Worker() {
+                for (int i = 0; i < factories.length; i++) {
+                    if (runOnWorker[i]) {
+                        detectors[i] = factories[i].createDetector2(recorder);
+                    }
+                }
+            }
+
+            RecordingBugReporter.Recording analyze(ClassDescriptor classDescriptor, boolean isHuge, boolean prefetch) {
+                AnalysisContext analysisContext = AnalysisContext.currentAnalysisContext();
+                IAnalysisCache analysisCache = Global.getAnalysisCache();
+                Profiler profiler = bugReporter.getProjectStats().getProfiler();
+                analysisContext.setClassBeingAnalyzed(classDescriptor);
+                recorder.startClass(detectors.length);
+                if (analysisCache instanceof ConcurrentAnalysisCache) {
+                    ((ConcurrentAnalysisCache) analysisCache).setThreadErrorLogger(recorder);
+                }
+                try {
+                    for (int i = 0; i < detectors.length; i++) {
+                        Detector2 detector = detectors[i];
+                        if (detector == null) {
+                            continue;
+                        }
+                        if (isHuge && !FirstPassDetector.class.isAssignableFrom(detector.getClass())) {
+                            continue;
+                        }
+                        recorder.setDetectorIndex(i);
+                        FindBugs2.applyDetector(detector, classDescriptor, recorder, profiler);
+                    }
+                    if (prefetch) {
+                        prefetchMethodAnalyses(analysisCache, classDescriptor);
+                    }
+                } finally {
+                    if (analysisCache instanceof ConcurrentAnalysisCache) {
+                        ((ConcurrentAnalysisCache) analysisCache).setThreadErrorLogger(null);
+                    }
+                    analysisContext.clearClassBeingAnalyzed();
+                }
+                return recorder.finishClass();
+            }
+
+            private void prefetchMethodAnalyses(IAnalysisCache analysisCache, ClassDescriptor classDescriptor) {
+                JavaClass javaClass;
+                try {
+                    javaClass = analysisCache.getClassAnalysis(ClassContext.class, classDescriptor).getJavaClass();
+                } catch (CheckedAnalysisException e) {
+                    // Logged by the detectors requesting the class
+                    return;
+                }
+                for (Method method : javaClass.getMethods()) {
+                    if (method.getCode() == null) {
+                        continue;
+                    }
+                    MethodDescriptor methodDescriptor = BCELUtil.getMethodDescriptor(javaClass, method);
+                    for (Class<?> analysisClass : PREFETCHED_ANALYSES) {
+                        try {
+                            analysisCache.getMethodAnalysis(analysisClass, methodDescriptor);
+                        } catch (CheckedAnalysisException e) {
+                            // The failure is cached, and thrown again to the
+                            // detector requesting the analysis
+                        } catch (RuntimeException e) {
+                            // Likewise
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -21,9 +21,17 @@ package edu.umd.cs.findbugs;
 import java.util.HashSet;
 import java.util.Set;
 
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.MethodDescriptor;
+
 /**
  * A delegating bug reporter which counts reported bug instances, missing
  * classes, and serious analysis errors.
+ * <p>
+ * Analysis errors and missing classes may be reported concurrently by the
+ * worker threads of a multi-threaded analysis, so they are passed on to the
+ * real bug reporter one at a time. Bug instances are always reported from the
+ * main analysis thread.
  */
 public class ErrorCountingBugReporter extends DelegatingBugReporter {
     private int bugCount;
@@ -51,23 +59,38 @@ public class ErrorCountingBugReporter extends DelegatingBugReporter {
         return bugCount;
     }
 
-    public int getMissingClassCount() {
+    public synchronized int getMissingClassCount() {
         return missingClassSet.size();
     }
 
-    public int getErrorCount() {
+    public synchronized int getErrorCount() {
         return errors.size();
     }
 
     @Override
-    public void logError(String message) {
+    public synchronized void logError(String message) {
         if (errors.add(message)) {
             super.logError(message);
         }
     }
 
     @Override
-    public void reportMissingClass(ClassNotFoundException ex) {
+    public synchronized void logError(String message, Throwable e) {
+        super.logError(message, e);
+    }
+
+    @Override
+    public synchronized void reportMissingClass(ClassDescriptor classDescriptor) {
+        super.reportMissingClass(classDescriptor);
+    }
+
+    @Override
+    public synchronized void reportSkippedAnalysis(MethodDescriptor method) {
+        super.reportSkippedAnalysis(method);
+    }
+
+    @Override
+    public synchronized void reportMissingClass(ClassNotFoundException ex) {
         String missing = AbstractBugReporter.getMissingClassName(ex);
         if (missing == null || missing.startsWith("[") || "java.lang.Synthetic".equals(missing)) {
             return;
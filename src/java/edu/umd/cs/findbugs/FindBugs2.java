@@ -19,6 +19,7 @@
 
 package edu.umd.cs.findbugs;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -32,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
@@ -40,6 +42,7 @@ import org.apache.bcel.classfile.ClassFormatException;
 import org.dom4j.DocumentException;
 
 import edu.umd.cs.findbugs.asm.FBClassReader;
+import edu.umd.cs.findbugs.ba.AnalysisBudget;
 import edu.umd.cs.findbugs.ba.AnalysisContext;
 import edu.umd.cs.findbugs.ba.AnalysisFeatures;
 import edu.umd.cs.findbugs.ba.ObjectTypeFactory;
@@ -62,13 +65,16 @@ import edu.umd.cs.findbugs.classfile.IClassPath;
 import edu.umd.cs.findbugs.classfile.IClassPathBuilder;
 import edu.umd.cs.findbugs.classfile.ICodeBase;
 import edu.umd.cs.findbugs.classfile.ICodeBaseEntry;
+import edu.umd.cs.findbugs.classfile.IConcurrentClassFactory;
 import edu.umd.cs.findbugs.classfile.MissingClassException;
 import edu.umd.cs.findbugs.classfile.impl.ClassFactory;
 import edu.umd.cs.findbugs.config.AnalysisFeatureSetting;
 import edu.umd.cs.findbugs.config.UserPreferences;
 import edu.umd.cs.findbugs.detect.NoteSuppressedWarnings;
 import edu.umd.cs.findbugs.filter.FilterException;
+import edu.umd.cs.findbugs.io.AsyncWriter;
 import edu.umd.cs.findbugs.log.Profiler;
+import edu.umd.cs.findbugs.log.ProfilerMonitor;
 import edu.umd.cs.findbugs.log.YourKitController;
 import edu.umd.cs.findbugs.plan.AnalysisPass;
 import edu.umd.cs.findbugs.plan.ExecutionPlan;
@@ -112,6 +118,8 @@ public class FindBugs2 implements IFindBugsEngine {
 
     private List<ClassDescriptor> appClassList;
 
+    private IncrementalAnalysis incrementalAnalysis;
+
     private Collection<ClassDescriptor> referencedClassSet;
 
     private DetectorFactoryCollection detectorFactoryCollection;
@@ -195,7 +203,9 @@ public class FindBugs2 implements IFindBugsEngine {
         }
 
         Profiler profiler = bugReporter.getProjectStats().getProfiler();
+        ProfilerMonitor.instance().startMonitoring(profiler);
 
+        AsyncWriter bugOutput = null;
         try {
             try {
                 // Get the class factory for creating classpath/codebase/etc.
@@ -279,6 +289,18 @@ public class FindBugs2 implements IFindBugsEngine {
                     }
                 }
 
+                // With multiple threads, the bugs printed as they are
+                // reported are written on a thread of their own
+                if (analysisOptions.threads > 1) {
+                    BugReporter realBugReporter = errorCountingBugReporter.getDelegate();
+                    while (realBugReporter instanceof DelegatingBugReporter) {
+                        realBugReporter = ((DelegatingBugReporter) realBugReporter).getDelegate();
+                    }
+                    if (realBugReporter instanceof PrintingBugReporter || realBugReporter instanceof EmacsBugReporter) {
+                        bugOutput = ((TextUIBugReporter) realBugReporter).writeAsynchronously();
+                    }
+                }
+
                 // Analyze the application
                 analyzeApplication();
             } catch (CheckedAnalysisException e) {
@@ -298,9 +320,13 @@ public class FindBugs2 implements IFindBugsEngine {
                 }
                 throw e;
             } finally {
+                if (bugOutput != null) {
+                    bugOutput.drain();
+                }
                 clearCaches();
                 profiler.end(this.getClass());
                 profiler.report();
+                ProfilerMonitor.instance().stopMonitoring(profiler);
             }
         } catch (IOException e) {
             bugReporter.reportQueuedErrors();
@@ -575,6 +601,29 @@ public class FindBugs2 implements IFindBugsEngine {
         this.analysisOptions.noClassOk = noClassOk;
     }
 
+    @Override
+    public void setThreads(int threads) {
+        this.analysisOptions.threads = threads;
+    }
+
+    @Override
+    public void setCacheBudget(long cacheBudget) {
+        this.analysisOptions.cacheBudget = cacheBudget;
+    }
+
+    @Override
+    public void setResultStore(@CheckForNull File resultStore) {
+        this.analysisOptions.resultStore = resultStore;
+    }
+
+    @Override
+    public void setIncrementalAnalysis(String previousResults, Collection<String> changedFiles) throws IOException,
+    DocumentException {
+        SortedBugCollection bugs = new SortedBugCollection();
+        bugs.readXML(previousResults);
+        incrementalAnalysis = new IncrementalAnalysis(bugs, changedFiles);
+    }
+
     /**
      * Create the analysis cache object and register it for current execution thread.
      * <p>
@@ -585,7 +634,8 @@ public class FindBugs2 implements IFindBugsEngine {
      *             if error occurs registering analysis engines in a plugin
      */
     protected IAnalysisCache createAnalysisCache() throws IOException {
-        IAnalysisCache analysisCache = ClassFactory.instance().createAnalysisCache(classPath, bugReporter);
+        IAnalysisCache analysisCache = ((IConcurrentClassFactory) ClassFactory.instance()).createAnalysisCache(classPath,
+                bugReporter, analysisOptions.threads, analysisOptions.cacheBudget);
 
         // Register the "built-in" analysis engines
         registerBuiltInAnalysisEngines(analysisCache);
@@ -673,6 +723,7 @@ public class FindBugs2 implements IFindBugsEngine {
         }
 
         builder.scanNestedArchives(analysisOptions.scanNestedArchives);
+        builder.setThreads(analysisOptions.threads);
 
         builder.build(classPath, progress);
 
@@ -950,7 +1001,19 @@ public class FindBugs2 implements IFindBugsEngine {
         Profiler profiler = bugReporter.getProjectStats().getProfiler();
         profiler.start(this.getClass());
         AnalysisContext.currentXFactory().canonicalizeAll();
+        AnalysisBudget analysisBudget = AnalysisBudget.current();
+        DetectorWorkerPool workerPool = null;
         try {
+            if (analysisOptions.threads > 1) {
+                workerPool = new DetectorWorkerPool(analysisOptions.threads);
+            }
+            if (incrementalAnalysis != null) {
+                incrementalAnalysis.computeAffectedClasses(appClassList);
+            }
+            ClassResultStore resultStore = null;
+            if (analysisOptions.resultStore != null) {
+                resultStore = new ClassResultStore(analysisOptions.resultStore, executionPlan, profiler);
+            }
             boolean multiplePasses = executionPlan.getNumPasses() > 1;
             if (executionPlan.getNumPasses() == 0) {
                 throw new AssertionError("no analysis passes");
@@ -989,8 +1052,53 @@ public class FindBugs2 implements IFindBugsEngine {
                 // gathers information about referenced classes.
                 boolean isNonReportingFirstPass = multiplePasses && passCount == 0;
 
+                // With multiple threads, detectors which do not keep state
+                // from one class to the next are applied on the worker
+                // threads. The first pass is always run on this thread,
+                // since its detectors build the interprocedural databases.
+                // In an incremental analysis, most reporting detectors are only
+                // applied to the classes affected by the change
+                IncrementalAnalysis passIncrementalAnalysis = isNonReportingFirstPass ? null : incrementalAnalysis;
+                BugReporter passBugReporter = passIncrementalAnalysis != null ? passIncrementalAnalysis
+                        .filterBugReporter(bugReporter) : bugReporter;
+
+                DetectorWorkerPool.PassWork passWork = null;
+                RecordingBugReporter recordingBugReporter = null;
+                if (workerPool != null && !isNonReportingFirstPass) {
+                    passWork = workerPool.startPass(pass, passBugReporter);
+                    if (!passWork.hasWorkerDetectors()) {
+                        passWork = null;
+                    }
+                }
+
+                // The bugs reported in classes whose results are stored are
+                // replayed from the result store instead
+                ClassResultStore passResultStore = isNonReportingFirstPass ? null : resultStore;
+                List<DetectorFactory> factoryList = new ArrayList<DetectorFactory>();
+                for (Iterator<DetectorFactory> i = pass.iterator(); i.hasNext();) {
+                    factoryList.add(i.next());
+                }
+                DetectorFactory[] factories = factoryList.toArray(new DetectorFactory[factoryList.size()]);
+                boolean[] isStored = new boolean[factories.length];
+                if (passResultStore != null) {
+                    for (int i = 0; i < factories.length; i++) {
+                        isStored[i] = ClassResultStore.isStored(factories[i]);
+                    }
+                }
+
+                boolean[] isAffectedOnly = new boolean[factories.length];
+                if (passIncrementalAnalysis != null) {
+                    for (int i = 0; i < factories.length; i++) {
+                        isAffectedOnly[i] = IncrementalAnalysis.appliesToAffectedClassesOnly(factories[i]);
+                    }
+                }
+                if (passWork != null || passResultStore != null) {
+                    recordingBugReporter = new RecordingBugReporter(passBugReporter);
+                }
+
                 // Instantiate the detectors
-                Detector2[] detectorList = pass.instantiateDetector2sInPass(bugReporter);
+                Detector2[] detectorList = pass.instantiateDetector2sInPass(recordingBugReporter != null ? recordingBugReporter
+                        : passBugReporter);
 
                 // If there are multiple passes, then on the first pass,
                 // we apply detectors to all classes referenced by the
@@ -1036,7 +1144,20 @@ public class FindBugs2 implements IFindBugsEngine {
                 int count = 0;
                 Global.getAnalysisCache().purgeAllMethodAnalysis();
                 Global.getAnalysisCache().purgeClassAnalysis(FBClassReader.class);
-                for (ClassDescriptor classDescriptor : classCollection) {
+
+                // Keep the workers a bounded number of classes ahead of this
+                // thread, so that the classes being analyzed stay cached
+                List<ClassDescriptor> classList = new ArrayList<ClassDescriptor>(classCollection);
+                List<Future<RecordingBugReporter.Recording>> workerResults = new ArrayList<Future<RecordingBugReporter.Recording>>(
+                        classList.size());
+                int lookahead = passWork != null ? 2 * workerPool.getNumThreads() : 0;
+                for (ClassDescriptor classDescriptor : classList) {
+                    if (passWork != null) {
+                        while (workerResults.size() < classList.size() && workerResults.size() <= count + lookahead) {
+                            workerResults.add(submitToWorkers(passWork, passResultStore, passIncrementalAnalysis,
+                                    analysisBudget, classList.get(workerResults.size()), isNonReportingFirstPass));
+                        }
+                    }
                     long classStartNanoTime = 0;
                     if (PROGRESS) {
                         classStartNanoTime = System.nanoTime();
@@ -1060,8 +1181,21 @@ public class FindBugs2 implements IFindBugsEngine {
                         }
                         continue;
                     }
+                    if (analysisBudget != null
+                            && analysisBudget.skipClass(currentAnalysisContext.isApplicationClass(classDescriptor))) {
+                        if (passWork != null) {
+                            // The run budget may have been exhausted after
+                            // the class was submitted to the workers
+                            Future<RecordingBugReporter.Recording> workerResult = workerResults.get(count - 1);
+                            if (workerResult != null) {
+                                workerResult.cancel(false);
+                            }
+                        }
+                        continue;
+                    }
                     boolean isHuge = currentAnalysisContext.isTooBig(classDescriptor);
-                    if (isHuge && currentAnalysisContext.isApplicationClass(classDescriptor)) {
+                    boolean isUnaffected = passIncrementalAnalysis != null && !passIncrementalAnalysis.isAffected(classDescriptor);
+                    if (isHuge && currentAnalysisContext.isApplicationClass(classDescriptor) && !isUnaffected) {
                         bugReporter.reportBug(new BugInstance("SKIPPED_CLASS_TOO_BIG", Priorities.NORMAL_PRIORITY)
                         .addClass(classDescriptor));
                     }
@@ -1069,12 +1203,34 @@ public class FindBugs2 implements IFindBugsEngine {
                     notifyClassObservers(classDescriptor);
                     profiler.startContext(currentClassName);
                     currentAnalysisContext.setClassBeingAnalyzed(classDescriptor);
+                    boolean resultsStored = passResultStore != null && !isHuge && !isUnaffected
+                            && passResultStore.lookup(classDescriptor);
 
                     try {
-                        for (Detector2 detector : detectorList) {
+                        List<List<BugInstance>> workerBugs = null;
+                        if (passWork != null) {
+                            // Analysis results (e.g. dataflow facts) are not
+                            // safe for concurrent use: let the workers finish
+                            // with the class before this thread analyzes it
+                            workerBugs = passWork.getResult(workerResults.get(count - 1));
+                        }
+                        if (recordingBugReporter != null) {
+                            recordingBugReporter.startClass(detectorList.length);
+                        }
+                        for (int i = 0; i < detectorList.length; i++) {
+                            Detector2 detector = detectorList[i];
                             if (Thread.interrupted()) {
                                 throw new InterruptedException();
                             }
+                            if (passWork != null && passWork.runsOnWorker(i)) {
+                                continue;
+                            }
+                            if (resultsStored && isStored[i]) {
+                                continue;
+                            }
+                            if (isUnaffected && isAffectedOnly[i]) {
+                                continue;
+                            }
                             if (isHuge && !FirstPassDetector.class.isAssignableFrom(detector.getClass())) {
                                 continue;
                             }
@@ -1084,24 +1240,39 @@ public class FindBugs2 implements IFindBugsEngine {
                                 // NonReportingDetector.class.isAssignableFrom(detector.getClass())
                                 // + ", bar: " + detector.getClass().getName());
                             }
-                            try {
-                                profiler.start(detector.getClass());
-                                detector.visitClass(classDescriptor);
-                            } catch (ClassFormatException e) {
-                                logRecoverableException(classDescriptor, detector, e);
-                            } catch (MissingClassException e) {
-                                Global.getAnalysisCache().getErrorLogger().reportMissingClass(e.getClassDescriptor());
-                            } catch (CheckedAnalysisException e) {
-                                logRecoverableException(classDescriptor, detector, e);
-                            } catch (RuntimeException e) {
-                                logRecoverableException(classDescriptor, detector, e);
-                            } finally {
-                                profiler.end(detector.getClass());
+                            if (recordingBugReporter != null) {
+                                recordingBugReporter.setDetectorIndex(i);
+                            }
+                            applyDetector(detector, classDescriptor, bugReporter, profiler);
+                        }
+                        if (recordingBugReporter != null) {
+                            // Report the bugs found by this thread, by the
+                            // workers and in the result store in detector
+                            // order
+                            RecordingBugReporter.Recording recording = recordingBugReporter.finishClass();
+                            recording.reportErrors(passBugReporter);
+                            List<List<BugInstance>> bugs = recording.getBugs();
+                            for (int i = 0; i < detectorList.length; i++) {
+                                if (isUnaffected && isAffectedOnly[i]) {
+                                    continue;
+                                }
+                                if (resultsStored && isStored[i]) {
+                                    passResultStore.report(classDescriptor, factories[i], bugReporter);
+                                    continue;
+                                }
+                                List<List<BugInstance>> detectorBugs = passWork != null && passWork.runsOnWorker(i) ? workerBugs
+                                        : bugs;
+                                if (passResultStore != null && isStored[i] && !isHuge) {
+                                    passResultStore.record(classDescriptor, factories[i],
+                                            detectorBugs != null ? detectorBugs.get(i) : null);
+                                }
+                                RecordingBugReporter.reportRecordedBugs(detectorBugs, i, passBugReporter);
                             }
                         }
                     } finally {
 
                         progress.finishClass();
+                        profiler.classAnalyzed();
                         profiler.endContext(currentClassName);
                         currentAnalysisContext.clearClassBeingAnalyzed();
                         if (PROGRESS) {
@@ -1123,8 +1294,12 @@ public class FindBugs2 implements IFindBugsEngine {
                     yourkitController.captureMemorySnapshot();
                 }
                 // Call finishPass on each detector
-                for (Detector2 detector : detectorList) {
-                    detector.finishPass();
+                for (int i = 0; i < detectorList.length; i++) {
+                    if (passWork != null && passWork.runsOnWorker(i)) {
+                        passWork.finishPass(i);
+                    } else {
+                        detectorList[i].finishPass();
+                    }
                 }
 
                 progress.finishPerClassAnalysis();
@@ -1132,8 +1307,22 @@ public class FindBugs2 implements IFindBugsEngine {
                 passCount++;
             }
 
+            if (analysisBudget != null && analysisBudget.getSkippedClasses() > 0) {
+                bugReporter.logError("Analysis budget of the run exhausted: skipped " + analysisBudget.getSkippedClasses()
+                        + " classes outside the application");
+            }
+            if (resultStore != null) {
+                resultStore.save();
+            }
+            if (incrementalAnalysis != null) {
+                incrementalAnalysis.reportPreviousBugs(bugReporter);
+            }
+
 
         } finally {
+            if (workerPool != null) {
+                workerPool.shutdown();
+            }
 
             bugReporter.finish();
             bugReporter.reportQueuedErrors();
@@ -1145,6 +1334,69 @@ public class FindBugs2 implements IFindBugsEngine {
 
     }
 
+    /**
+     * Schedule the worker threads to analyze a class, unless the class is
+     * excluded, skipped because the run budget is exhausted, its results are in
+     * the result store, or it is not affected by the change analyzed
+     * incrementally. The skipped classes are only counted by the analysis
+     * thread.
+     *
+     * @return the pending result, or null if the workers have nothing to do
+     *         for the class
+     */
+    private @CheckForNull Future<RecordingBugReporter.Recording> submitToWorkers(DetectorWorkerPool.PassWork passWork,
+            @CheckForNull ClassResultStore resultStore, @CheckForNull IncrementalAnalysis incrementalAnalysis,
+            @CheckForNull AnalysisBudget analysisBudget, ClassDescriptor classDescriptor, boolean isNonReportingFirstPass) {
+        if ((SCREEN_FIRST_PASS_CLASSES || !isNonReportingFirstPass)
+                && !classScreener.matches(classDescriptor.toResourceName())) {
+            return null;
+        }
+        AnalysisContext analysisContext = AnalysisContext.currentAnalysisContext();
+        if (analysisBudget != null && analysisBudget.isRunExhausted() && !analysisContext.isApplicationClass(classDescriptor)) {
+            return null;
+        }
+        boolean isUnaffected = incrementalAnalysis != null && !incrementalAnalysis.isAffected(classDescriptor);
+        if (isUnaffected && !passWork.appliesToUnaffectedClasses()) {
+            return null;
+        }
+        boolean isHuge = analysisContext.isTooBig(classDescriptor);
+        if (resultStore != null && !isHuge && !isUnaffected && resultStore.lookup(classDescriptor)) {
+            // the workers only apply detectors whose results are stored
+            return null;
+        }
+        return passWork.submit(classDescriptor, isHuge, !isHuge && !isUnaffected);
+    }
+
+    /**
+     * Apply a detector to a class. Recoverable exceptions thrown by the
+     * detector are logged.
+     *
+     * @param detector
+     *            the detector
+     * @param classDescriptor
+     *            the class to analyze
+     * @param bugReporter
+     *            the BugReporter errors are logged to
+     * @param profiler
+     *            the Profiler timing the detector
+     */
+    static void applyDetector(Detector2 detector, ClassDescriptor classDescriptor, BugReporter bugReporter, Profiler profiler) {
+        try {
+            profiler.start(detector.getClass());
+            detector.visitClass(classDescriptor);
+        } catch (ClassFormatException e) {
+            logRecoverableException(bugReporter, classDescriptor, detector, e);
+        } catch (MissingClassException e) {
+            Global.getAnalysisCache().getErrorLogger().reportMissingClass(e.getClassDescriptor());
+        } catch (CheckedAnalysisException e) {
+            logRecoverableException(bugReporter, classDescriptor, detector, e);
+        } catch (RuntimeException e) {
+            logRecoverableException(bugReporter, classDescriptor, detector, e);
+        } finally {
+            profiler.end(detector.getClass());
+        }
+    }
+
     /**
      * Notify all IClassObservers that we are visiting given class.
      *
@@ -1161,6 +1413,8 @@ public class FindBugs2 implements IFindBugsEngine {
      * Report an exception that occurred while analyzing a class with a
      * detector.
      *
+     * @param bugReporter
+     *            the BugReporter to log the exception to
      * @param classDescriptor
      *            class being analyzed
      * @param detector
@@ -1168,7 +1422,8 @@ public class FindBugs2 implements IFindBugsEngine {
      * @param e
      *            the exception
      */
-    private void logRecoverableException(ClassDescriptor classDescriptor, Detector2 detector, Throwable e) {
+    private static void logRecoverableException(BugReporter bugReporter, ClassDescriptor classDescriptor, Detector2 detector,
+            Throwable e) {
         bugReporter.logError(
                 "Exception analyzing " + classDescriptor.toDottedClassName() + " using detector "
                         + detector.getDetectorClassName(), e);
@@ -19,9 +19,13 @@
 
 package edu.umd.cs.findbugs;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Set;
 
+import javax.annotation.CheckForNull;
+
 import org.dom4j.DocumentException;
 
 import edu.umd.cs.findbugs.classfile.IClassObserver;
@@ -274,6 +278,55 @@ public interface IFindBugsEngine {
      */
     public void setNoClassOk(boolean noClassOk);
 
+    /**
+     * Set the number of threads used to apply detectors to classes. With more
+     * than one thread, detectors which do not keep state from one class to the
+     * next are applied on a pool of worker threads. Bugs are still reported
+     * in the same order as in a single-threaded analysis.
+     *
+     * @param threads
+     *            number of analysis threads (1 for single-threaded analysis)
+     */
+    public void setThreads(int threads);
+
+    /**
+     * Bound the analysis cache by the estimated memory used by the cached
+     * results instead of by their number. Results are discarded, least
+     * recently used first, when the cache holds more than the budget.
+     *
+     * @param cacheBudget
+     *            estimated number of bytes the cached analysis results may
+     *            use, or 0 to bound the cache by entry counts
+     */
+    public void setCacheBudget(long cacheBudget);
+
+    /**
+     * Keep the bugs found in each class in a persistent store, and skip
+     * classes whose results are already stored. A class is analyzed again if
+     * the class or a class it depends on changed.
+     *
+     * @param resultStore
+     *            directory of the store, or null to analyze all classes
+     * @see ClassResultStore
+     */
+    public void setResultStore(@CheckForNull File resultStore);
+
+    /**
+     * Analyze incrementally: apply reporting detectors only to the classes
+     * affected by the given changes, and report the warnings of the previous
+     * analysis for the other classes.
+     *
+     * @param previousResults
+     *            the name of the xml file holding the results of the
+     *            previous analysis
+     * @param changedFiles
+     *            the class files, source files or classes which changed
+     *            since the previous analysis
+     * @see IncrementalAnalysis
+     */
+    public void setIncrementalAnalysis(String previousResults, Collection<String> changedFiles) throws IOException,
+    DocumentException;
+
     /**
      * Set the DetectorFactoryCollection from which plugins/detectors may be
      * accessed.
@@ -0,0 +1,401 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import edu.umd.cs.findbugs.ba.AnalysisContext;
+import edu.umd.cs.findbugs.ba.XClass;
+import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.Global;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+import edu.umd.cs.findbugs.util.Util;
+
+/**
+ * Incremental analysis of an application, based on the results of a previous
+ * analysis and on the list of the files which changed since.
+ * <p>
+ * The classes affected by the change are the changed classes and,
+ * transitively, the application classes which depend on them: the classes
+ * calling, referencing or extending an affected class. Since the
+ * interprocedural databases only propagate facts from a class to the classes
+ * depending on it, the warnings of the other classes are the same as in the
+ * previous analysis, except for the warnings describing the subtypes of a
+ * class. So the supertypes of the changed classes are affected too, as are the
+ * classes whose previous warnings mention a changed or removed class.
+ * Detectors reporting warnings while visiting a class are applied to the
+ * affected classes only, and the warnings the previous analysis reported in
+ * the other classes are reported again.
+ * <p>
+ * Detectors which do not report warnings, detectors which report once they
+ * have seen all classes (e.g. UnreadFields), and the first pass, which builds
+ * the interprocedural databases, still see every class. Warnings such
+ * detectors report in classes not affected by the change are dropped.
+ *
+ * @see FindBugs2#setIncrementalAnalysis(String, Collection)
+ */
+public class IncrementalAnalysis {
+
+    private static final boolean DEBUG = SystemProperties.getBoolean("findbugs.incremental.debug");
+
+    private final SortedBugCollection previousResults;
+
+    /**
+     * Slashed names of the changed classes, along with every suffix of the
+     * paths of the changed files
+     */
+    private final Set<String> changedNames = new HashSet<String>();
+
+    /**
+     * Slashed names of the changed source files, along with every suffix of
+     * their paths
+     */
+    private final Set<String> changedSourceNames = new HashSet<String>();
+
+    private Set<ClassDescriptor> appClasses;
+
+    private Set<ClassDescriptor> affectedClasses;
+
+    /**
+     * Constructor.
+     *
+     * @param previousResults
+     *            the results of the previous analysis
+     * @param changedFiles
+     *            the changed class files (.class), source files (.java), or
+     *            classes (fully qualified names)
+     */
+    public IncrementalAnalysis(SortedBugCollection previousResults, Collection<String> changedFiles) {
+        this.previousResults = previousResults;
+        for (String file : changedFiles) {
+            file = file.trim();
+            if (file.length() == 0) {
+                continue;
+            }
+            if (file.endsWith(".class")) {
+                addSuffixes(changedNames, file.substring(0, file.length() - ".class".length()));
+            } else if (file.endsWith(".java")) {
+                addSuffixes(changedSourceNames, file.substring(0, file.length() - ".java".length()));
+            } else {
+                changedNames.add(file.replace('.', '/'));
+            }
+        }
+    }
+
+    private static void addSuffixes(Set<String> names, String path) {
+        path = path.replace(File.separatorChar, '/').replace('\\', '/');
+        while (true) {
+            names.add(path);
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                break;
+            }
+            path = path.substring(slash + 1);
+        }
+    }
+
+    /**
+     * Return whether the given factory creates detectors which are only
+     * applied to the affected classes: detectors which report warnings while
+     * visiting a class, and keep no state from one class to the next which
+     * they report on at the end of the pass.
+     *
+     * @param factory
+     *            a DetectorFactory
+     * @return true if the detectors may skip the classes not affected by the
+     *         change
+     */
+    public static boolean appliesToAffectedClassesOnly(DetectorFactory factory) {
+        if (!factory.isReportingDetector() || factory.isDetectorClassSubtypeOf(NonReportingDetector.class)) {
+            return false;
+        }
+        if (factory.isDetectorClassSubtypeOf(StatelessDetector.class)) {
+            return true;
+        }
+        return !isWorkDoneAtEndOfPass(factory.getDetectorClass());
+    }
+
+    /**
+     * Check whether the report() or finishPass() method of a detector class
+     * does anything. If the class files cannot be read, assume they do.
+     */
+    static boolean isWorkDoneAtEndOfPass(Class<?> detectorClass) {
+        Set<String> overridden = new HashSet<String>();
+        for (Class<?> c = detectorClass; c != null && c != Object.class; c = c.getSuperclass()) {
+            ClassNode classNode = new ClassNode();
+            InputStream in = c.getResourceAsStream("/" + c.getName().replace('.', '/') + ".class");
+            if (in == null) {
+                return true;
+            }
+            try {
+                new ClassReader(in).accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            } catch (IOException e) {
+                return true;
+            } finally {
+                Util.closeSilently(in);
+            }
+            for (Object o : classNode.methods) {
+                MethodNode method = (MethodNode) o;
+                if (!"()V".equals(method.desc) || !("report".equals(method.name) || "finishPass".equals(method.name))
+                        || (method.access & Opcodes.ACC_ABSTRACT) != 0 || !overridden.add(method.name)) {
+                    continue;
+                }
+                for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+                    if (insn.getOpcode() >= 0 && insn.getOpcode() != Opcodes.RETURN) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compute the classes affected by the change. Must be called once the
+     * XClass of each application class is available.
+     *
+     * @param appClassList
+     *            the application classes
+     * @return the affected classes
+     */
+    public Set<ClassDescriptor> computeAffectedClasses(Collection<ClassDescriptor> appClassList) {
+        appClasses = new HashSet<ClassDescriptor>(appClassList);
+        affectedClasses = new HashSet<ClassDescriptor>();
+
+        // Classes the previous analysis did not see are new
+        Set<String> previousClasses = new HashSet<String>();
+        for (PackageStats packageStats : previousResults.getProjectStats().getPackageStats()) {
+            for (PackageStats.ClassStats classStats : packageStats.getClassStats()) {
+                previousClasses.add(classStats.getName());
+            }
+        }
+
+        IAnalysisCache analysisCache = Global.getAnalysisCache();
+        Map<ClassDescriptor, Collection<ClassDescriptor>> dependents = new HashMap<ClassDescriptor, Collection<ClassDescriptor>>();
+        Map<ClassDescriptor, XClass> xclasses = new HashMap<ClassDescriptor, XClass>();
+        LinkedList<ClassDescriptor> workList = new LinkedList<ClassDescriptor>();
+        for (ClassDescriptor classDescriptor : appClassList) {
+            if (isChanged(classDescriptor)
+                    || (!previousClasses.isEmpty() && !previousClasses.contains(classDescriptor.toDottedClassName()))) {
+                if (affectedClasses.add(classDescriptor)) {
+                    workList.add(classDescriptor);
+                }
+            }
+            XClass xclass;
+            try {
+                xclass = analysisCache.getClassAnalysis(XClass.class, classDescriptor);
+            } catch (CheckedAnalysisException e) {
+                // We know nothing about the class: it has to be analyzed
+                AnalysisContext.logError("Couldn't get class info for " + classDescriptor, e);
+                if (affectedClasses.add(classDescriptor)) {
+                    workList.add(classDescriptor);
+                }
+                continue;
+            }
+            xclasses.put(classDescriptor, xclass);
+            Set<ClassDescriptor> dependencies = new HashSet<ClassDescriptor>();
+            dependencies.addAll(xclass.getCalledClassDescriptors());
+            dependencies.addAll(xclass.getReferencedClassDescriptors());
+            if (xclass.getSuperclassDescriptor() != null) {
+                dependencies.add(xclass.getSuperclassDescriptor());
+            }
+            for (ClassDescriptor i : xclass.getInterfaceDescriptorList()) {
+                dependencies.add(i);
+            }
+            for (ClassDescriptor dependency : dependencies) {
+                if (dependency.equals(classDescriptor) || !appClasses.contains(dependency)) {
+                    continue;
+                }
+                Collection<ClassDescriptor> list = dependents.get(dependency);
+                if (list == null) {
+                    list = new ArrayList<ClassDescriptor>();
+                    dependents.put(dependency, list);
+                }
+                list.add(classDescriptor);
+            }
+        }
+
+        // The names of the classes changed, added or removed
+        Set<ClassDescriptor> changedClasses = new HashSet<ClassDescriptor>(workList);
+        Set<String> changedClassNames = new HashSet<String>();
+        for (ClassDescriptor classDescriptor : changedClasses) {
+            changedClassNames.add(classDescriptor.toDottedClassName());
+        }
+        for (String name : changedNames) {
+            changedClassNames.add(name.replace('/', '.'));
+        }
+        for (ClassDescriptor classDescriptor : appClasses) {
+            previousClasses.remove(classDescriptor.toDottedClassName());
+        }
+        changedClassNames.addAll(previousClasses);
+
+        while (!workList.isEmpty()) {
+            Collection<ClassDescriptor> list = dependents.get(workList.removeFirst());
+            if (list == null) {
+                continue;
+            }
+            for (ClassDescriptor dependent : list) {
+                if (affectedClasses.add(dependent)) {
+                    workList.add(dependent);
+                }
+            }
+        }
+
+        // Detectors describing the subtypes of a class (e.g.
+        // StartInConstructor) report different warnings in the supertypes
+        // of the changed classes. The supertypes the changed and removed
+        // classes used to have are found in the previous warnings.
+        for (ClassDescriptor classDescriptor : changedClasses) {
+            addSupertypes(xclasses.get(classDescriptor), xclasses);
+        }
+        for (BugInstance bug : previousResults.getCollection()) {
+            ClassAnnotation primaryClass = bug.getPrimaryClass();
+            if (primaryClass == null || !appClasses.contains(primaryClass.getClassDescriptor())) {
+                continue;
+            }
+            for (BugAnnotation annotation : bug.getAnnotations()) {
+                if (annotation instanceof ClassAnnotation
+                        && changedClassNames.contains(((ClassAnnotation) annotation).getClassName())) {
+                    affectedClasses.add(primaryClass.getClassDescriptor());
+                    break;
+                }
+            }
+        }
+
+        if (DEBUG) {
+            System.out.println(affectedClasses.size() + " of " + appClasses.size() + " classes affected by the change");
+        }
+        return affectedClasses;
+    }
+
+    private void addSupertypes(@CheckForNull XClass xclass, Map<ClassDescriptor, XClass> xclasses) {
+        if (xclass == null) {
+            return;
+        }
+        List<ClassDescriptor> supertypes = new ArrayList<ClassDescriptor>(Arrays.asList(xclass.getInterfaceDescriptorList()));
+        if (xclass.getSuperclassDescriptor() != null) {
+            supertypes.add(xclass.getSuperclassDescriptor());
+        }
+        for (ClassDescriptor supertype : supertypes) {
+            if (appClasses.contains(supertype) && affectedClasses.add(supertype)) {
+                addSupertypes(xclasses.get(supertype), xclasses);
+            }
+        }
+    }
+
+    private boolean isChanged(ClassDescriptor classDescriptor) {
+        String className = classDescriptor.getClassName();
+        if (changedNames.contains(className)) {
+            return true;
+        }
+        int dollar = className.indexOf('$');
+        String outerClassName = dollar >= 0 ? className.substring(0, dollar) : className;
+        return changedSourceNames.contains(outerClassName);
+    }
+
+    /**
+     * Return whether reporting detectors must be applied to the given class.
+     *
+     * @param classDescriptor
+     *            an application class
+     * @return true if the class is affected by the change
+     */
+    public boolean isAffected(ClassDescriptor classDescriptor) {
+        if (affectedClasses == null) {
+            throw new IllegalStateException("affected classes not computed yet");
+        }
+        return affectedClasses.contains(classDescriptor);
+    }
+
+    /**
+     * Return a BugReporter dropping the warnings reported in application
+     * classes not affected by the change. Detectors which keep state from one
+     * class to the next may report such warnings when they finish a pass;
+     * they are reported from the previous analysis instead.
+     *
+     * @param bugReporter
+     *            the BugReporter to report the other warnings to
+     * @return the filtering BugReporter
+     */
+    public BugReporter filterBugReporter(BugReporter bugReporter) {
+        return new DelegatingBugReporter(bugReporter) {
+            @Override
+            public void reportBug(@Nonnull BugInstance bugInstance) {
+                if (!isReportedByPreviousAnalysis(bugInstance)) {
+                    getDelegate().reportBug(bugInstance);
+                }
+            }
+        };
+    }
+
+    private boolean isReportedByPreviousAnalysis(BugInstance bug) {
+        ClassAnnotation primaryClass = bug.getPrimaryClass();
+        if (primaryClass == null) {
+            return false;
+        }
+        ClassDescriptor classDescriptor = primaryClass.getClassDescriptor();
+        return appClasses.contains(classDescriptor) && !affectedClasses.contains(classDescriptor);
+    }
+
+    /**
+     * Report the warnings of the previous analysis in the application classes
+     * not affected by the change. The warnings of classes which are no longer
+     * part of the application are dropped.
+     *
+     * @param bugReporter
+     *            the BugReporter to report the warnings to
+     */
+    public void reportPreviousBugs(BugReporter bugReporter) {
+        if (affectedClasses == null) {
+            throw new IllegalStateException("affected classes not computed yet");
+        }
+        int count = 0;
+        for (BugInstance bug : previousResults.getCollection()) {
+            if (isReportedByPreviousAnalysis(bug)) {
+                bugReporter.reportBug(bug);
+                count++;
+            }
+        }
+        if (DEBUG) {
+            System.out.println(count + " warnings reported from the previous analysis");
+        }
+    }
+}
@@ -26,9 +26,12 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -118,6 +121,20 @@ public class OpcodeStack implements Constants2 {
     public @interface CustomUserValue {
     }
 
+    /** You can put this annotation on a OpcodeStack detector
+     * to indicate that it changes the stack or its items, e.g. with
+     * {@link OpcodeStack#replaceTop(Item)}, and thus should not use
+     * the states of the opcode stack shared by the other detectors
+     * (see {@link StateTrace}). Such detectors simulate the stack themselves,
+     * as do the detectors annotated with {@link CustomUserValue} and the
+     * detectors with custom jump information.
+     */
+    @Documented
+    @Target({ElementType.TYPE, ElementType.PACKAGE})
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface ModifiesStack {
+    }
+
     private static final String JAVA_UTIL_ARRAYS_ARRAY_LIST = "Ljava/util/Arrays$ArrayList;";
 
     private static final boolean DEBUG = SystemProperties.getBoolean("ocstack.debug");
@@ -131,10 +148,18 @@ public class OpcodeStack implements Constants2 {
 
     private List<Item> lvValues;
 
-    private final List<Integer> lastUpdate;
+    private List<Integer> lastUpdate;
 
     private boolean top;
 
+    private static volatile boolean shareStates = !SystemProperties.getBoolean("ocstack.noSharedStates");
+
+    /** States replayed instead of simulating the stack, or null */
+    private StateTrace replay;
+
+    /** Index of the state being replayed */
+    private int replayIndex;
+
     static class HttpParameterInjection {
         HttpParameterInjection(String parameterName, int pc) {
             this.parameterName = parameterName;
@@ -1085,6 +1110,9 @@ public class OpcodeStack implements Constants2 {
     }
 
     public boolean hasIncomingBranches(int pc) {
+        if (replay != null) {
+            return replay.isJumpTarget(pc, replayIndex);
+        }
         return jumpEntryLocations.get(pc) && jumpEntries.get(pc) != null;
 
     }
@@ -1250,6 +1278,10 @@ public class OpcodeStack implements Constants2 {
 
         // System.out.printf("%3d %12s%s%n", dbc.getPC(), OPCODE_NAMES[seen],
         // this);
+        if (replay != null) {
+            // The state after the instruction is loaded by the next precomputation
+            return;
+        }
         if (dbc.isRegisterStore()) {
             setLastUpdate(dbc.getRegisterOperand(), dbc.getPC());
         }
@@ -2150,6 +2182,10 @@ public class OpcodeStack implements Constants2 {
     }
 
     public void precomputation(DismantleBytecode dbc) {
+        if (replay != null) {
+            loadReplayedState(dbc.getPC());
+            return;
+        }
         if (registerTestedFoundToBeNonnegative >= 0) {
             for (int i = 0; i < stack.size(); i++) {
                 Item item = stack.get(i);
@@ -2751,6 +2787,11 @@ public class OpcodeStack implements Constants2 {
     }
 
     public void clear() {
+        if (replay != null) {
+            stack = new ArrayList<Item>();
+            lvValues = new ArrayList<Item>();
+            return;
+        }
         stack.clear();
         lvValues.clear();
     }
@@ -2899,7 +2940,258 @@ public class OpcodeStack implements Constants2 {
         }
     }
 
+    /**
+     * The states of the opcode stack at each instruction of a method, as seen
+     * by an OpcodeStackDetector in its sawOpcode method. They are recorded once
+     * per method by the {@link StateTraceFactory}, and replayed by the
+     * OpcodeStackDetectors analyzing the method instead of simulating the
+     * stack again (except for the detectors that use custom user values or
+     * jump information, or that change the stack: see {@link ModifiesStack}).
+     * <p>
+     * The recorded stacks and local values hold copies of the items, so that
+     * later changes to the items don't affect them. Items, lists of items and
+     * last updates are shared between states while they don't change.
+     */
+    public static class StateTrace {
+        final Code code;
+
+        final int[] pcs;
+
+        final List<List<Item>> stacks;
+
+        final List<List<Item>> locals;
+
+        final List<List<Integer>> lastUpdates;
+
+        final BitSet top;
+
+        final BitSet reachOnlyByBranch;
+
+        /**
+         * Index of the first state in which each pc is a jump target, or null
+         * if the method has no jump targets
+         */
+        final @CheckForNull int[] jumpTargetSince;
+
+        final int estimatedSize;
+
+        StateTrace(Code code, int[] pcs, List<List<Item>> stacks, List<List<Item>> locals, List<List<Integer>> lastUpdates,
+                BitSet top, BitSet reachOnlyByBranch, int[] jumpTargetSince, int estimatedSize) {
+            this.code = code;
+            this.pcs = pcs;
+            this.stacks = stacks;
+            this.locals = locals;
+            this.lastUpdates = lastUpdates;
+            this.top = top;
+            this.reachOnlyByBranch = reachOnlyByBranch;
+            this.jumpTargetSince = jumpTargetSince;
+            this.estimatedSize = estimatedSize;
+        }
+
+        boolean isJumpTarget(int pc, int index) {
+            return jumpTargetSince != null && pc >= 0 && pc < jumpTargetSince.length && jumpTargetSince[pc] <= index;
+        }
+
+        /**
+         * @return the number of recorded states, one per instruction
+         */
+        public int getNumStates() {
+            return pcs.length;
+        }
+
+        /**
+         * @return estimated number of bytes retained by the states
+         */
+        public int getEstimatedSize() {
+            return estimatedSize;
+        }
+    }
+
+    /**
+     * Records the {@link StateTrace} of a method by scanning it with an
+     * OpcodeStackDetector. Returns null for methods whose states would take
+     * more than ocstack.maxStateTraceSize bytes (4 MB by default): the
+     * detectors simulate the stack of such methods themselves.
+     */
+    public static class StateTraceFactory extends edu.umd.cs.findbugs.classfile.engine.bcel.AnalysisFactory<StateTrace> {
+
+        static final int MAX_SIZE = SystemProperties.getInt("ocstack.maxStateTraceSize", 4 << 20);
+
+        /** Estimated size of a state without its lists */
+        static final int STATE_SIZE = 24;
+
+        /** Estimated size of a copied item */
+        static final int ITEM_SIZE = 56;
+
+        /** Estimated size of a list of the trace, without its elements */
+        static final int LIST_SIZE = 48;
+
+        /** Estimated size of an element of a list of the trace */
+        static final int ELEMENT_SIZE = 8;
+
+        public StateTraceFactory() {
+            super("Opcode stack states", StateTrace.class);
+        }
+
+        @Override
+        public @CheckForNull StateTrace analyze(IAnalysisCache analysisCache, MethodDescriptor descriptor)
+                throws CheckedAnalysisException {
+            Method method = analysisCache.getMethodAnalysis(Method.class, descriptor);
+            JavaClass jclass = getJavaClass(analysisCache, descriptor.getClassDescriptor());
+            Code code = method.getCode();
+            if (code == null) {
+                return null;
+            }
+            StateRecorder recorder = new StateRecorder(code, MAX_SIZE);
+            recorder.setupVisitorForClass(jclass);
+            recorder.doVisitMethod(method);
+            return recorder.getTrace();
+        }
+
+        /**
+         * OpcodeStackDetector recording the state of its stack when each
+         * instruction is seen
+         */
+        static class StateRecorder extends OpcodeStackDetector {
+            private final Code code;
+
+            private final int maxSize;
+
+            private final IdentityHashMap<Item, Item> copies = new IdentityHashMap<Item, Item>();
+
+            private int[] pcs;
+
+            private final ArrayList<List<Item>> stacks = new ArrayList<List<Item>>();
+
+            private final ArrayList<List<Item>> locals = new ArrayList<List<Item>>();
+
+            private final ArrayList<List<Integer>> lastUpdates = new ArrayList<List<Integer>>();
+
+            private final BitSet top = new BitSet();
+
+            private final BitSet reachOnlyByBranch = new BitSet();
+
+            private final BitSet jumpTargets = new BitSet();
+
+            private int[] jumpTargetSince;
+
+            private int numStates;
+
+            private int size;
+
+            private Item[] scratch = new Item[16];
+
+            StateRecorder(Code code, int maxSize) {
+                this.code = code;
+                this.maxSize = maxSize;
+                // There are at most as many instructions as bytes of code
+                pcs = new int[code.getCode().length];
+            }
+
+            @Override
+            public boolean beforeOpcode(int seen) {
+                boolean result = super.beforeOpcode(seen);
+                if (size <= maxSize) {
+                    record();
+                }
+                return result;
+            }
+
+            @Override
+            public void sawOpcode(int seen) {
+            }
+
+            private void record() {
+                int index = numStates++;
+                pcs[index] = getPC();
+                if (stack.isTop()) {
+                    top.set(index);
+                }
+                if (stack.isReachOnlyByBranch()) {
+                    reachOnlyByBranch.set(index);
+                }
+                stacks.add(copyItems(stack.stack, index > 0 ? stacks.get(index - 1) : null));
+                locals.add(copyItems(stack.lvValues, index > 0 ? locals.get(index - 1) : null));
+                lastUpdates.add(copyLastUpdates(stack.lastUpdate, index > 0 ? lastUpdates.get(index - 1) : null));
+
+                BitSet jumpEntryLocations = stack.jumpEntryLocations;
+                if (jumpEntryLocations.cardinality() != jumpTargets.cardinality()) {
+                    if (jumpTargetSince == null) {
+                        jumpTargetSince = new int[code.getCode().length];
+                        Arrays.fill(jumpTargetSince, Integer.MAX_VALUE);
+                    }
+                    for (int pc = jumpEntryLocations.nextSetBit(0); pc >= 0; pc = jumpEntryLocations.nextSetBit(pc + 1)) {
+                        if (!jumpTargets.get(pc) && pc < jumpTargetSince.length) {
+                            jumpTargetSince[pc] = index;
+                        }
+                    }
+                    jumpTargets.or(jumpEntryLocations);
+                }
+                size += STATE_SIZE;
+            }
+
+            private List<Item> copyItems(List<Item> items, @CheckForNull List<Item> previous) {
+                int n = items.size();
+                if (n == 0) {
+                    return Collections.<Item>emptyList();
+                }
+                if (scratch.length < n) {
+                    scratch = new Item[Math.max(n, 2 * scratch.length)];
+                }
+                boolean same = previous != null && previous.size() == n;
+                for (int i = 0; i < n; i++) {
+                    Item item = items.get(i);
+                    Item copy = item == null ? null : copyItem(item);
+                    scratch[i] = copy;
+                    same = same && previous.get(i) == copy;
+                }
+                if (same) {
+                    return previous;
+                }
+                size += LIST_SIZE + n * ELEMENT_SIZE;
+                return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(scratch, n)));
+            }
+
+            private Item copyItem(Item item) {
+                Item copy = copies.get(item);
+                // The items are changed in place at times, e.g. when found to be
+                // newly allocated
+                if (copy == null || copy.pc != item.pc || !copy.equals(item)) {
+                    copy = new Item(item);
+                    copies.put(item, copy);
+                    size += ITEM_SIZE;
+                }
+                return copy;
+            }
+
+            private List<Integer> copyLastUpdates(List<Integer> lastUpdate, @CheckForNull List<Integer> previous) {
+                if (previous != null && previous.equals(lastUpdate)) {
+                    return previous;
+                }
+                if (lastUpdate.isEmpty()) {
+                    return Collections.<Integer>emptyList();
+                }
+                size += LIST_SIZE + lastUpdate.size() * ELEMENT_SIZE;
+                return Collections.unmodifiableList(new ArrayList<Integer>(lastUpdate));
+            }
+
+            @CheckForNull StateTrace getTrace() {
+                if (size > maxSize) {
+                    return null;
+                }
+                stacks.trimToSize();
+                locals.trimToSize();
+                lastUpdates.trimToSize();
+                return new StateTrace(code, Arrays.copyOf(pcs, numStates), stacks, locals, lastUpdates, top, reachOnlyByBranch,
+                        jumpTargetSince, size + (jumpTargetSince != null ? 4 * jumpTargetSince.length : 0));
+            }
+        }
+    }
+
     public boolean isJumpTarget(int pc) {
+        if (replay != null) {
+            return replay.isJumpTarget(pc, replayIndex);
+        }
         return jumpEntryLocations.get(pc);
     }
 
@@ -2948,6 +3240,7 @@ public class OpcodeStack implements Constants2 {
     }
 
     public void initialize() {
+        stopReplay();
         setTop(false);
         jumpEntries.clear();
         jumpStackEntries.clear();
@@ -2970,6 +3263,16 @@ public class OpcodeStack implements Constants2 {
         if (code == null) {
             return result;
         }
+        if (shareStates && visitor instanceof OpcodeStackDetector
+                && ((OpcodeStackDetector) visitor).isUsingSharedStates()
+                && !(visitor instanceof StateTraceFactory.StateRecorder)) {
+            StateTrace trace = getStateTrace(code);
+            if (trace != null) {
+                replay = trace;
+                replayIndex = 0;
+                return result;
+            }
+        }
         JumpInfo jump = null;
         if (useIterativeAnalysis) {
             if (visitor instanceof OpcodeStackDetector.WithCustomJumpInfo) {
@@ -2994,6 +3297,78 @@ public class OpcodeStack implements Constants2 {
         return c.size();
     }
 
+    private @CheckForNull StateTrace getStateTrace(Code code) {
+        IAnalysisCache analysisCache = Global.getAnalysisCache();
+        MethodDescriptor methodDescriptor = v.getMethodDescriptor();
+        if (analysisCache == null || methodDescriptor == null) {
+            return null;
+        }
+        try {
+            StateTrace trace = analysisCache.getMethodAnalysis(StateTrace.class, methodDescriptor);
+            // Only replay the states of the very code being visited
+            if (trace != null && trace.code == code) {
+                return trace;
+            }
+        } catch (CheckedAnalysisException e) {
+            AnalysisContext.logError("Error getting shared opcode stack states", e);
+        }
+        return null;
+    }
+
+    private void loadReplayedState(int pc) {
+        int[] pcs = replay.pcs;
+        int index = replayIndex;
+        while (index < pcs.length && pcs[index] < pc) {
+            index++;
+        }
+        if (index >= pcs.length || pcs[index] != pc) {
+            index = Arrays.binarySearch(pcs, pc);
+            if (index < 0) {
+                throw new IllegalStateException("No opcode stack state recorded at pc " + pc + " of "
+                        + v.getFullyQualifiedMethodName());
+            }
+        }
+        replayIndex = index;
+        stack = replay.stacks.get(index);
+        lvValues = replay.locals.get(index);
+        lastUpdate = replay.lastUpdates.get(index);
+        top = replay.top.get(index);
+        reachOnlyByBranch = replay.reachOnlyByBranch.get(index);
+    }
+
+    private void stopReplay() {
+        if (replay != null) {
+            replay = null;
+            stack = new ArrayList<Item>();
+            lvValues = new ArrayList<Item>();
+            lastUpdate = new ArrayList<Integer>();
+        }
+    }
+
+    /**
+     * The replayed states are shared, so the stack is copied before a
+     * detector changes it
+     */
+    private void copyReplayedStack() {
+        if (replay != null) {
+            stack = new ArrayList<Item>(stack);
+        }
+    }
+
+    /**
+     * Set whether OpcodeStackDetectors replay the states of the opcode stack
+     * recorded once per method (see {@link StateTrace}), or simulate the
+     * stack themselves. The states are shared unless the ocstack.noSharedStates
+     * property is set.
+     *
+     * @param share
+     *            true to share the states, false to simulate the stack in
+     *            every detector
+     */
+    public static void setShareStates(boolean share) {
+        shareStates = share;
+    }
+
     private JumpInfo getJumpInfo() {
         IAnalysisCache analysisCache = Global.getAnalysisCache();
         XMethod xMethod = XFactory.createXMethod(v.getThisClass(), v.getMethod());
@@ -3048,6 +3423,7 @@ public class OpcodeStack implements Constants2 {
 
     int resetForMethodEntry0(@SlashedClassName String className, Method m) {
         methodName = m.getName();
+        stopReplay();
 
         if (DEBUG) {
             System.out.println(" --- ");
@@ -3127,11 +3503,13 @@ public class OpcodeStack implements Constants2 {
         int tos = stack.size() - 1;
         int pos = tos - stackOffset;
 
+        copyReplayedStack();
         stack.set(pos, value);
 
     }
 
     public void replaceTop(Item newTop) {
+        copyReplayedStack();
         pop();
         push(newTop);
     }
@@ -0,0 +1,237 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import edu.umd.cs.findbugs.ba.MethodUnprofitableException;
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.MethodDescriptor;
+
+/**
+ * A delegating bug reporter which, while a class is being visited, records
+ * the reported bug instances separately for each detector of the analysis
+ * pass instead of passing them on. The errors and missing classes reported
+ * during the visit are recorded too. Bugs and errors reported outside of a
+ * class visit (e.g., when a pass is finished) and everything else go straight
+ * to the delegate.
+ * <p>
+ * Each thread of a multi-threaded analysis uses its own instance, so the
+ * recorded bugs can later be reported in the order of a single-threaded run,
+ * and only the analysis thread reports anything to the delegate.
+ *
+ * @see DetectorWorkerPool
+ */
+public class RecordingBugReporter extends DelegatingBugReporter {
+
+    private List<List<BugInstance>> recorded;
+
+    private List<RecordedError> errors;
+
+    private int detectorIndex;
+
+    /**
+     * An error reported while a class was visited.
+     */
+    private abstract static class RecordedError {
+        abstract void report(BugReporter bugReporter);
+    }
+
+    /**
+     * The bugs and errors reported while a class was visited.
+     */
+    public static class Recording {
+        private final List<List<BugInstance>> bugs;
+
+        private final List<RecordedError> errors;
+
+        Recording(List<List<BugInstance>> bugs, List<RecordedError> errors) {
+            this.bugs = bugs;
+            this.errors = errors;
+        }
+
+        /**
+         * @return the bugs recorded for each detector of the pass; entries
+         *         for detectors which did not report anything are null
+         */
+        public List<List<BugInstance>> getBugs() {
+            return bugs;
+        }
+
+        /**
+         * Report the recorded errors, in the order they were reported.
+         *
+         * @param bugReporter
+         *            the bug reporter to report the errors to
+         */
+        public void reportErrors(BugReporter bugReporter) {
+            for (RecordedError error : errors) {
+                error.report(bugReporter);
+            }
+        }
+    }
+
+    public RecordingBugReporter(BugReporter delegate) {
+        super(delegate);
+    }
+
+    /**
+     * Start recording the bugs reported while visiting a class.
+     *
+     * @param numDetectors
+     *            number of detectors in the analysis pass
+     */
+    public void startClass(int numDetectors) {
+        recorded = new ArrayList<List<BugInstance>>(Collections.<List<BugInstance>> nCopies(numDetectors, null));
+        errors = new ArrayList<RecordedError>();
+        detectorIndex = 0;
+    }
+
+    /**
+     * Set the detector whose bugs are recorded from now on.
+     *
+     * @param detectorIndex
+     *            index of the detector in the analysis pass
+     */
+    public void setDetectorIndex(int detectorIndex) {
+        this.detectorIndex = detectorIndex;
+    }
+
+    /**
+     * Stop recording.
+     *
+     * @return the bugs and errors recorded
+     */
+    public Recording finishClass() {
+        Recording result = new Recording(recorded, errors);
+        recorded = null;
+        errors = null;
+        return result;
+    }
+
+    /**
+     * Report recorded bugs to the given bug reporter.
+     *
+     * @param bugs
+     *            bugs recorded for the detectors of a pass
+     * @param detectorIndex
+     *            index of the detector in the pass
+     * @param bugReporter
+     *            the bug reporter
+     */
+    public static void reportRecordedBugs(@CheckForNull List<List<BugInstance>> bugs, int detectorIndex,
+            BugReporter bugReporter) {
+        if (bugs == null || bugs.get(detectorIndex) == null) {
+            return;
+        }
+        for (BugInstance bug : bugs.get(detectorIndex)) {
+            bugReporter.reportBug(bug);
+        }
+    }
+
+    @Override
+    public void reportBug(@Nonnull BugInstance bugInstance) {
+        if (recorded == null) {
+            super.reportBug(bugInstance);
+            return;
+        }
+        List<BugInstance> bugs = recorded.get(detectorIndex);
+        if (bugs == null) {
+            bugs = new ArrayList<BugInstance>();
+            recorded.set(detectorIndex, bugs);
+        }
+        bugs.add(bugInstance);
+    }
+
+    @Override
+    public void logError(final String message) {
+        if (errors == null) {
+            super.logError(message);
+            return;
+        }
+        errors.add(new RecordedError() {
+            @Override
+            void report(BugReporter bugReporter) {
+                bugReporter.logError(message);
+            }
+        });
+    }
+
+    @Override
+    public void logError(final String message, final Throwable e) {
+        if (errors == null || e instanceof MethodUnprofitableException) {
+            super.logError(message, e);
+            return;
+        }
+        errors.add(new RecordedError() {
+            @Override
+            void report(BugReporter bugReporter) {
+                bugReporter.logError(message, e);
+            }
+        });
+    }
+
+    @Override
+    public void reportMissingClass(final ClassNotFoundException ex) {
+        if (errors == null) {
+            super.reportMissingClass(ex);
+            return;
+        }
+        errors.add(new RecordedError() {
+            @Override
+            void report(BugReporter bugReporter) {
+                bugReporter.reportMissingClass(ex);
+            }
+        });
+    }
+
+    @Override
+    public void reportMissingClass(final ClassDescriptor classDescriptor) {
+        if (errors == null) {
+            super.reportMissingClass(classDescriptor);
+            return;
+        }
+        errors.add(new RecordedError() {
+            @Override
+            void report(BugReporter bugReporter) {
+                bugReporter.reportMissingClass(classDescriptor);
+            }
+        });
+    }
+
+    @Override
+    public void reportSkippedAnalysis(final MethodDescriptor method) {
+        if (errors == null) {
+            super.reportSkippedAnalysis(method);
+            return;
+        }
+        errors.add(new RecordedError() {
+            @Override
+            void report(BugReporter bugReporter) {
+                bugReporter.reportSkippedAnalysis(method);
+            }
+        });
+    }
+}
@@ -20,6 +20,7 @@
 package edu.umd.cs.findbugs;
 
 import java.awt.GraphicsEnvironment;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -49,12 +50,14 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.WillClose;
+import javax.annotation.WillCloseWhenClosed;
 import javax.annotation.WillNotClose;
 import javax.xml.transform.TransformerException;
 
@@ -72,6 +75,7 @@ import edu.umd.cs.findbugs.ba.MissingClassException;
 import edu.umd.cs.findbugs.charsets.UTF8;
 import edu.umd.cs.findbugs.cloud.Cloud;
 import edu.umd.cs.findbugs.cloud.CloudFactory;
+import edu.umd.cs.findbugs.io.ParallelGZIPOutputStream;
 import edu.umd.cs.findbugs.log.Profiler;
 import edu.umd.cs.findbugs.model.ClassFeatureSet;
 import edu.umd.cs.findbugs.util.Util;
@@ -95,6 +99,16 @@ public class SortedBugCollection implements BugCollection {
 
     private static final boolean REPORT_SUMMARY_HTML = SystemProperties.getBoolean("findbugs.report.SummaryHTML");
 
+    /** Compression level of the .gz files written */
+    private static final int GZIP_LEVEL = SystemProperties.getInt("findbugs.xml.gzip.level", Deflater.DEFAULT_COMPRESSION);
+
+    /** Number of threads compressing the .gz files written */
+    private static final int GZIP_THREADS = SystemProperties.getInt("findbugs.xml.gzip.threads", 1);
+
+    /** Size of the buffer (or of the blocks compressed in parallel) of the files written */
+    private static final int OUTPUT_BUFFER_SIZE = SystemProperties.getInt("findbugs.xml.bufferSize",
+            ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE);
+
     long analysisTimestamp = System.currentTimeMillis();
 
     String analysisVersion = Version.RELEASE;
@@ -319,6 +333,14 @@ public class SortedBugCollection implements BugCollection {
     public void readXML(File file) throws IOException, DocumentException {
         project.setCurrentWorkingDirectory(file.getParentFile());
         dataSource = file.getAbsolutePath();
+        if (BinaryBugCollection.isBinary(file)) {
+            try {
+                readBinary(new BinaryBugCollection(file), file);
+            } catch (IOException e) {
+                throw newIOException(file, e);
+            }
+            return;
+        }
         InputStream in = progessMonitoredInputStream(file, "Loading analysis");
         try {
             readXML(in, file);
@@ -379,6 +401,10 @@ public class SortedBugCollection implements BugCollection {
 
     private void doReadXML(@WillClose InputStream in, @CheckForNull File base) throws IOException, DocumentException {
         try {
+            if (in.markSupported() && BinaryBugCollection.isBinary(in)) {
+                readBinary(BinaryBugCollection.read(in, base != null ? base.getPath() : "input stream"), base);
+                return;
+            }
             checkInputStream(in);
             Reader reader = Util.getReader(in);
             doReadXML(reader, base);
@@ -391,6 +417,23 @@ public class SortedBugCollection implements BugCollection {
         }
     }
 
+    /**
+     * Read a bug collection saved in the binary format into this object.
+     */
+    private void readBinary(BinaryBugCollection binary, @CheckForNull File base) throws IOException {
+        timeStartedLoading = System.currentTimeMillis();
+        Profiler profiler = getProjectStats().getProfiler();
+        profiler.start(BinaryBugCollection.class);
+        try {
+            binary.readInto(this, base);
+        } finally {
+            profiler.end(BinaryBugCollection.class);
+        }
+        timeFinishedLoading = System.currentTimeMillis();
+        bugsPopulated();
+        project.setModified(false);
+    }
+
     private void doReadXML(@WillClose Reader reader, @CheckForNull File base) throws IOException, DocumentException {
         timeStartedLoading = System.currentTimeMillis();
 
@@ -446,11 +489,7 @@ public class SortedBugCollection implements BugCollection {
      */
     @Override
     public void writeXML(String fileName) throws IOException {
-        OutputStream out = new FileOutputStream(fileName);
-        if (fileName.endsWith(".gz")) {
-            out = new GZIPOutputStream(out);
-        }
-        writeXML(out);
+        writeXML(openOutput(new FileOutputStream(fileName), fileName.endsWith(".gz")));
     }
 
     /**
@@ -460,11 +499,34 @@ public class SortedBugCollection implements BugCollection {
      *            the file to write to
      */
     public void writeXML(File file) throws IOException {
-        OutputStream out = new FileOutputStream(file);
-        if (file.getName().endsWith(".gz")) {
-            out = new GZIPOutputStream(out);
+        writeXML(openOutput(new FileOutputStream(file), file.getName().endsWith(".gz")));
+    }
+
+    /**
+     * Buffer, and compress if requested, the output to a file. The
+     * compression level and the number of threads compressing the output are
+     * set by the findbugs.xml.gzip.level and findbugs.xml.gzip.threads
+     * properties, the buffer size by findbugs.xml.bufferSize.
+     */
+    private static OutputStream openOutput(@WillCloseWhenClosed FileOutputStream file, boolean gzip) throws IOException {
+        try {
+            if (!gzip) {
+                return new BufferedOutputStream(file, OUTPUT_BUFFER_SIZE);
+            } else if (GZIP_THREADS > 1) {
+                return new ParallelGZIPOutputStream(file, GZIP_LEVEL, OUTPUT_BUFFER_SIZE, GZIP_THREADS);
+            }
+            return new GZIPOutputStream(file, OUTPUT_BUFFER_SIZE) {
+                {
+                    def.setLevel(GZIP_LEVEL);
+                }
+            };
+        } catch (IOException e) {
+            Util.closeSilently(file);
+            throw e;
+        } catch (RuntimeException e) {
+            Util.closeSilently(file);
+            throw e;
         }
-        writeXML(out);
     }
 
     /**
@@ -1401,6 +1463,10 @@ public class SortedBugCollection implements BugCollection {
         this.minimalXML = minimalXML;
     }
 
+    boolean isMinimalXML() {
+        return minimalXML;
+    }
+
     public void setDoNotUseCloud(boolean b) {
         this.shouldNotUsePlugin = b;
     }
@@ -24,6 +24,7 @@ import java.io.PrintWriter;
 import java.util.Iterator;
 
 import edu.umd.cs.findbugs.charsets.UTF8;
+import edu.umd.cs.findbugs.io.AsyncWriter;
 
 /**
  * Base class for BugReporters which provides convenient formatting and
@@ -71,6 +72,20 @@ public abstract class TextUIBugReporter extends AbstractBugReporter {
         this.outputStream = writer;
     }
 
+    /**
+     * Write the bug output on a thread of its own from now on. The bugs are
+     * still filtered and formatted on the threads reporting them; only the
+     * writing is done by the other thread.
+     *
+     * @return the writer writing the output, drained when the output is
+     *         closed
+     */
+    public AsyncWriter writeAsynchronously() {
+        AsyncWriter writer = new AsyncWriter(outputStream);
+        outputStream = new PrintWriter(writer);
+        return writer;
+    }
+
     /**
      * Set whether or not stack traces should be reported in error output.
      *
@@ -27,9 +27,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -44,6 +46,7 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import edu.umd.cs.findbugs.charsets.UTF8;
 import edu.umd.cs.findbugs.config.UserPreferences;
 import edu.umd.cs.findbugs.filter.FilterException;
+import edu.umd.cs.findbugs.util.CacheBudget;
 import edu.umd.cs.findbugs.util.Util;
 
 /**
@@ -110,6 +113,16 @@ public class TextUICommandLine extends FindBugsCommandLine {
 
     private boolean noClassOk = false;
 
+    private int threads = SystemProperties.getInt("findbugs.threads", 1);
+
+    private long cacheBudget = CacheBudget.parseSize(SystemProperties.getProperty("findbugs.cacheBudget", "0"));
+
+    private String resultStore = SystemProperties.getProperty("findbugs.resultStore");
+
+    private String incrementalBase = null;
+
+    private final List<String> changedFiles = new ArrayList<String>();
+
     private int priorityThreshold = Detector.NORMAL_PRIORITY;
 
     private int rankThreshold = SystemProperties.getInt("findbugs.maxRank", BugRanker.VISIBLE_RANK_MAX);
@@ -185,6 +198,11 @@ public class TextUICommandLine extends FindBugsCommandLine {
         addOption("-output", "filename", "Save output in named file");
         makeOptionUnlisted("-outputFile");
         addSwitchWithOptionalExtraPart("-nested", "true|false", "analyze nested jar/zip archives (default=true)");
+        addOption("-threads", "count", "number of threads used to apply detectors to classes (default=1)");
+        addOption("-cacheBudget", "size", "bound analysis caches by estimated memory use, e.g. 2g or 512m");
+        addOption("-resultStore", "directory", "reuse the results of unchanged classes stored in directory");
+        addOption("-incremental", "filename", "only reanalyze the classes affected by the -changed files, reusing the xml results in filename");
+        addOption("-changed", "filepath", "get the list of changed class/source files from a designated file");
 
         startOptionGroup("Output filtering options:");
         addOption("-bugCategories", "cat1[,cat2...]", "only report bugs in given categories");
@@ -432,6 +450,26 @@ public class TextUICommandLine extends FindBugsCommandLine {
 
         } else if ("-maxRank".equals(option)) {
             this.rankThreshold = Integer.parseInt(argument);
+        } else if ("-threads".equals(option)) {
+            this.threads = Integer.parseInt(argument);
+            if (threads < 1) {
+                throw new IllegalArgumentException("Number of threads must be at least 1: " + argument);
+            }
+        } else if ("-cacheBudget".equals(option)) {
+            try {
+                this.cacheBudget = CacheBudget.parseSize(argument);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cache budget: " + argument);
+            }
+            if (cacheBudget <= 0) {
+                throw new IllegalArgumentException("Cache budget must be positive: " + argument);
+            }
+        } else if ("-resultStore".equals(option)) {
+            this.resultStore = argument;
+        } else if ("-incremental".equals(option)) {
+            incrementalBase = argument;
+        } else if ("-changed".equals(option)) {
+            handleChangedFromFile(argument);
         } else if ("-projectName".equals(option)) {
             this.projectName = argument;
         } else if ("-release".equals(option)) {
@@ -707,6 +745,20 @@ public class TextUICommandLine extends FindBugsCommandLine {
 
         findBugs.setScanNestedArchives(scanNestedArchives);
         findBugs.setNoClassOk(noClassOk);
+        findBugs.setThreads(threads);
+        findBugs.setCacheBudget(cacheBudget);
+        if (resultStore != null) {
+            findBugs.setResultStore(new File(resultStore));
+        }
+        if (incrementalBase != null) {
+            try {
+                findBugs.setIncrementalAnalysis(incrementalBase, changedFiles);
+            } catch (DocumentException e) {
+                IOException ioe = new IOException("Unable to parse " + incrementalBase);
+                ioe.initCause(e);
+                throw ioe;
+            }
+        }
 
         findBugs.setBugReporterDecorators(enabledBugReporterDecorators, disabledBugReporterDecorators);
         if (applySuppression) {
@@ -781,6 +833,27 @@ public class TextUICommandLine extends FindBugsCommandLine {
         }
     }
 
+    /**
+     * Handle -changed command line option by reading the names of the changed
+     * files from a file.
+     *
+     * @throws IOException
+     */
+    private void handleChangedFromFile(String filePath) throws IOException {
+        BufferedReader in = new BufferedReader(UTF8.fileReader(filePath));
+        try {
+            while (true) {
+                String s = in.readLine();
+                if (s == null) {
+                    break;
+                }
+                changedFiles.add(s);
+            }
+        } finally {
+            Util.closeSilently(in);
+        }
+    }
+
     /**
      * @return Returns the userPreferences.
      */
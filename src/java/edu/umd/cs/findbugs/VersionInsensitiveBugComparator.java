@@ -262,6 +262,63 @@ public class VersionInsensitiveBugComparator implements WarningComparator {
         }
     }
 
+    /**
+     * Compute a hash code for a BugInstance which is consistent with this
+     * comparator: BugInstances which compare as equal have the same hash code.
+     * This allows BugInstances to be matched by hashing, using the comparator
+     * only between BugInstances with the same hash code.
+     * <p>
+     * Local variable annotations are ignored, since unknown and insignificant
+     * local variables are skipped by the comparison.
+     *
+     * @param bug
+     *            a BugInstance
+     * @return the hash code of the BugInstance
+     */
+    public int bugHashCode(BugInstance bug) {
+        BugPattern pattern = bug.getBugPattern();
+        int hash = pattern.getAbbrev().hashCode();
+        if (isExactBugPatternMatch()) {
+            hash = hash * 31 + pattern.getType().hashCode();
+        }
+        if (comparePriorities) {
+            hash = hash * 31 + bug.getPriority();
+        }
+        for (Iterator<BugAnnotation> i = bug.annotationIterator(); i.hasNext();) {
+            BugAnnotation annotation = i.next();
+            if (isBoring(annotation) || annotation instanceof LocalVariableAnnotation) {
+                continue;
+            }
+            hash = hash * 31 + annotation.getClass().getName().hashCode();
+            hash = hash * 31 + annotationHashCode(annotation);
+        }
+        return hash;
+    }
+
+    private int annotationHashCode(BugAnnotation annotation) {
+        if (annotation instanceof ClassAnnotation) {
+            return classNameRewriter.rewriteClassName(((ClassAnnotation) annotation).getClassName()).hashCode();
+        } else if (annotation instanceof MethodAnnotation) {
+            MethodAnnotation method = ClassNameRewriterUtil.convertMethodAnnotation(classNameRewriter,
+                    (MethodAnnotation) annotation);
+            return (method.getClassName().hashCode() * 31 + method.getMethodName().hashCode()) * 31
+                    + method.getMethodSignature().hashCode();
+        } else if (annotation instanceof FieldAnnotation) {
+            FieldAnnotation field = ClassNameRewriterUtil.convertFieldAnnotation(classNameRewriter,
+                    (FieldAnnotation) annotation);
+            return (field.getClassName().hashCode() * 31 + field.getFieldName().hashCode()) * 31
+                    + field.getFieldSignature().hashCode();
+        } else if (annotation instanceof StringAnnotation) {
+            return ((StringAnnotation) annotation).getValue().hashCode();
+        } else if (annotation instanceof TypeAnnotation) {
+            return ClassNameRewriterUtil.rewriteSignature(classNameRewriter,
+                    ((TypeAnnotation) annotation).getTypeDescriptor()).hashCode();
+        } else if (annotation instanceof IntAnnotation) {
+            return ((IntAnnotation) annotation).getValue();
+        }
+        return 0;
+    }
+
     private boolean interestingNext(Iterator<BugAnnotation> i) {
         while (i.hasNext()) {
             BugAnnotation a = i.next();
@@ -0,0 +1,341 @@
+/*
+ * Bytecode Analysis Framework
+ * Copyright (C) 2003-2007 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.ba;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+
+import edu.umd.cs.findbugs.SystemProperties;
+import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
+import edu.umd.cs.findbugs.classfile.Global;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+import edu.umd.cs.findbugs.classfile.IErrorLogger;
+import edu.umd.cs.findbugs.classfile.IMethodAnalysisEngine;
+import edu.umd.cs.findbugs.classfile.MethodDescriptor;
+
+/**
+ * Time budget of an analysis run, used instead of hard size limits to bound
+ * the time spent on expensive methods.
+ * <p>
+ * Each method gets a budget of findbugs.budget.methodMillis milliseconds for
+ * computing its analyses. The time spent computing the analyses of other
+ * methods they need (such as the summaries of the methods they call) is
+ * charged to these methods, not to the method requesting them. Once a method has used up its budget (or one of its
+ * dataflow analyses needs more than dataflow.maxiters iterations), its dataflow
+ * analyses that are not computed yet are skipped by throwing
+ * {@link MethodUnprofitableException}: detectors skip the method as they do
+ * for other unprofitable methods, while the cheaper analyses (CFG, bytecode
+ * scanning) and the dataflow results already computed remain available. Each
+ * method hitting its budget is reported as an analysis error.
+ * <p>
+ * Once the run has lasted findbugs.budget.runSeconds seconds, classes outside
+ * the application are no longer analyzed, and the methods of application
+ * classes only get a tenth of their budget (or
+ * {@value #OVERRUN_METHOD_MILLIS} ms if there is no per-method budget).
+ * <p>
+ * Budgets are disabled by default; with a per-method budget, huge methods
+ * and classes with more than 1000 methods are no longer skipped.
+ */
+public class AnalysisBudget {
+
+    static final int METHOD_MILLIS = SystemProperties.getInt("findbugs.budget.methodMillis", 0);
+
+    static final int RUN_SECONDS = SystemProperties.getInt("findbugs.budget.runSeconds", 0);
+
+    /** Per-method budget once the run budget is exhausted, if there is no per-method budget */
+    static final int OVERRUN_METHOD_MILLIS = 100;
+
+    /**
+     * Method analysis the current thread computes, nested in the analysis
+     * that requested it
+     */
+    private static class RunningAnalysis {
+        final MethodDescriptor method;
+
+        final long startNanoTime;
+
+        @CheckForNull
+        final RunningAnalysis outer;
+
+        /** Time spent computing the analyses nested in this one */
+        long nestedNanoTime;
+
+        RunningAnalysis(MethodDescriptor method, @CheckForNull RunningAnalysis outer) {
+            this.method = method;
+            this.outer = outer;
+            this.startNanoTime = System.nanoTime();
+        }
+    }
+
+    private static final ThreadLocal<RunningAnalysis> running = new ThreadLocal<RunningAnalysis>();
+
+    private final long runStartNanoTime = System.nanoTime();
+
+    /** Budget of each method, or 0 if there is none */
+    private final long methodBudgetNanoTime;
+
+    /** Budget of the run, or 0 if there is none */
+    private final long runBudgetNanoTime;
+
+    private final ConcurrentMap<MethodDescriptor, AtomicLong> spentNanoTime = new ConcurrentHashMap<MethodDescriptor, AtomicLong>();
+
+    private final Set<MethodDescriptor> exhausted = Collections
+            .newSetFromMap(new ConcurrentHashMap<MethodDescriptor, Boolean>());
+
+    private final AtomicInteger skippedClasses = new AtomicInteger();
+
+    /**
+     * Constructor, using the budgets set by the findbugs.budget.methodMillis
+     * and findbugs.budget.runSeconds properties.
+     */
+    public AnalysisBudget() {
+        this(TimeUnit.NANOSECONDS.convert(METHOD_MILLIS, TimeUnit.MILLISECONDS), TimeUnit.NANOSECONDS.convert(RUN_SECONDS,
+                TimeUnit.SECONDS));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param methodBudgetNanoTime
+     *            budget of each method, or 0 if there is none
+     * @param runBudgetNanoTime
+     *            budget of the run, or 0 if there is none
+     */
+    AnalysisBudget(long methodBudgetNanoTime, long runBudgetNanoTime) {
+        this.methodBudgetNanoTime = methodBudgetNanoTime;
+        this.runBudgetNanoTime = runBudgetNanoTime;
+    }
+
+    /**
+     * @return true if a per-method or per-run budget is set
+     */
+    public static boolean isEnabled() {
+        return METHOD_MILLIS > 0 || RUN_SECONDS > 0;
+    }
+
+    /**
+     * @return true if methods are analyzed within a per-method budget rather
+     *         than skipped when they are too big
+     */
+    public static boolean hasMethodBudget() {
+        return METHOD_MILLIS > 0;
+    }
+
+    /**
+     * @return the budget of the current analysis run, or null if budgets are
+     *         disabled
+     */
+    @CheckForNull
+    public static AnalysisBudget current() {
+        if (!isEnabled()) {
+            return null;
+        }
+        AnalysisContext analysisContext = AnalysisContext.currentAnalysisContext();
+        return analysisContext == null ? null : analysisContext.getAnalysisBudget();
+    }
+
+    /**
+     * Compute a method analysis, charging the time spent to the method's
+     * budget. Used by the analysis caches.
+     *
+     * @see #analyze(IAnalysisCache, IMethodAnalysisEngine, Class,
+     *      MethodDescriptor)
+     *
+     * @param analysisCache
+     *            the analysis cache
+     * @param engine
+     *            the engine computing the analysis
+     * @param analysisClass
+     *            the class of the analysis
+     * @param method
+     *            the analyzed method
+     * @return the analysis result
+     * @throws MethodUnprofitableException
+     *             if the analysis is a dataflow analysis and the method's
+     *             budget is exhausted
+     */
+    public static <E> E analyzeMethod(IAnalysisCache analysisCache, IMethodAnalysisEngine<E> engine, Class<?> analysisClass,
+            MethodDescriptor method) throws CheckedAnalysisException {
+        AnalysisBudget budget = current();
+        if (budget == null) {
+            return engine.analyze(analysisCache, method);
+        }
+        return budget.analyze(analysisCache, engine, analysisClass, method);
+    }
+
+    /**
+     * Compute a method analysis, charging the time spent to the method's
+     * budget, except the time spent computing the analyses it needs, which
+     * is charged to their own methods.
+     *
+     * @param analysisCache
+     *            the analysis cache
+     * @param engine
+     *            the engine computing the analysis
+     * @param analysisClass
+     *            the class of the analysis
+     * @param method
+     *            the analyzed method
+     * @return the analysis result
+     * @throws MethodUnprofitableException
+     *             if the analysis is a dataflow analysis and the method's
+     *             budget is exhausted
+     */
+    <E> E analyze(IAnalysisCache analysisCache, IMethodAnalysisEngine<E> engine, Class<?> analysisClass,
+            MethodDescriptor method) throws CheckedAnalysisException {
+        boolean isDataflow = Dataflow.class.isAssignableFrom(analysisClass);
+        if (isDataflow && isExhausted(method)) {
+            throw new MethodUnprofitableException(method);
+        }
+        RunningAnalysis runningAnalysis = new RunningAnalysis(method, running.get());
+        running.set(runningAnalysis);
+        try {
+            return engine.analyze(analysisCache, method);
+        } catch (DataflowAnalysisException e) {
+            if (isDataflow && exhausted.contains(method)) {
+                throw new MethodUnprofitableException(method);
+            }
+            throw e;
+        } finally {
+            long nanoTime = System.nanoTime() - runningAnalysis.startNanoTime;
+            RunningAnalysis outer = runningAnalysis.outer;
+            if (outer == null) {
+                running.remove();
+            } else {
+                running.set(outer);
+                outer.nestedNanoTime += nanoTime;
+            }
+            charge(method, nanoTime - runningAnalysis.nestedNanoTime);
+        }
+    }
+
+    private void charge(MethodDescriptor method, long nanoTime) {
+        AtomicLong spent = spentNanoTime.get(method);
+        if (spent == null) {
+            spent = new AtomicLong();
+            AtomicLong tmp = spentNanoTime.putIfAbsent(method, spent);
+            if (tmp != null) {
+                spent = tmp;
+            }
+        }
+        spent.addAndGet(nanoTime);
+    }
+
+    /**
+     * @return true if the run has lasted longer than its budget
+     */
+    public boolean isRunExhausted() {
+        return runBudgetNanoTime > 0 && System.nanoTime() - runStartNanoTime > runBudgetNanoTime;
+    }
+
+    private long getMethodBudgetNanoTime() {
+        long nanoTime = methodBudgetNanoTime;
+        if (isRunExhausted()) {
+            nanoTime = nanoTime > 0 ? nanoTime / 10 : TimeUnit.NANOSECONDS.convert(OVERRUN_METHOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return nanoTime > 0 ? nanoTime : Long.MAX_VALUE;
+    }
+
+    /**
+     * Check whether a method has used up its budget, including the time spent
+     * so far by the analyses of the method the current thread is computing.
+     *
+     * @param method
+     *            a method
+     * @return true if its dataflow analyses should be skipped
+     */
+    public boolean isExhausted(MethodDescriptor method) {
+        if (exhausted.contains(method)) {
+            return true;
+        }
+        AtomicLong spent = spentNanoTime.get(method);
+        long nanoTime = spent == null ? 0 : spent.get();
+        // Each running analysis has spent the time until the start of the
+        // analysis nested in it, minus the time of those completed already
+        long nestedStartNanoTime = System.nanoTime();
+        for (RunningAnalysis r = running.get(); r != null; r = r.outer) {
+            if (method.equals(r.method)) {
+                nanoTime += nestedStartNanoTime - r.startNanoTime - r.nestedNanoTime;
+            }
+            nestedStartNanoTime = r.startNanoTime;
+        }
+        if (nanoTime <= getMethodBudgetNanoTime()) {
+            return false;
+        }
+        setExhausted(method, "after " + TimeUnit.MILLISECONDS.convert(nanoTime, TimeUnit.NANOSECONDS) + " ms");
+        return true;
+    }
+
+    /**
+     * Record that a method has used up its budget, and report it.
+     *
+     * @param method
+     *            the method
+     * @param reason
+     *            why the budget is exhausted
+     */
+    public void setExhausted(MethodDescriptor method, String reason) {
+        if (exhausted.add(method)) {
+            IAnalysisCache analysisCache = Global.getAnalysisCache();
+            if (analysisCache != null) {
+                IErrorLogger errorLogger = analysisCache.getErrorLogger();
+                errorLogger.logError("Analysis budget exhausted " + reason + " in " + method);
+                errorLogger.reportSkippedAnalysis(method);
+            }
+        }
+    }
+
+    /**
+     * @return the methods whose budget is exhausted
+     */
+    public Set<MethodDescriptor> getExhaustedMethods() {
+        return Collections.unmodifiableSet(exhausted);
+    }
+
+    /**
+     * Check whether a class should be skipped because the run budget is
+     * exhausted, and count it if so.
+     *
+     * @param isApplicationClass
+     *            true if the class is an application class
+     * @return true if the class should not be analyzed
+     */
+    public boolean skipClass(boolean isApplicationClass) {
+        if (isApplicationClass || !isRunExhausted()) {
+            return false;
+        }
+        skippedClasses.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return number of classes skipped because the run budget is exhausted
+     */
+    public int getSkippedClasses() {
+        return skippedClasses.get();
+    }
+}
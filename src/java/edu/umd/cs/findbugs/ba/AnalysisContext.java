@@ -148,7 +148,11 @@ public class AnalysisContext {
 
     private ClassSummary classSummary;
 
-    private ClassDescriptor classBeingAnalyzed;
+    /**
+     * Class being analyzed by the current thread; with a multi-threaded
+     * analysis every worker visits a different class.
+     */
+    private final ThreadLocal<ClassDescriptor> classBeingAnalyzed = new ThreadLocal<ClassDescriptor>();
 
     private FieldSummary fieldSummary;
 
@@ -172,6 +176,7 @@ public class AnalysisContext {
 
     private final Map<MethodInfo, MethodInfo> bridgeFrom;
 
+    private final AnalysisBudget analysisBudget = new AnalysisBudget();
 
     public AnalysisContext(@Nonnull Project project) {
         requireNonNull(project);
@@ -199,20 +204,27 @@ public class AnalysisContext {
         return currentAnalysisContext.get();
     }
 
+    /**
+     * Get the time budget of this analysis run.
+     */
+    public AnalysisBudget getAnalysisBudget() {
+        return analysisBudget;
+    }
+
     static public XFactory currentXFactory() {
         return currentXFactory.get();
     }
 
     public ClassDescriptor getClassBeingAnalyzed() {
-        return classBeingAnalyzed;
+        return classBeingAnalyzed.get();
     }
 
     public void setClassBeingAnalyzed(@Nonnull ClassDescriptor classBeingAnalyzed) {
-        this.classBeingAnalyzed = classBeingAnalyzed;
+        this.classBeingAnalyzed.set(classBeingAnalyzed);
     }
 
     public void clearClassBeingAnalyzed() {
-        this.classBeingAnalyzed = null;
+        this.classBeingAnalyzed.remove();
     }
 
     public ClassSummary getClassSummary() {
@@ -487,7 +499,7 @@ public class AnalysisContext {
             }
             try {
                 JavaClass javaClass = classContext.getJavaClass();
-                if (javaClass.getMethods().length > 1000) {
+                if (javaClass.getMethods().length > 1000 && !AnalysisBudget.hasMethodBudget()) {
                     return true;
                 }
             } catch (RuntimeException e) {
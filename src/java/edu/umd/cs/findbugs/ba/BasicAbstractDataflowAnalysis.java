@@ -179,6 +179,19 @@ public abstract class BasicAbstractDataflowAnalysis<Fact> implements DataflowAna
         // Subclasses may override.
     }
 
+    /**
+     * Return whether the dataflow driver may reuse the same scratch facts for
+     * the edge facts it passes to meetInto() and the copies of the previous
+     * results it passes to same(), rather than creating new ones each time.
+     * This is only safe if the analysis never retains these facts, nor
+     * anything they contain, in another fact.
+     *
+     * @return true if the scratch facts can be reused; false by default
+     */
+    public boolean allowsFactReuse() {
+        return false;
+    }
+
     private Fact lookupOrCreateFact(Map<BasicBlock, Fact> map, BasicBlock block) {
         Fact fact = map.get(block);
         if (fact == null) {
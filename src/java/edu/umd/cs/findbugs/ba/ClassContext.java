@@ -71,7 +71,9 @@ import edu.umd.cs.findbugs.classfile.engine.bcel.NonExceptionPostdominatorsAnaly
 import edu.umd.cs.findbugs.classfile.engine.bcel.NonImplicitExceptionPostDominatorsAnalysis;
 import edu.umd.cs.findbugs.classfile.engine.bcel.UnpackedBytecodeCallback;
 import edu.umd.cs.findbugs.classfile.engine.bcel.UnpackedCode;
+import edu.umd.cs.findbugs.util.CacheBudget;
 import edu.umd.cs.findbugs.util.MapCache;
+import edu.umd.cs.findbugs.util.WeightedMapCache;
 
 /**
  * A ClassContext caches all of the auxiliary objects used to analyze the
@@ -95,6 +97,18 @@ public class ClassContext {
 
     private final Map<Class<?>, Map<MethodDescriptor, Object>> methodAnalysisObjectMap;
 
+    /**
+     * Memory budget bounding the cached dataflow results, or null if they are
+     * bounded by entry counts.
+     */
+    private final CacheBudget cacheBudget;
+
+    /**
+     * Set when this ClassContext was removed from the analysis cache: the
+     * method analyses no longer count against the memory budget.
+     */
+    private boolean releasedFromBudget;
+
     /*
      * ----------------------------------------------------------------------
      * Public methods
@@ -116,21 +130,26 @@ public class ClassContext {
         this.jclass = jclass;
         this.analysisContext = analysisContext;
         this.methodAnalysisObjectMap = new HashMap<Class<?>, Map<MethodDescriptor, Object>>();
+        IAnalysisCache analysisCache = Global.getAnalysisCache();
+        this.cacheBudget = analysisCache.getOptionalDatabase(CacheBudget.class);
         try {
-            classInfo = (ClassInfo) Global.getAnalysisCache().getClassAnalysis(XClass.class,
+            classInfo = (ClassInfo) analysisCache.getClassAnalysis(XClass.class,
                     DescriptorFactory.createClassDescriptor(jclass));
         } catch (CheckedAnalysisException e) {
             throw new AssertionError("No ClassInfo for " + jclass);
         }
     }
 
-    public Map<MethodDescriptor, Object> getObjectMap(Class<?> analysisClass) {
+    public synchronized Map<MethodDescriptor, Object> getObjectMap(Class<?> analysisClass) {
         Map<MethodDescriptor, Object> objectMap = methodAnalysisObjectMap.get(analysisClass);
         if (objectMap == null) {
-            if (analysisClass == ValueNumberDataflow.class) {
-                objectMap = new MapCache<MethodDescriptor, Object>(300);
+            if (cacheBudget != null && !releasedFromBudget && Dataflow.class.isAssignableFrom(analysisClass)) {
+                objectMap = new WeightedMapCache<MethodDescriptor, Object>(cacheBudget, MethodAnalysisWeigher.INSTANCE,
+                        new EvictionCounter(analysisClass));
+            } else if (analysisClass == ValueNumberDataflow.class) {
+                objectMap = new CountingMapCache(analysisClass, 300);
             } else if (Dataflow.class.isAssignableFrom(analysisClass)) {
-                objectMap = new MapCache<MethodDescriptor, Object>(500);
+                objectMap = new CountingMapCache(analysisClass, 500);
             } else {
                 objectMap = new HashMap<MethodDescriptor, Object>();
             }
@@ -150,7 +169,7 @@ public class ClassContext {
      * @param object
      *            the analysis object to cache
      */
-    public void putMethodAnalysis(Class<?> analysisClass, MethodDescriptor methodDescriptor, Object object) {
+    public synchronized void putMethodAnalysis(Class<?> analysisClass, MethodDescriptor methodDescriptor, Object object) {
         if (object == null) {
             throw new IllegalArgumentException();
         }
@@ -167,22 +186,86 @@ public class ClassContext {
      *            method descriptor identifying the analyzed method
      * @return the analysis object
      */
-    public Object getMethodAnalysis(Class<?> analysisClass, MethodDescriptor methodDescriptor) {
+    public synchronized Object getMethodAnalysis(Class<?> analysisClass, MethodDescriptor methodDescriptor) {
         Map<MethodDescriptor, Object> objectMap = getObjectMap(analysisClass);
         return objectMap.get(methodDescriptor);
     }
 
-    public void purgeAllMethodAnalyses() {
+    public synchronized void purgeAllMethodAnalyses() {
+        // Clear the maps first, so that weighted maps return their weight
+        // to the memory budget
+        for (Map<MethodDescriptor, Object> objectMap : methodAnalysisObjectMap.values()) {
+            objectMap.clear();
+        }
         methodAnalysisObjectMap.clear();
     }
 
+    /**
+     * Called when this ClassContext is removed from the analysis cache. The
+     * cached method analyses no longer count against the memory budget; they
+     * are kept, since a detector may still be working on the class.
+     */
+    public synchronized void releaseCacheBudget() {
+        if (releasedFromBudget) {
+            return;
+        }
+        releasedFromBudget = true;
+        for (Map<MethodDescriptor, Object> objectMap : methodAnalysisObjectMap.values()) {
+            if (objectMap instanceof WeightedMapCache) {
+                ((WeightedMapCache<MethodDescriptor, Object>) objectMap).release();
+            }
+        }
+    }
+
+    /**
+     * Counts discarded method analysis results in the profiler.
+     */
+    private static class EvictionCounter implements WeightedMapCache.RemovalListener<MethodDescriptor, Object> {
+        private final Class<?> analysisClass;
+
+        EvictionCounter(Class<?> analysisClass) {
+            this.analysisClass = analysisClass;
+        }
+
+        @Override
+        public void removed(MethodDescriptor key, Object value, boolean evicted) {
+            if (evicted) {
+                Global.getAnalysisCache().getProfiler().cacheEviction(analysisClass);
+            }
+        }
+    }
+
+    /**
+     * MapCache which counts discarded method analysis results in the
+     * profiler.
+     */
+    private static class CountingMapCache extends MapCache<MethodDescriptor, Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final Class<?> analysisClass;
+
+        CountingMapCache(Class<?> analysisClass, int maxCapacity) {
+            super(maxCapacity);
+            this.analysisClass = analysisClass;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<MethodDescriptor, Object> eldest) {
+            boolean result = super.removeEldestEntry(eldest);
+            if (result) {
+                Global.getAnalysisCache().getProfiler().cacheEviction(analysisClass);
+            }
+            return result;
+        }
+    }
+
     /**
      * Purge all CFG-based method analyses for given method.
      *
      * @param methodDescriptor
      *            method descriptor identifying method to purge
      */
-    public void purgeMethodAnalyses(MethodDescriptor methodDescriptor) {
+    public synchronized void purgeMethodAnalyses(MethodDescriptor methodDescriptor) {
         Set<Map.Entry<Class<?>, Map<MethodDescriptor, Object>>> entrySet = methodAnalysisObjectMap.entrySet();
         for (Iterator<Map.Entry<Class<?>, Map<MethodDescriptor, Object>>> i = entrySet.iterator(); i.hasNext();) {
             Map.Entry<Class<?>, Map<MethodDescriptor, Object>> entry = i.next();
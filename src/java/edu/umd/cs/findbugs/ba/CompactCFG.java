@@ -0,0 +1,143 @@
+/*
+ * Bytecode Analysis Framework
+ * Copyright (C) 2003-2007 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.ba;
+
+import java.util.Iterator;
+
+/**
+ * Compact, read-only form of a {@link CFG}, with blocks indexed by label and
+ * the edges of each block stored in arrays (compressed sparse rows), so that
+ * they can be traversed without allocating iterators.
+ * <p>
+ * The compact form shares the blocks and edges of the CFG, which must not be
+ * modified while it is in use. It is not cached with the CFG, so as not to
+ * retain both forms: it is meant to be built by the code traversing the CFG
+ * many times, such as {@link Dataflow}, and dropped afterwards. The edges of a
+ * block are in the same order as in the CFG's edge iterators.
+ */
+public final class CompactCFG {
+
+    private final BasicBlock[] blocks;
+
+    private final int[] successorStart;
+
+    private final Edge[] successorEdges;
+
+    private final int[] predecessorStart;
+
+    private final Edge[] predecessorEdges;
+
+    /**
+     * Build the compact form of a CFG.
+     *
+     * @param cfg
+     *            the CFG
+     */
+    public CompactCFG(CFG cfg) {
+        int numLabels = cfg.getNumVertexLabels();
+        blocks = new BasicBlock[numLabels];
+        successorStart = new int[numLabels + 1];
+        predecessorStart = new int[numLabels + 1];
+
+        for (Iterator<BasicBlock> i = cfg.blockIterator(); i.hasNext();) {
+            BasicBlock block = i.next();
+            int label = block.getLabel();
+            blocks[label] = block;
+            successorStart[label + 1] = cfg.getNumOutgoingEdges(block);
+            predecessorStart[label + 1] = cfg.getNumIncomingEdges(block);
+        }
+        for (int label = 0; label < numLabels; label++) {
+            successorStart[label + 1] += successorStart[label];
+            predecessorStart[label + 1] += predecessorStart[label];
+        }
+
+        successorEdges = new Edge[successorStart[numLabels]];
+        predecessorEdges = new Edge[predecessorStart[numLabels]];
+        for (Iterator<BasicBlock> i = cfg.blockIterator(); i.hasNext();) {
+            BasicBlock block = i.next();
+            int label = block.getLabel();
+            int k = successorStart[label];
+            for (Iterator<Edge> j = cfg.outgoingEdgeIterator(block); j.hasNext();) {
+                successorEdges[k++] = j.next();
+            }
+            k = predecessorStart[label];
+            for (Iterator<Edge> j = cfg.incomingEdgeIterator(block); j.hasNext();) {
+                predecessorEdges[k++] = j.next();
+            }
+        }
+    }
+
+    /**
+     * @return the number of block labels: labels are between 0 and this
+     *         number (excluded)
+     */
+    public int getNumBlockLabels() {
+        return blocks.length;
+    }
+
+    /**
+     * @param label
+     *            a block label
+     * @return the block with this label, or null if it is not in the CFG
+     */
+    public BasicBlock getBlock(int label) {
+        return blocks[label];
+    }
+
+    /**
+     * @param label
+     *            a block label
+     * @return the number of outgoing edges of the block
+     */
+    public int getNumOutgoingEdges(int label) {
+        return successorStart[label + 1] - successorStart[label];
+    }
+
+    /**
+     * @param label
+     *            a block label
+     * @param index
+     *            the index of the edge, less than getNumOutgoingEdges(label)
+     * @return the outgoing edge of the block with this index
+     */
+    public Edge getOutgoingEdge(int label, int index) {
+        return successorEdges[successorStart[label] + index];
+    }
+
+    /**
+     * @param label
+     *            a block label
+     * @return the number of incoming edges of the block
+     */
+    public int getNumIncomingEdges(int label) {
+        return predecessorStart[label + 1] - predecessorStart[label];
+    }
+
+    /**
+     * @param label
+     *            a block label
+     * @param index
+     *            the index of the edge, less than getNumIncomingEdges(label)
+     * @return the incoming edge of the block with this index
+     */
+    public Edge getIncomingEdge(int label, int index) {
+        return predecessorEdges[predecessorStart[label] + index];
+    }
+}
@@ -20,9 +20,15 @@
 package edu.umd.cs.findbugs.ba;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.bcel.generic.InstructionHandle;
 import org.apache.bcel.generic.MethodGen;
@@ -34,6 +40,9 @@ import edu.umd.cs.findbugs.ba.deref.UnconditionalValueDerefSet;
 import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
 import edu.umd.cs.findbugs.classfile.DescriptorFactory;
 import edu.umd.cs.findbugs.classfile.Global;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+import edu.umd.cs.findbugs.classfile.MethodDescriptor;
+import edu.umd.cs.findbugs.util.ClassName;
 
 /**
  * Perform dataflow analysis on a method using a control flow graph. Both
@@ -47,6 +56,15 @@ import edu.umd.cs.findbugs.classfile.Global;
  * The analysis's transfer function is applied to transform the meet of the
  * results of the block's logical predecessors (the block's start facts) into
  * the block's result facts.
+ * <p>
+ * Two solvers are available. The default one sweeps over all the blocks in the
+ * analysis's block order until no result changes. The worklist solver visits
+ * the strongly connected components of the CFG in topological order,
+ * iterating over each component until it is stable, and only recomputes the
+ * blocks whose logical predecessors have changed. The worklist solver is
+ * selected per analysis class, using {@link #setWorklistSolver(Class, boolean)}
+ * or the dataflow.worklist property (a comma separated list of analysis class
+ * names, or "all").
  *
  * @author David Hovemeyer
  * @see CFG
@@ -63,8 +81,37 @@ public class Dataflow<Fact, AnalysisType extends DataflowAnalysis<Fact>> {
 
     private int numIterations;
 
+    /**
+     * True if the facts used for the edges and for the previous result of a
+     * block can be reused, because the analysis never retains them
+     */
+    private final boolean reuseFacts;
+
+    private Fact scratchEdgeFact, scratchOrigResult;
+
+    /**
+     * Compact form of the CFG, used to iterate over the edges while executing,
+     * and dropped afterwards so that cached results do not retain it
+     */
+    private CompactCFG compactCFG;
+
     public static boolean DEBUG = SystemProperties.getBoolean("dataflow.debug");
 
+    private static final String ALL_ANALYSES = "all";
+
+    /** Names of the analysis classes using the worklist solver */
+    private static final Set<String> worklistAnalyses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    static {
+        String names = SystemProperties.getProperty("dataflow.worklist");
+        if (names != null) {
+            for (String name : names.split(",")) {
+                if (name.trim().length() > 0) {
+                    worklistAnalyses.add(name.trim());
+                }
+            }
+        }
+    }
+
     /**
      * Constructor.
      *
@@ -79,6 +126,8 @@ public class Dataflow<Fact, AnalysisType extends DataflowAnalysis<Fact>> {
         blockOrder = analysis.getBlockOrder(cfg);
         isForwards = analysis.isForwards();
         numIterations = 0;
+        reuseFacts = analysis instanceof BasicAbstractDataflowAnalysis
+                && ((BasicAbstractDataflowAnalysis<?>) analysis).allowsFactReuse();
 
         // Initialize result facts
         Iterator<BasicBlock> i = cfg.blockIterator();
@@ -134,12 +183,83 @@ public class Dataflow<Fact, AnalysisType extends DataflowAnalysis<Fact>> {
 
     }
 
+    /**
+     * Select the solver used by the dataflow analyses of given class.
+     *
+     * @param analysisClass
+     *            a DataflowAnalysis class
+     * @param worklist
+     *            true to use the worklist solver, false to use the default
+     *            one
+     */
+    public static void setWorklistSolver(Class<?> analysisClass, boolean worklist) {
+        if (worklist) {
+            worklistAnalyses.add(analysisClass.getName());
+        } else {
+            worklistAnalyses.remove(analysisClass.getName());
+            worklistAnalyses.remove(analysisClass.getSimpleName());
+        }
+    }
+
+    /**
+     * Select the solver used by all dataflow analyses, overriding the
+     * selection of each analysis class.
+     *
+     * @param worklist
+     *            true to use the worklist solver, false to use the default
+     *            one
+     */
+    public static void setWorklistSolver(boolean worklist) {
+        worklistAnalyses.clear();
+        if (worklist) {
+            worklistAnalyses.add(ALL_ANALYSES);
+        }
+    }
+
+    /**
+     * @param analysisClass
+     *            a DataflowAnalysis class
+     * @return true if the dataflow analyses of given class use the worklist
+     *         solver
+     */
+    public static boolean isWorklistSolver(Class<?> analysisClass) {
+        return !worklistAnalyses.isEmpty()
+                && (worklistAnalyses.contains(ALL_ANALYSES) || worklistAnalyses.contains(analysisClass.getName()) || worklistAnalyses
+                        .contains(analysisClass.getSimpleName()));
+    }
+
     /**
      * Run the algorithm. Afterwards, caller can use the getStartFact() and
      * getResultFact() methods to to get dataflow facts at start and result
      * points of each block.
      */
     public void execute() throws DataflowAnalysisException {
+        AnalysisBudget budget = AnalysisBudget.current();
+        MethodDescriptor budgetMethod = null;
+        MethodGen methodGen = cfg.getMethodGen();
+        if (budget != null && methodGen != null) {
+            budgetMethod = DescriptorFactory.instance().getMethodDescriptor(
+                    ClassName.toSlashedClassName(methodGen.getClassName()), methodGen.getName(), methodGen.getSignature(),
+                    methodGen.isStatic());
+        }
+
+        compactCFG = new CompactCFG(cfg);
+        try {
+            if (isWorklistSolver(analysis.getClass())) {
+                executeWorklist(budget, budgetMethod);
+            } else {
+                executeIterative(budget, budgetMethod);
+            }
+        } finally {
+            compactCFG = null;
+        }
+        IAnalysisCache analysisCache = Global.getAnalysisCache();
+        if (analysisCache != null) {
+            analysisCache.getProfiler().dataflowExecuted(analysis.getClass(), numIterations);
+        }
+    }
+
+    private void executeIterative(AnalysisBudget budget, MethodDescriptor budgetMethod) throws DataflowAnalysisException {
         boolean change;
         boolean debugWas = DEBUG;
         if (DEBUG) {
@@ -152,6 +272,18 @@ public class Dataflow<Fact, AnalysisType extends DataflowAnalysis<Fact>> {
             change = false;
             boolean sawBackEdge = false;
             ++numIterations;
+            if (budgetMethod != null) {
+                // Give up gracefully: the analyses of the method which are
+                // not computed yet will be skipped
+                if (numIterations > MAX_ITERS) {
+                    budget.setExhausted(budgetMethod, "after " + MAX_ITERS + " iterations of "
+                            + analysis.getClass().getSimpleName());
+                }
+                if (budget.isExhausted(budgetMethod)) {
+                    throw new DataflowAnalysisException("Analysis budget exhausted when analyzing "
+                            + getFullyQualifiedMethodName());
+                }
+            }
             if (numIterations > MAX_ITERS && !DEBUG) {
                 DEBUG = true;
                 reportAnalysis("Too many iterations");
@@ -254,12 +386,12 @@ public class Dataflow<Fact, AnalysisType extends DataflowAnalysis<Fact>> {
                     needToRecompute = true;
                 } else {
                     int lastCalculated = analysis.getLastUpdateTimestamp(start);
-                    Iterator<Edge> predEdgeIter = logicalPredecessorEdgeIterator(block);
+                    int numPredEdges = getNumLogicalPredecessorEdges(block);
 
                     int predCount = 0;
                     int rawPredCount = 0;
-                    while (predEdgeIter.hasNext()) {
-                        Edge edge = predEdgeIter.next();
+                    for (int p = 0; p < numPredEdges; p++) {
+                        Edge edge = getLogicalPredecessorEdge(block, p);
                         rawPredCount++;
                         if (needToRecompute) {
                             // don't need to check to see if we need to recompute.
@@ -306,16 +438,15 @@ public class Dataflow<Fact, AnalysisType extends DataflowAnalysis<Fact>> {
                     }
 
                     analysis.makeFactTop(start);
-                    predEdgeIter = logicalPredecessorEdgeIterator(block);
-                    while (predEdgeIter.hasNext()) {
-                        Edge edge = predEdgeIter.next();
+                    for (int p = 0; p < numPredEdges; p++) {
+                        Edge edge = getLogicalPredecessorEdge(block, p);
                         BasicBlock logicalPred = isForwards ? edge.getSource() : edge.getTarget();
 
                         // Get the predecessor result fact
                         Fact predFact = analysis.getResultFact(logicalPred);
 
                         // Apply the edge transfer function.
-                        Fact edgeFact = analysis.createFact();
+                        Fact edgeFact = createEdgeFact();
                         analysis.copy(predFact, edgeFact);
                         analysis.edgeTransfer(edge, edgeFact);
 
@@ -366,7 +497,7 @@ public class Dataflow<Fact, AnalysisType extends DataflowAnalysis<Fact>> {
                 boolean resultWasTop = analysis.isTop(result);
                 Fact origResult = null;
                 if (!resultWasTop) {
-                    origResult = analysis.createFact();
+                    origResult = createOrigResultFact();
                     analysis.copy(result, origResult);
                 }
 
@@ -439,6 +570,262 @@ public class Dataflow<Fact, AnalysisType extends DataflowAnalysis<Fact>> {
         DEBUG = debugWas;
     }
 
+    /**
+     * Worklist solver. The blocks are ordered by strongly connected component
+     * (in topological order of the components), then by the analysis's block
+     * order. The block recomputed next is always the first scheduled one in
+     * this order, so each component is stable before the next ones are
+     * visited. The number of iterations is the largest number of times a
+     * block was computed.
+     * <p>
+     * Analyses may keep state about the last iteration, which they expect to
+     * have visited every block (e.g. the locations where values become null
+     * in IsNullValueAnalysis). So once the facts are stable, every block is
+     * computed once more, in an iteration of its own.
+     */
+    private void executeWorklist(AnalysisBudget budget, MethodDescriptor budgetMethod) throws DataflowAnalysisException {
+        if (DEBUG) {
+            reportAnalysis("Executing (worklist)");
+        }
+        BasicBlock[] blocks = getWorklistOrder();
+        int[] position = new int[cfg.getNumVertexLabels()];
+        Arrays.fill(position, -1);
+        for (int k = 0; k < blocks.length; k++) {
+            position[blocks[k].getLabel()] = k;
+        }
+        int[] visits = new int[blocks.length];
+        BitSet worklist = new BitSet(blocks.length);
+        worklist.set(0, blocks.length);
+        int timestamp = 0;
+        numIterations = blocks.length > 0 ? 1 : 0;
+
+        analysis.startIteration();
+        for (int k = worklist.nextSetBit(0); k >= 0; k = worklist.nextSetBit(0)) {
+            worklist.clear(k);
+            BasicBlock block = blocks[k];
+            if (++visits[k] > numIterations) {
+                numIterations = visits[k];
+                checkIterations(budget, budgetMethod);
+            }
+
+            if (updateBlock(block, timestamp)) {
+                timestamp++;
+                int numSuccEdges = getNumLogicalSuccessorEdges(block);
+                for (int p = 0; p < numSuccEdges; p++) {
+                    Edge edge = getLogicalSuccessorEdge(block, p);
+                    int succ = position[(isForwards ? edge.getTarget() : edge.getSource()).getLabel()];
+                    if (succ >= 0) {
+                        worklist.set(succ);
+                    }
+                }
+            }
+        }
+        analysis.finishIteration();
+
+        analysis.startIteration();
+        for (BasicBlock block : blocks) {
+            Fact result = analysis.getResultFact(block);
+            int resultTimestamp = analysis.getLastUpdateTimestamp(result);
+            analysis.transfer(block, null, analysis.getStartFact(block), result);
+            analysis.setLastUpdateTimestamp(result, resultTimestamp);
+        }
+        analysis.finishIteration();
+
+        if (DEBUG) {
+            System.out.println("-- Quiescence achieved after " + numIterations + " iterations, timestamp: " + timestamp);
+        }
+    }
+
+    private void checkIterations(AnalysisBudget budget, MethodDescriptor budgetMethod) throws DataflowAnalysisException {
+        if (budgetMethod != null) {
+            if (numIterations > MAX_ITERS) {
+                budget.setExhausted(budgetMethod, "after " + MAX_ITERS + " iterations of " + analysis.getClass().getSimpleName());
+            }
+            if (budget.isExhausted(budgetMethod)) {
+                throw new DataflowAnalysisException("Analysis budget exhausted when analyzing " + getFullyQualifiedMethodName());
+            }
+        }
+        if (numIterations >= MAX_ITERS + 9) {
+            throw new DataflowAnalysisException("Too many iterations (" + numIterations + ") in dataflow when analyzing "
+                    + getFullyQualifiedMethodName());
+        }
+    }
+
+    private Fact createEdgeFact() {
+        if (!reuseFacts) {
+            return analysis.createFact();
+        }
+        if (scratchEdgeFact == null) {
+            scratchEdgeFact = analysis.createFact();
+        }
+        return scratchEdgeFact;
+    }
+
+    private Fact createOrigResultFact() {
+        if (!reuseFacts) {
+            return analysis.createFact();
+        }
+        if (scratchOrigResult == null) {
+            scratchOrigResult = analysis.createFact();
+        }
+        return scratchOrigResult;
+    }
+
+    /**
+     * Recompute the start and result facts of a block.
+     *
+     * @param block
+     *            the block
+     * @param timestamp
+     *            the current timestamp
+     * @return true if the result fact of the block changed, in which case its
+     *         timestamp is set to timestamp + 1
+     */
+    private boolean updateBlock(BasicBlock block, int timestamp) throws DataflowAnalysisException {
+        Fact start = analysis.getStartFact(block);
+        Fact result = analysis.getResultFact(block);
+        int originalResultTimestamp = analysis.getLastUpdateTimestamp(result);
+
+        analysis.makeFactTop(start);
+        if (block == logicalEntryBlock()) {
+            analysis.initEntryFact(start);
+        } else {
+            int rawPredCount = getNumLogicalPredecessorEdges(block);
+            for (int p = 0; p < rawPredCount; p++) {
+                Edge edge = getLogicalPredecessorEdge(block, p);
+                BasicBlock logicalPred = isForwards ? edge.getSource() : edge.getTarget();
+                Fact edgeFact = createEdgeFact();
+                analysis.copy(analysis.getResultFact(logicalPred), edgeFact);
+                analysis.edgeTransfer(edge, edgeFact);
+                if (analysis instanceof UnconditionalValueDerefAnalysis) {
+                    ((UnconditionalValueDerefAnalysis) analysis).meetInto((UnconditionalValueDerefSet) edgeFact, edge,
+                            (UnconditionalValueDerefSet) start, rawPredCount == 1);
+                } else {
+                    analysis.meetInto(edgeFact, edge, start);
+                }
+                analysis.setLastUpdateTimestamp(start, timestamp);
+            }
+        }
+
+        boolean resultWasTop = analysis.isTop(result);
+        Fact origResult = null;
+        if (!resultWasTop) {
+            origResult = createOrigResultFact();
+            analysis.copy(result, origResult);
+        }
+        analysis.transfer(block, null, start, result);
+
+        boolean changed = resultWasTop ? !analysis.isTop(result) : !analysis.same(result, origResult);
+        analysis.setLastUpdateTimestamp(result, changed ? timestamp + 1 : originalResultTimestamp);
+        if (DEBUG) {
+            debug(block, "start fact is " + analysis.factToString(start) + "\n");
+            debug(block, "result is " + analysis.factToString(result) + (changed ? " (changed)" : "") + "\n");
+        }
+        return changed;
+    }
+
+    /**
+     * Get the blocks in the order used by the worklist solver: by strongly
+     * connected component of the CFG (following logical successors), in
+     * topological order of the components, then in the analysis's block
+     * order. The components are found with Tarjan's algorithm.
+     */
+    private BasicBlock[] getWorklistOrder() {
+        ArrayList<BasicBlock> blockList = new ArrayList<BasicBlock>();
+        Iterator<BasicBlock> i = blockOrder.blockIterator();
+        while (i.hasNext()) {
+            blockList.add(i.next());
+        }
+        int numLabels = cfg.getNumVertexLabels();
+        final int[] rank = new int[numLabels];
+        Arrays.fill(rank, -1);
+        for (int k = 0; k < blockList.size(); k++) {
+            rank[blockList.get(k).getLabel()] = k;
+        }
+
+        int[] index = new int[numLabels];
+        int[] lowLink = new int[numLabels];
+        Arrays.fill(index, -1);
+        final int[] component = new int[numLabels];
+        boolean[] onStack = new boolean[numLabels];
+        ArrayList<BasicBlock> stack = new ArrayList<BasicBlock>();
+        ArrayList<BasicBlock> path = new ArrayList<BasicBlock>();
+        ArrayList<Iterator<Edge>> pathEdges = new ArrayList<Iterator<Edge>>();
+        int nextIndex = 0;
+        int numComponents = 0;
+
+        ArrayList<BasicBlock> roots = new ArrayList<BasicBlock>();
+        if (rank[logicalEntryBlock().getLabel()] >= 0) {
+            roots.add(logicalEntryBlock());
+        }
+        roots.addAll(blockList);
+        for (BasicBlock root : roots) {
+            if (index[root.getLabel()] >= 0) {
+                continue;
+            }
+            index[root.getLabel()] = lowLink[root.getLabel()] = nextIndex++;
+            stack.add(root);
+            onStack[root.getLabel()] = true;
+            path.add(root);
+            pathEdges.add(logicalSuccessorEdgeIterator(root));
+            while (!path.isEmpty()) {
+                int top = path.size() - 1;
+                BasicBlock block = path.get(top);
+                int label = block.getLabel();
+                Iterator<Edge> edgeIter = pathEdges.get(top);
+                if (edgeIter.hasNext()) {
+                    Edge edge = edgeIter.next();
+                    BasicBlock succ = isForwards ? edge.getTarget() : edge.getSource();
+                    int succLabel = succ.getLabel();
+                    if (rank[succLabel] < 0) {
+                        continue;
+                    }
+                    if (index[succLabel] < 0) {
+                        index[succLabel] = lowLink[succLabel] = nextIndex++;
+                        stack.add(succ);
+                        onStack[succLabel] = true;
+                        path.add(succ);
+                        pathEdges.add(logicalSuccessorEdgeIterator(succ));
+                    } else if (onStack[succLabel]) {
+                        lowLink[label] = Math.min(lowLink[label], index[succLabel]);
+                    }
+                    continue;
+                }
+                path.remove(top);
+                pathEdges.remove(top);
+                if (top > 0) {
+                    int parent = path.get(top - 1).getLabel();
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[label]);
+                }
+                if (lowLink[label] == index[label]) {
+                    // Root of a component
+                    BasicBlock member;
+                    do {
+                        member = stack.remove(stack.size() - 1);
+                        onStack[member.getLabel()] = false;
+                        component[member.getLabel()] = numComponents;
+                    } while (member != block);
+                    numComponents++;
+                }
+            }
+        }
+
+        // Tarjan's algorithm finds the components in reverse topological order
+        BasicBlock[] blocks = blockList.toArray(new BasicBlock[blockList.size()]);
+        Arrays.sort(blocks, new Comparator<BasicBlock>() {
+            @Override
+            public int compare(BasicBlock b1, BasicBlock b2) {
+                int c1 = component[b1.getLabel()];
+                int c2 = component[b2.getLabel()];
+                if (c1 != c2) {
+                    return c2 - c1;
+                }
+                return rank[b1.getLabel()] - rank[b2.getLabel()];
+            }
+        });
+        return blocks;
+    }
+
     private void reportAnalysis(String msg) {
         String shortAnalysisName = analysis.getClass().getName();
         int pkgEnd = shortAnalysisName.lastIndexOf('.');
@@ -543,11 +930,29 @@ public class Dataflow<Fact, AnalysisType extends DataflowAnalysis<Fact>> {
 
     /**
      * Return an Iterator over edges that connect given block to its logical
-     * predecessors. For forward analyses, this is the incoming edges. For
-     * backward analyses, this is the outgoing edges.
+     * successors. For forward analyses, this is the outgoing edges. For
+     * backward analyses, this is the incoming edges.
      */
-    private Iterator<Edge> logicalPredecessorEdgeIterator(BasicBlock block) {
-        return isForwards ? cfg.incomingEdgeIterator(block) : cfg.outgoingEdgeIterator(block);
+    private Iterator<Edge> logicalSuccessorEdgeIterator(BasicBlock block) {
+        return isForwards ? cfg.outgoingEdgeIterator(block) : cfg.incomingEdgeIterator(block);
+    }
+
+    private int getNumLogicalPredecessorEdges(BasicBlock block) {
+        return isForwards ? compactCFG.getNumIncomingEdges(block.getLabel()) : compactCFG.getNumOutgoingEdges(block.getLabel());
+    }
+
+    private Edge getLogicalPredecessorEdge(BasicBlock block, int index) {
+        return isForwards ? compactCFG.getIncomingEdge(block.getLabel(), index) : compactCFG.getOutgoingEdge(block.getLabel(),
+                index);
+    }
+
+    private int getNumLogicalSuccessorEdges(BasicBlock block) {
+        return isForwards ? compactCFG.getNumOutgoingEdges(block.getLabel()) : compactCFG.getNumIncomingEdges(block.getLabel());
+    }
+
+    private Edge getLogicalSuccessorEdge(BasicBlock block, int index) {
+        return isForwards ? compactCFG.getOutgoingEdge(block.getLabel(), index) : compactCFG.getIncomingEdge(block.getLabel(),
+                index);
     }
 
     /**
@@ -21,10 +21,11 @@ package edu.umd.cs.findbugs.ba;
 
 import static edu.umd.cs.findbugs.ba.Debug.VERIFY_INTEGRITY;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 import org.apache.bcel.Constants;
 import org.apache.bcel.generic.ConstantPoolGen;
@@ -57,6 +58,13 @@ import edu.umd.cs.findbugs.SystemProperties;
  * <p>
  * A Frame may have the special "BOTTOM" value. The result of merging any frame
  * with BOTTOM is BOTTOM.
+ * <p/>
+ * <p>
+ * Slots are stored in a flat array. copyFrom() shares the array of the frame
+ * copied rather than copying it: the array is only copied when one of the
+ * frames sharing it is modified. Dataflow analyses copy frames far more often
+ * than they modify them (e.g., the result of a basic block without
+ * instructions is its start fact), so most copies cost nothing.
  *
  * @author David Hovemeyer
  * @see FrameDataflowAnalysis
@@ -76,8 +84,26 @@ public abstract class Frame<ValueType> {
 
     /**
      * Array storing the values of local variables and operand stack slots.
+     * Only the first numSlots elements are used.
+     */
+    private Object[] slots;
+
+    /**
+     * Number of slots used: local variables and operand stack.
+     */
+    private int numSlots;
+
+    /**
+     * Whether the slot array may be shared with other frames, and must be
+     * copied before this frame is modified.
+     */
+    private boolean shared;
+
+    /**
+     * Slot array which belonged to this frame only before it started sharing
+     * the slots of another frame: it is reused when the slots are copied.
      */
-    private final ArrayList<ValueType> slotList;
+    private Object[] spareSlots;
 
     /**
      * Flag marking this frame as a special "TOP" value. Such Frames serve as
@@ -110,9 +136,34 @@ public abstract class Frame<ValueType> {
      */
     public Frame(int numLocals) {
         this.numLocals = numLocals;
-        this.slotList = new ArrayList<ValueType>(numLocals + DEFAULT_STACK_CAPACITY);
-        for (int i = 0; i < numLocals; ++i) {
-            slotList.add(null);
+        this.slots = new Object[numLocals + DEFAULT_STACK_CAPACITY];
+        this.numSlots = numLocals;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ValueType slot(int n) {
+        return (ValueType) slots[n];
+    }
+
+    /**
+     * Make sure the slot array belongs to this frame only and can hold the
+     * given number of slots.
+     */
+    private void prepareWrite(int capacity) {
+        if (shared && spareSlots != null && capacity <= spareSlots.length) {
+            System.arraycopy(slots, 0, spareSlots, 0, numSlots);
+            Arrays.fill(spareSlots, numSlots, spareSlots.length, null);
+            slots = spareSlots;
+            spareSlots = null;
+            shared = false;
+        } else if (shared || capacity > slots.length) {
+            int length = slots.length;
+            while (capacity > length) {
+                length *= 2;
+            }
+            slots = Arrays.copyOf(slots, Math.max(length, DEFAULT_STACK_CAPACITY));
+            spareSlots = null;
+            shared = false;
         }
     }
 
@@ -178,7 +229,8 @@ public abstract class Frame<ValueType> {
         if (!isValid()) {
             throw new IllegalStateException("accessing top or bottom frame");
         }
-        slotList.add(value);
+        prepareWrite(numSlots + 1);
+        slots[numSlots++] = value;
     }
 
     /**
@@ -192,10 +244,14 @@ public abstract class Frame<ValueType> {
         if (!isValid()) {
             throw new DataflowAnalysisException("accessing top or bottom frame");
         }
-        if (slotList.size() == numLocals) {
+        if (numSlots == numLocals) {
             throw new DataflowAnalysisException("operand stack empty");
         }
-        return slotList.remove(slotList.size() - 1);
+        ValueType value = slot(--numSlots);
+        if (!shared) {
+            slots[numSlots] = null;
+        }
+        return value;
     }
 
     /**
@@ -208,11 +264,11 @@ public abstract class Frame<ValueType> {
         if (!isValid()) {
             throw new DataflowAnalysisException("accessing top or bottom frame");
         }
-        assert slotList.size() >= numLocals;
-        if (slotList.size() == numLocals) {
+        assert numSlots >= numLocals;
+        if (numSlots == numLocals) {
             throw new DataflowAnalysisException("operand stack is empty");
         }
-        return slotList.get(slotList.size() - 1);
+        return slot(numSlots - 1);
     }
 
     /**
@@ -225,9 +281,8 @@ public abstract class Frame<ValueType> {
         if (valueList.length > stackDepth) {
             throw new DataflowAnalysisException("not enough values on stack");
         }
-        int numSlots = slotList.size();
         for (int i = numSlots - valueList.length, j = 0; i < numSlots; ++i, ++j) {
-            valueList[j] = slotList.get(i);
+            valueList[j] = slot(i);
         }
     }
 
@@ -249,8 +304,8 @@ public abstract class Frame<ValueType> {
         if (loc < 0) {
             throw new DataflowAnalysisException("can't get position " + loc + " of stack");
         }
-        int pos = slotList.size() - (loc + 1);
-        return slotList.get(pos);
+        int pos = numSlots - (loc + 1);
+        return slot(pos);
     }
 
     /**
@@ -265,7 +320,7 @@ public abstract class Frame<ValueType> {
         if (loc >= stackDepth) {
             throw new DataflowAnalysisException("not enough values on stack: access=" + loc + ", avail=" + stackDepth);
         }
-        return slotList.size() - (loc + 1);
+        return numSlots - (loc + 1);
     }
 
     /**
@@ -427,7 +482,7 @@ public abstract class Frame<ValueType> {
             throw new IllegalArgumentException();
         }
 
-        return (slotList.size() - numArguments) + i;
+        return (numSlots - numArguments) + i;
     }
 
     /**
@@ -488,17 +543,18 @@ public abstract class Frame<ValueType> {
         if (!isValid()) {
             throw new IllegalStateException("accessing top or bottom frame");
         }
-        assert slotList.size() >= numLocals;
-        if (slotList.size() > numLocals) {
-            slotList.subList(numLocals, slotList.size()).clear();
+        assert numSlots >= numLocals;
+        if (!shared) {
+            Arrays.fill(slots, numLocals, numSlots, null);
         }
+        numSlots = numLocals;
     }
 
     /**
      * Get the depth of the Java operand stack.
      */
     public int getStackDepth() {
-        return slotList.size() - numLocals;
+        return numSlots - numLocals;
     }
 
     /**
@@ -512,15 +568,15 @@ public abstract class Frame<ValueType> {
      * Get the number of slots (locals plus stack values).
      */
     public int getNumSlots() {
-        return slotList.size();
+        return numSlots;
     }
 
     public boolean contains(ValueType value) {
         if (!isValid()) {
             throw new IllegalStateException("accessing top or bottom frame");
         }
-        for (ValueType v : slotList) {
-            if (v.equals(value)) {
+        for (int i = 0; i < numSlots; i++) {
+            if (slots[i].equals(value)) {
                 return true;
             }
         }
@@ -538,7 +594,10 @@ public abstract class Frame<ValueType> {
         if (!isValid()) {
             throw new IllegalStateException("accessing top or bottom frame");
         }
-        return slotList.get(n);
+        if (n >= numSlots) {
+            throw new IndexOutOfBoundsException("Slot " + n + " of " + numSlots);
+        }
+        return slot(n);
     }
 
     /**
@@ -556,7 +615,14 @@ public abstract class Frame<ValueType> {
         if (!isValid()) {
             throw new IllegalStateException("accessing top or bottom frame");
         }
-        slotList.set(n, value);
+        if (n >= numSlots) {
+            throw new IndexOutOfBoundsException("Slot " + n + " of " + numSlots);
+        }
+        if (slots[n] == value) {
+            return;
+        }
+        prepareWrite(numSlots);
+        slots[n] = value;
     }
 
     /**
@@ -584,12 +650,18 @@ public abstract class Frame<ValueType> {
             return true;
         }
 
-        if (getNumSlots() != other.getNumSlots()) {
+        if (numSlots != other.numSlots) {
             return false;
         }
 
-        for (int i = 0; i < getNumSlots(); ++i) {
-            if (!getValue(i).equals(other.getValue(i))) {
+        if (slots == other.slots) {
+            return true;
+        }
+
+        for (int i = 0; i < numSlots; ++i) {
+            Object value = slots[i];
+            Object otherValue = other.slots[i];
+            if (value != otherValue && !value.equals(otherValue)) {
                 return false;
             }
         }
@@ -605,30 +677,18 @@ public abstract class Frame<ValueType> {
      */
     public void copyFrom(Frame<ValueType> other) {
         lastUpdateTimestamp = other.lastUpdateTimestamp;
-        if (true) {
-            int size = slotList.size();
-            if (size == other.slotList.size()) {
-                for (int i = 0; i < size; i++) {
-                    slotList.set(i, other.slotList.get(i));
-                }
-            } else {
-                slotList.clear();
-                for (ValueType v : other.slotList) {
-                    slotList.add(v);
+        if (other != this) {
+            // Share the slots until one of the frames is modified
+            if (other.slots != slots) {
+                if (!shared) {
+                    spareSlots = slots;
                 }
+                slots = other.slots;
             }
-        } else {
-            slotList.clear();
-            slotList.addAll(other.slotList);
-
-        }
-        /*
-         * Andrei, 27.02.2008: "optimized" code below takes ~18% overall FB
-         * execution time, code above only 5% int size = slotList.size(); if
-         * (size == other.slotList.size()) { for (int i = 0; i < size; i++)
-         * slotList.set(i, other.slotList.get(i)); } else { slotList.clear();
-         * for (ValueType v : other.slotList) slotList.add(v); }
-         */
+            numSlots = other.numSlots;
+            shared = true;
+            other.shared = true;
+        }
         isTop = other.isTop;
         isBottom = other.isBottom;
     }
@@ -690,9 +750,8 @@ public abstract class Frame<ValueType> {
      *         stack slots
      */
     public Collection<ValueType> allSlots() {
-        if (slotList == null) {
-            return Collections.<ValueType> emptyList();
-        }
+        @SuppressWarnings("unchecked")
+        List<ValueType> slotList = (List<ValueType>) Arrays.asList(slots).subList(0, numSlots);
         return Collections.<ValueType> unmodifiableCollection(slotList);
     }
 
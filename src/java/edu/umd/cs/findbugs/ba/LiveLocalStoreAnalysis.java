@@ -69,6 +69,12 @@ public class LiveLocalStoreAnalysis extends BackwardDataflowAnalysis<BitSet> imp
         result.clear();
     }
 
+    @Override
+    public boolean allowsFactReuse() {
+        // meetInto() copies or ORs the bits of the facts
+        return true;
+    }
+
     @Override
     public void makeFactTop(BitSet fact) {
         fact.clear();
@@ -0,0 +1,72 @@
+/*
+ * Bytecode Analysis Framework
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.ba;
+
+import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.classfile.MethodDescriptor;
+import edu.umd.cs.findbugs.util.WeightedMapCache;
+import edu.umd.cs.findbugs.visitclass.DecodedCode;
+
+/**
+ * Estimates the memory retained by a cached method analysis result. Dataflow
+ * results are weighed by the number of facts they keep (a start and a result
+ * fact per basic block) and the size of those facts, and the states of the
+ * opcode stack and the decoded instructions by their estimated size.
+ */
+public class MethodAnalysisWeigher implements WeightedMapCache.Weigher<MethodDescriptor, Object> {
+
+    /** Estimated size of a result the weigher knows nothing about */
+    static final int DEFAULT_WEIGHT = 256;
+
+    /** Estimated size of a basic block, with its instructions and edges */
+    static final int BASIC_BLOCK_WEIGHT = 200;
+
+    /** Estimated size of a dataflow fact without its slots */
+    static final int FACT_WEIGHT = 48;
+
+    /** Estimated size of a frame slot */
+    static final int SLOT_WEIGHT = 8;
+
+    public static final MethodAnalysisWeigher INSTANCE = new MethodAnalysisWeigher();
+
+    @Override
+    public int weigh(MethodDescriptor key, Object value) {
+        if (value instanceof CFG) {
+            return ((CFG) value).getNumBasicBlocks() * BASIC_BLOCK_WEIGHT;
+        }
+        if (value instanceof Dataflow) {
+            Dataflow<?, ?> dataflow = (Dataflow<?, ?>) value;
+            CFG cfg = dataflow.getCFG();
+            int factWeight = FACT_WEIGHT;
+            Object fact = dataflow.getStartFact(cfg.getEntry());
+            if (fact instanceof Frame) {
+                factWeight += ((Frame<?>) fact).getNumSlots() * SLOT_WEIGHT;
+            }
+            return DEFAULT_WEIGHT + 2 * cfg.getNumBasicBlocks() * factWeight;
+        }
+        if (value instanceof OpcodeStack.StateTrace) {
+            return DEFAULT_WEIGHT + ((OpcodeStack.StateTrace) value).getEstimatedSize();
+        }
+        if (value instanceof DecodedCode) {
+            return ((DecodedCode) value).getEstimatedSize();
+        }
+        return DEFAULT_WEIGHT;
+    }
+}
@@ -144,4 +144,10 @@ public interface XClass extends Comparable<ClassDescriptor>, AccessibleEntity, A
      * @return Returns the called class descriptors.
      */
     public Set<ClassDescriptor> getCalledClassDescriptors();
+
+    /**
+     * @return Returns the descriptors of the classes referenced from the
+     *         constant pool.
+     */
+    public Collection<ClassDescriptor> getReferencedClassDescriptors();
 }
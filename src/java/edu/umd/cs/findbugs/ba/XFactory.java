@@ -20,11 +20,11 @@
 package edu.umd.cs.findbugs.ba;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
@@ -71,19 +71,22 @@ import edu.umd.cs.findbugs.visitclass.PreorderVisitor;
 public class XFactory {
     public static final boolean DEBUG_UNRESOLVED = SystemProperties.getBoolean("findbugs.xfactory.debugunresolved");
 
-    private final Set<ClassDescriptor> reflectiveClasses = new HashSet<ClassDescriptor>();
+    // These are shared by all analysis threads, so they have to tolerate
+    // concurrent updates
 
-    private final Map<MethodDescriptor, XMethod> methods = new HashMap<MethodDescriptor, XMethod>();
+    private final Set<ClassDescriptor> reflectiveClasses = Collections.newSetFromMap(new ConcurrentHashMap<ClassDescriptor, Boolean>());
 
-    private final Map<FieldDescriptor, XField> fields = new HashMap<FieldDescriptor, XField>();
+    private final Map<MethodDescriptor, XMethod> methods = new ConcurrentHashMap<MethodDescriptor, XMethod>();
 
-    private final Set<XMethod> calledMethods = new HashSet<XMethod>();
+    private final Map<FieldDescriptor, XField> fields = new ConcurrentHashMap<FieldDescriptor, XField>();
 
-    private final Set<XField> emptyArrays = new HashSet<XField>();
+    private final Set<XMethod> calledMethods = Collections.newSetFromMap(new ConcurrentHashMap<XMethod, Boolean>());
 
-    private final Set<String> calledMethodSignatures = new HashSet<String>();
+    private final Set<XField> emptyArrays = Collections.newSetFromMap(new ConcurrentHashMap<XField, Boolean>());
 
-    private final Set<MethodDescriptor> functionsThatMightBeMistakenForProcedures = new HashSet<MethodDescriptor>();
+    private final Set<String> calledMethodSignatures = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final Set<MethodDescriptor> functionsThatMightBeMistakenForProcedures = Collections.newSetFromMap(new ConcurrentHashMap<MethodDescriptor, Boolean>());
 
     public void canonicalizeAll() {
         DescriptorFactory descriptorFactory = DescriptorFactory.instance();
@@ -130,7 +133,7 @@ public class XFactory {
     }
 
     public boolean isEmptyArrayField(@CheckForNull XField f) {
-        return emptyArrays.contains(f);
+        return f != null && emptyArrays.contains(f);
     }
 
     public boolean isCalled(XMethod m) {
@@ -54,6 +54,10 @@ import edu.umd.cs.findbugs.util.MapCache;
 /**
  * Class for performing class hierarchy queries. Does <em>not</em> require
  * JavaClass objects to be in memory. Instead, uses XClass objects.
+ * <p>
+ * Queries may be made from several analysis threads: the inheritance graph
+ * and the query caches are guarded by this object, and visitors passed to
+ * the traversal methods are called without holding its lock.
  *
  * @author David Hovemeyer
  */
@@ -128,6 +132,7 @@ public class Subtypes2 {
      * @return Returns the graph.
      */
     public InheritanceGraph getGraph() {
+        // Not thread safe: only for single-threaded debugging output
         return graph;
     }
 
@@ -220,7 +225,7 @@ public class Subtypes2 {
      * @param appXClass
      *            application XClass to add to the inheritance graph
      */
-    public void addApplicationClass(XClass appXClass) {
+    public synchronized void addApplicationClass(XClass appXClass) {
         for (XMethod m : appXClass.getXMethods()) {
             if (m.isStub()) {
                 return;
@@ -234,7 +239,9 @@ public class Subtypes2 {
     public boolean isApplicationClass(ClassDescriptor descriptor) {
         assert descriptor != null;
         try {
-            return resolveClassVertex(descriptor).isApplicationClass();
+            synchronized (this) {
+                return resolveClassVertex(descriptor).isApplicationClass();
+            }
         } catch (ClassNotFoundException e) {
             AnalysisContext.reportMissingClass(e);
             return false;
@@ -248,7 +255,7 @@ public class Subtypes2 {
      * @param xclass
      *            XClass to add to the inheritance graph
      */
-    public void addClass(XClass xclass) {
+    public synchronized void addClass(XClass xclass) {
         addClassAndGetClassVertex(xclass);
     }
 
@@ -397,17 +404,34 @@ public class Subtypes2 {
         // OK, we've exhausted the possibilities now
         return false;
     }
-    ClassDescriptor prevSubDesc, prevSuperDesc;
-    boolean prevResult;
+    /**
+     * The last query answered by isSubtype(ClassDescriptor, ClassDescriptor),
+     * replaced as a whole so that threads never see a torn answer
+     */
+    private static class SubtypeQuery {
+        final ClassDescriptor subDesc;
+
+        final ClassDescriptor superDesc;
+
+        final boolean result;
+
+        SubtypeQuery(ClassDescriptor subDesc, ClassDescriptor superDesc, boolean result) {
+            this.subDesc = subDesc;
+            this.superDesc = superDesc;
+            this.result = result;
+        }
+    }
+
+    private volatile SubtypeQuery prevQuery;
 
     public boolean isSubtype(ClassDescriptor subDesc, ClassDescriptor superDesc) throws ClassNotFoundException {
-        if (subDesc == prevSubDesc && prevSuperDesc == superDesc) {
-            return prevResult;
+        SubtypeQuery prev = prevQuery;
+        if (prev != null && subDesc == prev.subDesc && prev.superDesc == superDesc) {
+            return prev.result;
         }
-        prevResult = isSubtype0(subDesc, superDesc);
-        prevSubDesc = subDesc;
-        prevSuperDesc = superDesc;
-        return prevResult;
+        boolean result = isSubtype0(subDesc, superDesc);
+        prevQuery = new SubtypeQuery(subDesc, superDesc, result);
+        return result;
     }
 
     public boolean isSubtype(ClassDescriptor subDesc, ClassDescriptor... superDesc) throws ClassNotFoundException {
@@ -541,7 +565,7 @@ public class Subtypes2 {
      * @return the first common superclass of <code>a</code> and <code>b</code>
      * @throws ClassNotFoundException
      */
-    public ReferenceType getFirstCommonSuperclass(ReferenceType a, ReferenceType b) throws ClassNotFoundException {
+    public synchronized ReferenceType getFirstCommonSuperclass(ReferenceType a, ReferenceType b) throws ClassNotFoundException {
         // Easy case: same types
         if (a.equals(b)) {
             return a;
@@ -698,7 +722,7 @@ public class Subtypes2 {
      * @return the first common superclass of <code>a</code> and <code>b</code>
      * @throws ClassNotFoundException
      */
-    public ObjectType getFirstCommonSuperclass(ObjectType a, ObjectType b) throws ClassNotFoundException {
+    public synchronized ObjectType getFirstCommonSuperclass(ObjectType a, ObjectType b) throws ClassNotFoundException {
         // Easy case
         if (a.equals(b)) {
             return a;
@@ -821,7 +845,7 @@ public class Subtypes2 {
      * @return Set of ClassDescriptors which are the known subtypes of the class
      * @throws ClassNotFoundException
      */
-    public Set<ClassDescriptor> getSubtypes(ClassDescriptor classDescriptor) throws ClassNotFoundException {
+    public synchronized Set<ClassDescriptor> getSubtypes(ClassDescriptor classDescriptor) throws ClassNotFoundException {
         Set<ClassDescriptor> result = subtypeSetMap.get(classDescriptor);
         if (result == null) {
             result = computeKnownSubtypes(classDescriptor);
@@ -854,7 +878,7 @@ public class Subtypes2 {
      * @return Set of ClassDescriptors which are the known subtypes of the class
      * @throws ClassNotFoundException
      */
-    public Set<ClassDescriptor> getDirectSubtypes(ClassDescriptor classDescriptor) throws ClassNotFoundException {
+    public synchronized Set<ClassDescriptor> getDirectSubtypes(ClassDescriptor classDescriptor) throws ClassNotFoundException {
 
         ClassVertex startVertex = resolveClassVertex(classDescriptor);
 
@@ -893,8 +917,8 @@ public class Subtypes2 {
      *
      * @return Collection of all XClass objects
      */
-    public Collection<XClass> getXClassCollection() {
-        return Collections.<XClass> unmodifiableCollection(xclassSet);
+    public synchronized Collection<XClass> getXClassCollection() {
+        return Collections.<XClass> unmodifiableCollection(new ArrayList<XClass>(xclassSet));
     }
 
     /**
@@ -1042,7 +1066,7 @@ public class Subtypes2 {
         }
     }
 
-    private void addToWorkList(LinkedList<SupertypeTraversalPath> workList, SupertypeTraversalPath curPath,
+    private synchronized void addToWorkList(LinkedList<SupertypeTraversalPath> workList, SupertypeTraversalPath curPath,
             ClassDescriptor supertypeDescriptor) {
         ClassVertex vertex = classDescriptorToVertexMap.get(supertypeDescriptor);
 
@@ -1065,12 +1089,15 @@ public class Subtypes2 {
             return false;
         }
 
-        ClassVertex supertypeVertex = classDescriptorToVertexMap.get(supertypeDescriptor);
-        if (supertypeVertex == null) {
-            try {
-                supertypeVertex = resolveClassVertex(supertypeDescriptor);
-            } catch (ClassNotFoundException e) {
-                supertypeVertex = addClassVertexForMissingClass(supertypeDescriptor, isInterfaceEdge);
+        ClassVertex supertypeVertex;
+        synchronized (this) {
+            supertypeVertex = classDescriptorToVertexMap.get(supertypeDescriptor);
+            if (supertypeVertex == null) {
+                try {
+                    supertypeVertex = resolveClassVertex(supertypeDescriptor);
+                } catch (ClassNotFoundException e) {
+                    supertypeVertex = addClassVertexForMissingClass(supertypeDescriptor, isInterfaceEdge);
+                }
             }
         }
         assert supertypeVertex != null;
@@ -1117,7 +1144,7 @@ public class Subtypes2 {
     }
 
 
-    public boolean hasKnownSubclasses(ClassDescriptor classDescriptor) throws ClassNotFoundException {
+    public synchronized boolean hasKnownSubclasses(ClassDescriptor classDescriptor) throws ClassNotFoundException {
 
         ClassVertex startVertex = resolveClassVertex(classDescriptor);
         if (!startVertex.isInterface()) {
@@ -1191,7 +1218,7 @@ public class Subtypes2 {
      *            a ClassDescriptor
      * @return SupertypeQueryResults for the class named by the ClassDescriptor
      */
-    public SupertypeQueryResults getSupertypeQueryResults(ClassDescriptor classDescriptor) {
+    public synchronized SupertypeQueryResults getSupertypeQueryResults(ClassDescriptor classDescriptor) {
         SupertypeQueryResults supertypeQueryResults = supertypeSetMap.get(classDescriptor);
         if (supertypeQueryResults == null) {
             supertypeQueryResults = computeSupertypes(classDescriptor);
@@ -1261,7 +1288,7 @@ public class Subtypes2 {
      * @throws ClassNotFoundException
      *             if the class named by the ClassDescriptor does not exist
      */
-    private ClassVertex resolveClassVertex(ClassDescriptor classDescriptor) throws ClassNotFoundException {
+    private synchronized ClassVertex resolveClassVertex(ClassDescriptor classDescriptor) throws ClassNotFoundException {
         ClassVertex typeVertex = optionallyResolveClassVertex(classDescriptor);
 
         if (!typeVertex.isResolved()) {
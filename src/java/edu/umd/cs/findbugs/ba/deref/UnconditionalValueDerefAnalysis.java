@@ -113,6 +113,14 @@ public class UnconditionalValueDerefAnalysis extends BackwardDataflowAnalysis<Un
 
     private TypeDataflow typeDataflow;
 
+    private Set<Integer> loopExitBranches;
+
+    /**
+     * Fact reused by meetInto() for the input fact transformed by the edge,
+     * which is never retained
+     */
+    private UnconditionalValueDerefSet edgeFact;
+
     /**
      * Constructor.
      *
@@ -160,6 +168,12 @@ public class UnconditionalValueDerefAnalysis extends BackwardDataflowAnalysis<Un
         this.typeDataflow = typeDataflow;
     }
 
+    @Override
+    public boolean allowsFactReuse() {
+        // Facts share their location sets copy-on-write, never the facts
+        return true;
+    }
+
     @Override
     public boolean isFactValid(UnconditionalValueDerefSet fact) {
         return !fact.isTop() && !fact.isBottom();
@@ -737,14 +751,16 @@ public class UnconditionalValueDerefAnalysis extends BackwardDataflowAnalysis<Un
             if (invDataflow != null) {
                 knownNonnullOnBranch = findValueKnownNonnullOnBranch(fact, edge);
                 if (knownNonnullOnBranch != null) {
-                    fact = duplicateFact(fact);
+                    // fact is already a copy of the input fact
                     fact.clearDerefSet(knownNonnullOnBranch);
                 }
             }
         }
         boolean isBackEdge = edge.isBackwardInBytecode();
-        Set<Integer> loopExitBranches = ClassContext.getLoopExitBranches(method, methodGen);
-        assert loopExitBranches != null;
+        if (loopExitBranches == null) {
+            loopExitBranches = ClassContext.getLoopExitBranches(method, methodGen);
+            assert loopExitBranches != null;
+        }
         boolean sourceIsTopOfLoop = edge.sourceIsTopOfLoop(loopExitBranches);
         if (sourceIsTopOfLoop && edge.getType() == EdgeTypes.FALL_THROUGH_EDGE) {
             isBackEdge = true;
@@ -811,7 +827,8 @@ public class UnconditionalValueDerefAnalysis extends BackwardDataflowAnalysis<Un
      *            a dataflow value
      * @param edge
      *            edge to check for merge input values
-     * @return possibly-modified dataflow value
+     * @return possibly-modified copy of the dataflow value, reused by the
+     *         next call
      */
     private UnconditionalValueDerefSet propagateDerefSetsToMergeInputValues(UnconditionalValueDerefSet fact, Edge edge) {
 
@@ -819,7 +836,11 @@ public class UnconditionalValueDerefAnalysis extends BackwardDataflowAnalysis<Un
         ValueNumberFrame targetValueNumberFrame = vnaDataflow.getStartFact(edge.getTarget());
 
         UnconditionalValueDerefSet originalFact = fact;
-        fact = duplicateFact(fact);
+        if (edgeFact == null) {
+            edgeFact = createFact();
+        }
+        fact = edgeFact;
+        copy(originalFact, fact);
 
         if (blockValueNumberFrame.isValid() && targetValueNumberFrame.isValid()) {
             int slots = 0;
@@ -890,20 +911,6 @@ public class UnconditionalValueDerefAnalysis extends BackwardDataflowAnalysis<Un
         return fact;
     }
 
-    /**
-     * Return a duplicate of given dataflow fact.
-     *
-     * @param fact
-     *            a dataflow fact
-     * @return a duplicate of the input dataflow fact
-     */
-    private UnconditionalValueDerefSet duplicateFact(UnconditionalValueDerefSet fact) {
-        UnconditionalValueDerefSet copyOfFact = createFact();
-        copy(fact, copyOfFact);
-        fact = copyOfFact;
-        return fact;
-    }
-
     /**
      * Clear deref sets of values if this edge is the non-null branch of an if
      * comparison.
@@ -39,6 +39,11 @@ import edu.umd.cs.findbugs.util.Util;
 
 /**
  * A set of values unconditionally dereferenced in the future.
+ * <p>
+ * The sets of dereference locations are shared between the facts copied from
+ * one another, and only copied when one of the facts sharing them modifies
+ * them, since copying facts is much more frequent than modifying their
+ * location sets.
  *
  * @author David Hovemeyer
  */
@@ -52,6 +57,12 @@ public class UnconditionalValueDerefSet {
     /** Map of value numbers to locations */
     private final Map<ValueNumber, Set<Location>> derefLocationSetMap;
 
+    /**
+     * Numbers of the values whose location set belongs to this fact only, and
+     * can be modified in place
+     */
+    private final BitSet ownedLocationSets;
+
     boolean resultsFromBackEdge = false;
 
     int backEdgeUpdateCount = 0;
@@ -68,7 +79,7 @@ public class UnconditionalValueDerefSet {
         this.numValueNumbersInMethod = numValueNumbersInMethod;
         this.valueNumbersUnconditionallyDereferenced = new BitSet();
         this.derefLocationSetMap = new HashMap<ValueNumber, Set<Location>>(3);
-
+        this.ownedLocationSets = new BitSet();
     }
 
     /**
@@ -113,6 +124,7 @@ public class UnconditionalValueDerefSet {
     void clear() {
         valueNumbersUnconditionallyDereferenced.clear();
         derefLocationSetMap.clear();
+        ownedLocationSets.clear();
     }
 
     /**
@@ -126,16 +138,39 @@ public class UnconditionalValueDerefSet {
         valueNumbersUnconditionallyDereferenced.clear();
         valueNumbersUnconditionallyDereferenced.or(source.valueNumbersUnconditionallyDereferenced);
         lastUpdateTimestamp = source.lastUpdateTimestamp;
-        // Copy dereference locations for each value number
+        // Share the dereference locations for each value number
         derefLocationSetMap.clear();
+        ownedLocationSets.clear();
         if (source.derefLocationSetMap.size() > 0) {
-            for (Map.Entry<ValueNumber, Set<Location>> sourceEntry : source.derefLocationSetMap.entrySet()) {
-                Set<Location> derefLocationSet = Util.makeSmallHashSet(sourceEntry.getValue());
-                derefLocationSetMap.put(sourceEntry.getKey(), derefLocationSet);
-            }
+            derefLocationSetMap.putAll(source.derefLocationSetMap);
+            source.ownedLocationSets.clear();
         }
     }
 
+    /**
+     * Get the set of dereference Locations for given value number, so that it
+     * can be modified: the set is created if there is none, and copied if it
+     * is shared with other facts.
+     */
+    private Set<Location> getModifiableDerefLocationSet(ValueNumber vn) {
+        Set<Location> derefLocationSet = derefLocationSetMap.get(vn);
+        if (derefLocationSet == null) {
+            derefLocationSet = new HashSet<Location>();
+            derefLocationSetMap.put(vn, derefLocationSet);
+            ownedLocationSets.set(vn.getNumber());
+        } else if (!ownedLocationSets.get(vn.getNumber())) {
+            derefLocationSet = Util.makeSmallHashSet(derefLocationSet);
+            derefLocationSetMap.put(vn, derefLocationSet);
+            ownedLocationSets.set(vn.getNumber());
+        }
+        return derefLocationSet;
+    }
+
+    private void removeDerefLocationSet(ValueNumber vn) {
+        derefLocationSetMap.remove(vn);
+        ownedLocationSets.clear(vn.getNumber());
+    }
+
     /**
      * Return whether or not this dataflow fact is identical to the one given.
      *
@@ -177,31 +212,38 @@ public class UnconditionalValueDerefSet {
         }
 
         // For each unconditionally dereferenced value...
-        for (int i = 0; i < numValueNumbersInMethod; i++) {
+        for (int i = valueNumbersUnconditionallyDereferenced.nextSetBit(0); i >= 0 && i < numValueNumbersInMethod; i = valueNumbersUnconditionallyDereferenced
+                .nextSetBit(i + 1)) {
             ValueNumber vn = valueNumberFactory.forNumber(i);
             if (vn.equals(skipMe)) {
                 continue;
             }
             Set<Location> factDerefLocationSet = fact.derefLocationSetMap.get(vn);
-            if (valueNumbersUnconditionallyDereferenced.get(i)) {
-                if (factDerefLocationSet != null && !factDerefLocationSet.isEmpty()) {
-                    // Compute the union of the dereference locations for
-                    // this value number.
-                    Set<Location> derefLocationSet = derefLocationSetMap.get(vn);
-                    if (derefLocationSet == null) {
-                        derefLocationSet = new HashSet<Location>();
-                        derefLocationSetMap.put(vn, derefLocationSet);
-                    }
-                    derefLocationSet.addAll(fact.derefLocationSetMap.get(vn));
+            if (factDerefLocationSet != null && !factDerefLocationSet.isEmpty()) {
+                // Compute the union of the dereference locations for
+                // this value number.
+                Set<Location> derefLocationSet = derefLocationSetMap.get(vn);
+                if (derefLocationSet == null) {
+                    // Share the location set of the other fact
+                    derefLocationSetMap.put(vn, factDerefLocationSet);
+                    ownedLocationSets.clear(i);
+                    fact.ownedLocationSets.clear(i);
+                } else if (derefLocationSet != factDerefLocationSet && !derefLocationSet.containsAll(factDerefLocationSet)) {
+                    getModifiableDerefLocationSet(vn).addAll(factDerefLocationSet);
                 }
-            } else {
-                Set<Location> removed = derefLocationSetMap.remove(vn);
-                // The value number is not in the fact:
-                // remove its location set
-                if (removed != null) {
-                    if (UnconditionalValueDerefAnalysis.DEBUG) {
-                        System.out.println("Goodbye: " + removed);
-                    }
+            }
+        }
+
+        // The other values are not in the fact: remove their location sets
+        for (Iterator<Map.Entry<ValueNumber, Set<Location>>> i = derefLocationSetMap.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<ValueNumber, Set<Location>> entry = i.next();
+            ValueNumber vn = entry.getKey();
+            int number = vn.getNumber();
+            if (number < numValueNumbersInMethod && !valueNumbersUnconditionallyDereferenced.get(number) && !vn.equals(skipMe)) {
+                i.remove();
+                ownedLocationSets.clear(number);
+                if (UnconditionalValueDerefAnalysis.DEBUG) {
+                    System.out.println("Goodbye: " + entry.getValue());
                 }
             }
         }
@@ -221,14 +263,10 @@ public class UnconditionalValueDerefSet {
             if (fact.valueNumbersUnconditionallyDereferenced.get(i)) {
                 // Compute the union of the dereference locations for
                 // this value number.
-                Set<Location> derefLocationSet = derefLocationSetMap.get(vn);
-                if (derefLocationSet == null) {
-                    derefLocationSet = new HashSet<Location>();
-                    derefLocationSetMap.put(vn, derefLocationSet);
-                }
-                derefLocationSet.addAll(fact.derefLocationSetMap.get(vn));
+                getModifiableDerefLocationSet(vn).addAll(fact.derefLocationSetMap.get(vn));
             } else {
                 derefLocationSetMap.put(vn, new HashSet<Location>(fact.getDerefLocationSet(vn)));
+                ownedLocationSets.set(i);
             }
         }
     }
@@ -247,8 +285,10 @@ public class UnconditionalValueDerefSet {
         }
         valueNumbersUnconditionallyDereferenced.set(vn.getNumber());
 
-        Set<Location> derefLocationSet = getDerefLocationSet(vn);
-        derefLocationSet.add(location);
+        Set<Location> derefLocationSet = derefLocationSetMap.get(vn);
+        if (derefLocationSet == null || !derefLocationSet.contains(location)) {
+            getModifiableDerefLocationSet(vn).add(location);
+        }
     }
 
     /**
@@ -266,9 +306,11 @@ public class UnconditionalValueDerefSet {
         }
         valueNumbersUnconditionallyDereferenced.set(vn.getNumber());
 
-        Set<Location> derefLocationSet = getDerefLocationSet(vn);
-        derefLocationSet.clear();
-        derefLocationSet.addAll(derefSet);
+        Set<Location> derefLocationSet = derefLocationSetMap.get(vn);
+        if (derefLocationSet != derefSet) {
+            derefLocationSetMap.put(vn, new HashSet<Location>(derefSet));
+            ownedLocationSets.set(vn.getNumber());
+        }
     }
 
     /**
@@ -282,7 +324,7 @@ public class UnconditionalValueDerefSet {
             System.out.println("Clearing dereference of " + value + " for # " + System.identityHashCode(this));
         }
         valueNumbersUnconditionallyDereferenced.clear(value.getNumber());
-        derefLocationSetMap.remove(value);
+        removeDerefLocationSet(value);
     }
 
     /**
@@ -293,12 +335,7 @@ public class UnconditionalValueDerefSet {
      * @return the set of dereference Locations
      */
     public Set<Location> getDerefLocationSet(ValueNumber vn) {
-        Set<Location> derefLocationSet = derefLocationSetMap.get(vn);
-        if (derefLocationSet == null) {
-            derefLocationSet = new HashSet<Location>();
-            derefLocationSetMap.put(vn, derefLocationSet);
-        }
-        return derefLocationSet;
+        return getModifiableDerefLocationSet(vn);
     }
 
     /**
@@ -329,6 +366,7 @@ public class UnconditionalValueDerefSet {
             ValueNumber v = i.next();
             if (!valueNumbers.contains(v)) {
                 i.remove();
+                ownedLocationSets.clear(v.getNumber());
                 valueNumbersUnconditionallyDereferenced.clear(v.getNumber());
             }
         }
@@ -416,12 +454,13 @@ public class UnconditionalValueDerefSet {
      * @param vnaFrame
      */
     public void cleanDerefSet(@CheckForNull Location location, ValueNumberFrame vnaFrame) {
-
-        Set<ValueNumber> valueNumbers = new HashSet<ValueNumber>(vnaFrame.allSlots());
-
-        valueNumbers.addAll(vnaFrame.valueNumbersForLoads());
+        if (derefLocationSetMap.isEmpty()) {
+            return;
+        }
 
         if (UnconditionalValueDerefAnalysis.DEBUG) {
+            Set<ValueNumber> valueNumbers = new HashSet<ValueNumber>(vnaFrame.allSlots());
+            valueNumbers.addAll(vnaFrame.valueNumbersForLoads());
             for (ValueNumber v : getValueNumbersThatAreUnconditionallyDereferenced()) {
                 if (!valueNumbers.contains(v)) {
                     System.out.println("\nWhy is " + v + " unconditionally dereferenced in #" + System.identityHashCode(this));
@@ -433,7 +472,24 @@ public class UnconditionalValueDerefSet {
             }
 
         }
-        retainOnlyTheseValueNumbers(valueNumbers);
+
+        // Retain the values in the frame's slots or loads. The value numbers
+        // of a method are unique, so the values can be compared by number.
+        BitSet slotValues = new BitSet();
+        for (int i = 0; i < vnaFrame.getNumSlots(); i++) {
+            ValueNumber value = vnaFrame.getValue(i);
+            if (value != null) {
+                slotValues.set(value.getNumber());
+            }
+        }
+        for (Iterator<ValueNumber> i = derefLocationSetMap.keySet().iterator(); i.hasNext();) {
+            ValueNumber v = i.next();
+            if (!slotValues.get(v.getNumber()) && vnaFrame.getLoad(v) == null) {
+                i.remove();
+                ownedLocationSets.clear(v.getNumber());
+                valueNumbersUnconditionallyDereferenced.clear(v.getNumber());
+            }
+        }
     }
 
     /**
@@ -19,7 +19,9 @@
 
 package edu.umd.cs.findbugs.ba.vna;
 
-import edu.umd.cs.findbugs.util.MapCache;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import edu.umd.cs.findbugs.util.Util;
 
 /**
@@ -37,7 +39,18 @@ import edu.umd.cs.findbugs.util.Util;
  * @see ValueNumberAnalysis
  */
 public class ValueNumber implements Comparable<ValueNumber> {
-    static MapCache<ValueNumber, ValueNumber> cache = new MapCache<ValueNumber, ValueNumber>(200);
+    /** Number of possible combinations of flags */
+    private static final int NUM_FLAGS = 32;
+
+    /** Value numbers at least this big are not interned */
+    private static final int MAX_INTERNED = 1 << 16;
+
+    /**
+     * Interned value numbers, shared by all methods and threads: one array per
+     * flags, indexed by value number. The arrays are only replaced (by bigger
+     * copies) while holding the lock on the class, so lookups need no lock.
+     */
+    private static final AtomicReferenceArray<ValueNumber[]> interned = new AtomicReferenceArray<ValueNumber[]>(NUM_FLAGS);
 
     static int valueNumbersCreated = 0;
 
@@ -53,16 +66,39 @@ public class ValueNumber implements Comparable<ValueNumber> {
         return flags1 & flags2;
     }
 
-    public static synchronized ValueNumber createValueNumber(int number, int flags) {
-        ValueNumber probe = new ValueNumber(number, flags);
-        ValueNumber result = cache.get(probe);
-        if (result != null) {
-            valueNumbersReused++;
-            return result;
+    public static ValueNumber createValueNumber(int number, int flags) {
+        if (number < 0 || number >= MAX_INTERNED || flags < 0 || flags >= NUM_FLAGS) {
+            return new ValueNumber(number, flags);
+        }
+        ValueNumber[] values = interned.get(flags);
+        if (values != null && number < values.length) {
+            ValueNumber result = values[number];
+            if (result != null) {
+                valueNumbersReused++;
+                return result;
+            }
+        }
+        return intern(number, flags);
+    }
+
+    private static synchronized ValueNumber intern(int number, int flags) {
+        ValueNumber[] values = interned.get(flags);
+        if (values == null || number >= values.length) {
+            int length = values == null ? 256 : values.length;
+            while (length <= number) {
+                length *= 2;
+            }
+            values = values == null ? new ValueNumber[length] : Arrays.copyOf(values, length);
+            interned.set(flags, values);
+        }
+        ValueNumber result = values[number];
+        if (result == null) {
+            // The fields are final, so the value is safely published
+            result = new ValueNumber(number, flags);
+            values[number] = result;
+            valueNumbersCreated++;
         }
-        cache.put(probe, probe);
-        valueNumbersCreated++;
-        return probe;
+        return result;
     }
 
     public static ValueNumber createValueNumber(int number) {
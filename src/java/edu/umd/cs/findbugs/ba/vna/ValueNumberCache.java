@@ -20,7 +20,6 @@
 package edu.umd.cs.findbugs.ba.vna;
 
 import java.util.Arrays;
-import java.util.HashMap;
 
 import org.apache.bcel.generic.InstructionHandle;
 
@@ -47,26 +46,34 @@ public class ValueNumberCache {
 
         public final ValueNumber[] inputValueList;
 
-        private int cachedHashCode;
+        private final int cachedHashCode;
+
+        private ValueNumber[] outputValueList;
+
+        private Entry next;
 
         @SuppressFBWarnings("EI2")
         public Entry(InstructionHandle handle, ValueNumber[] inputValueList) {
             this.handle = handle;
             this.inputValueList = inputValueList;
-            this.cachedHashCode = 0;
+            this.cachedHashCode = hashCode(handle.getPosition(), inputValueList);
         }
 
-        @Override
-        public boolean equals(Object o) {
-            if (!(o instanceof Entry)) {
-                return false;
+        private static int hashCode(int position, ValueNumber[] inputValueList) {
+            int code = position;
+            for (ValueNumber aInputValueList : inputValueList) {
+                code *= 101;
+                ValueNumber valueNumber = aInputValueList;
+                code += valueNumber.hashCode();
             }
-            Entry other = (Entry) o;
-            if (handle.getPosition() != other.handle.getPosition()) {
+            return code;
+        }
+
+        private boolean matches(int position, ValueNumber[] otherList) {
+            if (handle.getPosition() != position) {
                 return false;
             }
             ValueNumber[] myList = inputValueList;
-            ValueNumber[] otherList = other.inputValueList;
             if (myList.length != otherList.length) {
                 return false;
             }
@@ -79,16 +86,16 @@ public class ValueNumberCache {
         }
 
         @Override
-        public int hashCode() {
-            if (cachedHashCode == 0) {
-                int code = handle.getPosition();
-                for (ValueNumber aInputValueList : inputValueList) {
-                    code *= 101;
-                    ValueNumber valueNumber = aInputValueList;
-                    code += valueNumber.hashCode();
-                }
-                cachedHashCode = code;
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
             }
+            Entry other = (Entry) o;
+            return matches(other.handle.getPosition(), other.inputValueList);
+        }
+
+        @Override
+        public int hashCode() {
             return cachedHashCode;
         }
 
@@ -105,9 +112,13 @@ public class ValueNumberCache {
     }
 
     /**
-     * Map of entries to output values.
+     * Hash table of the entries, chained through Entry.next. Unlike a HashMap
+     * keyed by entries, it can be searched without allocating an entry for
+     * each instruction transfer.
      */
-    private final HashMap<Entry, ValueNumber[]> entryToOutputMap = new HashMap<Entry, ValueNumber[]>();
+    private Entry[] table = new Entry[64];
+
+    private int size;
 
     /**
      * Look up cached output values for given entry.
@@ -118,10 +129,32 @@ public class ValueNumberCache {
      *         in the cache
      */
     public ValueNumber[] lookupOutputValues(Entry entry) {
+        return lookupOutputValues(entry.handle, entry.inputValueList);
+    }
+
+    /**
+     * Look up cached output values for given instruction and input values.
+     *
+     * @param handle
+     *            the instruction
+     * @param inputValueList
+     *            the input values
+     * @return the list of output values, or null if there is no matching entry
+     *         in the cache
+     */
+    public ValueNumber[] lookupOutputValues(InstructionHandle handle, ValueNumber[] inputValueList) {
         if (DEBUG) {
-            System.out.println("VN cache lookup: " + entry);
+            System.out.println("VN cache lookup: " + handle + " " + Arrays.toString(inputValueList));
+        }
+        int position = handle.getPosition();
+        int hash = Entry.hashCode(position, inputValueList);
+        ValueNumber[] result = null;
+        for (Entry e = table[indexFor(hash)]; e != null; e = e.next) {
+            if (e.cachedHashCode == hash && e.matches(position, inputValueList)) {
+                result = e.outputValueList;
+                break;
+            }
         }
-        ValueNumber[] result = entryToOutputMap.get(entry);
         if (DEBUG) {
             System.out.println("   result ==> " + Arrays.toString(result));
         }
@@ -139,10 +172,55 @@ public class ValueNumberCache {
      *            and input values
      */
     public void addOutputValues(Entry entry, ValueNumber[] outputValueList) {
-        ValueNumber[] old = entryToOutputMap.put(entry, outputValueList);
-        if (old != null) {
+        if (lookupOutputValues(entry) != null) {
             throw new IllegalStateException("overwriting output values for entry!");
         }
+        if (entry.outputValueList != null) {
+            // The entry is already in another cache
+            entry = new Entry(entry.handle, entry.inputValueList);
+        }
+        entry.outputValueList = outputValueList;
+        if (++size > table.length) {
+            resize();
+        }
+        int index = indexFor(entry.cachedHashCode);
+        entry.next = table[index];
+        table[index] = entry;
+    }
+
+    /**
+     * Add output values for given instruction and input values. Assumes that
+     * lookupOutputValues() has determined that they are not in the cache.
+     *
+     * @param handle
+     *            the instruction
+     * @param inputValueList
+     *            the input values, which are copied so that the caller can
+     *            reuse the array
+     * @param outputValueList
+     *            the list of output values produced by the instruction and
+     *            input values
+     */
+    public void addOutputValues(InstructionHandle handle, ValueNumber[] inputValueList, ValueNumber[] outputValueList) {
+        addOutputValues(new Entry(handle, inputValueList.clone()), outputValueList);
+    }
+
+    private int indexFor(int hash) {
+        return (hash ^ (hash >>> 16)) & (table.length - 1);
+    }
+
+    private void resize() {
+        Entry[] oldTable = table;
+        table = new Entry[oldTable.length * 2];
+        for (Entry e : oldTable) {
+            while (e != null) {
+                Entry next = e.next;
+                int index = indexFor(e.cachedHashCode);
+                e.next = table[index];
+                table[index] = e;
+                e = next;
+            }
+        }
     }
 
 }
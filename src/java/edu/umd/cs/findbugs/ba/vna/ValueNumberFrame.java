@@ -54,14 +54,34 @@ public class ValueNumberFrame extends Frame<ValueNumber> implements ValueNumberA
 
     private Map<AvailableLoad, ValueNumber[]> availableLoadMap;
 
+    /**
+     * True if the available load map may be shared with other frames (or is
+     * the immutable empty map), so that it must be copied before being
+     * modified. Sharing HashMaps directly rather than unmodifiable views
+     * avoids allocating a view entry per entry when they are copied.
+     */
+    private boolean availableLoadMapShared;
+
+    /**
+     * Index of the available loads by value number, built on demand for large
+     * available load maps. Cleared whenever the available load map may change.
+     */
+    private Map<ValueNumber, AvailableLoad> loadByValueNumber;
+
     private Map<AvailableLoad, ValueNumber> mergedLoads;
 
     private Map<ValueNumber, AvailableLoad> previouslyKnownAs;
 
+    /** True if previouslyKnownAs may be shared with other frames */
+    private boolean previouslyKnownAsShared;
+
     public boolean phiNodeForLoads;
 
     private static final boolean USE_WRITTEN_OUTSIDE_OF_CONSTRUCTOR = true;
 
+    /** Size of the available load map above which getLoad() uses an index */
+    private static final int LOAD_INDEX_THRESHOLD = 8;
+
     static int constructedUnmodifiableMap;
 
     static int reusedMap;
@@ -119,7 +139,25 @@ public class ValueNumberFrame extends Frame<ValueNumber> implements ValueNumberA
         if (!REDUNDANT_LOAD_ELIMINATION) {
             return null;
         }
-        for (Map.Entry<AvailableLoad, ValueNumber[]> e : getAvailableLoadMap().entrySet()) {
+        Map<AvailableLoad, ValueNumber[]> map = getAvailableLoadMap();
+        if (map.size() > LOAD_INDEX_THRESHOLD) {
+            if (loadByValueNumber == null) {
+                loadByValueNumber = new HashMap<ValueNumber, AvailableLoad>();
+                for (Map.Entry<AvailableLoad, ValueNumber[]> e : map.entrySet()) {
+                    ValueNumber[] values = e.getValue();
+                    if (values != null) {
+                        for (ValueNumber v2 : values) {
+                            // Keep the first load, as the scan below does
+                            if (!loadByValueNumber.containsKey(v2)) {
+                                loadByValueNumber.put(v2, e.getKey());
+                            }
+                        }
+                    }
+                }
+            }
+            return loadByValueNumber.get(v);
+        }
+        for (Map.Entry<AvailableLoad, ValueNumber[]> e : map.entrySet()) {
             ValueNumber[] values = e.getValue();
             if (values != null) {
                 for (ValueNumber v2 : values) {
@@ -404,10 +442,23 @@ public class ValueNumberFrame extends Frame<ValueNumber> implements ValueNumberA
     }
 
     ValueNumber getMergedValue(int slot) {
+        if (mergedValueList == null) {
+            return null;
+        }
         return mergedValueList.get(slot);
     }
 
     void setMergedValue(int slot, ValueNumber value) {
+        if (mergedValueList == null) {
+            // Only the frames at the start of blocks have merged values.
+            // This is where this frame gets its size: it will have the same
+            // size as long as it remains valid.
+            int numSlots = getNumSlots();
+            mergedValueList = new ArrayList<ValueNumber>(numSlots);
+            for (int i = 0; i < numSlots; ++i) {
+                mergedValueList.add(null);
+            }
+        }
         mergedValueList.set(slot, value);
     }
 
@@ -416,17 +467,6 @@ public class ValueNumberFrame extends Frame<ValueNumber> implements ValueNumberA
         if (!(other instanceof ValueNumberFrame)) {
             throw new IllegalArgumentException();
         }
-        // If merged value list hasn't been created yet, create it.
-        if (mergedValueList == null && other.isValid()) {
-            // This is where this frame gets its size.
-            // It will have the same size as long as it remains valid.
-            mergedValueList = new ArrayList<ValueNumber>(other.getNumSlots());
-            int numSlots = other.getNumSlots();
-            for (int i = 0; i < numSlots; ++i) {
-                mergedValueList.add(null);
-            }
-        }
-
         if (REDUNDANT_LOAD_ELIMINATION) {
             assignAvailableLoadMap((ValueNumberFrame) other);
             assignPreviouslyKnownAs((ValueNumberFrame) other);
@@ -436,29 +476,23 @@ public class ValueNumberFrame extends Frame<ValueNumber> implements ValueNumberA
     }
 
     private void assignAvailableLoadMap(ValueNumberFrame other) {
-        Map<AvailableLoad, ValueNumber[]> availableLoadMapOther = other.getAvailableLoadMap();
-        if (availableLoadMapOther instanceof HashMap) {
-            availableLoadMapOther = Collections.<AvailableLoad, ValueNumber[]> unmodifiableMap(availableLoadMapOther);
-            other.setAvailableLoadMap(availableLoadMapOther);
-            setAvailableLoadMap(availableLoadMapOther);
-            constructedUnmodifiableMap++;
-        } else {
-            setAvailableLoadMap(availableLoadMapOther);
+        if (other.availableLoadMapShared) {
             reusedMap++;
+        } else {
+            other.availableLoadMapShared = true;
+            constructedUnmodifiableMap++;
         }
+        setAvailableLoadMap(other.getAvailableLoadMap());
     }
 
     private void assignPreviouslyKnownAs(ValueNumberFrame other) {
-        Map<ValueNumber, AvailableLoad> previouslyKnownAsOther = other.getPreviouslyKnownAs();
-        if (previouslyKnownAsOther instanceof HashMap) {
-            previouslyKnownAsOther = Collections.<ValueNumber, AvailableLoad> unmodifiableMap(previouslyKnownAsOther);
-            other.setPreviouslyKnownAs(previouslyKnownAsOther);
-            setPreviouslyKnownAs(previouslyKnownAsOther);
-            constructedUnmodifiableMap++;
-        } else {
-            setPreviouslyKnownAs(previouslyKnownAsOther);
+        if (other.previouslyKnownAsShared) {
             reusedMap++;
+        } else {
+            other.previouslyKnownAsShared = true;
+            constructedUnmodifiableMap++;
         }
+        setPreviouslyKnownAs(other.getPreviouslyKnownAs());
     }
 
     @Override
@@ -599,6 +633,8 @@ public class ValueNumberFrame extends Frame<ValueNumber> implements ValueNumberA
 
     private void setAvailableLoadMap(Map<AvailableLoad, ValueNumber[]> availableLoadMap) {
         this.availableLoadMap = availableLoadMap;
+        availableLoadMapShared = true;
+        loadByValueNumber = null;
     }
 
     private Map<AvailableLoad, ValueNumber[]> getAvailableLoadMap() {
@@ -606,10 +642,12 @@ public class ValueNumberFrame extends Frame<ValueNumber> implements ValueNumberA
     }
 
     private Map<AvailableLoad, ValueNumber[]> getUpdateableAvailableLoadMap() {
-        if (!(availableLoadMap instanceof HashMap)) {
+        loadByValueNumber = null;
+        if (availableLoadMapShared) {
             HashMap<AvailableLoad, ValueNumber[]> tmp = new HashMap<AvailableLoad, ValueNumber[]>(availableLoadMap.size() + 4);
             tmp.putAll(availableLoadMap);
             availableLoadMap = tmp;
+            availableLoadMapShared = false;
         }
         return availableLoadMap;
     }
@@ -632,6 +670,7 @@ public class ValueNumberFrame extends Frame<ValueNumber> implements ValueNumberA
 
     private void setPreviouslyKnownAs(Map<ValueNumber, AvailableLoad> previouslyKnownAs) {
         this.previouslyKnownAs = previouslyKnownAs;
+        previouslyKnownAsShared = true;
     }
 
     private Map<ValueNumber, AvailableLoad> getPreviouslyKnownAs() {
@@ -639,16 +678,18 @@ public class ValueNumberFrame extends Frame<ValueNumber> implements ValueNumberA
     }
 
     private Map<ValueNumber, AvailableLoad> getUpdateablePreviouslyKnownAs() {
-        if (previouslyKnownAs.size() == 0) {
+        if (!previouslyKnownAsShared) {
+            reusedMutableMap++;
+        } else if (previouslyKnownAs.size() == 0) {
             previouslyKnownAs = new HashMap<ValueNumber, AvailableLoad>(4);
+            previouslyKnownAsShared = false;
             createdEmptyMap++;
-        } else if (!(previouslyKnownAs instanceof HashMap)) {
+        } else {
             HashMap<ValueNumber, AvailableLoad> tmp = new HashMap<ValueNumber, AvailableLoad>(previouslyKnownAs.size() + 4);
             tmp.putAll(previouslyKnownAs);
             previouslyKnownAs = tmp;
+            previouslyKnownAsShared = false;
             madeImmutableMutable++;
-        } else {
-            reusedMutableMap++;
         }
 
         return previouslyKnownAs;
@@ -19,6 +19,7 @@
 
 package edu.umd.cs.findbugs.ba.vna;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Set;
 
@@ -95,6 +96,12 @@ Debug, ValueNumberAnalysisFeatures {
 
     private static final ValueNumber[] EMPTY_INPUT_VALUE_LIST = new ValueNumber[0];
 
+    /**
+     * Arrays of input values reused by the instructions, indexed by size: the
+     * cache copies them when it adds an entry
+     */
+    private ValueNumber[][] inputValueArrays = new ValueNumber[8][];
+
     /*
      * ----------------------------------------------------------------------
      * Public interface
@@ -246,7 +253,7 @@ Debug, ValueNumberAnalysisFeatures {
         }
 
         // Get the input operands to this instruction.
-        ValueNumber[] inputValueList = popInputValues(numWordsConsumed);
+        ValueNumber[] inputValueList = popInputValues(getInputValueArray(numWordsConsumed));
 
         // See if we have the output operands in the cache.
         // If not, push default (fresh) values for the output,
@@ -582,12 +589,12 @@ Debug, ValueNumberAnalysisFeatures {
 
         int local = obj.getIndex();
 
-        ValueNumber[] input = new ValueNumber[] { getFrame().getValue(local) };
-        ValueNumberCache.Entry entry = new ValueNumberCache.Entry(handle, input);
-        ValueNumber[] output = cache.lookupOutputValues(entry);
+        ValueNumber[] input = getInputValueArray(1);
+        input[0] = getFrame().getValue(local);
+        ValueNumber[] output = cache.lookupOutputValues(handle, input);
         if (output == null) {
             output = new ValueNumber[] { factory.createFreshValue() };
-            cache.addOutputValues(entry, output);
+            cache.addOutputValues(handle, input, output);
         }
 
         getFrame().setValue(local, output[0]);
@@ -608,8 +615,16 @@ Debug, ValueNumberAnalysisFeatures {
      * Pop the input values for the given instruction from the current frame.
      */
     private ValueNumber[] popInputValues(int numWordsConsumed) {
+        return popInputValues(allocateValueNumberArray(numWordsConsumed));
+    }
+
+    /**
+     * Pop the input values for the given instruction from the current frame
+     * into the given array.
+     */
+    private ValueNumber[] popInputValues(ValueNumber[] inputValueList) {
         ValueNumberFrame frame = getFrame();
-        ValueNumber[] inputValueList = allocateValueNumberArray(numWordsConsumed);
+        int numWordsConsumed = inputValueList.length;
 
         // Pop off the input operands.
         try {
@@ -642,8 +657,7 @@ Debug, ValueNumberAnalysisFeatures {
     }
 
     private ValueNumber[] getOutputValues(ValueNumber[] inputValueList, int numWordsProduced, int flags) {
-        ValueNumberCache.Entry entry = new ValueNumberCache.Entry(handle, inputValueList);
-        ValueNumber[] outputValueList = cache.lookupOutputValues(entry);
+        ValueNumber[] outputValueList = cache.lookupOutputValues(handle, inputValueList);
         if (outputValueList == null) {
             outputValueList = allocateValueNumberArray(numWordsProduced);
             for (int i = 0; i < numWordsProduced; ++i) {
@@ -656,7 +670,7 @@ Debug, ValueNumberAnalysisFeatures {
                         + vlts(outputValueList) + ">>");
             }
              */
-            cache.addOutputValues(entry, outputValueList);
+            cache.addOutputValues(handle, inputValueList, outputValueList);
         } /* else if (false && RLE_DEBUG) {
             System.out.println("<<cache hit for " + handle.getPosition() + ": " + vlts(inputValueList) + " ==> "
                     + vlts(outputValueList) + ">>");
@@ -678,6 +692,25 @@ Debug, ValueNumberAnalysisFeatures {
         return new ValueNumber[size];
     }
 
+    /**
+     * Get an array of input values of given size, reused by each instruction.
+     * The array must not be retained, except by the cache which copies it.
+     */
+    private ValueNumber[] getInputValueArray(int size) {
+        if (size == 0) {
+            return EMPTY_INPUT_VALUE_LIST;
+        }
+        if (size >= inputValueArrays.length) {
+            inputValueArrays = Arrays.copyOf(inputValueArrays, size + 1);
+        }
+        ValueNumber[] result = inputValueArrays[size];
+        if (result == null) {
+            result = new ValueNumber[size];
+            inputValueArrays[size] = result;
+        }
+        return result;
+    }
+
     private static String vlts(ValueNumber[] vl) {
         StringBuilder buf = new StringBuilder();
         for (ValueNumber aVl : vl) {
@@ -715,7 +748,8 @@ Debug, ValueNumberAnalysisFeatures {
 
             if (loadedValue == null) {
                 // Get (or create) the cached result for this instruction
-                ValueNumber[] inputValueList = new ValueNumber[] { reference };
+                ValueNumber[] inputValueList = getInputValueArray(1);
+                inputValueList[0] = reference;
                 loadedValue = getOutputValues(inputValueList, getNumWordsProduced(obj));
 
                 // Make the load available
@@ -35,9 +35,13 @@ abstract public class OpcodeStackDetector extends BytecodeScanningDetector {
 
     private final boolean isUsingCustomUserValue;
 
+    private final boolean isUsingSharedStates;
+
     public OpcodeStackDetector() {
         super();
         isUsingCustomUserValue = getClass().isAnnotationPresent(OpcodeStack.CustomUserValue.class);
+        isUsingSharedStates = !isUsingCustomUserValue && !(this instanceof WithCustomJumpInfo)
+                && !getClass().isAnnotationPresent(OpcodeStack.ModifiesStack.class);
     }
 
     /**
@@ -99,4 +103,15 @@ abstract public class OpcodeStackDetector extends BytecodeScanningDetector {
     public final boolean isUsingCustomUserValue() {
         return isUsingCustomUserValue;
     }
+
+    /**
+     * @return true if this detector may replay the states of the opcode stack
+     * recorded once per method and shared by the detectors, instead of
+     * simulating the stack itself: that is, unless it uses custom user values
+     * or jump information, or is annotated with {@link edu.umd.cs.findbugs.OpcodeStack.ModifiesStack}
+     * @see edu.umd.cs.findbugs.OpcodeStack.StateTrace
+     */
+    public final boolean isUsingSharedStates() {
+        return isUsingSharedStates;
+    }
 }
@@ -0,0 +1,41 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.classfile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A codebase entry whose contents can be read as a whole, possibly without
+ * copying them.
+ */
+public interface IBufferedCodeBaseEntry extends ICodeBaseEntry {
+    /**
+     * Get the contents of the resource. The buffer may share memory with the
+     * codebase (e.g., a memory-mapped archive), so the caller must not modify
+     * it, and should not keep it once the codebase is closed.
+     *
+     * @return ByteBuffer holding the contents of the resource between its
+     *         position and its limit
+     * @throws IOException
+     *             if an error occurs reading from the resource
+     */
+    public ByteBuffer getBuffer() throws IOException;
+}
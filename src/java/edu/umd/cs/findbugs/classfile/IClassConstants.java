@@ -47,6 +47,12 @@ public interface IClassConstants {
 
     public static final int CONSTANT_Utf8 = 1;
 
+    public static final int CONSTANT_MethodHandle = 15;
+
+    public static final int CONSTANT_MethodType = 16;
+
+    public static final int CONSTANT_InvokeDynamic = 18;
+
     public static final int ACC_PUBLIC = 0x0001;
 
     public static final int ACC_PRIVATE = 0x0002;
@@ -53,6 +53,15 @@ public interface IClassPathBuilder {
      */
     public void scanNestedArchives(boolean scanNestedArchives);
 
+    /**
+     * Set the number of threads which may be used to open codebases. This
+     * should be called before the build() method is called.
+     *
+     * @param threads
+     *            the number of threads
+     */
+    public void setThreads(int threads);
+
     /**
      * Build the classpath.
      *
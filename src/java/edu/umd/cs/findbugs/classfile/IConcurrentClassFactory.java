@@ -0,0 +1,46 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.classfile;
+
+import edu.umd.cs.findbugs.BugReporter;
+
+/**
+ * A class factory creating analysis caches which may be shared by several
+ * analysis threads, and bounded by the estimated size of their contents.
+ */
+public interface IConcurrentClassFactory extends IClassFactory {
+    /**
+     * Create an analysis cache which may be shared by the given number of
+     * analysis threads, and whose cached results are bounded by their
+     * estimated size rather than their number.
+     *
+     * @param classPath
+     *            the IClassPath to load resources from
+     * @param errorLogger
+     *            the IErrorLogger
+     * @param threads
+     *            number of threads analyzing classes concurrently
+     * @param cacheBudget
+     *            estimated number of bytes the cached analysis results may
+     *            use, or 0 to bound the caches by entry counts
+     * @return the analysis cache
+     */
+    public IAnalysisCache createAnalysisCache(IClassPath classPath, BugReporter errorLogger, int threads, long cacheBudget);
+}
@@ -21,9 +21,11 @@ package edu.umd.cs.findbugs.classfile.analysis;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import edu.umd.cs.findbugs.classfile.ClassDescriptor;
 import edu.umd.cs.findbugs.classfile.ICodeBaseEntry;
+import edu.umd.cs.findbugs.classfile.InvalidClassFileFormatException;
 
 /**
  * The data (bytes) of a class.
@@ -37,6 +39,8 @@ public class ClassData {
 
     private final byte[] data;
 
+    private volatile ClassFileIndex index;
+
     /**
      * Constructor.
      *
@@ -82,6 +86,23 @@ public class ClassData {
     }
 
 
+    /**
+     * Get the index of the constant pool and header of the class, built the
+     * first time it is asked for.
+     *
+     * @return the ClassFileIndex of the class data
+     * @throws InvalidClassFileFormatException
+     *             if the data is not a class file
+     */
+    public ClassFileIndex getIndex() throws InvalidClassFileFormatException {
+        ClassFileIndex result = index;
+        if (result == null) {
+            result = new ClassFileIndex(ByteBuffer.wrap(data), classDescriptor, codeBaseEntry);
+            index = result;
+        }
+        return result;
+    }
+
     @Override
     public String toString() {
         return codeBaseEntry + ":" + classDescriptor;
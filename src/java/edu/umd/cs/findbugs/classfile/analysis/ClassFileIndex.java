@@ -0,0 +1,354 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2006, University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.classfile.analysis;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.DescriptorFactory;
+import edu.umd.cs.findbugs.classfile.IClassConstants;
+import edu.umd.cs.findbugs.classfile.ICodeBaseEntry;
+import edu.umd.cs.findbugs.classfile.InvalidClassFileFormatException;
+import edu.umd.cs.findbugs.classfile.engine.ClassParser;
+import edu.umd.cs.findbugs.internalAnnotations.SlashedClassName;
+import edu.umd.cs.findbugs.util.ClassName;
+
+/**
+ * Index of the constant pool and header of a class file, built by a single
+ * pass over the class data that only records where each constant starts.
+ * Constants are decoded when they are asked for, and UTF-8 strings are decoded
+ * at most once.
+ * <p>
+ * The index of a class is shared through {@link ClassData#getIndex()}, so that
+ * the analyses needing the name, superclass, interfaces or referenced classes
+ * of a class don't parse its data again.
+ */
+public class ClassFileIndex {
+
+    private final ByteBuffer buffer;
+
+    private final ClassDescriptor expectedClassDescriptor;
+
+    private final ICodeBaseEntry codeBaseEntry;
+
+    private final int majorVersion;
+
+    private final int minorVersion;
+
+    /** Offset of the tag of each constant, 0 for unused entries */
+    private final int[] constantOffsets;
+
+    private final String[] utf8Strings;
+
+    /** Offset of the access flags, following the constant pool */
+    private final int headerOffset;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer
+     *            the class data, between the position and the limit of the
+     *            buffer
+     * @param expectedClassDescriptor
+     *            ClassDescriptor expected: null if unknown
+     * @param codeBaseEntry
+     *            codebase entry class is loaded from
+     * @throws InvalidClassFileFormatException
+     *             if the data is not a class file
+     */
+    public ClassFileIndex(ByteBuffer buffer, @CheckForNull ClassDescriptor expectedClassDescriptor,
+            ICodeBaseEntry codeBaseEntry) throws InvalidClassFileFormatException {
+        this.buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+        this.expectedClassDescriptor = expectedClassDescriptor;
+        this.codeBaseEntry = codeBaseEntry;
+        try {
+            if (this.buffer.getInt(0) != IClassConstants.MAGIC) {
+                throw new InvalidClassFileFormatException("Classfile header isn't 0xCAFEBABE", expectedClassDescriptor,
+                        codeBaseEntry);
+            }
+            minorVersion = readUnsignedShort(4);
+            majorVersion = readUnsignedShort(6);
+            int constantPoolCount = readUnsignedShort(8);
+            constantOffsets = new int[constantPoolCount];
+            utf8Strings = new String[constantPoolCount];
+            int offset = 10;
+            for (int i = 1; i < constantPoolCount; i++) {
+                constantOffsets[i] = offset;
+                int tag = this.buffer.get(offset) & 0xff;
+                switch (tag) {
+                case IClassConstants.CONSTANT_Utf8:
+                    offset += 3 + readUnsignedShort(offset + 1);
+                    break;
+                case IClassConstants.CONSTANT_Integer:
+                case IClassConstants.CONSTANT_Float:
+                case IClassConstants.CONSTANT_Fieldref:
+                case IClassConstants.CONSTANT_Methodref:
+                case IClassConstants.CONSTANT_InterfaceMethodref:
+                case IClassConstants.CONSTANT_NameAndType:
+                case IClassConstants.CONSTANT_InvokeDynamic:
+                    offset += 5;
+                    break;
+                case IClassConstants.CONSTANT_Long:
+                case IClassConstants.CONSTANT_Double:
+                    offset += 9;
+                    // Double and Long constants take up two constant pool
+                    // entries
+                    ++i;
+                    break;
+                case IClassConstants.CONSTANT_Class:
+                case IClassConstants.CONSTANT_String:
+                case IClassConstants.CONSTANT_MethodType:
+                    offset += 3;
+                    break;
+                case IClassConstants.CONSTANT_MethodHandle:
+                    offset += 4;
+                    break;
+                default:
+                    throw new InvalidClassFileFormatException(expectedClassDescriptor, codeBaseEntry);
+                }
+            }
+            headerOffset = offset;
+            // Make sure the header is there
+            readUnsignedShort(headerOffset + 6 + 2 * getNumInterfaces() - 2);
+        } catch (IndexOutOfBoundsException e) {
+            throw new InvalidClassFileFormatException(expectedClassDescriptor, codeBaseEntry, e);
+        } catch (BufferUnderflowException e) {
+            throw new InvalidClassFileFormatException(expectedClassDescriptor, codeBaseEntry, e);
+        }
+    }
+
+    private int readUnsignedShort(int offset) {
+        return buffer.getShort(offset) & 0xffff;
+    }
+
+    /**
+     * @return the major version of the class file
+     */
+    public int getMajorVersion() {
+        return majorVersion;
+    }
+
+    /**
+     * @return the minor version of the class file
+     */
+    public int getMinorVersion() {
+        return minorVersion;
+    }
+
+    /**
+     * @return the number of entries of the constant pool, including the
+     *         unused entry 0
+     */
+    public int getConstantPoolCount() {
+        return constantOffsets.length;
+    }
+
+    /**
+     * @param index
+     *            index of a constant
+     * @return the tag of the constant, or 0 if no constant starts at this
+     *         index (the entry following a long or a double)
+     */
+    public int getConstantTag(int index) {
+        if (index <= 0 || index >= constantOffsets.length || constantOffsets[index] == 0) {
+            return 0;
+        }
+        return buffer.get(constantOffsets[index]) & 0xff;
+    }
+
+    private int getConstantOffset(int index, int expectedTag) throws InvalidClassFileFormatException {
+        if (getConstantTag(index) != expectedTag) {
+            throw new InvalidClassFileFormatException(expectedClassDescriptor, codeBaseEntry);
+        }
+        return constantOffsets[index];
+    }
+
+    /**
+     * Get the UTF-8 string constant at given constant pool index.
+     *
+     * @param index
+     *            the constant pool index
+     * @return the String at that index
+     * @throws InvalidClassFileFormatException
+     *             if there is no UTF-8 string at that index
+     */
+    public String getUtf8String(int index) throws InvalidClassFileFormatException {
+        int offset = getConstantOffset(index, IClassConstants.CONSTANT_Utf8);
+        String result = utf8Strings[index];
+        if (result == null) {
+            result = decodeUtf8(offset + 3, readUnsignedShort(offset + 1));
+            utf8Strings[index] = result;
+        }
+        return result;
+    }
+
+    /**
+     * Decode a string in the modified UTF-8 format of class files.
+     */
+    private String decodeUtf8(int offset, int length) {
+        char[] chars = new char[length];
+        int numChars = 0;
+        int end = offset + length;
+        while (offset < end) {
+            int c = buffer.get(offset++) & 0xff;
+            if (c < 0x80) {
+                chars[numChars++] = (char) c;
+            } else if (c < 0xe0) {
+                chars[numChars++] = (char) (((c & 0x1f) << 6) | (buffer.get(offset++) & 0x3f));
+            } else {
+                chars[numChars++] = (char) (((c & 0x0f) << 12) | ((buffer.get(offset++) & 0x3f) << 6) | (buffer
+                        .get(offset++) & 0x3f));
+            }
+        }
+        return new String(chars, 0, numChars);
+    }
+
+    /**
+     * Get a class name from a CONSTANT_Class. Note that this may be an array
+     * (e.g., "[Ljava/lang/String;").
+     *
+     * @param index
+     *            index of the constant, or 0
+     * @return the class name, or null if the index is 0
+     * @throws InvalidClassFileFormatException
+     *             if there is no CONSTANT_Class at that index
+     */
+    public @CheckForNull @SlashedClassName String getClassName(int index) throws InvalidClassFileFormatException {
+        if (index == 0) {
+            return null;
+        }
+        int offset = getConstantOffset(index, IClassConstants.CONSTANT_Class);
+        return getUtf8String(readUnsignedShort(offset + 1));
+    }
+
+    private @CheckForNull ClassDescriptor getClassDescriptor(int index) throws InvalidClassFileFormatException {
+        String className = getClassName(index);
+        return className != null ? DescriptorFactory.instance().getClassDescriptor(className) : null;
+    }
+
+    /**
+     * @return the access flags of the class
+     */
+    public int getAccessFlags() {
+        return readUnsignedShort(headerOffset);
+    }
+
+    /**
+     * @return the ClassDescriptor of the class
+     * @throws InvalidClassFileFormatException
+     */
+    public ClassDescriptor getClassDescriptor() throws InvalidClassFileFormatException {
+        ClassDescriptor classDescriptor = getClassDescriptor(readUnsignedShort(headerOffset + 2));
+        if (classDescriptor == null) {
+            throw new InvalidClassFileFormatException(expectedClassDescriptor, codeBaseEntry);
+        }
+        return classDescriptor;
+    }
+
+    /**
+     * @return the ClassDescriptor of the superclass, or null for
+     *         java.lang.Object
+     * @throws InvalidClassFileFormatException
+     */
+    public @CheckForNull ClassDescriptor getSuperclassDescriptor() throws InvalidClassFileFormatException {
+        return getClassDescriptor(readUnsignedShort(headerOffset + 4));
+    }
+
+    private int getNumInterfaces() {
+        return readUnsignedShort(headerOffset + 6);
+    }
+
+    /**
+     * @return the ClassDescriptors of the interfaces directly implemented by
+     *         the class
+     * @throws InvalidClassFileFormatException
+     */
+    public ClassDescriptor[] getInterfaceDescriptorList() throws InvalidClassFileFormatException {
+        int numInterfaces = getNumInterfaces();
+        if (numInterfaces == 0) {
+            return ClassDescriptor.EMPTY_ARRAY;
+        }
+        ClassDescriptor[] interfaceDescriptorList = new ClassDescriptor[numInterfaces];
+        for (int i = 0; i < numInterfaces; i++) {
+            interfaceDescriptorList[i] = getClassDescriptor(readUnsignedShort(headerOffset + 8 + 2 * i));
+        }
+        return interfaceDescriptorList;
+    }
+
+    /**
+     * Extract references to other classes, both CONSTANT_Class entries and the
+     * classes in the signatures of referenced fields and methods.
+     *
+     * @return ClassDescriptors of referenced classes
+     * @throws InvalidClassFileFormatException
+     */
+    public Collection<ClassDescriptor> getReferencedClassDescriptors() throws InvalidClassFileFormatException {
+        Set<ClassDescriptor> referencedClassSet = new HashSet<ClassDescriptor>();
+        for (int i = 1; i < constantOffsets.length; i++) {
+            int tag = getConstantTag(i);
+            if (tag == IClassConstants.CONSTANT_Class) {
+                @SlashedClassName
+                String className = getClassName(i);
+                if (className.indexOf('[') >= 0) {
+                    ClassParser.extractReferencedClassesFromSignature(referencedClassSet, className);
+                } else if (ClassName.isValidClassName(className)) {
+                    referencedClassSet.add(DescriptorFactory.instance().getClassDescriptor(className));
+                }
+            } else if (tag == IClassConstants.CONSTANT_Methodref || tag == IClassConstants.CONSTANT_Fieldref
+                    || tag == IClassConstants.CONSTANT_InterfaceMethodref) {
+                int offset = constantOffsets[i];
+                // Get the target class name
+                String className = getClassName(readUnsignedShort(offset + 1));
+                ClassParser.extractReferencedClassesFromSignature(referencedClassSet, className);
+
+                // Parse signature to extract class names
+                int nameAndTypeOffset = getConstantOffset(readUnsignedShort(offset + 3), IClassConstants.CONSTANT_NameAndType);
+                String signature = getUtf8String(readUnsignedShort(nameAndTypeOffset + 3));
+                ClassParser.extractReferencedClassesFromSignature(referencedClassSet, signature);
+            }
+        }
+        return referencedClassSet;
+    }
+
+    /**
+     * Fill in a ClassNameAndSuperclassInfo with the symbolic information of
+     * the header of the class.
+     *
+     * @param builder
+     *            the builder to fill in
+     * @throws InvalidClassFileFormatException
+     */
+    public void fillIn(ClassNameAndSuperclassInfo.Builder builder) throws InvalidClassFileFormatException {
+        builder.setClassDescriptor(getClassDescriptor());
+        builder.setSuperclassDescriptor(getSuperclassDescriptor());
+        builder.setInterfaceDescriptorList(getInterfaceDescriptorList());
+        builder.setCodeBaseEntry(codeBaseEntry);
+        builder.setAccessFlags(getAccessFlags());
+        builder.setReferencedClassDescriptors(getReferencedClassDescriptors());
+        builder.setClassfileVersion(majorVersion, minorVersion);
+    }
+}
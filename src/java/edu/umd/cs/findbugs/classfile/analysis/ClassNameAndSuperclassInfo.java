@@ -47,6 +47,8 @@ public class ClassNameAndSuperclassInfo extends ClassDescriptor {
 
     private final int accessFlags;
 
+    private final Collection<ClassDescriptor> referencedClassDescriptors;
+
     private final Set<ClassDescriptor> calledClassDescriptors;
 
     private final int majorVersion, minorVersion;
@@ -64,7 +66,7 @@ public class ClassNameAndSuperclassInfo extends ClassDescriptor {
 
         int majorVersion, minorVersion;
 
-        Collection<ClassDescriptor> referencedClassDescriptorList;
+        Collection<ClassDescriptor> referencedClassDescriptorList = Collections.<ClassDescriptor> emptyList();
 
         Set<ClassDescriptor> calledClassDescriptors = Collections.<ClassDescriptor> emptySet();
 
@@ -142,7 +144,6 @@ public class ClassNameAndSuperclassInfo extends ClassDescriptor {
 
     ClassNameAndSuperclassInfo(ClassDescriptor classDescriptor, ClassDescriptor superclassDescriptor,
             ClassDescriptor[] interfaceDescriptorList, ICodeBaseEntry codeBaseEntry, int accessFlags,
-            /* TODO: We aren't doing anything with this */
             Collection<ClassDescriptor> referencedClassDescriptorList,
             @Nonnull Set<ClassDescriptor> calledClassDescriptors, int majorVersion, int minorVersion) {
         super(classDescriptor.getClassName());
@@ -150,6 +151,7 @@ public class ClassNameAndSuperclassInfo extends ClassDescriptor {
         this.interfaceDescriptorList = interfaceDescriptorList;
         this.codeBaseEntry = codeBaseEntry;
         this.accessFlags = accessFlags;
+        this.referencedClassDescriptors = referencedClassDescriptorList;
         if (calledClassDescriptors == null) {
             throw new NullPointerException("calledClassDescriptors must not be null");
         }
@@ -201,6 +203,14 @@ public class ClassNameAndSuperclassInfo extends ClassDescriptor {
         return interfaceDescriptorList;
     }
 
+    /**
+     * @return Returns the descriptors of the classes referenced from the
+     *         constant pool.
+     */
+    public Collection<ClassDescriptor> getReferencedClassDescriptors() {
+        return referencedClassDescriptors;
+    }
+
     /**
      * @return Returns the called class descriptors.
      */
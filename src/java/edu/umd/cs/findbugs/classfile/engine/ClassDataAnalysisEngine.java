@@ -21,17 +21,18 @@ package edu.umd.cs.findbugs.classfile.engine;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
 import edu.umd.cs.findbugs.classfile.ClassDescriptor;
 import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+import edu.umd.cs.findbugs.classfile.IBufferedCodeBaseEntry;
 import edu.umd.cs.findbugs.classfile.ICodeBase;
 import edu.umd.cs.findbugs.classfile.ICodeBaseEntry;
 import edu.umd.cs.findbugs.classfile.MissingClassException;
 import edu.umd.cs.findbugs.classfile.RecomputableClassAnalysisEngine;
 import edu.umd.cs.findbugs.classfile.ResourceNotFoundException;
 import edu.umd.cs.findbugs.classfile.analysis.ClassData;
-import edu.umd.cs.findbugs.classfile.impl.ZipInputStreamCodeBaseEntry;
 import edu.umd.cs.findbugs.io.IO;
 
 /**
@@ -62,11 +63,10 @@ public class ClassDataAnalysisEngine extends RecomputableClassAnalysisEngine<Cla
         }
 
         byte[] data;
-        if (codeBaseEntry instanceof ZipInputStreamCodeBaseEntry) {
-            data = ((ZipInputStreamCodeBaseEntry) codeBaseEntry).getBytes();
-        } else {
-            try {
-                // Create a ByteArrayOutputStream to capture the class data
+        try {
+            if (codeBaseEntry instanceof IBufferedCodeBaseEntry) {
+                data = toByteArray(((IBufferedCodeBaseEntry) codeBaseEntry).getBuffer());
+            } else {
                 int length = codeBaseEntry.getNumBytes();
                 InputStream in = codeBaseEntry.openResource();
                 if (length >= 0) {
@@ -74,14 +74,27 @@ public class ClassDataAnalysisEngine extends RecomputableClassAnalysisEngine<Cla
                 } else {
                     data = IO.readAll(in);
                 }
-
-            } catch (IOException e) {
-                throw new MissingClassException(descriptor, e);
             }
+        } catch (IOException e) {
+            throw new MissingClassException(descriptor, e);
         }
         return new ClassData(descriptor, codeBaseEntry, data);
     }
 
+    /**
+     * Get the bytes between the position and the limit of a buffer, without
+     * copying them if the buffer wraps exactly an array.
+     */
+    private static byte[] toByteArray(ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.limit() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
     @Override
     public void registerWith(IAnalysisCache analysisCache) {
         analysisCache.registerClassAnalysisEngine(ClassData.class, this);
@@ -19,9 +19,6 @@
 
 package edu.umd.cs.findbugs.classfile.engine;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-
 import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
 import edu.umd.cs.findbugs.classfile.ClassDescriptor;
 import edu.umd.cs.findbugs.classfile.ClassNameMismatchException;
@@ -48,14 +45,10 @@ public class ClassNameAndSuperclassInfoAnalysisEngine implements IClassAnalysisE
     @Override
     public ClassNameAndSuperclassInfo analyze(IAnalysisCache analysisCache, ClassDescriptor descriptor)
             throws CheckedAnalysisException {
-        // Get InputStream reading from class data
+        // Read the class info from the index of the class data
         ClassData classData = analysisCache.getClassAnalysis(ClassData.class, descriptor);
-        DataInputStream classDataIn = new DataInputStream(new ByteArrayInputStream(classData.getData()));
-
-        // Read the class info
-        ClassParserInterface parser = new ClassParser(classDataIn, descriptor, classData.getCodeBaseEntry());
         ClassNameAndSuperclassInfo.Builder classInfoBuilder = new ClassNameAndSuperclassInfo.Builder();
-        parser.parse(classInfoBuilder);
+        classData.getIndex().fillIn(classInfoBuilder);
         ClassNameAndSuperclassInfo classInfo = classInfoBuilder.build();
 
         if (!classInfo.getClassDescriptor().equals(descriptor)) {
@@ -22,12 +22,14 @@ package edu.umd.cs.findbugs.classfile.engine.asm;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.tree.ClassNode;
 
+import edu.umd.cs.findbugs.asm.FBClassReader;
 import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
 import edu.umd.cs.findbugs.classfile.ClassDescriptor;
 import edu.umd.cs.findbugs.classfile.IAnalysisCache;
 import edu.umd.cs.findbugs.classfile.ICodeBaseEntry;
 import edu.umd.cs.findbugs.classfile.InvalidClassFileFormatException;
 import edu.umd.cs.findbugs.classfile.RecomputableClassAnalysisEngine;
+import edu.umd.cs.findbugs.classfile.analysis.ClassData;
 
 /**
  * Analysis engine to produce the ClassNode (ASM tree format) for a class.
@@ -45,9 +47,7 @@ public class ClassNodeAnalysisEngine extends RecomputableClassAnalysisEngine<Cla
      */
     @Override
     public ClassNode analyze(IAnalysisCache analysisCache, ClassDescriptor descriptor) throws CheckedAnalysisException {
-        ClassReader classReader = analysisCache.getClassAnalysis(ClassReader.class, descriptor);
-
-        ICodeBaseEntry entry = analysisCache.getClassPath().lookupResource(descriptor.toResourceName());
+        ClassReader classReader = analysisCache.getClassAnalysis(FBClassReader.class, descriptor);
 
         // One of the less-than-ideal features of ASM is that
         // invalid classfile format is indicated by a
@@ -58,6 +58,7 @@ public class ClassNodeAnalysisEngine extends RecomputableClassAnalysisEngine<Cla
             classReader.accept(cn, 0);
             return cn;
         } catch (RuntimeException e) {
+            ICodeBaseEntry entry = analysisCache.getClassAnalysis(ClassData.class, descriptor).getCodeBaseEntry();
             throw new InvalidClassFileFormatException(descriptor, entry, e);
         }
     }
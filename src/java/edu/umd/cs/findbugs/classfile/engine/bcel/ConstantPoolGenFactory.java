@@ -20,7 +20,6 @@
 package edu.umd.cs.findbugs.classfile.engine.bcel;
 
 import org.apache.bcel.classfile.JavaClass;
-import org.apache.bcel.generic.ClassGen;
 import org.apache.bcel.generic.ConstantPoolGen;
 
 import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
@@ -30,6 +29,8 @@ import edu.umd.cs.findbugs.classfile.RecomputableClassAnalysisEngine;
 
 /**
  * Analysis engine to produce ConstantPoolGen objects for an analyzed class.
+ * The ConstantPoolGen reads the constant pool of the JavaClass in place, see
+ * {@link LazyConstantPoolGen}.
  *
  * @author David Hovemeyer
  */
@@ -44,8 +45,8 @@ public class ConstantPoolGenFactory extends RecomputableClassAnalysisEngine<Cons
      */
     @Override
     public ConstantPoolGen analyze(IAnalysisCache analysisCache, ClassDescriptor descriptor) throws CheckedAnalysisException {
-        ClassGen classGen = new ClassGen(analysisCache.getClassAnalysis(JavaClass.class, descriptor));
-        return classGen.getConstantPool();
+        JavaClass jclass = analysisCache.getClassAnalysis(JavaClass.class, descriptor);
+        return new LazyConstantPoolGen(jclass.getConstantPool());
     }
 
     /*
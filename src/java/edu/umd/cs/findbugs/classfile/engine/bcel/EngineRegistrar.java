@@ -61,7 +61,8 @@ public class EngineRegistrar implements IAnalysisEngineRegistrar {
     private static final IMethodAnalysisEngine<?>[] methodAnalysisEngineList = { new MethodFactory(), new MethodGenFactory(),
         new CFGFactory(), new UsagesRequiringNonNullValuesFactory(), new ValueNumberDataflowFactory(),
         new IsNullValueDataflowFactory(), new TypeDataflowFactory(), new DepthFirstSearchFactory(),
-        new ReverseDepthFirstSearchFactory(), new UnpackedCodeFactory(), new LockDataflowFactory(), new LockCheckerFactory(),
+        new ReverseDepthFirstSearchFactory(), new UnpackedCodeFactory(), new DecodedCodeFactory(),
+        new LockDataflowFactory(), new LockCheckerFactory(),
         new ReturnPathDataflowFactory(), new DominatorsAnalysisFactory(), new NonExceptionPostdominatorsAnalysisFactory(),
         new NonImplicitExceptionPostDominatorsAnalysisFactory(), new ExceptionSetFactoryFactory(),
         new ParameterSignatureListFactory(), new ConstantDataflowFactory(), new LoadDataflowFactory(),
@@ -69,8 +70,8 @@ public class EngineRegistrar implements IAnalysisEngineRegistrar {
         new BlockTypeAnalysisFactory(), new CallListDataflowFactory(), new UnconditionalValueDerefDataflowFactory(),
         new CompactLocationNumberingFactory(),  new ReturnPathTypeDataflowFactory(),
         new ForwardTypeQualifierDataflowFactoryFactory(), new BackwardTypeQualifierDataflowFactoryFactory(),
-        new OpcodeStack.JumpInfoFactory(), new StackMapAnalysisFactory(), new ObligationDataflowFactory(),
-        new ValueRangeAnalysisFactory(), new FinallyDuplicatesInfoFactory()};
+        new OpcodeStack.JumpInfoFactory(), new OpcodeStack.StateTraceFactory(), new StackMapAnalysisFactory(),
+        new ObligationDataflowFactory(), new ValueRangeAnalysisFactory(), new FinallyDuplicatesInfoFactory()};
 
     private static final IDatabaseFactory<?>[] databaseFactoryList = {
         // new ReflectionDatabaseFactory<Subtypes>(Subtypes.class),
@@ -0,0 +1,298 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2007 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.classfile.engine.bcel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.ConstantUtf8;
+import org.apache.bcel.generic.ArrayType;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.ObjectType;
+
+/**
+ * ConstantPoolGen reading the constant pool of a parsed class in place.
+ * <p>
+ * The analyses only read constants through a ConstantPoolGen, and a full
+ * ConstantPoolGen copies the constant pool and builds lookup tables for all
+ * of its strings, classes and references. Here, constants are read from the
+ * ConstantPool of the JavaClass, which {@link #getConstantPool()} returns
+ * without copying it. A full ConstantPoolGen is only built when a constant is
+ * looked up, added or replaced, and all methods delegate to it from then on,
+ * so that the constant pool of the JavaClass is never modified. UTF-8
+ * constants already in the pool are found without building it.
+ */
+public class LazyConstantPoolGen extends ConstantPoolGen {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ConstantPool constantPool;
+
+    private volatile ConstantPoolGen generator;
+
+    /** UTF-8 constants found in the constant pool, guarded by this */
+    private Map<String, Integer> utf8Indices;
+
+    /**
+     * Constructor.
+     *
+     * @param constantPool
+     *            the constant pool of a JavaClass
+     */
+    public LazyConstantPoolGen(ConstantPool constantPool) {
+        this.constantPool = constantPool;
+    }
+
+    /**
+     * @return true if the lookup tables of the constant pool have been built
+     */
+    public boolean isGenerated() {
+        return generator != null;
+    }
+
+    private ConstantPoolGen getGenerator() {
+        ConstantPoolGen result = generator;
+        if (result == null) {
+            synchronized (this) {
+                result = generator;
+                if (result == null) {
+                    result = new ConstantPoolGen(constantPool);
+                    generator = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Constant getConstant(int i) {
+        ConstantPoolGen g = generator;
+        return g != null ? g.getConstant(i) : constantPool.getConstantPool()[i];
+    }
+
+    @Override
+    public ConstantPool getConstantPool() {
+        ConstantPoolGen g = generator;
+        return g != null ? g.getConstantPool() : constantPool;
+    }
+
+    @Override
+    public int getSize() {
+        ConstantPoolGen g = generator;
+        return g != null ? g.getSize() : constantPool.getLength();
+    }
+
+    @Override
+    public ConstantPool getFinalConstantPool() {
+        return getGenerator().getFinalConstantPool();
+    }
+
+    @Override
+    public void setConstant(int i, Constant c) {
+        getGenerator().setConstant(i, c);
+    }
+
+    @Override
+    public int addConstant(Constant c, ConstantPoolGen cp) {
+        return getGenerator().addConstant(c, cp);
+    }
+
+    @Override
+    public int lookupString(String str) {
+        return getGenerator().lookupString(str);
+    }
+
+    @Override
+    public int addString(String str) {
+        return getGenerator().addString(str);
+    }
+
+    @Override
+    public int lookupClass(String str) {
+        return getGenerator().lookupClass(str);
+    }
+
+    @Override
+    public int addClass(String str) {
+        return getGenerator().addClass(str);
+    }
+
+    @Override
+    public int addClass(ObjectType type) {
+        return getGenerator().addClass(type);
+    }
+
+    @Override
+    public int addArrayClass(ArrayType type) {
+        return getGenerator().addArrayClass(type);
+    }
+
+    @Override
+    public int lookupInteger(int n) {
+        return getGenerator().lookupInteger(n);
+    }
+
+    @Override
+    public int addInteger(int n) {
+        return getGenerator().addInteger(n);
+    }
+
+    @Override
+    public int lookupFloat(float n) {
+        return getGenerator().lookupFloat(n);
+    }
+
+    @Override
+    public int addFloat(float n) {
+        return getGenerator().addFloat(n);
+    }
+
+    @Override
+    public int lookupUtf8(String n) {
+        ConstantPoolGen g = generator;
+        return g != null ? g.lookupUtf8(n) : findUtf8(n);
+    }
+
+    @Override
+    public int addUtf8(String n) {
+        // MethodGen adds the names of the attributes it creates, such as
+        // "LineNumberTable", which are usually in the constant pool already
+        if (generator == null) {
+            int index = findUtf8(n);
+            if (index != -1) {
+                return index;
+            }
+        }
+        return getGenerator().addUtf8(n);
+    }
+
+    /**
+     * Find the first UTF-8 constant equal to given string in the constant
+     * pool of the JavaClass.
+     *
+     * @return the index of the constant, or -1 if there is none
+     */
+    private synchronized int findUtf8(String n) {
+        if (utf8Indices == null) {
+            utf8Indices = new HashMap<String, Integer>();
+        }
+        Integer index = utf8Indices.get(n);
+        if (index == null) {
+            index = -1;
+            Constant[] constants = constantPool.getConstantPool();
+            for (int i = 1; i < constants.length; i++) {
+                if (constants[i] instanceof ConstantUtf8 && n.equals(((ConstantUtf8) constants[i]).getBytes())) {
+                    index = i;
+                    break;
+                }
+            }
+            utf8Indices.put(n, index);
+        }
+        return index;
+    }
+
+    @Override
+    public int lookupLong(long n) {
+        return getGenerator().lookupLong(n);
+    }
+
+    @Override
+    public int addLong(long n) {
+        return getGenerator().addLong(n);
+    }
+
+    @Override
+    public int lookupDouble(double n) {
+        return getGenerator().lookupDouble(n);
+    }
+
+    @Override
+    public int addDouble(double n) {
+        return getGenerator().addDouble(n);
+    }
+
+    @Override
+    public int lookupNameAndType(String name, String signature) {
+        return getGenerator().lookupNameAndType(name, signature);
+    }
+
+    @Override
+    public int addNameAndType(String name, String signature) {
+        return getGenerator().addNameAndType(name, signature);
+    }
+
+    @Override
+    public int lookupMethodref(String className, String methodName, String signature) {
+        return getGenerator().lookupMethodref(className, methodName, signature);
+    }
+
+    @Override
+    public int lookupMethodref(MethodGen method) {
+        return getGenerator().lookupMethodref(method);
+    }
+
+    @Override
+    public int addMethodref(String className, String methodName, String signature) {
+        return getGenerator().addMethodref(className, methodName, signature);
+    }
+
+    @Override
+    public int addMethodref(MethodGen method) {
+        return getGenerator().addMethodref(method);
+    }
+
+    @Override
+    public int lookupInterfaceMethodref(String className, String methodName, String signature) {
+        return getGenerator().lookupInterfaceMethodref(className, methodName, signature);
+    }
+
+    @Override
+    public int lookupInterfaceMethodref(MethodGen method) {
+        return getGenerator().lookupInterfaceMethodref(method);
+    }
+
+    @Override
+    public int addInterfaceMethodref(String className, String methodName, String signature) {
+        return getGenerator().addInterfaceMethodref(className, methodName, signature);
+    }
+
+    @Override
+    public int addInterfaceMethodref(MethodGen method) {
+        return getGenerator().addInterfaceMethodref(method);
+    }
+
+    @Override
+    public int lookupFieldref(String className, String fieldName, String signature) {
+        return getGenerator().lookupFieldref(className, fieldName, signature);
+    }
+
+    @Override
+    public int addFieldref(String className, String fieldName, String signature) {
+        return getGenerator().addFieldref(className, fieldName, signature);
+    }
+
+    @Override
+    public String toString() {
+        return getGenerator().toString();
+    }
+}
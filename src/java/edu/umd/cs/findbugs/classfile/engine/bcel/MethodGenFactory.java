@@ -23,6 +23,7 @@ import org.apache.bcel.classfile.Method;
 import org.apache.bcel.generic.ConstantPoolGen;
 import org.apache.bcel.generic.MethodGen;
 
+import edu.umd.cs.findbugs.ba.AnalysisBudget;
 import edu.umd.cs.findbugs.ba.AnalysisContext;
 import edu.umd.cs.findbugs.ba.AnalysisFeatures;
 import edu.umd.cs.findbugs.ba.JavaClassAndMethod;
@@ -79,7 +80,9 @@ public class MethodGenFactory extends AnalysisFactory<MethodGen> {
                         new JavaClassAndMethod(jclass, method).toMethodDescriptor());
                 return null;
             }
-            if (analysisContext.getBoolProperty(AnalysisFeatures.SKIP_HUGE_METHODS)) {
+            // With a per-method budget, huge methods are analyzed until
+            // their budget is exhausted
+            if (analysisContext.getBoolProperty(AnalysisFeatures.SKIP_HUGE_METHODS) && !AnalysisBudget.hasMethodBudget()) {
                 if (codeLength > 6000 || ("<clinit>".equals(methodName) || "getContents".equals(methodName)) && codeLength > 2000) {
                     analysisContext.getLookupFailureCallback().reportSkippedAnalysis(
                             new JavaClassAndMethod(jclass, method).toMethodDescriptor());
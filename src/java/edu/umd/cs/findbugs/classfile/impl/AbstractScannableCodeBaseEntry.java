@@ -19,12 +19,18 @@
 
 package edu.umd.cs.findbugs.classfile.impl;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import edu.umd.cs.findbugs.classfile.IBufferedCodeBaseEntry;
 import edu.umd.cs.findbugs.classfile.ICodeBaseEntry;
+import edu.umd.cs.findbugs.io.IO;
 
 /**
  * @author David Hovemeyer
  */
-public abstract class AbstractScannableCodeBaseEntry implements ICodeBaseEntry {
+public abstract class AbstractScannableCodeBaseEntry implements IBufferedCodeBaseEntry {
     @Override
     public abstract AbstractScannableCodeBase getCodeBase();
 
@@ -51,4 +57,31 @@ public abstract class AbstractScannableCodeBaseEntry implements ICodeBaseEntry {
     public String getResourceName() {
         return getCodeBase().translateResourceName(getRealResourceName());
     }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umd.cs.findbugs.classfile.IBufferedCodeBaseEntry#getBuffer()
+     */
+    @Override
+    public ByteBuffer getBuffer() throws IOException {
+        return ByteBuffer.wrap(readAll(this));
+    }
+
+    /**
+     * Get the contents of a codebase entry, without copying them if the
+     * entry can supply them as a buffer.
+     */
+    static ByteBuffer getContents(ICodeBaseEntry entry) throws IOException {
+        if (entry instanceof IBufferedCodeBaseEntry) {
+            return ((IBufferedCodeBaseEntry) entry).getBuffer();
+        }
+        return ByteBuffer.wrap(readAll(entry));
+    }
+
+    private static byte[] readAll(ICodeBaseEntry entry) throws IOException {
+        int length = entry.getNumBytes();
+        InputStream in = entry.openResource();
+        return length >= 0 ? IO.readAll(in, length) : IO.readAll(in);
+    }
 }
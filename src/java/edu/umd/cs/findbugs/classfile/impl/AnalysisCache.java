@@ -35,6 +35,7 @@ import org.apache.bcel.generic.ConstantPoolGen;
 import edu.umd.cs.findbugs.BugReporter;
 import edu.umd.cs.findbugs.SystemProperties;
 import edu.umd.cs.findbugs.asm.FBClassReader;
+import edu.umd.cs.findbugs.ba.AnalysisBudget;
 import edu.umd.cs.findbugs.ba.AnalysisContext;
 import edu.umd.cs.findbugs.ba.ClassContext;
 import edu.umd.cs.findbugs.ba.Debug;
@@ -50,11 +51,17 @@ import edu.umd.cs.findbugs.classfile.IMethodAnalysisEngine;
 import edu.umd.cs.findbugs.classfile.MethodDescriptor;
 import edu.umd.cs.findbugs.classfile.UncheckedAnalysisException;
 import edu.umd.cs.findbugs.log.Profiler;
+import edu.umd.cs.findbugs.util.CacheBudget;
 import edu.umd.cs.findbugs.util.MapCache;
+import edu.umd.cs.findbugs.util.WeightedMapCache;
 
 /**
  * Implementation of IAnalysisCache. This object is responsible for registering
  * class and method analysis engines and caching analysis results.
+ * <p>
+ * All accesses are serialized on the cache object. Multi-threaded analyses
+ * should use {@link ConcurrentAnalysisCache}, which lets threads working on
+ * different classes proceed in parallel.
  *
  * @author David Hovemeyer
  */
@@ -72,6 +79,11 @@ public class AnalysisCache implements IAnalysisCache {
      */
     private static final int MAX_CLASS_RESULTS_TO_CACHE = 5000;
 
+    /**
+     * Maximum number of ClassContexts to cache (per analysis thread).
+     */
+    private static final int MAX_CLASS_CONTEXT_RESULTS_TO_CACHE = 10;
+
     //    private static final boolean ASSERTIONS_ENABLED = SystemProperties.ASSERTIONS_ENABLED;
 
     // Fields
@@ -89,6 +101,8 @@ public class AnalysisCache implements IAnalysisCache {
 
     private final Map<Class<?>, Object> databaseMap;
 
+    private final CacheBudget cacheBudget;
+
     private final Map<?, ?> analysisLocals = Collections.synchronizedMap(new HashMap<Object, Object>());
 
     @Override
@@ -155,6 +169,21 @@ public class AnalysisCache implements IAnalysisCache {
      *            the IErrorLogger
      */
     AnalysisCache(IClassPath classPath, BugReporter errorLogger) {
+        this(classPath, errorLogger, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param classPath
+     *            the IClassPath to load resources from
+     * @param errorLogger
+     *            the IErrorLogger
+     * @param cacheBudget
+     *            estimated number of bytes the cached analysis results may
+     *            use, or 0 to bound the caches by entry counts
+     */
+    AnalysisCache(IClassPath classPath, BugReporter errorLogger, long cacheBudget) {
         this.classPath = classPath;
         this.bugReporter = errorLogger;
         this.classAnalysisEngineMap = new HashMap<Class<?>, IClassAnalysisEngine<?>>();
@@ -162,6 +191,12 @@ public class AnalysisCache implements IAnalysisCache {
         this.databaseFactoryMap = new HashMap<Class<?>, IDatabaseFactory<?>>();
         this.classAnalysisMap = new HashMap<Class<?>, Map<ClassDescriptor, Object>>();
         this.databaseMap = new HashMap<Class<?>, Object>();
+        if (cacheBudget > 0) {
+            this.cacheBudget = new CacheBudget(cacheBudget);
+            databaseMap.put(CacheBudget.class, this.cacheBudget);
+        } else {
+            this.cacheBudget = null;
+        }
     }
 
     @Override
@@ -170,7 +205,7 @@ public class AnalysisCache implements IAnalysisCache {
     }
 
     @Override
-    public void purgeAllMethodAnalysis() {
+    public synchronized void purgeAllMethodAnalysis() {
         // System.out.println("ZZZ : purging all method analyses");
 
         try {
@@ -188,21 +223,26 @@ public class AnalysisCache implements IAnalysisCache {
 
     @SuppressWarnings("unchecked")
     private <E> Map<ClassDescriptor, E> getAllClassAnalysis(Class<E> analysisClass)  {
-        Map<ClassDescriptor, Object> descriptorMap
-        = findOrCreateDescriptorMap(classAnalysisMap, classAnalysisEngineMap,
-                analysisClass);
+        Map<ClassDescriptor, Object> descriptorMap = findOrCreateDescriptorMap(analysisClass);
         return (Map<ClassDescriptor, E>) descriptorMap;
     }
 
     @Override
-    public void purgeClassAnalysis(Class<?> analysisClass) {
-        classAnalysisMap.remove(analysisClass);
+    public synchronized void purgeClassAnalysis(Class<?> analysisClass) {
+        Map<ClassDescriptor, Object> descriptorMap = classAnalysisMap.remove(analysisClass);
+        if (descriptorMap instanceof WeightedMapCache) {
+            // return the weight of the results to the budget
+            descriptorMap.clear();
+        }
     }
 
     /**
      * Cleans up all cached data
      */
-    public void dispose(){
+    public synchronized void dispose(){
+        for (Map<ClassDescriptor, Object> descriptorMap : classAnalysisMap.values()) {
+            descriptorMap.clear();
+        }
         classAnalysisMap.clear();
         classAnalysisEngineMap.clear();
         analysisLocals.clear();
@@ -215,7 +255,7 @@ public class AnalysisCache implements IAnalysisCache {
      * @param analysisClass non null analysis type
      * @return map with analysis data for given type, can be null
      */
-    public @CheckForNull Map<ClassDescriptor, Object> getClassAnalysis(Class<?> analysisClass) {
+    public synchronized @CheckForNull Map<ClassDescriptor, Object> getClassAnalysis(Class<?> analysisClass) {
         return classAnalysisMap.get(analysisClass);
     }
 
@@ -224,12 +264,12 @@ public class AnalysisCache implements IAnalysisCache {
      * @param analysisClass non null analysis type
      * @param map non null, pre-filled map with analysis data for given type
      */
-    public <E> void reuseClassAnalysis(Class<E> analysisClass, Map<ClassDescriptor, Object> map) {
+    public synchronized <E> void reuseClassAnalysis(Class<E> analysisClass, Map<ClassDescriptor, Object> map) {
         Map<ClassDescriptor, Object> myMap = classAnalysisMap.get(analysisClass);
         if (myMap != null) {
             myMap.putAll(map);
         } else {
-            myMap = createMap(classAnalysisEngineMap, analysisClass);
+            myMap = createMap(analysisClass);
             myMap.putAll(map);
             classAnalysisMap.put(analysisClass, myMap);
         }
@@ -237,25 +277,26 @@ public class AnalysisCache implements IAnalysisCache {
 
     @Override
     @SuppressWarnings("unchecked")
-    public <E> E getClassAnalysis(Class<E> analysisClass, @Nonnull ClassDescriptor classDescriptor) throws CheckedAnalysisException {
+    public synchronized <E> E getClassAnalysis(Class<E> analysisClass, @Nonnull ClassDescriptor classDescriptor) throws CheckedAnalysisException {
         requireNonNull(classDescriptor, "classDescriptor is null");
         // Get the descriptor->result map for this analysis class,
         // creating if necessary
-        Map<ClassDescriptor, Object> descriptorMap = findOrCreateDescriptorMap(classAnalysisMap,
-                classAnalysisEngineMap,
-                analysisClass);
+        Map<ClassDescriptor, Object> descriptorMap = findOrCreateDescriptorMap(analysisClass);
 
         // See if there is a cached result in the descriptor map
         Object analysisResult = descriptorMap.get(classDescriptor);
-        if (analysisResult == null) {
+        Profiler profiler = getProfiler();
+        if (analysisResult != null) {
+            profiler.cacheHit(analysisClass);
+        } else {
             // No cached result - compute (or recompute)
+            profiler.cacheMiss(analysisClass);
 
             IAnalysisEngine<ClassDescriptor, E> engine = (IAnalysisEngine<ClassDescriptor, E>) classAnalysisEngineMap
                     .get(analysisClass);
             if (engine == null) {
                 throw new IllegalArgumentException("No analysis engine registered to produce " + analysisClass.getName());
             }
-            Profiler profiler = getProfiler();
             // Perform the analysis
             try {
                 profiler.start(engine.getClass());
@@ -299,12 +340,17 @@ public class AnalysisCache implements IAnalysisCache {
     }
 
     @Override
-    public <E> E probeClassAnalysis(Class<E> analysisClass, @Nonnull ClassDescriptor classDescriptor) {
+    public synchronized <E> E probeClassAnalysis(Class<E> analysisClass, @Nonnull ClassDescriptor classDescriptor) {
         Map<ClassDescriptor, Object> descriptorMap = classAnalysisMap.get(analysisClass);
         if (descriptorMap == null) {
             return null;
         }
-        return checkedCast(analysisClass, descriptorMap.get(classDescriptor));
+        Object analysisResult = descriptorMap.get(classDescriptor);
+        if (analysisResult instanceof AbnormalAnalysisResult) {
+            // A failed or null analysis is not a usable result
+            return null;
+        }
+        return checkedCast(analysisClass, analysisResult);
     }
 
     String hex(Object o) {
@@ -312,12 +358,15 @@ public class AnalysisCache implements IAnalysisCache {
     }
 
     @Override
-    public <E> E getMethodAnalysis(Class<E> analysisClass, @Nonnull MethodDescriptor methodDescriptor) throws CheckedAnalysisException {
+    public synchronized <E> E getMethodAnalysis(Class<E> analysisClass, @Nonnull MethodDescriptor methodDescriptor) throws CheckedAnalysisException {
         requireNonNull(methodDescriptor, "methodDescriptor is null");
         ClassContext classContext = getClassAnalysis(ClassContext.class, methodDescriptor.getClassDescriptor());
         Object object = classContext.getMethodAnalysis(analysisClass, methodDescriptor);
 
-        if (object == null) {
+        if (object != null) {
+            getProfiler().cacheHit(analysisClass);
+        } else {
+            getProfiler().cacheMiss(analysisClass);
             try {
                 object = analyzeMethod(classContext, analysisClass, methodDescriptor);
                 if (object == null) {
@@ -366,14 +415,14 @@ public class AnalysisCache implements IAnalysisCache {
         Profiler profiler = getProfiler();
         profiler.start(engine.getClass());
         try {
-            return engine.analyze(this, methodDescriptor);
+            return AnalysisBudget.analyzeMethod(this, engine, analysisClass, methodDescriptor);
         } finally {
             profiler.end(engine.getClass());
         }
     }
 
     @Override
-    public <E> void eagerlyPutMethodAnalysis(Class<E> analysisClass, @Nonnull MethodDescriptor methodDescriptor, E analysisObject) {
+    public synchronized <E> void eagerlyPutMethodAnalysis(Class<E> analysisClass, @Nonnull MethodDescriptor methodDescriptor, E analysisObject) {
         try {
             ClassContext classContext = getClassAnalysis(ClassContext.class, methodDescriptor.getClassDescriptor());
             assert analysisClass.isInstance(analysisObject);
@@ -387,7 +436,7 @@ public class AnalysisCache implements IAnalysisCache {
     }
 
     @Override
-    public void purgeMethodAnalyses(@Nonnull MethodDescriptor methodDescriptor) {
+    public synchronized void purgeMethodAnalyses(@Nonnull MethodDescriptor methodDescriptor) {
         try {
 
             ClassContext classContext = getClassAnalysis(ClassContext.class, methodDescriptor.getClassDescriptor());
@@ -402,64 +451,110 @@ public class AnalysisCache implements IAnalysisCache {
     /**
      * Find or create a descriptor to analysis object map.
      *
-     * @param <DescriptorType>
-     *            type of descriptor used as the map's key type (ClassDescriptor
-     *            or MethodDescriptor)
-     * @param analysisClassToDescriptorMapMap
-     *            analysis class to descriptor map map
-     * @param engineMap
-     *            analysis class to analysis engine map
      * @param analysisClass
      *            the analysis map
      * @return the descriptor to analysis object map
      */
-    private static <DescriptorType> Map<DescriptorType, Object> findOrCreateDescriptorMap(
-            final Map<Class<?>, Map<DescriptorType, Object>> analysisClassToDescriptorMapMap,
-            final Map<Class<?>, ? extends IAnalysisEngine<DescriptorType, ?>> engineMap,
-                    final Class<?> analysisClass) {
-        Map<DescriptorType, Object> descriptorMap = analysisClassToDescriptorMapMap.get(analysisClass);
+    private Map<ClassDescriptor, Object> findOrCreateDescriptorMap(Class<?> analysisClass) {
+        Map<ClassDescriptor, Object> descriptorMap = classAnalysisMap.get(analysisClass);
         if (descriptorMap == null) {
-            descriptorMap = createMap(engineMap, analysisClass);
-            analysisClassToDescriptorMapMap.put(analysisClass, descriptorMap);
+            descriptorMap = createMap(analysisClass);
+            classAnalysisMap.put(analysisClass, descriptorMap);
         }
         return descriptorMap;
     }
 
-    private static <DescriptorType> Map<DescriptorType, Object> createMap(
-            final Map<Class<?>, ? extends IAnalysisEngine<DescriptorType, ?>> engineMap,
-                    final Class<?> analysisClass) {
-        Map<DescriptorType, Object> descriptorMap;
+    private Map<ClassDescriptor, Object> createMap(Class<?> analysisClass) {
         // Create a MapCache that allows the analysis engine to
         // decide that analysis results should be retained indefinitely.
-        IAnalysisEngine<DescriptorType, ?> engine = engineMap.get(analysisClass);
+        int maxResults = getMaxResultsToCache(classAnalysisEngineMap.get(analysisClass), analysisClass, 1);
+        if (maxResults <= 0) {
+            return new HashMap<ClassDescriptor, Object>();
+        }
+        final ResultRemovalListener listener = new ResultRemovalListener(this, analysisClass);
+        if (cacheBudget != null) {
+            return new WeightedMapCache<ClassDescriptor, Object>(cacheBudget, ClassAnalysisWeigher.INSTANCE, listener);
+        }
+        return new MapCache<ClassDescriptor, Object>(maxResults) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ClassDescriptor, Object> eldest) {
+                boolean result = super.removeEldestEntry(eldest);
+                if (result) {
+                    listener.removed(eldest.getKey(), eldest.getValue(), true);
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Notified of results removed from the cache: counts discarded results in
+     * the profiler, and releases the memory budget of ClassContexts.
+     */
+    static class ResultRemovalListener implements WeightedMapCache.RemovalListener<Object, Object> {
+        private final IAnalysisCache analysisCache;
+
+        private final Class<?> analysisClass;
+
+        ResultRemovalListener(IAnalysisCache analysisCache, Class<?> analysisClass) {
+            this.analysisCache = analysisCache;
+            this.analysisClass = analysisClass;
+        }
+
+        @Override
+        public void removed(Object key, Object value, boolean evicted) {
+            if (evicted) {
+                analysisCache.getProfiler().cacheEviction(analysisClass);
+            }
+            if (value instanceof ClassContext) {
+                ((ClassContext) value).releaseCacheBudget();
+            }
+        }
+    }
+
+    /**
+     * Get the maximum number of results of given analysis to cache.
+     *
+     * @param engine
+     *            the analysis engine producing the results, or null
+     * @param analysisClass
+     *            the analysis class
+     * @param threads
+     *            number of threads analyzing classes concurrently
+     * @return the maximum number of results to cache, or 0 if the results
+     *         should be retained indefinitely
+     */
+    static int getMaxResultsToCache(IAnalysisEngine<?, ?> engine, Class<?> analysisClass, int threads) {
         if (analysisClass.equals(JavaClass.class)) {
-            descriptorMap = new MapCache<DescriptorType, Object>(MAX_JAVACLASS_RESULTS_TO_CACHE);
+            return MAX_JAVACLASS_RESULTS_TO_CACHE;
         } else if (analysisClass.equals(FBClassReader.class)) {
-            descriptorMap = new MapCache<DescriptorType, Object>(MAX_FBCLASSREADER_RESULTS_TO_CACHE);
+            return MAX_FBCLASSREADER_RESULTS_TO_CACHE;
         } else if (analysisClass.equals(ConstantPoolGen.class)) {
-            descriptorMap = new MapCache<DescriptorType, Object>(MAX_CONSTANT_POOL_GEN_RESULTS_TO_CACHE);
+            return MAX_CONSTANT_POOL_GEN_RESULTS_TO_CACHE;
         } else if (analysisClass.equals(ClassContext.class)) {
-            descriptorMap = new MapCache<DescriptorType, Object>(10);
+            // Every thread needs the ClassContexts of the classes
+            // it is currently working on
+            return MAX_CLASS_CONTEXT_RESULTS_TO_CACHE * threads;
         } else if (engine instanceof IClassAnalysisEngine && ((IClassAnalysisEngine<?>) engine).canRecompute()) {
-            descriptorMap = new MapCache<DescriptorType, Object>(MAX_CLASS_RESULTS_TO_CACHE);
-        } else {
-            descriptorMap = new HashMap<DescriptorType, Object>();
+            return MAX_CLASS_RESULTS_TO_CACHE;
         }
-        return descriptorMap;
+        return 0;
     }
 
     @Override
-    public <E> void registerClassAnalysisEngine(Class<E> analysisResultType, IClassAnalysisEngine<E> classAnalysisEngine) {
+    public synchronized <E> void registerClassAnalysisEngine(Class<E> analysisResultType, IClassAnalysisEngine<E> classAnalysisEngine) {
         classAnalysisEngineMap.put(analysisResultType, classAnalysisEngine);
     }
 
     @Override
-    public <E> void registerMethodAnalysisEngine(Class<E> analysisResultType, IMethodAnalysisEngine<E> methodAnalysisEngine) {
+    public synchronized <E> void registerMethodAnalysisEngine(Class<E> analysisResultType, IMethodAnalysisEngine<E> methodAnalysisEngine) {
         methodAnalysisEngineMap.put(analysisResultType, methodAnalysisEngine);
     }
 
     @Override
-    public <E> void registerDatabaseFactory(Class<E> databaseClass, IDatabaseFactory<E> databaseFactory) {
+    public synchronized <E> void registerDatabaseFactory(Class<E> databaseClass, IDatabaseFactory<E> databaseFactory) {
         databaseFactoryMap.put(databaseClass, databaseFactory);
     }
 
@@ -471,7 +566,7 @@ public class AnalysisCache implements IAnalysisCache {
     public @CheckForNull <E> E getOptionalDatabase(Class<E> databaseClass) {
         return getDatabase(databaseClass, true);
     }
-    public <E> E getDatabase(Class<E> databaseClass, boolean optional) {
+    public synchronized <E> E getDatabase(Class<E> databaseClass, boolean optional) {
         Object database = databaseMap.get(databaseClass);
 
         if (database == null) {
@@ -503,7 +598,7 @@ public class AnalysisCache implements IAnalysisCache {
     }
 
     @Override
-    public <E> void eagerlyPutDatabase(Class<E> databaseClass, E database) {
+    public synchronized <E> void eagerlyPutDatabase(Class<E> databaseClass, E database) {
         databaseMap.put(databaseClass, database);
     }
 
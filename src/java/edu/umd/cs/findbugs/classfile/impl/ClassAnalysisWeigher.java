@@ -0,0 +1,86 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.classfile.impl;
+
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.ConstantPoolGen;
+
+import edu.umd.cs.findbugs.asm.FBClassReader;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.util.WeightedMapCache;
+
+/**
+ * Estimates the memory retained by a cached class analysis result, mostly
+ * from the length of the bytecode it was built from.
+ * <p>
+ * The estimate for a ClassContext covers the method analyses kept for as
+ * long as the ClassContext lives (CFGs, MethodGens, ...). Cached dataflow
+ * results are weighed separately by the ClassContext.
+ */
+class ClassAnalysisWeigher implements WeightedMapCache.Weigher<ClassDescriptor, Object> {
+
+    /** Estimated size of a result the weigher knows nothing about */
+    static final int DEFAULT_WEIGHT = 256;
+
+    /** Estimated size of a constant pool entry */
+    static final int CONSTANT_WEIGHT = 48;
+
+    /** Estimated size of a field or method */
+    static final int MEMBER_WEIGHT = 96;
+
+    /** Estimated size of the method analyses kept per byte of bytecode */
+    static final int CLASS_CONTEXT_WEIGHT_PER_BYTE = 64;
+
+    static final ClassAnalysisWeigher INSTANCE = new ClassAnalysisWeigher();
+
+    @Override
+    public int weigh(ClassDescriptor key, Object value) {
+        if (value instanceof JavaClass) {
+            JavaClass jclass = (JavaClass) value;
+            return DEFAULT_WEIGHT + jclass.getConstantPool().getLength() * CONSTANT_WEIGHT
+                    + (jclass.getFields().length + jclass.getMethods().length) * MEMBER_WEIGHT + 4 * getCodeLength(jclass);
+        }
+        if (value instanceof FBClassReader) {
+            // the class file bytes, plus the offsets of the constants
+            return DEFAULT_WEIGHT + 2 * ((FBClassReader) value).b.length;
+        }
+        if (value instanceof ConstantPoolGen) {
+            return DEFAULT_WEIGHT + ((ConstantPoolGen) value).getSize() * CONSTANT_WEIGHT;
+        }
+        if (value instanceof ClassContext) {
+            return DEFAULT_WEIGHT * 4 + CLASS_CONTEXT_WEIGHT_PER_BYTE * getCodeLength(((ClassContext) value).getJavaClass());
+        }
+        return DEFAULT_WEIGHT;
+    }
+
+    private static int getCodeLength(JavaClass jclass) {
+        int length = 0;
+        for (Method m : jclass.getMethods()) {
+            Code code = m.getCode();
+            if (code != null) {
+                length += code.getCode().length;
+            }
+        }
+        return length;
+    }
+}
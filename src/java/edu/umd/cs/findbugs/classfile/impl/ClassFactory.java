@@ -30,6 +30,7 @@ import edu.umd.cs.findbugs.classfile.IClassPath;
 import edu.umd.cs.findbugs.classfile.IClassPathBuilder;
 import edu.umd.cs.findbugs.classfile.ICodeBase;
 import edu.umd.cs.findbugs.classfile.ICodeBaseLocator;
+import edu.umd.cs.findbugs.classfile.IConcurrentClassFactory;
 import edu.umd.cs.findbugs.classfile.IErrorLogger;
 import edu.umd.cs.findbugs.classfile.IScannableCodeBase;
 import edu.umd.cs.findbugs.classfile.ResourceNotFoundException;
@@ -39,7 +40,7 @@ import edu.umd.cs.findbugs.classfile.ResourceNotFoundException;
  *
  * @author David Hovemeyer
  */
-public class ClassFactory implements IClassFactory {
+public class ClassFactory implements IConcurrentClassFactory {
     private static IClassFactory theInstance = new ClassFactory();
 
     private ClassFactory() {
@@ -139,4 +140,20 @@ public class ClassFactory implements IClassFactory {
         IAnalysisCache analysisCache = new AnalysisCache(classPath, errorLogger);
         return analysisCache;
     }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * edu.umd.cs.findbugs.classfile.IConcurrentClassFactory#createAnalysisCache
+     * (edu.umd.cs.findbugs.classfile.IClassPath,
+     * edu.umd.cs.findbugs.BugReporter, int, long)
+     */
+    @Override
+    public IAnalysisCache createAnalysisCache(IClassPath classPath, BugReporter errorLogger, int threads, long cacheBudget) {
+        if (threads <= 1) {
+            return new AnalysisCache(classPath, errorLogger, cacheBudget);
+        }
+        return new ConcurrentAnalysisCache(classPath, errorLogger, threads, cacheBudget);
+    }
 }
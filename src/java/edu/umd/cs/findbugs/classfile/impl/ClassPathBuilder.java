@@ -19,14 +19,15 @@
 
 package edu.umd.cs.findbugs.classfile.impl;
 
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -34,6 +35,14 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
@@ -50,13 +59,12 @@ import edu.umd.cs.findbugs.classfile.ICodeBase;
 import edu.umd.cs.findbugs.classfile.ICodeBaseEntry;
 import edu.umd.cs.findbugs.classfile.ICodeBaseIterator;
 import edu.umd.cs.findbugs.classfile.ICodeBaseLocator;
+import edu.umd.cs.findbugs.classfile.ICodeBaseScanProgress;
 import edu.umd.cs.findbugs.classfile.IErrorLogger;
 import edu.umd.cs.findbugs.classfile.IScannableCodeBase;
 import edu.umd.cs.findbugs.classfile.InvalidClassFileFormatException;
 import edu.umd.cs.findbugs.classfile.ResourceNotFoundException;
-import edu.umd.cs.findbugs.classfile.analysis.ClassNameAndSuperclassInfo;
-import edu.umd.cs.findbugs.classfile.engine.ClassParser;
-import edu.umd.cs.findbugs.classfile.engine.ClassParserInterface;
+import edu.umd.cs.findbugs.classfile.analysis.ClassFileIndex;
 import edu.umd.cs.findbugs.io.IO;
 import edu.umd.cs.findbugs.util.Archive;
 import edu.umd.cs.findbugs.util.ClassPathUtil;
@@ -73,6 +81,11 @@ public class ClassPathBuilder implements IClassPathBuilder {
 
     private static final boolean NO_PARSE_CLASS_NAMES = SystemProperties.getBoolean("findbugs2.builder.noparseclassnames");
 
+    /**
+     * Number of worklist items scanned ahead of time, per thread
+     */
+    private static final int SCAN_AHEAD_PER_THREAD = 2;
+
     /**
      * Worklist item. Represents one codebase to be processed during the
      * classpath construction algorithm.
@@ -155,6 +168,59 @@ public class ClassPathBuilder implements IClassPathBuilder {
         }
     }
 
+    /**
+     * An error found while scanning a codebase.
+     */
+    static class ScanError {
+        final String message;
+
+        final Throwable cause;
+
+        ScanError(String message, Throwable cause) {
+            this.message = message;
+            this.cause = cause;
+        }
+    }
+
+    /**
+     * The result of opening and scanning the codebase of a worklist item. The
+     * codebases it refers to and the errors found are only added to the
+     * worklist and logged once the codebase is added to the classpath.
+     */
+    static class ScannedCodeBase {
+        final WorkListItem item;
+
+        /**
+         * The codebase, or null if it could not be opened
+         */
+        DiscoveredCodeBase discoveredCodeBase;
+
+        final List<ICodeBaseLocator> nestedArchiveLocators = new ArrayList<ICodeBaseLocator>();
+
+        final List<ICodeBaseLocator> manifestClassPathLocators = new ArrayList<ICodeBaseLocator>();
+
+        final List<ScanError> errors = new ArrayList<ScanError>();
+
+        /**
+         * Why the codebase or its manifest could not be read, if it could
+         * not
+         */
+        Exception exception;
+
+        /**
+         * Time spent opening and scanning the codebase, in nanoseconds
+         */
+        long scanTime;
+
+        ScannedCodeBase(WorkListItem item) {
+            this.item = item;
+        }
+
+        void logError(String message, Throwable cause) {
+            errors.add(new ScanError(message, cause));
+        }
+    }
+
     // Fields
     private final IClassFactory classFactory;
 
@@ -170,6 +236,18 @@ public class ClassPathBuilder implements IClassPathBuilder {
 
     private boolean scanNestedArchives;
 
+    private int threads = 1;
+
+    /**
+     * Scans codebases in the background, if more than one thread is used
+     */
+    private ExecutorService scanningExecutor;
+
+    /**
+     * Codebases being scanned in the background, by worklist item
+     */
+    private final Map<WorkListItem, Future<ScannedCodeBase>> scanningCodeBaseMap;
+
     /**
      * Constructor.
      *
@@ -185,6 +263,7 @@ public class ClassPathBuilder implements IClassPathBuilder {
         this.discoveredCodeBaseList = new LinkedList<DiscoveredCodeBase>();
         this.discoveredCodeBaseMap = new HashMap<String, DiscoveredCodeBase>();
         this.appClassList = new LinkedList<ClassDescriptor>();
+        this.scanningCodeBaseMap = new IdentityHashMap<WorkListItem, Future<ScannedCodeBase>>();
     }
 
     /*
@@ -211,6 +290,16 @@ public class ClassPathBuilder implements IClassPathBuilder {
         this.scanNestedArchives = scanNestedArchives;
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umd.cs.findbugs.classfile.IClassPathBuilder#setThreads(int)
+     */
+    @Override
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -222,13 +311,17 @@ public class ClassPathBuilder implements IClassPathBuilder {
     @Override
     public void build(IClassPath classPath, IClassPathBuilderProgress progress) throws CheckedAnalysisException, IOException,
     InterruptedException {
-        // Discover all directly and indirectly referenced codebases
-        processWorkList(classPath, projectWorkList, progress);
+        try {
+            // Discover all directly and indirectly referenced codebases
+            processWorkList(classPath, projectWorkList, progress);
 
-        // If not already located, try to locate any additional codebases
-        // containing classes required for analysis.
-        if (!discoveredCodeBaseList.isEmpty()) {
-            locateCodebasesRequiredForAnalysis(classPath, progress);
+            // If not already located, try to locate any additional codebases
+            // containing classes required for analysis.
+            if (!discoveredCodeBaseList.isEmpty()) {
+                locateCodebasesRequiredForAnalysis(classPath, progress);
+            }
+        } finally {
+            shutdownScanningExecutor();
         }
 
         // Add all discovered codebases to the classpath
@@ -549,6 +642,12 @@ public class ClassPathBuilder implements IClassPathBuilder {
      * archives and Class-Path entries specified in Jar manifests. This should
      * give us as good an idea as possible of all of the classes available (and
      * which are part of the application).
+     * <p>
+     * With more than one thread, the codebases of the items at the head of the
+     * worklist are opened and scanned concurrently, ahead of time. The results
+     * are still merged in worklist order, so that the classpath, the
+     * precedence of its codebases, and the errors logged are the same as with
+     * a single thread.
      *
      * @param workList
      *            the worklist to process
@@ -563,7 +662,9 @@ public class ClassPathBuilder implements IClassPathBuilder {
         // Build the classpath, scanning codebases for nested archives
         // and referenced codebases.
         while (!workList.isEmpty()) {
+            scanAhead(workList);
             WorkListItem item = workList.removeFirst();
+            Future<ScannedCodeBase> scannedInBackground = scanningCodeBaseMap.remove(item);
             if (item.getHowDiscovered() == ICodeBase.Discovered.SPECIFIED) {
                 progress.startArchive(item.toString());
             }
@@ -583,66 +684,234 @@ public class ClassPathBuilder implements IClassPathBuilder {
                     discoveredCodeBase.getCodeBase().setApplicationCodeBase(true);
                 }
 
+                discard(scannedInBackground);
                 continue;
             }
 
             // Detect .java files, which are probably human error
-            if (item.getCodeBaseLocator() instanceof FilesystemCodeBaseLocator) {
-                FilesystemCodeBaseLocator l = (FilesystemCodeBaseLocator) item.getCodeBaseLocator();
-                if (l.getPathName().endsWith(".java")) {
-                    if (DEBUG){
-                        System.err.println("Ignoring .java file \"" + l.getPathName() + "\" specified in classpath or auxclasspath");
-                    }
-                    continue;
+            if (isJavaSourceFile(item)) {
+                if (DEBUG){
+                    System.err.println("Ignoring .java file \"" + ((FilesystemCodeBaseLocator) item.getCodeBaseLocator()).getPathName()
+                            + "\" specified in classpath or auxclasspath");
                 }
+                continue;
+            }
+
+            ScannedCodeBase scannedCodeBase = scannedInBackground != null ? getScannedCodeBase(scannedInBackground)
+                    : openAndScan(item);
+            mergeScannedCodeBase(workList, scannedCodeBase);
+            if (progress instanceof ICodeBaseScanProgress) {
+                ((ICodeBaseScanProgress) progress).reportCodeBaseScanTime(item.getCodeBaseLocator().toString(),
+                        TimeUnit.NANOSECONDS.toMillis(scannedCodeBase.scanTime));
+            }
+
+            if (item.getHowDiscovered() == ICodeBase.Discovered.SPECIFIED) {
+                progress.finishArchive();
+            }
+        }
+    }
+
+    private static boolean isJavaSourceFile(WorkListItem item) {
+        return item.getCodeBaseLocator() instanceof FilesystemCodeBaseLocator
+                && ((FilesystemCodeBaseLocator) item.getCodeBaseLocator()).getPathName().endsWith(".java");
+    }
+
+    /**
+     * Add an opened and scanned codebase to the classpath, along with the
+     * codebases it refers to.
+     *
+     * @param workList
+     *            the worklist
+     * @param scannedCodeBase
+     *            the codebase
+     */
+    private void mergeScannedCodeBase(LinkedList<WorkListItem> workList, ScannedCodeBase scannedCodeBase) {
+        WorkListItem item = scannedCodeBase.item;
+        for (ScanError error : scannedCodeBase.errors) {
+            errorLogger.logError(error.message, error.cause);
+        }
+
+        DiscoveredCodeBase discoveredCodeBase = scannedCodeBase.discoveredCodeBase;
+        if (discoveredCodeBase != null) {
+            // Note that this codebase has been visited
+            discoveredCodeBaseMap.put(item.getCodeBaseLocator().toString(), discoveredCodeBase);
+            discoveredCodeBaseList.addLast(discoveredCodeBase);
+
+            for (ICodeBaseLocator nestedArchiveLocator : scannedCodeBase.nestedArchiveLocators) {
+                addToWorkList(workList, new WorkListItem(nestedArchiveLocator, item.isAppCodeBase(), ICodeBase.Discovered.NESTED));
+            }
+
+            // Codebases found in Class-Path entries are always
+            // added to the aux classpath, not the application.
+            for (ICodeBaseLocator relativeCodeBaseLocator : scannedCodeBase.manifestClassPathLocators) {
+                addToWorkList(workList, new WorkListItem(relativeCodeBaseLocator, false, ICodeBase.Discovered.IN_JAR_MANIFEST));
             }
+        }
 
-            // If we are working on an application codebase,
-            // then failing to open/scan it is a fatal error.
-            // We issue warnings about problems with aux codebases,
-            // but continue anyway.
-
-            try {
-                // Open the codebase and add it to the classpath
-                discoveredCodeBase = new DiscoveredCodeBase(item.getCodeBaseLocator().openCodeBase());
-                discoveredCodeBase.getCodeBase().setApplicationCodeBase(item.isAppCodeBase());
-                discoveredCodeBase.getCodeBase().setHowDiscovered(item.getHowDiscovered());
-
-                // Note that this codebase has been visited
-                discoveredCodeBaseMap.put(item.getCodeBaseLocator().toString(), discoveredCodeBase);
-                discoveredCodeBaseList.addLast(discoveredCodeBase);
-
-                // If it is a scannable codebase, check it for nested archives.
-                // In addition, if it is an application codebase then
-                // make a list of application classes.
-                if (discoveredCodeBase.getCodeBase() instanceof IScannableCodeBase
-                        && ( discoveredCodeBase.codeBase.isApplicationCodeBase()
-                                || item.getHowDiscovered() == ICodeBase.Discovered.SPECIFIED)
-                        ) {
-                    scanCodebase(classPath, workList, discoveredCodeBase);
+        // If we are working on an application codebase,
+        // then failing to open/scan it is a fatal error.
+        // We issue warnings about problems with aux codebases,
+        // but continue anyway.
+        Exception e = scannedCodeBase.exception;
+        if (e instanceof IOException) {
+            if (item.isAppCodeBase() || item.getHowDiscovered() == ICodeBase.Discovered.SPECIFIED) {
+                if (e instanceof FileNotFoundException) {
+                    errorLogger.logError("File not found: " + item.getCodeBaseLocator());
+                } else {
+                    errorLogger.logError("Cannot open codebase " + item.getCodeBaseLocator(), e);
                 }
+            }
+        } else if (e instanceof ResourceNotFoundException) {
+            if (item.getHowDiscovered() == ICodeBase.Discovered.SPECIFIED) {
+                errorLogger.logError("Cannot open codebase " + item.getCodeBaseLocator(), e);
+            }
+        }
+    }
+
+    /**
+     * Open and scan the codebase of a worklist item. This does not modify the
+     * state of the ClassPathBuilder, and may be called on a background thread.
+     *
+     * @param item
+     *            the worklist item
+     * @return the scanned codebase, or the reason why it could not be opened
+     * @throws InterruptedException
+     */
+    private ScannedCodeBase openAndScan(WorkListItem item) throws InterruptedException {
+        long start = System.nanoTime();
+        ScannedCodeBase scannedCodeBase = new ScannedCodeBase(item);
+        try {
+            // Open the codebase
+            ICodeBase codeBase = item.getCodeBaseLocator().openCodeBase();
+            codeBase.setApplicationCodeBase(item.isAppCodeBase());
+            codeBase.setHowDiscovered(item.getHowDiscovered());
+            scannedCodeBase.discoveredCodeBase = new DiscoveredCodeBase(codeBase);
+
+            // If it is a scannable codebase, check it for nested archives.
+            // In addition, if it is an application codebase then
+            // make a list of application classes.
+            if (codeBase instanceof IScannableCodeBase
+                    && (codeBase.isApplicationCodeBase() || item.getHowDiscovered() == ICodeBase.Discovered.SPECIFIED)) {
+                scanCodebase(scannedCodeBase);
+            }
+
+            // Check for a Jar manifest for additional aux classpath
+            // entries.
+            scanJarManifestForClassPathEntries(scannedCodeBase);
+        } catch (IOException e) {
+            scannedCodeBase.exception = e;
+        } catch (ResourceNotFoundException e) {
+            scannedCodeBase.exception = e;
+        }
+        scannedCodeBase.scanTime = System.nanoTime() - start;
+        return scannedCodeBase;
+    }
 
-                // Check for a Jar manifest for additional aux classpath
-                // entries.
-                scanJarManifestForClassPathEntries(workList, discoveredCodeBase.getCodeBase());
-            } catch (IOException e) {
-                if (item.isAppCodeBase() || item.getHowDiscovered() == ICodeBase.Discovered.SPECIFIED) {
-                    if (e instanceof FileNotFoundException) {
-                        errorLogger.logError("File not found: " + item.getCodeBaseLocator());
-                    } else {
-                        errorLogger.logError("Cannot open codebase " + item.getCodeBaseLocator(), e);
+    /**
+     * Start scanning the codebases of the items at the head of the worklist
+     * on background threads, if more than one thread is used.
+     *
+     * @param workList
+     *            the worklist
+     */
+    private void scanAhead(LinkedList<WorkListItem> workList) {
+        if (threads <= 1) {
+            return;
+        }
+        int count = 0;
+        for (final WorkListItem item : workList) {
+            if (count++ >= SCAN_AHEAD_PER_THREAD * threads) {
+                break;
+            }
+            if (scanningCodeBaseMap.containsKey(item) || isJavaSourceFile(item)
+                    || discoveredCodeBaseMap.containsKey(item.getCodeBaseLocator().toString())) {
+                continue;
+            }
+            if (scanningExecutor == null) {
+                final AtomicInteger threadCount = new AtomicInteger();
+                scanningExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "FindBugs classpath builder " + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
                     }
+                });
+            }
+            scanningCodeBaseMap.put(item, scanningExecutor.submit(new Callable<ScannedCodeBase>() {
+                @Override
+                public ScannedCodeBase call() throws InterruptedException {
+                    return openAndScan(item);
                 }
-            } catch (ResourceNotFoundException e) {
-                if (item.getHowDiscovered() == ICodeBase.Discovered.SPECIFIED) {
-                    errorLogger.logError("Cannot open codebase " + item.getCodeBaseLocator(), e);
-                }
+            }));
+        }
+    }
+
+    /**
+     * Wait for a codebase scanned in the background.
+     *
+     * @param future
+     *            the background scan
+     * @return the scanned codebase
+     * @throws InterruptedException
+     */
+    private static ScannedCodeBase getScannedCodeBase(Future<ScannedCodeBase> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
             }
+            throw new IllegalStateException(cause);
+        }
+    }
 
-            if (item.getHowDiscovered() == ICodeBase.Discovered.SPECIFIED) {
-                progress.finishArchive();
+    /**
+     * Discard a codebase scanned in the background which is not added to the
+     * classpath.
+     *
+     * @param future
+     *            the background scan, or null
+     */
+    private static void discard(Future<ScannedCodeBase> future) throws InterruptedException {
+        if (future == null || future.cancel(true)) {
+            return;
+        }
+        DiscoveredCodeBase discoveredCodeBase;
+        try {
+            discoveredCodeBase = getScannedCodeBase(future).discoveredCodeBase;
+        } catch (RuntimeException e) {
+            // Never made it to the classpath anyway
+            return;
+        }
+        if (discoveredCodeBase != null) {
+            discoveredCodeBase.getCodeBase().close();
+        }
+    }
+
+    /**
+     * Stop the background threads, discarding the codebases they scanned which
+     * did not make it to the classpath.
+     */
+    private void shutdownScanningExecutor() {
+        if (scanningExecutor == null) {
+            return;
+        }
+        scanningExecutor.shutdownNow();
+        try {
+            for (Future<ScannedCodeBase> future : scanningCodeBaseMap.values()) {
+                discard(future);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        scanningCodeBaseMap.clear();
+        scanningExecutor = null;
     }
 
     /**
@@ -653,14 +922,12 @@ public class ClassPathBuilder implements IClassPathBuilder {
      * <li>build a list of class resources found in the codebase
      * </ul>
      *
-     * @param workList
-     *            the worklist
-     * @param discoveredCodeBase
+     * @param scannedCodeBase
      *            the codebase to scan
      * @throws InterruptedException
      */
-    private void scanCodebase(IClassPath classPath, LinkedList<WorkListItem> workList, DiscoveredCodeBase discoveredCodeBase)
-            throws InterruptedException {
+    private void scanCodebase(ScannedCodeBase scannedCodeBase) throws InterruptedException {
+        DiscoveredCodeBase discoveredCodeBase = scannedCodeBase.discoveredCodeBase;
         if (DEBUG) {
             System.out.println("Scanning " + discoveredCodeBase.getCodeBase().getCodeBaseLocator());
         }
@@ -676,7 +943,7 @@ public class ClassPathBuilder implements IClassPathBuilder {
 
             if (!NO_PARSE_CLASS_NAMES && codeBase.isApplicationCodeBase()
                     && DescriptorFactory.isClassResource(entry.getResourceName()) && !(entry instanceof SingleFileCodeBaseEntry)) {
-                parseClassName(entry);
+                parseClassName(entry, scannedCodeBase);
             }
 
             // Note the resource exists in this codebase
@@ -690,8 +957,7 @@ public class ClassPathBuilder implements IClassPathBuilder {
                 }
                 ICodeBaseLocator nestedArchiveLocator = classFactory.createNestedArchiveCodeBaseLocator(codeBase,
                         entry.getResourceName());
-                addToWorkList(workList,
-                        new WorkListItem(nestedArchiveLocator, codeBase.isApplicationCodeBase(), ICodeBase.Discovered.NESTED));
+                scannedCodeBase.nestedArchiveLocators.add(nestedArchiveLocator);
             }
         }
     }
@@ -702,42 +968,36 @@ public class ClassPathBuilder implements IClassPathBuilder {
      *
      * @param entry
      *            the resource
+     * @param scannedCodeBase
+     *            the codebase containing the resource
      */
-    private void parseClassName(ICodeBaseEntry entry) {
-        DataInputStream in = null;
+    private static void parseClassName(ICodeBaseEntry entry, ScannedCodeBase scannedCodeBase) {
         try {
-            InputStream resourceIn = entry.openResource();
-            if (resourceIn == null) {
-                throw new NullPointerException("Got null resource");
-            }
-            in = new DataInputStream(resourceIn);
-            ClassParserInterface parser = new ClassParser(in, null, entry);
-            ClassNameAndSuperclassInfo.Builder builder = new ClassNameAndSuperclassInfo.Builder();
-            parser.parse(builder);
+            // Only the header is needed: index the constant pool rather than
+            // decoding it
+            ClassFileIndex index = new ClassFileIndex(AbstractScannableCodeBaseEntry.getContents(entry), null, entry);
 
-            String trueResourceName = builder.build().getClassDescriptor().toResourceName();
+            String trueResourceName = index.getClassDescriptor().toResourceName();
             if (!trueResourceName.equals(entry.getResourceName())) {
                 entry.overrideResourceName(trueResourceName);
             }
         } catch (IOException e) {
-            errorLogger.logError("Invalid class resource " + entry.getResourceName() + " in " + entry, e);
+            scannedCodeBase.logError("Invalid class resource " + entry.getResourceName() + " in " + entry, e);
         } catch (InvalidClassFileFormatException e) {
-            errorLogger.logError("Invalid class resource " + entry.getResourceName() + " in " + entry, e);
-        } finally {
-            IO.close(in);
+            scannedCodeBase.logError("Invalid class resource " + entry.getResourceName() + " in " + entry, e);
         }
     }
 
     /**
      * Check a codebase for a Jar manifest to examine for Class-Path entries.
      *
-     * @param workList
-     *            the worklist
-     * @param codeBase
+     * @param scannedCodeBase
      *            the codebase for examine for a Jar manifest
      * @throws IOException
      */
-    private void scanJarManifestForClassPathEntries(LinkedList<WorkListItem> workList, ICodeBase codeBase) throws IOException {
+    private static void scanJarManifestForClassPathEntries(ScannedCodeBase scannedCodeBase) throws IOException {
+        ICodeBase codeBase = scannedCodeBase.discoveredCodeBase.getCodeBase();
+
         // See if this codebase has a jar manifest
         ICodeBaseEntry manifestEntry = codeBase.lookupResource("META-INF/MANIFEST.MF");
         if (manifestEntry == null) {
@@ -761,10 +1021,7 @@ public class ClassPathBuilder implements IClassPathBuilder {
                     // relative to the codebase in which we discovered the Jar
                     // manifest
                     ICodeBaseLocator relativeCodeBaseLocator = codeBase.getCodeBaseLocator().createRelativeCodeBaseLocator(path);
-
-                    // Codebases found in Class-Path entries are always
-                    // added to the aux classpath, not the application.
-                    addToWorkList(workList, new WorkListItem(relativeCodeBaseLocator, false, ICodeBase.Discovered.IN_JAR_MANIFEST));
+                    scannedCodeBase.manifestClassPathLocators.add(relativeCodeBaseLocator);
                 }
             }
         } finally {
@@ -0,0 +1,629 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.classfile.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import edu.umd.cs.findbugs.BugReporter;
+import edu.umd.cs.findbugs.ba.AnalysisBudget;
+import edu.umd.cs.findbugs.ba.AnalysisContext;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+import edu.umd.cs.findbugs.classfile.IClassAnalysisEngine;
+import edu.umd.cs.findbugs.classfile.IClassPath;
+import edu.umd.cs.findbugs.classfile.IDatabaseFactory;
+import edu.umd.cs.findbugs.classfile.IErrorLogger;
+import edu.umd.cs.findbugs.classfile.IMethodAnalysisEngine;
+import edu.umd.cs.findbugs.classfile.MethodDescriptor;
+import edu.umd.cs.findbugs.classfile.UncheckedAnalysisException;
+import edu.umd.cs.findbugs.classfile.impl.AnalysisCache.AbnormalAnalysisResult;
+import edu.umd.cs.findbugs.log.Profiler;
+import edu.umd.cs.findbugs.util.CacheBudget;
+import edu.umd.cs.findbugs.util.StripedMapCache;
+
+/**
+ * Implementation of IAnalysisCache which may be shared by the threads of a
+ * multi-threaded analysis.
+ * <p>
+ * Bounded results are kept in a {@link StripedMapCache}, unbounded results
+ * and databases in concurrent hash maps, so threads working on different
+ * classes do not contend for a single lock. Every result is computed once: a
+ * thread requesting a result which another thread is computing waits for it
+ * instead of computing it again. Failed analyses are cached as
+ * AbnormalAnalysisResults, like in {@link AnalysisCache}.
+ * <p>
+ * Like AnalysisCache, the caches may be bounded by a memory budget instead of
+ * entry counts.
+ *
+ * @see AnalysisCache
+ */
+public class ConcurrentAnalysisCache implements IAnalysisCache {
+
+    private final IClassPath classPath;
+
+    private final BugReporter bugReporter;
+
+    private final int threads;
+
+    private final ConcurrentMap<Class<?>, IClassAnalysisEngine<?>> classAnalysisEngineMap;
+
+    private final ConcurrentMap<Class<?>, IMethodAnalysisEngine<?>> methodAnalysisEngineMap;
+
+    private final ConcurrentMap<Class<?>, IDatabaseFactory<?>> databaseFactoryMap;
+
+    private final ConcurrentMap<Class<?>, Map<ClassDescriptor, Object>> classAnalysisMap;
+
+    private final ConcurrentMap<Class<?>, Object> databaseMap;
+
+    private final CacheBudget cacheBudget;
+
+    /**
+     * Results currently being computed, keyed by {@link PendingKey}.
+     */
+    private final ConcurrentMap<PendingKey, PendingResult> pendingMap;
+
+    private final Map<?, ?> analysisLocals = Collections.synchronizedMap(new HashMap<Object, Object>());
+
+    /**
+     * Error loggers of the threads which record their errors instead of
+     * logging them to the bug reporter
+     */
+    private final ThreadLocal<IErrorLogger> threadErrorLogger = new ThreadLocal<IErrorLogger>();
+
+    /**
+     * Identifies a result: the analysis class and the descriptor (or database
+     * class) the result is computed for.
+     */
+    private static final class PendingKey {
+        final Class<?> analysisClass;
+
+        final Object descriptor;
+
+        PendingKey(Class<?> analysisClass, Object descriptor) {
+            this.analysisClass = analysisClass;
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public int hashCode() {
+            return analysisClass.hashCode() * 31 + descriptor.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PendingKey)) {
+                return false;
+            }
+            PendingKey other = (PendingKey) obj;
+            return analysisClass == other.analysisClass && descriptor.equals(other.descriptor);
+        }
+    }
+
+    /**
+     * A result being computed by one thread, which other threads may wait
+     * for.
+     */
+    private static final class PendingResult {
+        final Thread owner = Thread.currentThread();
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        volatile Object result;
+
+        /**
+         * Incomplete result put eagerly by the computing thread, see
+         * {@link ConcurrentAnalysisCache#eagerlyPutMethodAnalysis}
+         */
+        volatile Object intermediate;
+
+        void complete(@CheckForNull Object result) {
+            this.result = result;
+            done.countDown();
+        }
+
+        /**
+         * Wait until the result is computed.
+         *
+         * @return the result, or null if the result must be computed by the
+         *         calling thread: either the computation failed with an
+         *         Error, or the calling thread itself is computing the result
+         *         (the analysis is re-entered)
+         */
+        @CheckForNull
+        Object await() {
+            if (owner == Thread.currentThread()) {
+                return null;
+            }
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        done.await();
+                        return result;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * A computation of a result.
+     */
+    private interface Computation {
+        /**
+         * @return the result; never null, null results and exceptions are
+         *         represented by AbnormalAnalysisResults
+         */
+        Object compute();
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param classPath
+     *            the IClassPath to load resources from
+     * @param errorLogger
+     *            the IErrorLogger
+     * @param threads
+     *            number of threads analyzing classes concurrently
+     * @param cacheBudget
+     *            estimated number of bytes the cached analysis results may
+     *            use, or 0 to bound the caches by entry counts
+     */
+    ConcurrentAnalysisCache(IClassPath classPath, BugReporter errorLogger, int threads, long cacheBudget) {
+        this.classPath = classPath;
+        this.bugReporter = errorLogger;
+        this.threads = threads;
+        this.classAnalysisEngineMap = new ConcurrentHashMap<Class<?>, IClassAnalysisEngine<?>>();
+        this.methodAnalysisEngineMap = new ConcurrentHashMap<Class<?>, IMethodAnalysisEngine<?>>();
+        this.databaseFactoryMap = new ConcurrentHashMap<Class<?>, IDatabaseFactory<?>>();
+        this.classAnalysisMap = new ConcurrentHashMap<Class<?>, Map<ClassDescriptor, Object>>();
+        this.databaseMap = new ConcurrentHashMap<Class<?>, Object>();
+        this.pendingMap = new ConcurrentHashMap<PendingKey, PendingResult>();
+        if (cacheBudget > 0) {
+            this.cacheBudget = new CacheBudget(cacheBudget);
+            databaseMap.put(CacheBudget.class, this.cacheBudget);
+        } else {
+            this.cacheBudget = null;
+        }
+    }
+
+    @Override
+    public final Map<?, ?> getAnalysisLocals() {
+        return analysisLocals;
+    }
+
+    @Override
+    public IClassPath getClassPath() {
+        return classPath;
+    }
+
+    /**
+     * Get a cached result, or compute and cache it. Only one thread computes
+     * a given result at a time; other threads requesting it wait for the
+     * result.
+     *
+     * @param resultMap
+     *            map caching the results of the analysis
+     * @param resultKey
+     *            key of the result in resultMap
+     * @param key
+     *            identifies the result among all results being computed
+     * @param computation
+     *            computes the result
+     * @return the result (possibly an AbnormalAnalysisResult)
+     */
+    private <K> Object getOrCompute(Map<K, Object> resultMap, K resultKey, PendingKey key, Computation computation) {
+        Object result = resultMap.get(resultKey);
+        if (result != null) {
+            getProfiler().cacheHit(key.analysisClass);
+            // The result may have been put eagerly by an analysis still
+            // working on it (e.g. a CFG being pruned): only the computing
+            // thread may use it before it is complete
+            PendingResult other = pendingMap.get(key);
+            if (other != null && other.owner != Thread.currentThread()) {
+                Object completed = other.await();
+                if (completed != null) {
+                    return completed;
+                }
+            }
+            return result;
+        }
+        PendingResult pending = new PendingResult();
+        PendingResult other = pendingMap.putIfAbsent(key, pending);
+        if (other != null) {
+            getProfiler().cacheHit(key.analysisClass);
+            result = other.await();
+            if (result == null) {
+                // Re-entered while computing the result: use the incomplete
+                // result if one was put, even if it has been evicted since
+                result = other.intermediate;
+            }
+            if (result == null) {
+                // Compute it ourselves, without caching the result,
+                // just like the single-threaded cache does
+                result = computation.compute();
+            }
+            return result;
+        }
+        try {
+            // Another thread may have finished computing the result
+            // after our first look
+            result = resultMap.get(resultKey);
+            if (result == null) {
+                getProfiler().cacheMiss(key.analysisClass);
+                result = computation.compute();
+                resultMap.put(resultKey, result);
+            }
+            return result;
+        } finally {
+            pendingMap.remove(key);
+            pending.complete(result);
+        }
+    }
+
+    @Override
+    public void purgeAllMethodAnalysis() {
+        Map<ClassDescriptor, Object> map = classAnalysisMap.get(ClassContext.class);
+        if (map == null) {
+            return;
+        }
+        try {
+            for (Object c : map.values()) {
+                if (c instanceof ClassContext) {
+                    ((ClassContext) c).purgeAllMethodAnalyses();
+                }
+            }
+        } catch (ClassCastException e) {
+            AnalysisContext.logError("Unable to purge method analysis", e);
+        }
+    }
+
+    @Override
+    public void purgeClassAnalysis(Class<?> analysisClass) {
+        Map<ClassDescriptor, Object> descriptorMap = classAnalysisMap.remove(analysisClass);
+        if (descriptorMap != null && cacheBudget != null) {
+            // return the weight of the results to the budget
+            descriptorMap.clear();
+        }
+    }
+
+    /**
+     * Cleans up all cached data
+     */
+    public void dispose() {
+        for (Map<ClassDescriptor, Object> descriptorMap : classAnalysisMap.values()) {
+            descriptorMap.clear();
+        }
+        classAnalysisMap.clear();
+        classAnalysisEngineMap.clear();
+        analysisLocals.clear();
+        databaseFactoryMap.clear();
+        databaseMap.clear();
+        methodAnalysisEngineMap.clear();
+    }
+
+    /**
+     * @param analysisClass non null analysis type
+     * @return map with analysis data for given type, can be null
+     */
+    public @CheckForNull Map<ClassDescriptor, Object> getClassAnalysis(Class<?> analysisClass) {
+        return classAnalysisMap.get(analysisClass);
+    }
+
+    /**
+     * Adds the data for given analysis type from given map to the cache
+     * @param analysisClass non null analysis type
+     * @param map non null, pre-filled map with analysis data for given type
+     */
+    public <E> void reuseClassAnalysis(Class<E> analysisClass, Map<ClassDescriptor, Object> map) {
+        findOrCreateDescriptorMap(analysisClass).putAll(map);
+    }
+
+    private Map<ClassDescriptor, Object> findOrCreateDescriptorMap(Class<?> analysisClass) {
+        Map<ClassDescriptor, Object> descriptorMap = classAnalysisMap.get(analysisClass);
+        if (descriptorMap == null) {
+            int maxResults = AnalysisCache.getMaxResultsToCache(classAnalysisEngineMap.get(analysisClass), analysisClass,
+                    threads);
+            if (maxResults > 0) {
+                AnalysisCache.ResultRemovalListener listener = new AnalysisCache.ResultRemovalListener(this, analysisClass);
+                if (cacheBudget != null && analysisClass != ClassContext.class) {
+                    // ClassContexts are not weighed: the threads analyze
+                    // several classes at once, and a ClassContext evicted
+                    // while in use would lose the method analyses being
+                    // computed. Their dataflow results are bounded by the
+                    // budget nonetheless, see ClassContext.
+                    descriptorMap = new StripedMapCache<ClassDescriptor, Object>(cacheBudget, ClassAnalysisWeigher.INSTANCE,
+                            listener);
+                } else {
+                    descriptorMap = new StripedMapCache<ClassDescriptor, Object>(maxResults, listener);
+                }
+            } else {
+                descriptorMap = new ConcurrentHashMap<ClassDescriptor, Object>();
+            }
+            Map<ClassDescriptor, Object> existing = classAnalysisMap.putIfAbsent(analysisClass, descriptorMap);
+            if (existing != null) {
+                descriptorMap = existing;
+            }
+        }
+        return descriptorMap;
+    }
+
+    @Override
+    public <E> E getClassAnalysis(final Class<E> analysisClass, @Nonnull final ClassDescriptor classDescriptor)
+            throws CheckedAnalysisException {
+        requireNonNull(classDescriptor, "classDescriptor is null");
+        @SuppressWarnings("unchecked")
+        final IClassAnalysisEngine<E> engine = (IClassAnalysisEngine<E>) classAnalysisEngineMap.get(analysisClass);
+        if (engine == null) {
+            throw new IllegalArgumentException("No analysis engine registered to produce " + analysisClass.getName());
+        }
+        Object analysisResult = getOrCompute(findOrCreateDescriptorMap(analysisClass), classDescriptor, new PendingKey(
+                analysisClass, classDescriptor), new Computation() {
+            @Override
+            public Object compute() {
+                Profiler profiler = getProfiler();
+                profiler.start(engine.getClass());
+                try {
+                    Object result = engine.analyze(ConcurrentAnalysisCache.this, classDescriptor);
+                    return result != null ? result : AnalysisCache.NULL_ANALYSIS_RESULT;
+                } catch (CheckedAnalysisException e) {
+                    return new AbnormalAnalysisResult(e);
+                } catch (RuntimeException e) {
+                    return new AbnormalAnalysisResult(e);
+                } finally {
+                    profiler.end(engine.getClass());
+                }
+            }
+        });
+
+        if (analysisResult instanceof AbnormalAnalysisResult) {
+            return AnalysisCache.checkedCast(analysisClass, ((AbnormalAnalysisResult) analysisResult).returnOrThrow());
+        }
+        return AnalysisCache.checkedCast(analysisClass, analysisResult);
+    }
+
+    @Override
+    public <E> E probeClassAnalysis(Class<E> analysisClass, @Nonnull ClassDescriptor classDescriptor) {
+        Map<ClassDescriptor, Object> descriptorMap = classAnalysisMap.get(analysisClass);
+        if (descriptorMap == null) {
+            return null;
+        }
+        Object analysisResult = descriptorMap.get(classDescriptor);
+        if (analysisResult instanceof AbnormalAnalysisResult) {
+            return null;
+        }
+        return AnalysisCache.checkedCast(analysisClass, analysisResult);
+    }
+
+    /**
+     * Adapts the method analysis store of a ClassContext to the map interface
+     * used by {@link #getOrCompute}.
+     */
+    private static class MethodAnalysisMap extends AbstractMap<MethodDescriptor, Object> {
+        private final ClassContext classContext;
+
+        private final Class<?> analysisClass;
+
+        MethodAnalysisMap(ClassContext classContext, Class<?> analysisClass) {
+            this.classContext = classContext;
+            this.analysisClass = analysisClass;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return classContext.getMethodAnalysis(analysisClass, (MethodDescriptor) key);
+        }
+
+        @Override
+        public Object put(MethodDescriptor key, Object value) {
+            classContext.putMethodAnalysis(analysisClass, key, value);
+            return null;
+        }
+
+        @Override
+        public Set<Map.Entry<MethodDescriptor, Object>> entrySet() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Override
+    public <E> E getMethodAnalysis(final Class<E> analysisClass, @Nonnull final MethodDescriptor methodDescriptor)
+            throws CheckedAnalysisException {
+        requireNonNull(methodDescriptor, "methodDescriptor is null");
+        ClassContext classContext = getClassAnalysis(ClassContext.class, methodDescriptor.getClassDescriptor());
+        @SuppressWarnings("unchecked")
+        final IMethodAnalysisEngine<E> engine = (IMethodAnalysisEngine<E>) methodAnalysisEngineMap.get(analysisClass);
+
+        Object object = getOrCompute(new MethodAnalysisMap(classContext, analysisClass), methodDescriptor, new PendingKey(
+                analysisClass, methodDescriptor), new Computation() {
+            @Override
+            public Object compute() {
+                try {
+                    if (engine == null) {
+                        throw new IllegalArgumentException("No analysis engine registered to produce "
+                                + analysisClass.getName());
+                    }
+                    Profiler profiler = getProfiler();
+                    profiler.start(engine.getClass());
+                    try {
+                        Object result = AnalysisBudget.analyzeMethod(ConcurrentAnalysisCache.this, engine, analysisClass,
+                                methodDescriptor);
+                        return result != null ? result : AnalysisCache.NULL_ANALYSIS_RESULT;
+                    } finally {
+                        profiler.end(engine.getClass());
+                    }
+                } catch (RuntimeException e) {
+                    return new AbnormalAnalysisResult(e);
+                } catch (CheckedAnalysisException e) {
+                    return new AbnormalAnalysisResult(e);
+                }
+            }
+        });
+
+        if (object instanceof AbnormalAnalysisResult) {
+            return AnalysisCache.checkedCast(analysisClass, ((AbnormalAnalysisResult) object).returnOrThrow());
+        }
+        return AnalysisCache.checkedCast(analysisClass, object);
+    }
+
+    @Override
+    public <E> void eagerlyPutMethodAnalysis(Class<E> analysisClass, @Nonnull MethodDescriptor methodDescriptor, E analysisObject) {
+        try {
+            ClassContext classContext = getClassAnalysis(ClassContext.class, methodDescriptor.getClassDescriptor());
+            assert analysisClass.isInstance(analysisObject);
+            PendingResult pending = pendingMap.get(new PendingKey(analysisClass, methodDescriptor));
+            if (pending != null && pending.owner == Thread.currentThread()) {
+                pending.intermediate = analysisObject;
+            }
+            classContext.putMethodAnalysis(analysisClass, methodDescriptor, analysisObject);
+        } catch (CheckedAnalysisException e) {
+            IllegalStateException ise = new IllegalStateException("Unexpected exception adding method analysis to cache");
+            ise.initCause(e);
+            throw ise;
+        }
+    }
+
+    @Override
+    public void purgeMethodAnalyses(@Nonnull MethodDescriptor methodDescriptor) {
+        try {
+            ClassContext classContext = getClassAnalysis(ClassContext.class, methodDescriptor.getClassDescriptor());
+            classContext.purgeMethodAnalyses(methodDescriptor);
+        } catch (CheckedAnalysisException e) {
+            IllegalStateException ise = new IllegalStateException("Unexpected exception purging method analyses from cache");
+            ise.initCause(e);
+            throw ise;
+        }
+    }
+
+    @Override
+    public <E> void registerClassAnalysisEngine(Class<E> analysisResultType, IClassAnalysisEngine<E> classAnalysisEngine) {
+        classAnalysisEngineMap.put(analysisResultType, classAnalysisEngine);
+    }
+
+    @Override
+    public <E> void registerMethodAnalysisEngine(Class<E> analysisResultType, IMethodAnalysisEngine<E> methodAnalysisEngine) {
+        methodAnalysisEngineMap.put(analysisResultType, methodAnalysisEngine);
+    }
+
+    @Override
+    public <E> void registerDatabaseFactory(Class<E> databaseClass, IDatabaseFactory<E> databaseFactory) {
+        databaseFactoryMap.put(databaseClass, databaseFactory);
+    }
+
+    @Override
+    public <E> E getDatabase(Class<E> databaseClass) {
+        return getDatabase(databaseClass, false);
+    }
+
+    @Override
+    public @CheckForNull <E> E getOptionalDatabase(Class<E> databaseClass) {
+        return getDatabase(databaseClass, true);
+    }
+
+    public <E> E getDatabase(Class<E> databaseClass, boolean optional) {
+        final IDatabaseFactory<?> databaseFactory = databaseFactoryMap.get(databaseClass);
+        if (databaseFactory == null && !databaseMap.containsKey(databaseClass)) {
+            if (optional) {
+                return null;
+            }
+            throw new IllegalArgumentException("No database factory registered for " + databaseClass.getName());
+        }
+
+        Object database = getOrCompute(databaseMap, databaseClass, new PendingKey(IDatabaseFactory.class, databaseClass),
+                new Computation() {
+            @Override
+            public Object compute() {
+                try {
+                    Object result = databaseFactory.createDatabase();
+                    return result != null ? result : AnalysisCache.NULL_ANALYSIS_RESULT;
+                } catch (CheckedAnalysisException e) {
+                    return new AbnormalAnalysisResult(e);
+                } catch (RuntimeException e) {
+                    return new AbnormalAnalysisResult(e);
+                }
+            }
+        });
+
+        if (database instanceof AbnormalAnalysisResult) {
+            AbnormalAnalysisResult abnormal = (AbnormalAnalysisResult) database;
+            if (abnormal.runtimeException != null) {
+                throw abnormal.runtimeException;
+            }
+            if (abnormal.isNull) {
+                return null;
+            }
+            throw new UncheckedAnalysisException("Error instantiating " + databaseClass.getName() + " database",
+                    abnormal.checkedAnalysisException);
+        }
+        return databaseClass.cast(database);
+    }
+
+    @Override
+    public <E> void eagerlyPutDatabase(Class<E> databaseClass, E database) {
+        databaseMap.put(databaseClass, database != null ? database : AnalysisCache.NULL_ANALYSIS_RESULT);
+    }
+
+    @Override
+    public IErrorLogger getErrorLogger() {
+        IErrorLogger errorLogger = threadErrorLogger.get();
+        return errorLogger != null ? errorLogger : bugReporter;
+    }
+
+    /**
+     * Set the error logger the errors of the current thread are logged to.
+     *
+     * @param errorLogger
+     *            the error logger, or null to log the errors to the bug
+     *            reporter of the analysis
+     */
+    public void setThreadErrorLogger(@CheckForNull IErrorLogger errorLogger) {
+        if (errorLogger != null) {
+            threadErrorLogger.set(errorLogger);
+        } else {
+            threadErrorLogger.remove();
+        }
+    }
+
+    @Override
+    public Profiler getProfiler() {
+        return bugReporter.getProjectStats().getProfiler();
+    }
+}
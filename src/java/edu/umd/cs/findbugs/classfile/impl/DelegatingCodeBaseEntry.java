@@ -21,8 +21,10 @@ package edu.umd.cs.findbugs.classfile.impl;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.IBufferedCodeBaseEntry;
 import edu.umd.cs.findbugs.classfile.ICodeBase;
 import edu.umd.cs.findbugs.classfile.ICodeBaseEntry;
 import edu.umd.cs.findbugs.classfile.InvalidClassFileFormatException;
@@ -35,7 +37,7 @@ import edu.umd.cs.findbugs.classfile.ResourceNotFoundException;
  *
  * @author David Hovemeyer
  */
-public class DelegatingCodeBaseEntry implements ICodeBaseEntry {
+public class DelegatingCodeBaseEntry implements IBufferedCodeBaseEntry {
     private final ICodeBase frontEndCodeBase;
 
     private final ICodeBaseEntry delegateCodeBaseEntry;
@@ -75,6 +77,16 @@ public class DelegatingCodeBaseEntry implements ICodeBaseEntry {
         return delegateCodeBaseEntry.openResource();
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umd.cs.findbugs.classfile.IBufferedCodeBaseEntry#getBuffer()
+     */
+    @Override
+    public ByteBuffer getBuffer() throws IOException {
+        return AbstractScannableCodeBaseEntry.getContents(delegateCodeBaseEntry);
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -0,0 +1,73 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2006, University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package edu.umd.cs.findbugs.classfile.impl;
+
+import java.util.ArrayDeque;
+import java.util.zip.Inflater;
+
+/**
+ * Pool of Inflaters for raw (zip entry) deflate data. Creating an Inflater
+ * allocates native zlib state, so inflating many small class files with fresh
+ * Inflaters is noticeably slower than reusing a few of them.
+ */
+class InflaterPool {
+
+    static final InflaterPool INSTANCE = new InflaterPool(2 * Runtime.getRuntime().availableProcessors());
+
+    private final int maxIdle;
+
+    private final ArrayDeque<Inflater> idle = new ArrayDeque<Inflater>();
+
+    InflaterPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * @return an Inflater ready to inflate a new entry
+     */
+    Inflater acquire() {
+        synchronized (idle) {
+            Inflater inflater = idle.poll();
+            if (inflater != null) {
+                return inflater;
+            }
+        }
+        return new Inflater(true);
+    }
+
+    /**
+     * Return an Inflater to the pool. It must not be used by the caller
+     * anymore.
+     *
+     * @param inflater
+     *            an Inflater obtained from {@link #acquire()}
+     */
+    void release(Inflater inflater) {
+        inflater.reset();
+        synchronized (idle) {
+            if (idle.size() < maxIdle) {
+                idle.push(inflater);
+                return;
+            }
+        }
+        inflater.end();
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2006, University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package edu.umd.cs.findbugs.classfile.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.ZipException;
+
+import edu.umd.cs.findbugs.charsets.UTF8;
+import edu.umd.cs.findbugs.classfile.ICodeBaseEntry;
+import edu.umd.cs.findbugs.classfile.ICodeBaseIterator;
+import edu.umd.cs.findbugs.classfile.ICodeBaseLocator;
+
+/**
+ * Implementation of ICodeBase to read from a memory-mapped zip file or jar
+ * file. The central directory is parsed directly from the mapped file; stored
+ * entries are read as slices of the mapping, and deflated entries are inflated
+ * from it with pooled Inflaters, so reading a class costs no system call and
+ * no intermediate buffer.
+ * <p>
+ * Archives this class cannot map (larger than 2GB, ZIP64, split) are rejected
+ * with a ZipException, so that {@link ZipCodeBaseFactory} falls back to
+ * {@link ZipFileCodeBase}. A mapped file stays mapped until the mapping is
+ * garbage collected, and on Windows cannot be deleted or replaced until then,
+ * so zip files are only mapped if the <code>findbugs.zip.mmap</code>
+ * property is set.
+ * <p>
+ * The archive may also be read from a buffer holding its contents, e.g. the
+ * contents of a jar file nested inside another one (see
+ * {@link NestedZipFileCodeBase}).
+ */
+public class MappedZipFileCodeBase extends AbstractScannableCodeBase {
+
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+    static final int LOCAL_HEADER_SIZE = 30;
+
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+    private static final int CENTRAL_HEADER_SIZE = 46;
+
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int END_SIZE = 22;
+
+    private static final int ZIP64_END_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int ZIP64_END_LOCATOR_SIZE = 20;
+
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    /**
+     * The zip file, or null if the archive is read from a buffer
+     */
+    private final File file;
+
+    /**
+     * Name of the archive, for messages
+     */
+    private final String name;
+
+    private volatile ByteBuffer buffer;
+
+    /**
+     * The entries, in central directory order
+     */
+    private final List<MappedZipFileCodeBaseEntry> entries;
+
+    private final Map<String, MappedZipFileCodeBaseEntry> entriesByName;
+
+    /**
+     * Constructor.
+     *
+     * @param codeBaseLocator
+     *            the codebase locator for this codebase
+     * @param file
+     *            the File containing the zip file
+     * @throws ZipException
+     *             if the file is not a zip file this class can read
+     */
+    public MappedZipFileCodeBase(ICodeBaseLocator codeBaseLocator, File file) throws IOException {
+        this(codeBaseLocator, file, file.getPath(), map(file));
+        setLastModifiedTime(file.lastModified());
+    }
+
+    /**
+     * Constructor for an archive read from a buffer. The buffer must not be
+     * modified while the codebase is open.
+     *
+     * @param codeBaseLocator
+     *            the codebase locator for this codebase
+     * @param contents
+     *            the contents of the archive, between the position and the
+     *            limit of the buffer
+     * @param name
+     *            the name of the archive, for messages
+     * @throws ZipException
+     *             if the contents are not a zip file this class can read
+     */
+    public MappedZipFileCodeBase(ICodeBaseLocator codeBaseLocator, ByteBuffer contents, String name) throws IOException {
+        this(codeBaseLocator, null, name, contents.slice());
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException("Zip file too large to be mapped: " + file);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private MappedZipFileCodeBase(ICodeBaseLocator codeBaseLocator, File file, String name, ByteBuffer buffer)
+            throws IOException {
+        super(codeBaseLocator);
+        this.file = file;
+        this.name = name;
+        this.buffer = buffer;
+        if (buffer.limit() < END_SIZE) {
+            throw new ZipException("Zip file too short: " + name);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        int end = findEndOfCentralDirectory();
+        int numEntries = buffer.getShort(end + 10) & 0xffff;
+        long centralSize = buffer.getInt(end + 12) & 0xffffffffL;
+        long centralOffset = buffer.getInt(end + 16) & 0xffffffffL;
+        if (buffer.getShort(end + 4) != 0 || buffer.getShort(end + 6) != 0) {
+            throw new ZipException("Split zip files are not supported: " + name);
+        }
+        if (end >= ZIP64_END_LOCATOR_SIZE && buffer.getInt(end - ZIP64_END_LOCATOR_SIZE) == ZIP64_END_LOCATOR_SIGNATURE) {
+            throw new ZipException("ZIP64 files are not supported: " + name);
+        }
+        // Offsets are relative to the start of the archive, which may be
+        // preceded by other data (e.g., a self-extracting stub)
+        long base = end - centralSize - centralOffset;
+        if (base < 0) {
+            throw new ZipException("Invalid central directory in " + name);
+        }
+
+        entries = new ArrayList<MappedZipFileCodeBaseEntry>(numEntries);
+        entriesByName = new HashMap<String, MappedZipFileCodeBaseEntry>(2 * numEntries);
+        int pos = (int) (base + centralOffset);
+        for (int i = 0; i < numEntries; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > end || buffer.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry in " + name);
+            }
+            int flags = buffer.getShort(pos + 8) & 0xffff;
+            int method = buffer.getShort(pos + 10) & 0xffff;
+            int dosTime = buffer.getInt(pos + 12);
+            long compressedSize = buffer.getInt(pos + 20) & 0xffffffffL;
+            long size = buffer.getInt(pos + 24) & 0xffffffffL;
+            int nameLength = buffer.getShort(pos + 28) & 0xffff;
+            int extraLength = buffer.getShort(pos + 30) & 0xffff;
+            int commentLength = buffer.getShort(pos + 32) & 0xffff;
+            long localHeaderOffset = base + (buffer.getInt(pos + 42) & 0xffffffffL);
+            if (compressedSize > Integer.MAX_VALUE || size > Integer.MAX_VALUE || localHeaderOffset + LOCAL_HEADER_SIZE > end) {
+                throw new ZipException("Invalid central directory entry in " + name);
+            }
+            String entryName = decodeName(pos + CENTRAL_HEADER_SIZE, nameLength);
+            MappedZipFileCodeBaseEntry entry = new MappedZipFileCodeBaseEntry(this, entryName, flags, method, dosTime,
+                    (int) compressedSize, (int) size, (int) localHeaderOffset);
+            entries.add(entry);
+            if (!entriesByName.containsKey(entryName)) {
+                entriesByName.put(entryName, entry);
+            }
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    private int findEndOfCentralDirectory() throws ZipException {
+        int limit = Math.max(0, buffer.limit() - END_SIZE - MAX_COMMENT_SIZE);
+        for (int pos = buffer.limit() - END_SIZE; pos >= limit; pos--) {
+            if (buffer.getInt(pos) == END_SIGNATURE
+                    && pos + END_SIZE + (buffer.getShort(pos + 20) & 0xffff) <= buffer.limit()) {
+                return pos;
+            }
+        }
+        throw new ZipException("No central directory found in " + name);
+    }
+
+    private String decodeName(int pos, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            byte b = buffer.get(pos + i);
+            if (b < 0) {
+                // Not ASCII: decode the name as UTF-8, as ZipFile does
+                byte[] bytes = new byte[length];
+                for (int j = 0; j < length; j++) {
+                    bytes[j] = buffer.get(pos + j);
+                }
+                return new String(bytes, UTF8.charset);
+            }
+            chars[i] = (char) b;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return the contents of the archive
+     * @throws IOException
+     *             if the codebase was closed
+     */
+    ByteBuffer getContents() throws IOException {
+        ByteBuffer result = buffer;
+        if (result == null) {
+            throw new IOException("Zip file closed: " + name);
+        }
+        return result;
+    }
+
+    /**
+     * Convert an MS-DOS date and time to milliseconds since the epoch.
+     */
+    static long dosToJavaTime(int dosTime) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(((dosTime >> 25) & 0x7f) + 1980, ((dosTime >> 21) & 0x0f) - 1, (dosTime >> 16) & 0x1f,
+                (dosTime >> 11) & 0x1f, (dosTime >> 5) & 0x3f, (dosTime << 1) & 0x3e);
+        return calendar.getTimeInMillis();
+    }
+
+    @Override
+    public ICodeBaseEntry lookupResource(String resourceName) {
+        // Translate resource name, in case a resource name
+        // has been overridden and the resource is being accessed
+        // using the overridden name.
+        resourceName = translateResourceName(resourceName);
+        if (buffer == null) {
+            return null;
+        }
+        return entriesByName.get(resourceName);
+    }
+
+    @Override
+    public ICodeBaseIterator iterator() {
+        final Iterator<MappedZipFileCodeBaseEntry> entryIterator = entries.iterator();
+
+        return new ICodeBaseIterator() {
+            MappedZipFileCodeBaseEntry nextEntry;
+
+            @Override
+            public boolean hasNext() {
+                scanForNextEntry();
+                return nextEntry != null;
+            }
+
+            @Override
+            public ICodeBaseEntry next() throws InterruptedException {
+                scanForNextEntry();
+                if (nextEntry == null) {
+                    throw new NoSuchElementException();
+                }
+                ICodeBaseEntry result = nextEntry;
+                nextEntry = null;
+                return result;
+            }
+
+            private void scanForNextEntry() {
+                while (nextEntry == null) {
+                    if (!entryIterator.hasNext()) {
+                        return;
+                    }
+
+                    MappedZipFileCodeBaseEntry entry = entryIterator.next();
+
+                    if (!entry.isDirectory()) {
+                        addLastModifiedTime(entry.getTime());
+                        nextEntry = entry;
+                        break;
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public String getPathName() {
+        return file != null ? file.getPath() : null;
+    }
+
+    @Override
+    public void close() {
+        // A mapping is only released when it is garbage collected: it cannot
+        // be released here, since the slices of stored entries may outlive
+        // the codebase
+        buffer = null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2006, University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package edu.umd.cs.findbugs.classfile.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.DescriptorFactory;
+import edu.umd.cs.findbugs.io.ByteBufferInputStream;
+
+/**
+ * Implementation of ICodeBaseEntry for resources in memory-mapped zipfile
+ * codebases.
+ */
+public class MappedZipFileCodeBaseEntry extends AbstractScannableCodeBaseEntry {
+    /** Size of the chunks of compressed data passed to the Inflater */
+    private static final int INFLATER_INPUT_SIZE = 8192;
+
+    private final MappedZipFileCodeBase codeBase;
+
+    private final String name;
+
+    private final int flags;
+
+    private final int method;
+
+    private final int dosTime;
+
+    private final int compressedSize;
+
+    private final int size;
+
+    private final int localHeaderOffset;
+
+    MappedZipFileCodeBaseEntry(MappedZipFileCodeBase codeBase, String name, int flags, int method, int dosTime,
+            int compressedSize, int size, int localHeaderOffset) {
+        this.codeBase = codeBase;
+        this.name = name;
+        this.flags = flags;
+        this.method = method;
+        this.dosTime = dosTime;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    boolean isDirectory() {
+        return name.endsWith("/");
+    }
+
+    long getTime() {
+        return MappedZipFileCodeBase.dosToJavaTime(dosTime);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umd.cs.findbugs.classfile.ICodeBaseEntry#getNumBytes()
+     */
+    @Override
+    public int getNumBytes() {
+        return size;
+    }
+
+    /**
+     * @return the (possibly compressed) data of the entry, as a slice of the
+     *         contents of the archive
+     */
+    private ByteBuffer getRawData() throws IOException {
+        if ((flags & 1) != 0) {
+            throw new ZipException("Encrypted zip entry not supported: " + this);
+        }
+        ByteBuffer mapped = codeBase.getContents();
+        if (mapped.getInt(localHeaderOffset) != MappedZipFileCodeBase.LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header for zip entry " + this);
+        }
+        int nameLength = mapped.getShort(localHeaderOffset + 26) & 0xffff;
+        int extraLength = mapped.getShort(localHeaderOffset + 28) & 0xffff;
+        long start = (long) localHeaderOffset + MappedZipFileCodeBase.LOCAL_HEADER_SIZE + nameLength + extraLength;
+        if (start + compressedSize > mapped.limit()) {
+            throw new ZipException("Truncated zip entry " + this);
+        }
+        ByteBuffer data = mapped.duplicate();
+        data.position((int) start);
+        data.limit((int) start + compressedSize);
+        return data.slice();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umd.cs.findbugs.classfile.ICodeBaseEntry#openResource()
+     */
+    @Override
+    public InputStream openResource() throws IOException {
+        ByteBuffer data = getRawData();
+        if (method == ZipEntry.STORED) {
+            return new ByteBufferInputStream(data);
+        }
+        if (method != ZipEntry.DEFLATED) {
+            throw new ZipException("Unsupported compression method " + method + " for zip entry " + this);
+        }
+        final Inflater inflater = InflaterPool.INSTANCE.acquire();
+        return new InflaterInputStream(new ByteBufferInputStream(data), inflater, Math.max(1,
+                Math.min(compressedSize, INFLATER_INPUT_SIZE))) {
+            private boolean closed;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                // The inflater may be used by another stream once released
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                return super.read(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        InflaterPool.INSTANCE.release(inflater);
+                    }
+                }
+            }
+
+            @Override
+            public int available() throws IOException {
+                return closed ? 0 : size - (int) inflater.getBytesWritten();
+            }
+        };
+    }
+
+    /**
+     * Get the contents of the entry: a slice of the contents of the archive for
+     * stored entries, the inflated contents otherwise.
+     *
+     * @see edu.umd.cs.findbugs.classfile.IBufferedCodeBaseEntry#getBuffer()
+     */
+    @Override
+    public ByteBuffer getBuffer() throws IOException {
+        ByteBuffer data = getRawData();
+        if (method == ZipEntry.STORED) {
+            return data;
+        }
+        if (method != ZipEntry.DEFLATED) {
+            throw new ZipException("Unsupported compression method " + method + " for zip entry " + this);
+        }
+        byte[] result = new byte[size];
+        if (size == 0) {
+            return ByteBuffer.wrap(result);
+        }
+        byte[] input = new byte[Math.max(1, Math.min(compressedSize, INFLATER_INPUT_SIZE))];
+        Inflater inflater = InflaterPool.INSTANCE.acquire();
+        try {
+            int count = 0;
+            boolean paddingSupplied = false;
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (data.hasRemaining()) {
+                        int n = Math.min(input.length, data.remaining());
+                        data.get(input, 0, n);
+                        inflater.setInput(input, 0, n);
+                    } else if (!paddingSupplied) {
+                        // Inflaters in nowrap mode may need an extra byte past
+                        // the end of the compressed data
+                        paddingSupplied = true;
+                        input[0] = 0;
+                        inflater.setInput(input, 0, 1);
+                    } else {
+                        throw new ZipException("Truncated zip entry " + this);
+                    }
+                }
+                if (inflater.needsDictionary()) {
+                    throw new ZipException("Invalid compressed data in zip entry " + this);
+                }
+                int n = inflater.inflate(result, count, result.length - count);
+                count += n;
+                if (n == 0 && count == result.length && !inflater.finished() && !inflater.needsInput()) {
+                    throw new ZipException("Zip entry larger than its declared size: " + this);
+                }
+            }
+            if (count != result.length) {
+                throw new ZipException("Zip entry shorter than its declared size: " + this);
+            }
+        } catch (DataFormatException e) {
+            ZipException zipException = new ZipException("Invalid compressed data in zip entry " + this);
+            zipException.initCause(e);
+            throw zipException;
+        } finally {
+            InflaterPool.INSTANCE.release(inflater);
+        }
+        return ByteBuffer.wrap(result);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * edu.umd.cs.findbugs.classfile.impl.AbstractScannableCodeBaseEntry#getCodeBase
+     * ()
+     */
+    @Override
+    public AbstractScannableCodeBase getCodeBase() {
+        return codeBase;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umd.cs.findbugs.classfile.impl.AbstractScannableCodeBaseEntry#
+     * getRealResourceName()
+     */
+    @Override
+    public String getRealResourceName() {
+        return name;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umd.cs.findbugs.classfile.ICodeBaseEntry#getClassDescriptor()
+     */
+    @Override
+    public ClassDescriptor getClassDescriptor() {
+        return DescriptorFactory.createClassDescriptorFromResourceName(getResourceName());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null || obj.getClass() != this.getClass()) {
+            return false;
+        }
+        MappedZipFileCodeBaseEntry other = (MappedZipFileCodeBaseEntry) obj;
+        return this.codeBase.equals(other.codeBase) && this.localHeaderOffset == other.localHeaderOffset;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return 7919 * codeBase.hashCode() + localHeaderOffset;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return getCodeBase() + ":" + getResourceName();
+    }
+}
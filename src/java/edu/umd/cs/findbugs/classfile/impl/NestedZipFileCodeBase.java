@@ -25,7 +25,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipException;
 
+import edu.umd.cs.findbugs.SystemProperties;
 import edu.umd.cs.findbugs.ba.AnalysisContext;
 import edu.umd.cs.findbugs.classfile.ICodeBase;
 import edu.umd.cs.findbugs.classfile.ICodeBaseEntry;
@@ -35,19 +39,42 @@ import edu.umd.cs.findbugs.io.IO;
 
 /**
  * A scannable code base class for a zip (or Jar) file nested inside some other
- * codebase. These are handled by extracting the nested zip/jar file to a
- * temporary file, and delegating to an internal ZipFileCodeBase that reads from
+ * codebase.
+ * <p>
+ * The central directory of the nested zip/jar file is read directly from the
+ * contents of the parent entry: if the nested file is stored in a memory-mapped
+ * parent archive, its contents are a slice of the mapping and nothing is
+ * copied; otherwise, they are read into memory. The total size of the nested
+ * files held in memory is bounded (property
+ * <code>findbugs.nested.maxInMemory</code>, in megabytes). Past that bound,
+ * or if the nested file cannot be read that way, it is extracted to a
+ * temporary file, and reads are delegated to a ZipFileCodeBase reading from
  * the temporary file.
  *
  * @author David Hovemeyer
  */
 public class NestedZipFileCodeBase extends AbstractScannableCodeBase {
+    /**
+     * Maximum total size, in bytes, of the nested zip files held in memory
+     */
+    private static final long MAX_IN_MEMORY = SystemProperties.getInt("findbugs.nested.maxInMemory", 256) * 1024L * 1024L;
+
+    /**
+     * Total size of the nested zip files currently held in memory
+     */
+    private static final AtomicLong inMemory = new AtomicLong();
+
     private final ICodeBase parentCodeBase;
 
     private final String resourceName;
 
     private File tempFile;
 
+    /**
+     * Bytes of the in-memory budget used by this codebase
+     */
+    private long inMemorySize;
+
     private AbstractScannableCodeBase delegateCodeBase;
 
     /**
@@ -61,6 +88,77 @@ public class NestedZipFileCodeBase extends AbstractScannableCodeBase {
         this.parentCodeBase = codeBaseLocator.getParentCodeBase();
         this.resourceName = codeBaseLocator.getResourceName();
 
+        ICodeBaseEntry resource = parentCodeBase.lookupResource(resourceName);
+        if (resource == null) {
+            throw new ResourceNotFoundException(resourceName);
+        }
+
+        delegateCodeBase = openInMemory(codeBaseLocator, resource);
+        if (delegateCodeBase == null) {
+            delegateCodeBase = openTempFile(codeBaseLocator, resource);
+        }
+    }
+
+    /**
+     * Index the nested zip file from the contents of the parent entry.
+     *
+     * @return the codebase, or null if the nested zip file does not fit in
+     *         the in-memory budget or cannot be read from memory
+     */
+    private AbstractScannableCodeBase openInMemory(NestedZipFileCodeBaseLocator codeBaseLocator, ICodeBaseEntry resource)
+            throws IOException {
+        int size = resource.getNumBytes();
+        if (size < 0 || !reserve(size)) {
+            return null;
+        }
+        inMemorySize = size;
+        try {
+            ByteBuffer contents = AbstractScannableCodeBaseEntry.getContents(resource);
+            if (contents.isDirect()) {
+                // A slice of a mapped file: no heap memory used
+                release();
+            }
+            return new MappedZipFileCodeBase(codeBaseLocator, contents, codeBaseLocator.toString());
+        } catch (ZipException e) {
+            // e.g., a ZIP64 file: extract it instead
+            release();
+            return null;
+        } catch (IOException e) {
+            release();
+            throw e;
+        } catch (RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    private static boolean reserve(long size) {
+        while (true) {
+            long current = inMemory.get();
+            if (current + size > MAX_IN_MEMORY) {
+                return false;
+            }
+            if (inMemory.compareAndSet(current, current + size)) {
+                return true;
+            }
+        }
+    }
+
+    private void release() {
+        inMemory.addAndGet(-inMemorySize);
+        inMemorySize = 0;
+    }
+
+    /**
+     * @return true if the nested zip file is read from memory rather than
+     *         from a temporary file
+     */
+    boolean isInMemory() {
+        return tempFile == null;
+    }
+
+    private AbstractScannableCodeBase openTempFile(NestedZipFileCodeBaseLocator codeBaseLocator, ICodeBaseEntry resource)
+            throws IOException {
         InputStream inputStream = null;
         OutputStream outputStream = null;
         try {
@@ -72,17 +170,13 @@ public class NestedZipFileCodeBase extends AbstractScannableCodeBase {
             // Copy nested zipfile to the temporary file
             // FIXME: potentially long blocking operation - should be
             // interruptible
-            ICodeBaseEntry resource = parentCodeBase.lookupResource(resourceName);
-            if (resource == null) {
-                throw new ResourceNotFoundException(resourceName);
-            }
             inputStream = resource.openResource();
             outputStream = new BufferedOutputStream(new FileOutputStream(tempFile));
             IO.copy(inputStream, outputStream);
             outputStream.flush();
 
             // Create the delegate to read from the temporary file
-            delegateCodeBase = ZipCodeBaseFactory.makeZipCodeBase(codeBaseLocator, tempFile);
+            return ZipCodeBaseFactory.makeZipCodeBase(codeBaseLocator, tempFile);
         } finally {
             if (inputStream != null) {
                 IO.close(inputStream);
@@ -137,7 +231,8 @@ public class NestedZipFileCodeBase extends AbstractScannableCodeBase {
     @Override
     public void close() {
         delegateCodeBase.close();
-        if (!tempFile.delete()) {
+        release();
+        if (tempFile != null && !tempFile.delete()) {
             AnalysisContext.logError("Could not delete " + tempFile);
         }
     }
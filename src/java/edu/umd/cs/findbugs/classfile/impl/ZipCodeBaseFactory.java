@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.zip.ZipException;
 
+import edu.umd.cs.findbugs.SystemProperties;
 import edu.umd.cs.findbugs.classfile.Global;
 import edu.umd.cs.findbugs.classfile.ICodeBaseLocator;
 import edu.umd.cs.findbugs.log.Profiler;
@@ -32,10 +33,24 @@ import edu.umd.cs.findbugs.log.Profiler;
  */
 public class ZipCodeBaseFactory {
 
+    /**
+     * Whether zip files are memory-mapped rather than read through ZipFile.
+     * Off by default: a mapped file is only unmapped when the mapping is
+     * garbage collected, which keeps the file locked on Windows.
+     */
+    static final boolean MAP_ZIP_FILES = SystemProperties.getBoolean("findbugs.zip.mmap");
+
     public static AbstractScannableCodeBase makeZipCodeBase(ICodeBaseLocator codeBaseLocator, File file) throws IOException {
         Profiler profiler = Global.getAnalysisCache().getProfiler();
         profiler.start(ZipCodeBaseFactory.class);
         try {
+            if (MAP_ZIP_FILES) {
+                try {
+                    return new MappedZipFileCodeBase(codeBaseLocator, file);
+                } catch (ZipException e) {
+                    // Not a zip file we can map: let ZipFile diagnose it
+                }
+            }
             return new ZipFileCodeBase(codeBaseLocator, file);
         } catch (ZipException e) {
             // May be too many zip entries
@@ -22,6 +22,7 @@ package edu.umd.cs.findbugs.classfile.impl;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.zip.ZipEntry;
 
 import edu.umd.cs.findbugs.classfile.ClassDescriptor;
@@ -65,6 +66,16 @@ public class ZipInputStreamCodeBaseEntry extends AbstractScannableCodeBaseEntry
         return new ByteArrayInputStream(bytes);
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see edu.umd.cs.findbugs.classfile.IBufferedCodeBaseEntry#getBuffer()
+     */
+    @Override
+    public ByteBuffer getBuffer() {
+        return ByteBuffer.wrap(bytes);
+    }
+
     public byte[] getBytes() {
         return bytes;
     }
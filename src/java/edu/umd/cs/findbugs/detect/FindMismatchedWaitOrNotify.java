@@ -75,11 +75,6 @@ public final class FindMismatchedWaitOrNotify implements Detector, StatelessDete
 
         Method[] methodList = jclass.getMethods();
         for (Method method : methodList) {
-            MethodGen methodGen = classContext.getMethodGen(method);
-            if (methodGen == null) {
-                continue;
-            }
-
             // Don't bother analyzing the method unless there is both locking
             // and a method call.
             BitSet bytecodeSet = classContext.getBytecodeSet(method);
@@ -90,6 +85,11 @@ public final class FindMismatchedWaitOrNotify implements Detector, StatelessDete
                 continue;
             }
 
+            MethodGen methodGen = classContext.getMethodGen(method);
+            if (methodGen == null) {
+                continue;
+            }
+
             try {
                 analyzeMethod(classContext, method);
             } catch (DataflowAnalysisException e) {
@@ -676,11 +676,6 @@ public class FindRefComparison implements Detector, ExtendedTypes {
         Method[] methodList = jclass.getMethods();
 
         for (Method method : methodList) {
-            MethodGen methodGen = classContext.getMethodGen(method);
-            if (methodGen == null) {
-                continue;
-            }
-
             // Prescreening - must have IF_ACMPEQ, IF_ACMPNE,
             // or an invocation of an instance method
             BitSet bytecodeSet = classContext.getBytecodeSet(method);
@@ -688,6 +683,11 @@ public class FindRefComparison implements Detector, ExtendedTypes {
                 continue;
             }
 
+            MethodGen methodGen = classContext.getMethodGen(method);
+            if (methodGen == null) {
+                continue;
+            }
+
             if (DEBUG) {
                 System.out.println("FindRefComparison: analyzing " + SignatureConverter.convertMethodSignature(methodGen));
             }
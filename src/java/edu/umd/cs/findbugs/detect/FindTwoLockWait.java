@@ -19,10 +19,12 @@
 
 package edu.umd.cs.findbugs.detect;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 
+import org.apache.bcel.Constants;
 import org.apache.bcel.classfile.JavaClass;
 import org.apache.bcel.classfile.Method;
 import org.apache.bcel.generic.ConstantPoolGen;
@@ -75,6 +77,12 @@ public final class FindTwoLockWait implements Detector, StatelessDetector {
         possibleNotifyLocations.clear();
         Method[] methodList = javaClass.getMethods();
         for (Method method : methodList) {
+            // Only build the MethodGen of methods that can lock twice
+            BitSet bytecodeSet = classContext.getBytecodeSet(method);
+            if (bytecodeSet == null || !(bytecodeSet.get(Constants.MONITORENTER) && bytecodeSet.get(Constants.INVOKEVIRTUAL))) {
+                continue;
+            }
+
             MethodGen methodGen = classContext.getMethodGen(method);
             if (methodGen == null) {
                 continue;
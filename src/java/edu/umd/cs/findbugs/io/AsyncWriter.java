@@ -0,0 +1,183 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.io;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.WillCloseWhenClosed;
+
+/**
+ * Writer passing the text written to it on to another writer on a thread of
+ * its own. The text is queued in a lock-free queue and written in the order
+ * it was queued; the other writer is flushed whenever the queue is empty, so
+ * flush() does not wait for the text to be written.
+ * <p>
+ * {@link #drain()} waits until all the text queued has been written, and
+ * stops the writing thread: text written afterwards is written directly.
+ */
+public class AsyncWriter extends Writer {
+
+    private final Writer out;
+
+    private final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<String>();
+
+    private final Thread writingThread;
+
+    /** Set by the writing thread before it parks */
+    private volatile boolean waiting;
+
+    private volatile boolean drained;
+
+    private volatile Throwable failure;
+
+    /**
+     * Constructor.
+     *
+     * @param out
+     *            the writer to write the text to
+     */
+    public AsyncWriter(@WillCloseWhenClosed Writer out) {
+        this.out = out;
+        writingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeQueuedText();
+            }
+        }, "FindBugs output writer");
+        writingThread.setDaemon(true);
+        writingThread.start();
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        write(new String(cbuf, off, len));
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        write(str.substring(off, off + len));
+    }
+
+    @Override
+    public void write(String str) throws IOException {
+        checkFailure();
+        if (drained) {
+            writeLeftovers();
+            out.write(str);
+            return;
+        }
+        queue.add(str);
+        if (waiting) {
+            LockSupport.unpark(writingThread);
+        }
+    }
+
+    private void writeQueuedText() {
+        try {
+            while (true) {
+                String text = queue.poll();
+                if (text != null) {
+                    out.write(text);
+                } else if (drained) {
+                    // Text queued before drained was set is visible now
+                    if (queue.isEmpty()) {
+                        out.flush();
+                        return;
+                    }
+                } else {
+                    out.flush();
+                    waiting = true;
+                    if (queue.isEmpty() && !drained) {
+                        LockSupport.park(this);
+                    }
+                    waiting = false;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = e;
+        } catch (Error e) {
+            failure = e;
+            throw e;
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable e = failure;
+        if (e != null) {
+            throw new IOException("Error writing output", e);
+        }
+    }
+
+    /**
+     * Wait until all the text queued has been written, and write any text
+     * written afterwards directly. Errors writing the text are thrown by the
+     * next call to the other methods.
+     */
+    public void drain() {
+        if (drained) {
+            return;
+        }
+        drained = true;
+        LockSupport.unpark(writingThread);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                writingThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        checkFailure();
+        if (drained) {
+            writeLeftovers();
+            out.flush();
+        }
+    }
+
+    /** Write the text queued by threads racing with drain() */
+    private void writeLeftovers() throws IOException {
+        for (String text; (text = queue.poll()) != null;) {
+            out.write(text);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        drain();
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.annotation.WillCloseWhenClosed;
+
+/**
+ * Output stream writing data in the GZIP format, compressing blocks of the
+ * data in several threads. The blocks are compressed independently (each
+ * using the end of the previous block as its dictionary) and written in order
+ * as a single GZIP member, so the output can be read by any GZIP reader.
+ * <p>
+ * At most two blocks per thread are buffered, so the memory used does not
+ * depend on the amount of data written. Calling flush() writes the blocks
+ * already compressed, but not the block being filled.
+ */
+public class ParallelGZIPOutputStream extends FilterOutputStream {
+
+    /** Default size of the compressed blocks */
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final int level;
+
+    private final int blockSize;
+
+    private final int maxPending;
+
+    private final ExecutorService executor;
+
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+
+    private final CRC32 crc = new CRC32();
+
+    private long totalIn;
+
+    private byte[] block;
+
+    private int count;
+
+    private byte[] previousBlock;
+
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param out
+     *            the stream to write the compressed data to
+     * @param level
+     *            the compression level (0-9, or
+     *            Deflater.DEFAULT_COMPRESSION)
+     * @param blockSize
+     *            size of the blocks compressed by each thread
+     * @param threads
+     *            number of threads compressing the blocks
+     * @throws IOException
+     *             if the GZIP header cannot be written
+     */
+    public ParallelGZIPOutputStream(@WillCloseWhenClosed OutputStream out, int level, int blockSize, int threads)
+            throws IOException {
+        super(out);
+        if (blockSize <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("Invalid block size " + blockSize + " or number of threads " + threads);
+        }
+        this.level = level;
+        this.blockSize = blockSize;
+        this.maxPending = 2 * threads;
+        this.block = new byte[blockSize];
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GZIP compression");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        crc.update(b, off, len);
+        totalIn += len;
+        while (len > 0) {
+            int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == blockSize) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty() && pending.getFirst().isDone()) {
+            writeCompressedBlock();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submitBlock(true);
+            while (!pending.isEmpty()) {
+                writeCompressedBlock();
+            }
+            writeInt((int) crc.getValue());
+            writeInt((int) totalIn);
+        } finally {
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 24) & 0xff);
+    }
+
+    private void submitBlock(final boolean last) throws IOException {
+        if (pending.size() >= maxPending) {
+            writeCompressedBlock();
+        }
+        final byte[] data = block;
+        final int length = count;
+        final byte[] dictionary = previousBlock;
+        pending.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compress(data, length, dictionary, last);
+            }
+        }));
+        previousBlock = data;
+        block = new byte[blockSize];
+        count = 0;
+    }
+
+    private byte[] compress(byte[] data, int length, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                int size = Math.min(DICTIONARY_SIZE, dictionary.length);
+                deflater.setDictionary(dictionary, dictionary.length - size, size);
+            }
+            deflater.setInput(data, 0, length);
+            ByteArrayOutputStream result = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buf = new byte[8192];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buf);
+                    result.write(buf, 0, n);
+                }
+            } else {
+                // End the block on a byte boundary, so that the next one can
+                // be appended to it
+                int n;
+                do {
+                    n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    result.write(buf, 0, n);
+                } while (n == buf.length || !deflater.needsInput());
+            }
+            return result.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeCompressedBlock() throws IOException {
+        try {
+            out.write(pending.removeFirst().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Error compressing", cause);
+        }
+    }
+}
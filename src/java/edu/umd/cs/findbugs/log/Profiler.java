@@ -22,8 +22,10 @@ package edu.umd.cs.findbugs.log;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.EmptyStackException;
+import java.util.Set;
 import java.util.Stack;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
@@ -47,8 +49,22 @@ public class Profiler implements XMLWriteable {
     final static boolean MAX_CONTEXT = SystemProperties.getBoolean("findbugs.profiler.maxcontext");
 
     public Profiler() {
-        startTimes = new Stack<Clock>();
+        startTimes = new ThreadLocal<Stack<Clock>>() {
+            @Override
+            protected Stack<Clock> initialValue() {
+                return new Stack<Clock>();
+            }
+        };
+        context = new ThreadLocal<Stack<Object>>() {
+            @Override
+            protected Stack<Object> initialValue() {
+                return new Stack<Object>();
+            }
+        };
         profile = new ConcurrentHashMap<Class<?>, Profile>();
+        cacheProfile = new ConcurrentHashMap<Class<?>, CacheProfile>();
+        dataflowProfile = new ConcurrentHashMap<Class<?>, DataflowProfile>();
+        startNanoTime = System.nanoTime();
         if (REPORT) {
             System.err.println("Profiling activated");
         }
@@ -151,6 +167,15 @@ public class Profiler implements XMLWriteable {
             return totalTime.get();
         }
 
+        public int getTotalCalls() {
+            return totalCalls.get();
+        }
+
+        /** @return the longest time of a call, in nanoseconds */
+        public long getMaxTime() {
+            return maxTime.get();
+        }
+
         /**
          * @param xmlOutput
          * @throws IOException
@@ -186,6 +211,103 @@ public class Profiler implements XMLWriteable {
         }
     }
 
+    /**
+     * Hit, miss and eviction counts of the analysis cache for one analysis
+     * class.
+     */
+    public static class CacheProfile implements XMLWriteable {
+        final AtomicLong hits = new AtomicLong();
+
+        final AtomicLong misses = new AtomicLong();
+
+        final AtomicLong evictions = new AtomicLong();
+
+        private final String className;
+
+        /**
+         * @param className
+         *            non null full qualified name of the analysis class
+         */
+        public CacheProfile(String className) {
+            this.className = className;
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        public long getEvictions() {
+            return evictions.get();
+        }
+
+        @Override
+        public void writeXML(XMLOutput xmlOutput) throws IOException {
+            xmlOutput.startTag("CacheProfile");
+            xmlOutput.addAttribute("name", className);
+            xmlOutput.addAttribute("hits", String.valueOf(hits.get()));
+            xmlOutput.addAttribute("misses", String.valueOf(misses.get()));
+            xmlOutput.addAttribute("evictions", String.valueOf(evictions.get()));
+            xmlOutput.stopTag(true);
+        }
+    }
+
+    /**
+     * Number of executions, and of iterations until a fixpoint was reached, of
+     * the dataflow analyses of one analysis class.
+     */
+    public static class DataflowProfile implements XMLWriteable {
+        final AtomicLong executions = new AtomicLong();
+
+        final AtomicLong iterations = new AtomicLong();
+
+        final AtomicInteger maxIterations = new AtomicInteger();
+
+        private final String className;
+
+        /**
+         * @param className
+         *            non null full qualified name of the analysis class
+         */
+        public DataflowProfile(String className) {
+            this.className = className;
+        }
+
+        void handleExecution(int numIterations) {
+            executions.incrementAndGet();
+            iterations.addAndGet(numIterations);
+            int oldMax = maxIterations.get();
+            while (numIterations > oldMax && !maxIterations.compareAndSet(oldMax, numIterations)) {
+                oldMax = maxIterations.get();
+            }
+        }
+
+        public long getExecutions() {
+            return executions.get();
+        }
+
+        public long getIterations() {
+            return iterations.get();
+        }
+
+        public int getMaxIterations() {
+            return maxIterations.get();
+        }
+
+        @Override
+        public void writeXML(XMLOutput xmlOutput) throws IOException {
+            xmlOutput.startTag("DataflowProfile");
+            xmlOutput.addAttribute("name", className);
+            xmlOutput.addAttribute("executions", String.valueOf(executions.get()));
+            xmlOutput.addAttribute("iterations", String.valueOf(iterations.get()));
+            xmlOutput.addAttribute("maxIterations", String.valueOf(maxIterations.get()));
+            xmlOutput.stopTag(true);
+        }
+    }
+
     static class Clock {
         final Class<?> clazz;
 
@@ -208,27 +330,41 @@ public class Profiler implements XMLWriteable {
 
     }
 
-    final Stack<Clock> startTimes;
+    /**
+     * Stack of running clocks. Each analysis thread times its own nested
+     * calls, so the stack is kept per thread; only the accumulated
+     * {@link Profile}s are shared.
+     */
+    final ThreadLocal<Stack<Clock>> startTimes;
 
     final ConcurrentMap<Class<?>, Profile> profile;
 
-    final Stack<Object> context = new Stack<Object>();
+    final ThreadLocal<Stack<Object>> context;
+
+    final ConcurrentMap<Class<?>, CacheProfile> cacheProfile;
+
+    final ConcurrentMap<Class<?>, DataflowProfile> dataflowProfile;
+
+    final AtomicLong analyzedClasses = new AtomicLong();
+
+    final long startNanoTime;
 
     public void startContext(Object context) {
-        this.context.push(context);
+        this.context.get().push(context);
     }
 
     public void endContext(Object context) {
-        Object o = this.context.pop();
+        Object o = this.context.get().pop();
         assert o == context;
     }
 
     private Object getContext() {
-        if (context.size() == 0) {
+        Stack<Object> stack = context.get();
+        if (stack.size() == 0) {
             return "";
         }
         try {
-            return context.peek();
+            return stack.peek();
         } catch (EmptyStackException e) {
             return "";
         }
@@ -236,7 +372,7 @@ public class Profiler implements XMLWriteable {
     public void start(Class<?> c) {
         long currentNanoTime = System.nanoTime();
 
-        Stack<Clock> stack = startTimes;
+        Stack<Clock> stack = startTimes.get();
         if (!stack.isEmpty()) {
             stack.peek().accumulateTime(currentNanoTime);
         }
@@ -249,7 +385,7 @@ public class Profiler implements XMLWriteable {
         // System.err.println("pop " + c.getSimpleName());
         long currentNanoTime = System.nanoTime();
 
-        Stack<Clock> stack = startTimes;
+        Stack<Clock> stack = startTimes.get();
         Clock ending = stack.pop();
         if (ending.clazz != c) {
             throw new AssertionError("Asked to end timing for " + c + " but top of stack is " + ending.clazz
@@ -276,6 +412,106 @@ public class Profiler implements XMLWriteable {
 
     }
 
+    /**
+     * Record that the analysis cache found a result of given analysis class.
+     *
+     * @param analysisClass
+     *            the analysis class
+     */
+    public void cacheHit(Class<?> analysisClass) {
+        getCacheProfile(analysisClass).hits.incrementAndGet();
+    }
+
+    /**
+     * Record that the analysis cache had to compute a result of given analysis
+     * class.
+     *
+     * @param analysisClass
+     *            the analysis class
+     */
+    public void cacheMiss(Class<?> analysisClass) {
+        getCacheProfile(analysisClass).misses.incrementAndGet();
+    }
+
+    /**
+     * Record that the analysis cache discarded a result of given analysis
+     * class to stay within its bounds.
+     *
+     * @param analysisClass
+     *            the analysis class
+     */
+    public void cacheEviction(Class<?> analysisClass) {
+        getCacheProfile(analysisClass).evictions.incrementAndGet();
+    }
+
+    /**
+     * Record that a dataflow analysis reached its fixpoint.
+     *
+     * @param analysisClass
+     *            the class of the dataflow analysis
+     * @param iterations
+     *            number of iterations of the dataflow algorithm
+     */
+    public void dataflowExecuted(Class<?> analysisClass, int iterations) {
+        getDataflowProfile(analysisClass).handleExecution(iterations);
+    }
+
+    /**
+     * Record that all detectors of a pass have been applied to a class.
+     */
+    public void classAnalyzed() {
+        analyzedClasses.incrementAndGet();
+    }
+
+    /**
+     * @return the number of classes analyzed, counting each class once per
+     *         analysis pass
+     */
+    public long getAnalyzedClasses() {
+        return analyzedClasses.get();
+    }
+
+    /**
+     * @return time elapsed since this profiler was created, in nanoseconds
+     */
+    public long getElapsedTime() {
+        return System.nanoTime() - startNanoTime;
+    }
+
+    /**
+     * @param analysisClass
+     *            an analysis class
+     * @return the cache statistics for the analysis class
+     */
+    public CacheProfile getCacheProfile(Class<?> analysisClass) {
+        CacheProfile result = cacheProfile.get(analysisClass);
+        if (result == null) {
+            result = new CacheProfile(analysisClass.getName());
+            CacheProfile tmp = cacheProfile.putIfAbsent(analysisClass, result);
+            if (tmp != null) {
+                return tmp;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param analysisClass
+     *            the class of a dataflow analysis
+     * @return the dataflow statistics for the analysis class
+     */
+    public DataflowProfile getDataflowProfile(Class<?> analysisClass) {
+        DataflowProfile result = dataflowProfile.get(analysisClass);
+        if (result == null) {
+            result = new DataflowProfile(analysisClass.getName());
+            DataflowProfile tmp = dataflowProfile.putIfAbsent(analysisClass, result);
+            if (tmp != null) {
+                return tmp;
+            }
+        }
+        return result;
+    }
+
     public static class ClassNameComparator implements Comparator<Class<?>>, Serializable {
         final protected Profiler profiler;
 
@@ -401,6 +637,28 @@ public class Profiler implements XMLWriteable {
                 }
 
             }
+
+            if (!cacheProfile.isEmpty()) {
+                TreeSet<Class<?>> cacheClasses = new TreeSet<Class<?>>(new ClassNameComparator(this));
+                cacheClasses.addAll(cacheProfile.keySet());
+                stream.printf("%10s %10s %10s %s%n", "hits", "misses", "evictions", "Cached analysis");
+                for (Class<?> c : cacheClasses) {
+                    CacheProfile p = cacheProfile.get(c);
+                    stream.printf("%10d %10d %10d %s%n", Long.valueOf(p.getHits()), Long.valueOf(p.getMisses()),
+                            Long.valueOf(p.getEvictions()), c.getSimpleName());
+                }
+            }
+
+            if (!dataflowProfile.isEmpty()) {
+                TreeSet<Class<?>> dataflowClasses = new TreeSet<Class<?>>(new ClassNameComparator(this));
+                dataflowClasses.addAll(dataflowProfile.keySet());
+                stream.printf("%10s %10s %10s %s%n", "runs", "iterations", "max", "Dataflow analysis");
+                for (Class<?> c : dataflowClasses) {
+                    DataflowProfile p = dataflowProfile.get(c);
+                    stream.printf("%10d %10d %10d %s%n", Long.valueOf(p.getExecutions()), Long.valueOf(p.getIterations()),
+                            Integer.valueOf(p.getMaxIterations()), c.getSimpleName());
+                }
+            }
             stream.flush();
         } catch (RuntimeException e) {
             System.err.println(e);
@@ -417,7 +675,37 @@ public class Profiler implements XMLWriteable {
      */
     public void clear() {
         profile.clear();
-        startTimes.clear();
+        cacheProfile.clear();
+        dataflowProfile.clear();
+        analyzedClasses.set(0);
+        startTimes.get().clear();
+    }
+
+    /**
+     * Get the classes whose calls have been profiled.
+     *
+     * @return unmodifiable set of the profiled classes
+     */
+    public Set<Class<?>> getProfiledClasses() {
+        return Collections.unmodifiableSet(profile.keySet());
+    }
+
+    /**
+     * Get the analysis classes whose cache statistics have been recorded.
+     *
+     * @return unmodifiable set of the analysis classes
+     */
+    public Set<Class<?>> getCacheProfiledClasses() {
+        return Collections.unmodifiableSet(cacheProfile.keySet());
+    }
+
+    /**
+     * Get the dataflow analysis classes whose executions have been recorded.
+     *
+     * @return unmodifiable set of the dataflow analysis classes
+     */
+    public Set<Class<?>> getDataflowProfiledClasses() {
+        return Collections.unmodifiableSet(dataflowProfile.keySet());
     }
 
     public Profile getProfile(Class<?> c) {
@@ -464,6 +752,16 @@ public class Profiler implements XMLWriteable {
                 break;
             }
         }
+        TreeSet<Class<?>> cacheClasses = new TreeSet<Class<?>>(new ClassNameComparator(this));
+        cacheClasses.addAll(cacheProfile.keySet());
+        for (Class<?> c : cacheClasses) {
+            cacheProfile.get(c).writeXML(xmlOutput);
+        }
+        TreeSet<Class<?>> dataflowClasses = new TreeSet<Class<?>>(new ClassNameComparator(this));
+        dataflowClasses.addAll(dataflowProfile.keySet());
+        for (Class<?> c : dataflowClasses) {
+            dataflowProfile.get(c).writeXML(xmlOutput);
+        }
         xmlOutput.closeTag("FindBugsProfile");
     }
 }
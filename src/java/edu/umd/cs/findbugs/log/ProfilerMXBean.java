@@ -0,0 +1,80 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2007 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.log;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Management interface exposing the {@link Profiler} of the running analysis
+ * through JMX. The maps are keyed by fully qualified class name; times are in
+ * milliseconds.
+ *
+ * @see ProfilerMonitor
+ */
+public interface ProfilerMXBean {
+
+    /** @return time elapsed since the analysis started */
+    long getElapsedMilliseconds();
+
+    /** @return number of classes analyzed, counting each class once per pass */
+    long getAnalyzedClasses();
+
+    /** @return number of classes analyzed per second */
+    double getClassesPerSecond();
+
+    /** @return bytes of heap in use */
+    long getHeapUsedBytes();
+
+    /** @return maximum number of bytes of heap, or -1 if undefined */
+    long getHeapMaxBytes();
+
+    /** @return time spent in each detector */
+    Map<String, Long> getDetectorMilliseconds();
+
+    /** @return time spent computing the results of each analysis engine */
+    Map<String, Long> getAnalysisEngineMilliseconds();
+
+    /** @return number of timed calls of each detector and analysis engine */
+    Map<String, Integer> getInvocations();
+
+    /** @return number of analysis results found in the cache, per analysis */
+    Map<String, Long> getCacheHits();
+
+    /** @return number of analysis results computed, per analysis */
+    Map<String, Long> getCacheMisses();
+
+    /** @return fraction of the requests of each analysis found in the cache */
+    Map<String, Double> getCacheHitRates();
+
+    /** @return number of executions of each dataflow analysis */
+    Map<String, Long> getDataflowExecutions();
+
+    /** @return total number of iterations of each dataflow analysis */
+    Map<String, Long> getDataflowIterations();
+
+    /**
+     * Write a snapshot of the metrics.
+     *
+     * @param fileName
+     *            name of the XML file to write
+     */
+    void writeSnapshot(String fileName) throws IOException;
+}
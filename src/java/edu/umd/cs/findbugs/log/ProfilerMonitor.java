@@ -0,0 +1,391 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2007 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import edu.umd.cs.findbugs.Detector;
+import edu.umd.cs.findbugs.Detector2;
+import edu.umd.cs.findbugs.SystemProperties;
+import edu.umd.cs.findbugs.classfile.IAnalysisEngine;
+import edu.umd.cs.findbugs.xml.OutputStreamXMLOutput;
+import edu.umd.cs.findbugs.xml.XMLOutput;
+
+/**
+ * Publish the metrics of the {@link Profiler} of the running analysis while
+ * it runs: through JMX, as the MXBean named {@value #OBJECT_NAME}, and
+ * periodically as an XML snapshot file.
+ * <p>
+ * The metrics are only read when requested, so monitoring adds no overhead to
+ * the analysis. The MXBean is registered while an analysis runs, unless the
+ * findbugs.profiler.jmx property is false, and unregistered when it ends, so
+ * that neither the platform MBeanServer nor the monitor keep the profiler and
+ * the FindBugs classes alive in long-lived hosts. The snapshot file is
+ * written every findbugs.profiler.snapshotInterval seconds (30 by default) if
+ * the findbugs.profiler.snapshotFile property names it, and once more when
+ * the analysis ends.
+ */
+public class ProfilerMonitor implements ProfilerMXBean {
+
+    /** Name of the MXBean */
+    public static final String OBJECT_NAME = "edu.umd.cs.findbugs:type=Profiler";
+
+    private static final Logger LOGGER = Logger.getLogger(ProfilerMonitor.class.getName());
+
+    static final boolean JMX = SystemProperties.getBoolean("findbugs.profiler.jmx", true);
+
+    static final String SNAPSHOT_FILE = SystemProperties.getProperty("findbugs.profiler.snapshotFile");
+
+    static final int SNAPSHOT_INTERVAL = SystemProperties.getInt("findbugs.profiler.snapshotInterval", 30);
+
+    private static final ProfilerMonitor INSTANCE = new ProfilerMonitor();
+
+    private volatile Profiler profiler;
+
+    private boolean registered;
+
+    private ScheduledExecutorService snapshotWriter;
+
+    ProfilerMonitor() {
+    }
+
+    public static ProfilerMonitor instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start publishing the metrics of the given profiler, until
+     * stopMonitoring() is called for it.
+     *
+     * @param profiler
+     *            the profiler of an analysis about to start
+     */
+    public synchronized void startMonitoring(Profiler profiler) {
+        this.profiler = profiler;
+        if (JMX && !registered) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(this, name);
+                    registered = true;
+                }
+            } catch (JMException e) {
+                LOGGER.log(Level.WARNING, "Could not register profiler MXBean", e);
+            } catch (SecurityException e) {
+                LOGGER.log(Level.WARNING, "Could not register profiler MXBean", e);
+            }
+        }
+        if (SNAPSHOT_FILE != null && snapshotWriter == null) {
+            snapshotWriter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Profiler snapshots");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            int interval = Math.max(1, SNAPSHOT_INTERVAL);
+            snapshotWriter.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    writeSnapshotSafely();
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stop publishing the metrics of the given profiler: stop the periodic
+     * snapshots, writing a last one, unregister the MXBean and release the
+     * profiler.
+     *
+     * @param profiler
+     *            the profiler of an analysis that has ended
+     */
+    public synchronized void stopMonitoring(Profiler profiler) {
+        if (this.profiler != profiler) {
+            return;
+        }
+        if (snapshotWriter != null) {
+            snapshotWriter.shutdownNow();
+            snapshotWriter = null;
+            writeSnapshotSafely();
+        }
+        if (registered) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                LOGGER.log(Level.WARNING, "Could not unregister profiler MXBean", e);
+            } catch (SecurityException e) {
+                LOGGER.log(Level.WARNING, "Could not unregister profiler MXBean", e);
+            }
+            registered = false;
+        }
+        this.profiler = null;
+    }
+
+    private void writeSnapshotSafely() {
+        try {
+            writeSnapshot(SNAPSHOT_FILE);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not write profiler snapshot to " + SNAPSHOT_FILE, e);
+        }
+    }
+
+    /**
+     * @return the profiler whose metrics are published, or null if no analysis
+     *         is running
+     */
+    @CheckForNull
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    @Override
+    public long getElapsedMilliseconds() {
+        Profiler p = profiler;
+        return p == null ? 0 : TimeUnit.MILLISECONDS.convert(p.getElapsedTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public long getAnalyzedClasses() {
+        Profiler p = profiler;
+        return p == null ? 0 : p.getAnalyzedClasses();
+    }
+
+    @Override
+    public double getClassesPerSecond() {
+        Profiler p = profiler;
+        if (p == null) {
+            return 0;
+        }
+        long elapsed = p.getElapsedTime();
+        return elapsed <= 0 ? 0 : p.getAnalyzedClasses() * 1e9 / elapsed;
+    }
+
+    @Override
+    public long getHeapUsedBytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    @Override
+    public long getHeapMaxBytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+    }
+
+    /**
+     * Get the kind of a profiled class.
+     *
+     * @return "detector", "engine" (analysis engine) or "other"
+     */
+    static String getKind(Class<?> c) {
+        if (Detector.class.isAssignableFrom(c) || Detector2.class.isAssignableFrom(c)) {
+            return "detector";
+        } else if (IAnalysisEngine.class.isAssignableFrom(c)) {
+            return "engine";
+        }
+        return "other";
+    }
+
+    private Map<String, Long> getMilliseconds(String kind) {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        Profiler p = profiler;
+        if (p != null) {
+            for (Class<?> c : p.getProfiledClasses()) {
+                if (getKind(c).equals(kind)) {
+                    result.put(c.getName(), TimeUnit.MILLISECONDS.convert(p.getProfile(c).getTotalTime(), TimeUnit.NANOSECONDS));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getDetectorMilliseconds() {
+        return getMilliseconds("detector");
+    }
+
+    @Override
+    public Map<String, Long> getAnalysisEngineMilliseconds() {
+        return getMilliseconds("engine");
+    }
+
+    @Override
+    public Map<String, Integer> getInvocations() {
+        Map<String, Integer> result = new TreeMap<String, Integer>();
+        Profiler p = profiler;
+        if (p != null) {
+            for (Class<?> c : p.getProfiledClasses()) {
+                result.put(c.getName(), p.getProfile(c).getTotalCalls());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getCacheHits() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        Profiler p = profiler;
+        if (p != null) {
+            for (Class<?> c : p.getCacheProfiledClasses()) {
+                result.put(c.getName(), p.getCacheProfile(c).getHits());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getCacheMisses() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        Profiler p = profiler;
+        if (p != null) {
+            for (Class<?> c : p.getCacheProfiledClasses()) {
+                result.put(c.getName(), p.getCacheProfile(c).getMisses());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getCacheHitRates() {
+        Map<String, Double> result = new TreeMap<String, Double>();
+        Profiler p = profiler;
+        if (p != null) {
+            for (Class<?> c : p.getCacheProfiledClasses()) {
+                Profiler.CacheProfile cacheProfile = p.getCacheProfile(c);
+                long hits = cacheProfile.getHits();
+                long requests = hits + cacheProfile.getMisses();
+                result.put(c.getName(), requests == 0 ? 0.0 : (double) hits / requests);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getDataflowExecutions() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        Profiler p = profiler;
+        if (p != null) {
+            for (Class<?> c : p.getDataflowProfiledClasses()) {
+                result.put(c.getName(), p.getDataflowProfile(c).getExecutions());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getDataflowIterations() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        Profiler p = profiler;
+        if (p != null) {
+            for (Class<?> c : p.getDataflowProfiledClasses()) {
+                result.put(c.getName(), p.getDataflowProfile(c).getIterations());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write a snapshot of the metrics. The file is replaced at once, so that
+     * readers never see a partial snapshot.
+     */
+    @Override
+    public void writeSnapshot(String fileName) throws IOException {
+        File file = new File(fileName);
+        File tmp = new File(file.getPath() + ".tmp");
+        writeSnapshot(new OutputStreamXMLOutput(new FileOutputStream(tmp)));
+        if (!tmp.renameTo(file)) {
+            // Windows does not replace existing files
+            if (!file.delete() || !tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Could not replace " + file);
+            }
+        }
+    }
+
+    /**
+     * Write a snapshot of the metrics as XML. The finish() method of the
+     * XMLOutput object is guaranteed to be called.
+     */
+    void writeSnapshot(XMLOutput xmlOutput) throws IOException {
+        try {
+            xmlOutput.beginDocument();
+            Profiler p = profiler;
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            xmlOutput.startTag("ProfilerSnapshot");
+            xmlOutput.addAttribute("timestamp", String.valueOf(System.currentTimeMillis()));
+            xmlOutput.addAttribute("elapsedMilliseconds", String.valueOf(getElapsedMilliseconds()));
+            xmlOutput.addAttribute("analyzedClasses", String.valueOf(getAnalyzedClasses()));
+            xmlOutput.addAttribute("classesPerSecond", String.format("%.2f", getClassesPerSecond()));
+            xmlOutput.addAttribute("heapUsedBytes", String.valueOf(heap.getUsed()));
+            xmlOutput.addAttribute("heapMaxBytes", String.valueOf(heap.getMax()));
+            xmlOutput.stopTag(false);
+            if (p != null) {
+                for (Class<?> c : byName(p.getProfiledClasses()).values()) {
+                    Profiler.Profile profile = p.getProfile(c);
+                    xmlOutput.startTag("ClassProfile");
+                    xmlOutput.addAttribute("name", c.getName());
+                    xmlOutput.addAttribute("kind", getKind(c));
+                    xmlOutput.addAttribute("totalMilliseconds",
+                            String.valueOf(TimeUnit.MILLISECONDS.convert(profile.getTotalTime(), TimeUnit.NANOSECONDS)));
+                    xmlOutput.addAttribute("invocations", String.valueOf(profile.getTotalCalls()));
+                    xmlOutput.addAttribute("maxMicrosecondsPerInvocation",
+                            String.valueOf(TimeUnit.MICROSECONDS.convert(profile.getMaxTime(), TimeUnit.NANOSECONDS)));
+                    xmlOutput.stopTag(true);
+                }
+                for (Class<?> c : byName(p.getCacheProfiledClasses()).values()) {
+                    p.getCacheProfile(c).writeXML(xmlOutput);
+                }
+                for (Class<?> c : byName(p.getDataflowProfiledClasses()).values()) {
+                    p.getDataflowProfile(c).writeXML(xmlOutput);
+                }
+            }
+            xmlOutput.closeTag("ProfilerSnapshot");
+        } finally {
+            xmlOutput.finish();
+        }
+    }
+
+    private static Map<String, Class<?>> byName(Iterable<Class<?>> classes) {
+        Map<String, Class<?>> result = new TreeMap<String, Class<?>>();
+        for (Class<?> c : classes) {
+            result.put(c.getName(), c);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An amount of memory (in estimated bytes) shared by a number of
+ * {@link WeightedMapCache}s. The caches evict entries when their total weight
+ * exceeds the budget.
+ * <p>
+ * The budget is a soft limit: a cache only evicts its own entries, and only
+ * when it holds more than its fair share of the budget, so the total may
+ * temporarily exceed the budget until the caches holding most of it are
+ * updated again.
+ */
+public class CacheBudget {
+
+    private final long capacity;
+
+    private final AtomicLong weight = new AtomicLong();
+
+    private final AtomicInteger caches = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *            the budget, in estimated bytes
+     */
+    public CacheBudget(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache budget must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Parse a memory size such as "2g", "512m", "100k" or "1000000".
+     *
+     * @param size
+     *            the size, with an optional k, m or g suffix
+     * @return the size in bytes
+     * @throws NumberFormatException
+     *             if the size cannot be parsed
+     */
+    public static long parseSize(String size) {
+        String s = size.trim().toLowerCase();
+        long multiplier = 1;
+        if (s.endsWith("k")) {
+            multiplier = 1L << 10;
+        } else if (s.endsWith("m")) {
+            multiplier = 1L << 20;
+        } else if (s.endsWith("g")) {
+            multiplier = 1L << 30;
+        }
+        if (multiplier != 1) {
+            s = s.substring(0, s.length() - 1);
+        }
+        return Long.parseLong(s) * multiplier;
+    }
+
+    /**
+     * @return the budget, in estimated bytes
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the total weight of the entries in all caches sharing the budget
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    /**
+     * @return true if the caches hold more than the budget
+     */
+    public boolean isExceeded() {
+        return weight.get() > capacity;
+    }
+
+    /**
+     * @return the share of the budget each non-empty cache may use
+     */
+    public long getFairShare() {
+        return capacity / Math.max(1, caches.get());
+    }
+
+    void add(long delta) {
+        weight.addAndGet(delta);
+    }
+
+    void cacheBecameNonEmpty() {
+        caches.incrementAndGet();
+    }
+
+    void cacheBecameEmpty() {
+        caches.decrementAndGet();
+    }
+}
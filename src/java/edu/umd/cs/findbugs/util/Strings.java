@@ -164,7 +164,7 @@ public class Strings {
     public static String escapeXml(String s) {
         initializeEscapeMap();
 
-        if (s == null || s.length() == 0) {
+        if (s == null || s.length() == 0 || !needsEscaping(s)) {
             return s;
         }
 
@@ -188,6 +188,32 @@ public class Strings {
         return StringEscapeUtils.escapeXml(sb.toString());
     }
 
+    /**
+     * Check whether escapeXml() would change the given string: most strings
+     * written to XML reports are plain ASCII identifiers and need no escaping,
+     * so this avoids copying them.
+     */
+    private static boolean needsEscaping(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '<':
+            case '>':
+            case '&':
+            case '"':
+            case '\'':
+                return true;
+            default:
+                // StringEscapeUtils.escapeXml() escapes all non-ASCII
+                // characters
+                if (c > 0x7F || isInvalidXMLCharacter(c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private static final String unicodeUnescapeMatchExpression = "(\\\\*)(\\\\u)(\\p{XDigit}{4})";
 
     private static Pattern unescapePattern = null;
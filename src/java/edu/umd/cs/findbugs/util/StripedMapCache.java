@@ -0,0 +1,195 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * A thread-safe map with a maximum capacity, with entries discarded using a LRU
+ * policy. The entries are spread over several {@link MapCache} segments, each
+ * guarded by its own lock, so threads accessing different keys rarely contend.
+ * <p>
+ * Alternatively, the segments may be {@link WeightedMapCache}s sharing a
+ * memory budget.
+ * <p>
+ * Every segment is bounded separately, so the LRU order is only maintained
+ * within a segment. The entry set is a snapshot of the map's contents and does
+ * not support modification.
+ */
+public class StripedMapCache<K, V> extends AbstractMap<K, V> {
+
+    /**
+     * Maximum number of segments.
+     */
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * Minimum capacity of a segment. Small caches use fewer segments, so that
+     * the eviction order stays close to a global LRU order.
+     */
+    private static final int MIN_SEGMENT_CAPACITY = 32;
+
+    private final List<Map<K, V>> segments;
+
+    /**
+     * Create a new StripedMapCache
+     *
+     * @param maxCapacity
+     *            - maximum number of entries in the map
+     */
+    public StripedMapCache(int maxCapacity) {
+        this(maxCapacity, null);
+    }
+
+    /**
+     * Create a new StripedMapCache
+     *
+     * @param maxCapacity
+     *            - maximum number of entries in the map
+     * @param listener
+     *            notified of discarded entries, or null
+     */
+    public StripedMapCache(int maxCapacity, @CheckForNull final WeightedMapCache.RemovalListener<? super K, ? super V> listener) {
+        if (maxCapacity <= 0) {
+            throw new IllegalArgumentException("maxCapacity must be positive: " + maxCapacity);
+        }
+        int numSegments = Math.max(1, Math.min(MAX_SEGMENTS, maxCapacity / MIN_SEGMENT_CAPACITY));
+        int segmentCapacity = (maxCapacity + numSegments - 1) / numSegments;
+        segments = new ArrayList<Map<K, V>>(numSegments);
+        for (int i = 0; i < numSegments; i++) {
+            segments.add(new MapCache<K, V>(segmentCapacity) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                    boolean result = super.removeEldestEntry(eldest);
+                    if (result && listener != null) {
+                        listener.removed(eldest.getKey(), eldest.getValue(), true);
+                    }
+                    return result;
+                }
+            });
+        }
+    }
+
+    /**
+     * Create a new StripedMapCache bounded by the estimated size of its
+     * entries.
+     *
+     * @param budget
+     *            the budget shared with other caches
+     * @param weigher
+     *            estimates the size of entries
+     * @param listener
+     *            notified of removed entries, or null
+     * @see WeightedMapCache
+     */
+    public StripedMapCache(CacheBudget budget, WeightedMapCache.Weigher<? super K, ? super V> weigher,
+            @CheckForNull WeightedMapCache.RemovalListener<? super K, ? super V> listener) {
+        segments = new ArrayList<Map<K, V>>(MAX_SEGMENTS);
+        for (int i = 0; i < MAX_SEGMENTS; i++) {
+            segments.add(new WeightedMapCache<K, V>(budget, weigher, listener));
+        }
+    }
+
+    private Map<K, V> segmentFor(Object key) {
+        int numSegments = segments.size();
+        if (numSegments == 1) {
+            return segments.get(0);
+        }
+        int h = key.hashCode();
+        // Spread the hash bits, since many keys have hash codes which
+        // differ only in the low bits
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments.get((h & 0x7fffffff) % numSegments);
+    }
+
+    @Override
+    public V get(Object key) {
+        Map<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Map<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.containsKey(key);
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        Map<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.put(key, value);
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        Map<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Map<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Map<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Map<K, V> snapshot = new HashMap<K, V>();
+        for (Map<K, V> segment : segments) {
+            synchronized (segment) {
+                snapshot.putAll(segment);
+            }
+        }
+        return Collections.unmodifiableMap(snapshot).entrySet();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * A map bounded by the estimated size of its entries rather than by their
+ * number. Every entry is weighed when it is put into the map; when the caches
+ * sharing a {@link CacheBudget} hold more than the budget, entries are
+ * discarded using a LRU policy.
+ * <p>
+ * Entries must only be added and removed with put(), putAll(), remove() and
+ * clear(); modifications through the collection views are not accounted for.
+ * Like MapCache, this class is not synchronized.
+ *
+ * @see MapCache
+ */
+public class WeightedMapCache<K, V> extends LinkedHashMap<K, V> {
+    private static final long serialVersionUID = 0L;
+
+    /**
+     * Estimates the memory retained by a cache entry.
+     */
+    public interface Weigher<K, V> {
+        /**
+         * @return the estimated number of bytes retained by the entry
+         */
+        int weigh(K key, V value);
+    }
+
+    /**
+     * Notified when entries are removed from the map.
+     */
+    public interface RemovalListener<K, V> {
+        /**
+         * @param key
+         *            key of the removed entry
+         * @param value
+         *            value of the removed entry
+         * @param evicted
+         *            true if the entry was discarded to stay within the
+         *            budget, false if it was removed or replaced explicitly
+         */
+        void removed(K key, V value, boolean evicted);
+    }
+
+    private final transient CacheBudget budget;
+
+    private final transient Weigher<? super K, ? super V> weigher;
+
+    private final transient RemovalListener<? super K, ? super V> listener;
+
+    private final HashMap<K, Integer> weights = new HashMap<K, Integer>();
+
+    private long weight;
+
+    private boolean released;
+
+    /**
+     * Create a new WeightedMapCache
+     *
+     * @param budget
+     *            the budget shared with other caches
+     * @param weigher
+     *            estimates the size of entries
+     * @param listener
+     *            notified of removed entries, or null
+     */
+    public WeightedMapCache(CacheBudget budget, Weigher<? super K, ? super V> weigher,
+            @CheckForNull RemovalListener<? super K, ? super V> listener) {
+        super(16, 0.75f, true);
+        this.budget = budget;
+        this.weigher = weigher;
+        this.listener = listener;
+    }
+
+    /**
+     * @return the total estimated size of the entries in the map
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Stop counting the entries of this map against the budget, e.g. because
+     * the map itself was dropped from a cache. The entries are kept, and no
+     * longer evicted.
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        if (!isEmpty()) {
+            budget.add(-weight);
+            budget.cacheBecameEmpty();
+        }
+        released = true;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (isEmpty() && !released) {
+            budget.cacheBecameNonEmpty();
+        }
+        V old = super.put(key, value);
+        int w = weigher.weigh(key, value);
+        Integer oldWeight = weights.put(key, w);
+        addWeight(oldWeight == null ? w : w - oldWeight);
+        if (old != null && old != value && listener != null) {
+            listener.removed(key, old, false);
+        }
+        evict(key);
+        return old;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (!containsKey(key)) {
+            return null;
+        }
+        V old = super.remove(key);
+        removed(key, old, false);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        if (isEmpty()) {
+            return;
+        }
+        Map<K, V> contents = listener != null ? new HashMap<K, V>(this) : null;
+        super.clear();
+        weights.clear();
+        addWeight(-weight);
+        if (!released) {
+            budget.cacheBecameEmpty();
+        }
+        if (contents != null) {
+            for (Map.Entry<K, V> e : contents.entrySet()) {
+                listener.removed(e.getKey(), e.getValue(), false);
+            }
+        }
+    }
+
+    /**
+     * Discard least recently used entries while the budget is exceeded and
+     * this cache holds more than its share of it. The entry just added is
+     * never discarded.
+     */
+    private void evict(K added) {
+        if (released) {
+            return;
+        }
+        Iterator<Map.Entry<K, V>> i = entrySet().iterator();
+        while (budget.isExceeded() && weight > budget.getFairShare() && i.hasNext()) {
+            Map.Entry<K, V> eldest = i.next();
+            K key = eldest.getKey();
+            if (key == added || (key != null && key.equals(added))) {
+                break;
+            }
+            V value = eldest.getValue();
+            i.remove();
+            removed(key, value, true);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void removed(Object key, V value, boolean evicted) {
+        Integer w = weights.remove(key);
+        if (w != null) {
+            addWeight(-w);
+        }
+        if (isEmpty() && !released) {
+            budget.cacheBecameEmpty();
+        }
+        if (listener != null) {
+            listener.removed((K) key, value, evicted);
+        }
+    }
+
+    private void addWeight(long delta) {
+        weight += delta;
+        if (!released) {
+            budget.add(delta);
+        }
+    }
+}
@@ -0,0 +1,727 @@
+/*
+ * FindBugs - Find bugs in Java programs
+ * Copyright (C) 2003,2004 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.visitclass;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.CheckForNull;
+
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantCP;
+import org.apache.bcel.classfile.ConstantClass;
+import org.apache.bcel.classfile.ConstantInteger;
+import org.apache.bcel.classfile.ConstantInvokeDynamic;
+import org.apache.bcel.classfile.ConstantNameAndType;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.ConstantString;
+import org.apache.bcel.classfile.ConstantUtf8;
+
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.DescriptorFactory;
+import edu.umd.cs.findbugs.internalAnnotations.SlashedClassName;
+
+/**
+ * The instructions of a method, decoded once with their operands, so that
+ * every {@link DismantleBytecode} visiting the method replays them instead of
+ * decoding the bytecode again. The analysis cache keeps the DecodedCode of the
+ * methods of the classes being analyzed, so that all the detectors of a pass
+ * share it.
+ * <p>
+ * A DecodedCode is immutable (the switch offset and label arrays it hands out
+ * must not be modified), so it can be shared by detectors running on different
+ * threads.
+ */
+public final class DecodedCode implements org.apache.bcel.Constants {
+
+    static final int INVALID_OFFSET = Integer.MIN_VALUE;
+
+    static final String NOT_AVAILABLE = SlashedClassName.NOT_AVAILABLE;
+
+    /** Flags stored with the opcode of each instruction */
+    static final int WIDE_FLAG = 1 << 8, REGISTER_LOAD_FLAG = 1 << 9, REGISTER_STORE_FLAG = 1 << 10,
+            REF_FIELD_STATIC_FLAG = 1 << 11;
+
+    /** Estimated size of a DecodedCode without its arrays */
+    static final int DECODED_CODE_SIZE = 48;
+
+    /** Estimated size of an array without its elements */
+    static final int ARRAY_SIZE = 16;
+
+    /** Estimated size of a reference in an array */
+    static final int REFERENCE_SIZE = 8;
+
+    /** Estimated size of a constant operand */
+    static final int CONSTANT_OPERAND_SIZE = 40;
+
+    /** Estimated size of a switch without its arrays */
+    static final int SWITCH_SIZE = 24;
+
+    /**
+     * Constant pool operand of an instruction, shared by the instructions
+     * referring to the same constant.
+     */
+    static final class ConstantOperand {
+        final Constant constant;
+
+        final @SlashedClassName String classConstant;
+
+        final ClassDescriptor referencedClass;
+
+        final String nameConstant;
+
+        final String sigConstant;
+
+        final String stringConstant;
+
+        /** Whether the constant is a field or method reference */
+        final boolean isRef;
+
+        ConstantOperand(ConstantPool constantPool, Constant constant) {
+            this.constant = constant;
+            String classConstant = NOT_AVAILABLE;
+            ClassDescriptor referencedClass = null;
+            String nameConstant = NOT_AVAILABLE;
+            String sigConstant = NOT_AVAILABLE;
+            String stringConstant = NOT_AVAILABLE;
+            if (constant instanceof ConstantClass) {
+                classConstant = getString(constantPool, ((ConstantClass) constant).getNameIndex());
+                referencedClass = DescriptorFactory.createClassDescriptor(classConstant);
+            } else if (constant instanceof ConstantString) {
+                stringConstant = getString(constantPool, ((ConstantString) constant).getStringIndex());
+            } else if (constant instanceof ConstantCP) {
+                ConstantCP cp = (ConstantCP) constant;
+                ConstantClass clazz = (ConstantClass) constantPool.getConstant(cp.getClassIndex());
+                classConstant = getString(constantPool, clazz.getNameIndex());
+                referencedClass = DescriptorFactory.createClassDescriptor(classConstant);
+                ConstantNameAndType sig = (ConstantNameAndType) constantPool.getConstant(cp.getNameAndTypeIndex());
+                nameConstant = getString(constantPool, sig.getNameIndex());
+                sigConstant = getString(constantPool, sig.getSignatureIndex());
+            } else if (constant instanceof ConstantInvokeDynamic) {
+                ConstantNameAndType sig = (ConstantNameAndType) constantPool.getConstant(((ConstantInvokeDynamic) constant)
+                        .getNameAndTypeIndex());
+                nameConstant = getString(constantPool, sig.getNameIndex());
+                sigConstant = getString(constantPool, sig.getSignatureIndex());
+            }
+            this.classConstant = classConstant;
+            this.referencedClass = referencedClass;
+            this.nameConstant = nameConstant;
+            this.sigConstant = sigConstant;
+            this.stringConstant = stringConstant;
+            this.isRef = constant instanceof ConstantCP;
+        }
+
+        private static String getString(ConstantPool constantPool, int index) {
+            return ((ConstantUtf8) constantPool.getConstant(index)).getBytes();
+        }
+    }
+
+    /**
+     * Operands of a switch instruction.
+     */
+    static final class Switch {
+        /** Offsets of the cases, sorted */
+        final int[] offsets;
+
+        /** Labels of the cases, in the order of their offsets */
+        final int[] labels;
+
+        /** Lowest and highest labels of a TABLESWITCH */
+        final int low, high;
+
+        Switch(int[] offsets, int[] labels, int low, int high) {
+            this.offsets = offsets;
+            this.labels = labels;
+            this.low = low;
+            this.high = high;
+        }
+    }
+
+    /**
+     * One decoded instruction with its operands, as decoded by a
+     * {@link Decoder} or loaded from a DecodedCode.
+     */
+    static final class Instruction {
+        int pc;
+
+        int nextPC;
+
+        /** Opcode and flags of the instruction */
+        int opcodeAndFlags;
+
+        int registerOperand;
+
+        /** Value of DismantleBytecode's int constant after the instruction */
+        int intConstant;
+
+        /** Branch offset, or default offset of a switch */
+        int branchOffset;
+
+        @CheckForNull
+        ConstantOperand constantOperand;
+
+        @CheckForNull
+        Switch switchOperands;
+    }
+
+    private final Code code;
+
+    private int numInstructions;
+
+    /** Offset of each instruction, followed by the length of the code */
+    private int[] pcs;
+
+    /** Opcode and flags of each instruction */
+    private int[] opcodes;
+
+    private int[] registerOperands;
+
+    /**
+     * Value of DismantleBytecode's int constant after decoding each
+     * instruction: it keeps its value from one instruction to the next when
+     * an instruction has no int operand
+     */
+    private int[] intConstants;
+
+    /** Branch offset (or default offset of a switch) of each instruction */
+    private int[] branchOffsets;
+
+    private ConstantOperand[] constantOperands;
+
+    private Switch[] switches;
+
+    /**
+     * Exception which interrupted the decoding after the last decoded
+     * instruction, if any
+     */
+    private Exception error;
+
+    private int estimatedSize;
+
+    private DecodedCode(Code code) {
+        this.code = code;
+    }
+
+    /**
+     * @return the Code attribute which was decoded
+     */
+    public Code getCode() {
+        return code;
+    }
+
+    int getNumInstructions() {
+        return numInstructions;
+    }
+
+    int getPC(int index) {
+        return pcs[index];
+    }
+
+    int getNextPC(int index) {
+        return pcs[index + 1];
+    }
+
+    int getOpcodeAndFlags(int index) {
+        return opcodes[index];
+    }
+
+    int getRegisterOperand(int index) {
+        return registerOperands[index];
+    }
+
+    int getIntConstant(int index) {
+        return intConstants[index];
+    }
+
+    int getBranchOffset(int index) {
+        return branchOffsets[index];
+    }
+
+    @CheckForNull
+    ConstantOperand getConstantOperand(int index) {
+        return constantOperands[index];
+    }
+
+    @CheckForNull
+    Switch getSwitch(int index) {
+        return switches == null ? null : switches[index];
+    }
+
+    /**
+     * Load a decoded instruction.
+     *
+     * @param index
+     *            index of the instruction, less than getNumInstructions()
+     * @param instruction
+     *            set to the instruction with this index
+     */
+    void getInstruction(int index, Instruction instruction) {
+        instruction.pc = pcs[index];
+        instruction.nextPC = pcs[index + 1];
+        instruction.opcodeAndFlags = opcodes[index];
+        instruction.registerOperand = registerOperands[index];
+        instruction.intConstant = intConstants[index];
+        instruction.branchOffset = branchOffsets[index];
+        instruction.constantOperand = constantOperands[index];
+        instruction.switchOperands = getSwitch(index);
+    }
+
+    /**
+     * @return the exception which interrupted the decoding after the last
+     *         decoded instruction, or null if the whole code was decoded
+     */
+    @CheckForNull
+    Exception getError() {
+        return error;
+    }
+
+    /**
+     * @return estimated number of bytes retained by the decoded instructions,
+     *         not counting the Code attribute and the constant pool
+     */
+    public int getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    /**
+     * Decode the instructions of a method.
+     *
+     * @param code
+     *            the Code attribute of the method
+     * @param constantPool
+     *            the constant pool of the method's class
+     * @return the decoded instructions
+     */
+    public static DecodedCode decode(Code code, ConstantPool constantPool) {
+        DecodedCode result = new DecodedCode(code);
+        result.decode(constantPool);
+        return result;
+    }
+
+    private void decode(ConstantPool constantPool) {
+        byte[] codeBytes = code.getCode();
+        // Every instruction takes at least one byte
+        int capacity = codeBytes.length;
+        pcs = new int[capacity + 1];
+        opcodes = new int[capacity];
+        registerOperands = new int[capacity];
+        intConstants = new int[capacity];
+        branchOffsets = new int[capacity];
+        constantOperands = new ConstantOperand[capacity];
+
+        Decoder decoder = new Decoder(codeBytes, constantPool, null);
+        Instruction instruction = new Instruction();
+        try {
+            while (decoder.hasNext()) {
+                decoder.next(instruction);
+                opcodes[numInstructions] = instruction.opcodeAndFlags;
+                registerOperands[numInstructions] = instruction.registerOperand;
+                intConstants[numInstructions] = instruction.intConstant;
+                branchOffsets[numInstructions] = instruction.branchOffset;
+                constantOperands[numInstructions] = instruction.constantOperand;
+                if (instruction.switchOperands != null) {
+                    if (switches == null) {
+                        switches = new Switch[capacity];
+                    }
+                    switches[numInstructions] = instruction.switchOperands;
+                }
+                numInstructions++;
+                pcs[numInstructions] = instruction.nextPC;
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = e;
+        }
+
+        // The analysis cache keeps the decoded code of many methods
+        if (numInstructions < capacity) {
+            pcs = Arrays.copyOf(pcs, numInstructions + 1);
+            opcodes = Arrays.copyOf(opcodes, numInstructions);
+            registerOperands = Arrays.copyOf(registerOperands, numInstructions);
+            intConstants = Arrays.copyOf(intConstants, numInstructions);
+            branchOffsets = Arrays.copyOf(branchOffsets, numInstructions);
+            constantOperands = Arrays.copyOf(constantOperands, numInstructions);
+            if (switches != null) {
+                switches = Arrays.copyOf(switches, numInstructions);
+            }
+        }
+
+        // Five int arrays, one of them with an extra element
+        int size = DECODED_CODE_SIZE + 5 * ARRAY_SIZE + (5 * numInstructions + 1) * 4;
+        size += ARRAY_SIZE + numInstructions * REFERENCE_SIZE + decoder.getNumConstantOperands() * CONSTANT_OPERAND_SIZE;
+        if (switches != null) {
+            size += ARRAY_SIZE + numInstructions * REFERENCE_SIZE;
+            for (Switch switchOperands : switches) {
+                if (switchOperands != null) {
+                    size += SWITCH_SIZE + 2 * ARRAY_SIZE + 2 * switchOperands.offsets.length * 4;
+                }
+            }
+        }
+        estimatedSize = size;
+    }
+
+    /**
+     * Decoder of the instructions of a method, one at a time, used both to
+     * build a DecodedCode and by DismantleBytecode to visit code which is not
+     * shared. Instructions referring to the same constant share its operand.
+     */
+    static final class Decoder {
+        private final byte[] codeBytes;
+
+        private final ConstantPool constantPool;
+
+        private final DataInputStream byteStream;
+
+        /** Constant operands by constant pool index, created when first needed */
+        private ConstantOperand[] constantOperandByIndex;
+
+        private int numConstantOperands;
+
+        /** Offset of the next instruction */
+        private int i;
+
+        private int intConstant;
+
+        /**
+         * @param codeBytes
+         *            the code to decode
+         * @param constantPool
+         *            the constant pool of the code's class
+         * @param constantOperandByIndex
+         *            the constant operands created by a previous Decoder of
+         *            code of the same class, or null
+         */
+        Decoder(byte[] codeBytes, ConstantPool constantPool, @CheckForNull ConstantOperand[] constantOperandByIndex) {
+            this.codeBytes = codeBytes;
+            this.constantPool = constantPool;
+            this.byteStream = new DataInputStream(new ByteArrayInputStream(codeBytes));
+            this.constantOperandByIndex = constantOperandByIndex;
+        }
+
+        boolean hasNext() {
+            return i < codeBytes.length;
+        }
+
+        /**
+         * @return the number of constant operands created so far
+         */
+        int getNumConstantOperands() {
+            return numConstantOperands;
+        }
+
+        /**
+         * @return the constant operands created so far, by constant pool
+         *         index, or null if none was
+         */
+        @CheckForNull
+        ConstantOperand[] getConstantOperandByIndex() {
+            return constantOperandByIndex;
+        }
+
+        /**
+         * Decode the next instruction.
+         *
+         * @param instruction
+         *            set to the decoded instruction
+         * @throws IOException
+         *             if the code ends in the middle of the instruction
+         */
+        void next(Instruction instruction) throws IOException {
+            ConstantOperand constantOperand = null;
+            Switch switchOperands = null;
+            int PC = i;
+            int flags = 0;
+            int registerOperand = -1;
+            int branchOffset = INVALID_OFFSET;
+            int opcode = byteStream.readUnsignedByte();
+            i++;
+            int byteStreamArgCount = NO_OF_OPERANDS[opcode];
+            if (byteStreamArgCount == UNPREDICTABLE) {
+                if (opcode == LOOKUPSWITCH || opcode == TABLESWITCH) {
+                    int pad = 4 - (i & 3);
+                    if (pad == 4) {
+                        pad = 0;
+                    }
+                    int count = pad;
+                    while (count > 0) {
+                        count -= byteStream.skipBytes(count);
+                    }
+                    i += pad;
+                    branchOffset = byteStream.readInt();
+                    i += 4;
+                    int[] switchOffsets;
+                    int[] switchLabels;
+                    int switchLow = 0;
+                    int switchHigh = 0;
+                    if (opcode == LOOKUPSWITCH) {
+                        int npairs = byteStream.readInt();
+                        i += 4;
+                        switchOffsets = new int[npairs];
+                        switchLabels = new int[npairs];
+                        for (int o = 0; o < npairs; o++) {
+                            switchLabels[o] = byteStream.readInt();
+                            switchOffsets[o] = byteStream.readInt();
+                            i += 8;
+                        }
+                    } else {
+                        switchLow = byteStream.readInt();
+                        i += 4;
+                        switchHigh = byteStream.readInt();
+                        i += 4;
+                        int npairs = switchHigh - switchLow + 1;
+                        switchOffsets = new int[npairs];
+                        switchLabels = new int[npairs];
+                        for (int o = 0; o < npairs; o++) {
+                            switchLabels[o] = o + switchLow;
+                            switchOffsets[o] = byteStream.readInt();
+                            i += 4;
+                        }
+                    }
+                    sortByOffset(switchOffsets, switchLabels);
+                    switchOperands = new Switch(switchOffsets, switchLabels, switchLow, switchHigh);
+                } else if (opcode == WIDE) {
+                    flags |= WIDE_FLAG;
+                    opcode = byteStream.readUnsignedByte();
+                    i++;
+                    switch (opcode) {
+                    case ILOAD:
+                    case FLOAD:
+                    case ALOAD:
+                    case LLOAD:
+                    case DLOAD:
+                    case ISTORE:
+                    case FSTORE:
+                    case ASTORE:
+                    case LSTORE:
+                    case DSTORE:
+                    case RET:
+                        registerOperand = byteStream.readUnsignedShort();
+                        i += 2;
+                        break;
+                    case IINC:
+                        registerOperand = byteStream.readUnsignedShort();
+                        i += 2;
+                        intConstant = byteStream.readShort();
+                        i += 2;
+                        break;
+                    default:
+                        throw new IllegalStateException(String.format("bad wide bytecode %d: %s", opcode,
+                                OPCODE_NAMES[opcode]));
+                    }
+                } else {
+                    throw new IllegalStateException(String.format("bad unpredicatable bytecode %d: %s", opcode,
+                            OPCODE_NAMES[opcode]));
+                }
+            } else {
+                if (byteStreamArgCount < 0) {
+                    throw new IllegalStateException(String.format("bad length for bytecode %d: %s", opcode,
+                            OPCODE_NAMES[opcode]));
+                }
+                for (int k = 0; k < TYPE_OF_OPERANDS[opcode].length; k++) {
+                    int v;
+                    int t = TYPE_OF_OPERANDS[opcode][k];
+                    int m = DismantleBytecode.MEANING_OF_OPERANDS[opcode][k];
+                    boolean unsigned = (m == DismantleBytecode.M_CP || m == DismantleBytecode.M_R || m == DismantleBytecode.M_UINT);
+                    switch (t) {
+                    case T_BYTE:
+                        v = unsigned ? byteStream.readUnsignedByte() : byteStream.readByte();
+                        i++;
+                        break;
+                    case T_SHORT:
+                        v = unsigned ? byteStream.readUnsignedShort() : byteStream.readShort();
+                        i += 2;
+                        break;
+                    case T_INT:
+                        v = byteStream.readInt();
+                        i += 4;
+                        break;
+                    default:
+                        throw new IllegalStateException();
+                    }
+                    switch (m) {
+                    case DismantleBytecode.M_BR:
+                        branchOffset = v;
+                        break;
+                    case DismantleBytecode.M_CP:
+                        constantOperand = getConstantOperand(v);
+                        if (constantOperand.constant instanceof ConstantInteger) {
+                            intConstant = ((ConstantInteger) constantOperand.constant).getBytes();
+                        }
+                        break;
+                    case DismantleBytecode.M_R:
+                        registerOperand = v;
+                        break;
+                    case DismantleBytecode.M_UINT:
+                    case DismantleBytecode.M_INT:
+                        intConstant = v;
+                        break;
+                    case DismantleBytecode.M_PAD:
+                        break;
+                    default:
+                        throw new IllegalStateException("Unexpecting meaning " + m);
+                    }
+                }
+            }
+
+            switch (opcode) {
+            case IINC:
+                flags |= REGISTER_LOAD_FLAG | REGISTER_STORE_FLAG;
+                break;
+            case ILOAD_0:
+            case ILOAD_1:
+            case ILOAD_2:
+            case ILOAD_3:
+                registerOperand = opcode - ILOAD_0;
+                flags |= REGISTER_LOAD_FLAG;
+                break;
+            case ALOAD_0:
+            case ALOAD_1:
+            case ALOAD_2:
+            case ALOAD_3:
+                registerOperand = opcode - ALOAD_0;
+                flags |= REGISTER_LOAD_FLAG;
+                break;
+            case FLOAD_0:
+            case FLOAD_1:
+            case FLOAD_2:
+            case FLOAD_3:
+                registerOperand = opcode - FLOAD_0;
+                flags |= REGISTER_LOAD_FLAG;
+                break;
+            case DLOAD_0:
+            case DLOAD_1:
+            case DLOAD_2:
+            case DLOAD_3:
+                registerOperand = opcode - DLOAD_0;
+                flags |= REGISTER_LOAD_FLAG;
+                break;
+            case LLOAD_0:
+            case LLOAD_1:
+            case LLOAD_2:
+            case LLOAD_3:
+                registerOperand = opcode - LLOAD_0;
+                flags |= REGISTER_LOAD_FLAG;
+                break;
+            case ILOAD:
+            case FLOAD:
+            case ALOAD:
+            case LLOAD:
+            case DLOAD:
+                flags |= REGISTER_LOAD_FLAG;
+                break;
+            case ISTORE_0:
+            case ISTORE_1:
+            case ISTORE_2:
+            case ISTORE_3:
+                registerOperand = opcode - ISTORE_0;
+                flags |= REGISTER_STORE_FLAG;
+                break;
+            case ASTORE_0:
+            case ASTORE_1:
+            case ASTORE_2:
+            case ASTORE_3:
+                registerOperand = opcode - ASTORE_0;
+                flags |= REGISTER_STORE_FLAG;
+                break;
+            case FSTORE_0:
+            case FSTORE_1:
+            case FSTORE_2:
+            case FSTORE_3:
+                registerOperand = opcode - FSTORE_0;
+                flags |= REGISTER_STORE_FLAG;
+                break;
+            case DSTORE_0:
+            case DSTORE_1:
+            case DSTORE_2:
+            case DSTORE_3:
+                registerOperand = opcode - DSTORE_0;
+                flags |= REGISTER_STORE_FLAG;
+                break;
+            case LSTORE_0:
+            case LSTORE_1:
+            case LSTORE_2:
+            case LSTORE_3:
+                registerOperand = opcode - LSTORE_0;
+                flags |= REGISTER_STORE_FLAG;
+                break;
+            case ISTORE:
+            case FSTORE:
+            case ASTORE:
+            case LSTORE:
+            case DSTORE:
+                flags |= REGISTER_STORE_FLAG;
+                break;
+            case GETSTATIC:
+            case PUTSTATIC:
+                flags |= REF_FIELD_STATIC_FLAG;
+                break;
+            default:
+                break;
+            }
+
+            instruction.pc = PC;
+            instruction.nextPC = i;
+            instruction.opcodeAndFlags = opcode | flags;
+            instruction.registerOperand = registerOperand;
+            instruction.intConstant = intConstant;
+            instruction.branchOffset = branchOffset;
+            instruction.constantOperand = constantOperand;
+            instruction.switchOperands = switchOperands;
+        }
+
+        private ConstantOperand getConstantOperand(int index) {
+            if (constantOperandByIndex == null) {
+                constantOperandByIndex = new ConstantOperand[constantPool.getLength()];
+            }
+            ConstantOperand constantOperand = constantOperandByIndex[index];
+            if (constantOperand == null) {
+                constantOperand = new ConstantOperand(constantPool, constantPool.getConstant(index));
+                constantOperandByIndex[index] = constantOperand;
+                numConstantOperands++;
+            }
+            return constantOperand;
+        }
+    }
+
+    private static void sortByOffset(int[] switchOffsets, int[] switchLabels) {
+        int npairs = switchOffsets.length;
+        // Sort by offset
+        for (int j = 0; j < npairs; j++) {
+            int min = j;
+            for (int k = j + 1; k < npairs; k++) {
+                if (switchOffsets[min] > switchOffsets[k]) {
+                    min = k;
+                }
+            }
+            if (min > j) {
+                int tmp = switchOffsets[min];
+                switchOffsets[min] = switchOffsets[j];
+                switchOffsets[j] = tmp;
+                tmp = switchLabels[min];
+                switchLabels[min] = switchLabels[j];
+                switchLabels[j] = tmp;
+            }
+        }
+    }
+}
@@ -19,8 +19,6 @@
 
 package edu.umd.cs.findbugs.visitclass;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.text.NumberFormat;
 
@@ -29,20 +27,20 @@ import javax.annotation.CheckForNull;
 import org.apache.bcel.classfile.Code;
 import org.apache.bcel.classfile.CodeException;
 import org.apache.bcel.classfile.Constant;
-import org.apache.bcel.classfile.ConstantCP;
 import org.apache.bcel.classfile.ConstantClass;
 import org.apache.bcel.classfile.ConstantDouble;
 import org.apache.bcel.classfile.ConstantFieldref;
 import org.apache.bcel.classfile.ConstantFloat;
 import org.apache.bcel.classfile.ConstantInteger;
 import org.apache.bcel.classfile.ConstantInterfaceMethodref;
-import org.apache.bcel.classfile.ConstantInvokeDynamic;
 import org.apache.bcel.classfile.ConstantLong;
 import org.apache.bcel.classfile.ConstantMethodref;
-import org.apache.bcel.classfile.ConstantNameAndType;
+import org.apache.bcel.classfile.ConstantPool;
 import org.apache.bcel.classfile.ConstantString;
 import org.apache.bcel.classfile.LineNumberTable;
+import org.apache.bcel.classfile.Method;
 
+import edu.umd.cs.findbugs.SystemProperties;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import edu.umd.cs.findbugs.ba.AnalysisContext;
 import edu.umd.cs.findbugs.ba.Hierarchy2;
@@ -54,6 +52,7 @@ import edu.umd.cs.findbugs.classfile.ClassDescriptor;
 import edu.umd.cs.findbugs.classfile.DescriptorFactory;
 import edu.umd.cs.findbugs.classfile.FieldDescriptor;
 import edu.umd.cs.findbugs.classfile.Global;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
 import edu.umd.cs.findbugs.classfile.MethodDescriptor;
 import edu.umd.cs.findbugs.internalAnnotations.SlashedClassName;
 import edu.umd.cs.findbugs.util.ClassName;
@@ -82,6 +81,17 @@ abstract public class DismantleBytecode extends AnnotationVisitor {
 
     private int sizePrevOpcodeBuffer;
 
+    /** The instruction being visited, before it is loaded into the fields */
+    private final DecodedCode.Instruction instruction = new DecodedCode.Instruction();
+
+    /**
+     * Constant operands of the instructions decoded from the byte stream, kept
+     * for the other methods of the class
+     */
+    private DecodedCode.ConstantOperand[] constantOperandByIndex;
+
+    private ConstantPool constantOperandPool;
+
     private int defaultSwitchOffset;
 
     private @SlashedClassName
@@ -127,9 +137,24 @@ abstract public class DismantleBytecode extends AnnotationVisitor {
 
     private boolean isRegisterStore;
 
-    private static final int INVALID_OFFSET = Integer.MIN_VALUE;
+    private static final int INVALID_OFFSET = DecodedCode.INVALID_OFFSET;
+
+    private static final String NOT_AVAILABLE = DecodedCode.NOT_AVAILABLE;
+
+    private static volatile boolean shareDecodedCode = !SystemProperties.getBoolean("dbc.noSharedDecodedCode");
 
-    private static final String NOT_AVAILABLE = SlashedClassName.NOT_AVAILABLE;
+    /**
+     * Set whether the instructions of the methods of the analyzed classes are
+     * decoded once and shared by all the DismantleBytecode visitors through
+     * the analysis cache (the default, unless the dbc.noSharedDecodedCode
+     * property is set), or decoded by each visitor.
+     *
+     * @param share
+     *            true if the decoded instructions are shared
+     */
+    public static void setShareDecodedCode(boolean share) {
+        shareDecodedCode = share;
+    }
 
     static String replaceSlashesWithDots(String c) {
         return c.replace('/', '.');
@@ -471,45 +496,6 @@ abstract public class DismantleBytecode extends AnnotationVisitor {
         return switchLabels;
     }
 
-    private void resetState() {
-        classConstantOperand = nameConstantOperand = sigConstantOperand = stringConstantOperand = refConstantOperand = NOT_AVAILABLE;
-        refFieldIsStatic = false;
-        constantRefOperand = null;
-        registerOperand = -1;
-        isRegisterLoad = false;
-        isRegisterStore = false;
-        branchOffset = branchTarget = branchFallThrough = defaultSwitchOffset = INVALID_OFFSET;
-        switchOffsets = switchLabels = null;
-        dottedClassConstantOperand = null;
-        referencedClass = null;
-        setReferencedXClass(null);
-        referencedMethod = null;
-        referencedXMethod = null;
-        referencedField = null;
-        referencedXField = null;
-    }
-
-    private static void sortByOffset(int[] switchOffsets, int[] switchLabels) {
-        int npairs = switchOffsets.length;
-        // Sort by offset
-        for (int j = 0; j < npairs; j++) {
-            int min = j;
-            for (int k = j + 1; k < npairs; k++) {
-                if (switchOffsets[min] > switchOffsets[k]) {
-                    min = k;
-                }
-            }
-            if (min > j) {
-                int tmp = switchOffsets[min];
-                switchOffsets[min] = switchOffsets[j];
-                switchOffsets[j] = tmp;
-                tmp = switchLabels[min];
-                switchLabels[min] = switchLabels[j];
-                switchLabels[j] = tmp;
-            }
-        }
-    }
-
     public int getMaxPC() {
         return codeBytes.length - 1;
     }
@@ -540,418 +526,221 @@ abstract public class DismantleBytecode extends AnnotationVisitor {
         sizePrevOpcodeBuffer = 0;
         currentPosInPrevOpcodeBuffer = prevOpcode.length - 1;
 
-        int switchLow = 1000000;
-        int switchHigh = -1000000;
         codeBytes = obj.getCode();
-        DataInputStream byteStream = new DataInputStream(new ByteArrayInputStream(codeBytes));
-
         lineNumberTable = obj.getLineNumberTable();
 
-        try {
-            for (int i = 0; i < codeBytes.length;) {
-                resetState();
-                PC = i;
-                opcodeIsWide = false;
-                opcode = byteStream.readUnsignedByte();
-
-                sizePrevOpcodeBuffer++;
-                currentPosInPrevOpcodeBuffer++;
-                if (currentPosInPrevOpcodeBuffer >= prevOpcode.length) {
-                    currentPosInPrevOpcodeBuffer = 0;
-                }
-                prevOpcode[currentPosInPrevOpcodeBuffer] = opcode;
-                i++;
-                // System.out.println(OPCODE_NAMES[opCode]);
-                int byteStreamArgCount = NO_OF_OPERANDS[opcode];
-                if (byteStreamArgCount == UNPREDICTABLE) {
-
-                    if (opcode == LOOKUPSWITCH) {
-                        int pad = 4 - (i & 3);
-                        if (pad == 4) {
-                            pad = 0;
-                        }
-                        int count = pad;
-                        while (count > 0) {
-                            count -= byteStream.skipBytes(count);
-                        }
-                        i += pad;
-                        defaultSwitchOffset = byteStream.readInt();
-                        branchOffset = defaultSwitchOffset;
-                        branchTarget = branchOffset + PC;
-                        i += 4;
-                        int npairs = byteStream.readInt();
-                        i += 4;
-                        switchOffsets = new int[npairs];
-                        switchLabels = new int[npairs];
-                        for (int o = 0; o < npairs; o++) {
-                            switchLabels[o] = byteStream.readInt();
-                            switchOffsets[o] = byteStream.readInt();
-                            i += 8;
-                        }
-                        sortByOffset(switchOffsets, switchLabels);
-                    } else if (opcode == TABLESWITCH) {
-                        int pad = 4 - (i & 3);
-                        if (pad == 4) {
-                            pad = 0;
-                        }
-                        int count = pad;
-                        while (count > 0) {
-                            count -= byteStream.skipBytes(count);
-                        }
-                        i += pad;
-                        defaultSwitchOffset = byteStream.readInt();
-                        branchOffset = defaultSwitchOffset;
-                        branchTarget = branchOffset + PC;
-                        i += 4;
-                        switchLow = byteStream.readInt();
-                        i += 4;
-                        switchHigh = byteStream.readInt();
-                        i += 4;
-                        int npairs = switchHigh - switchLow + 1;
-                        switchOffsets = new int[npairs];
-                        switchLabels = new int[npairs];
-                        for (int o = 0; o < npairs; o++) {
-                            switchLabels[o] = o + switchLow;
-                            switchOffsets[o] = byteStream.readInt();
-                            i += 4;
-                        }
-                        sortByOffset(switchOffsets, switchLabels);
-                    } else if (opcode == WIDE) {
-                        opcodeIsWide = true;
-                        opcode = byteStream.readUnsignedByte();
-                        i++;
-                        switch (opcode) {
-                        case ILOAD:
-                        case FLOAD:
-                        case ALOAD:
-                        case LLOAD:
-                        case DLOAD:
-                        case ISTORE:
-                        case FSTORE:
-                        case ASTORE:
-                        case LSTORE:
-                        case DSTORE:
-                        case RET:
-                            registerOperand = byteStream.readUnsignedShort();
-                            i += 2;
-                            break;
-                        case IINC:
-                            registerOperand = byteStream.readUnsignedShort();
-                            i += 2;
-                            intConstant = byteStream.readShort();
-                            i += 2;
-                            break;
-                        default:
-                            throw new IllegalStateException(String.format("bad wide bytecode %d: %s" , opcode, OPCODE_NAMES[opcode]));
-                        }
-                    } else {
-                        throw new IllegalStateException(String.format("bad unpredicatable bytecode %d: %s" , opcode, OPCODE_NAMES[opcode]));
-                    }
-                } else {
-                    if (byteStreamArgCount < 0) {
-                        throw new IllegalStateException(String.format("bad length for bytecode %d: %s" , opcode, OPCODE_NAMES[opcode]));
-                    }
-                    for (int k = 0; k < TYPE_OF_OPERANDS[opcode].length; k++) {
-
-                        int v;
-                        int t = TYPE_OF_OPERANDS[opcode][k];
-                        int m = MEANING_OF_OPERANDS[opcode][k];
-                        boolean unsigned = (m == M_CP || m == M_R || m == M_UINT);
-                        switch (t) {
-                        case T_BYTE:
-                            if (unsigned) {
-                                v = byteStream.readUnsignedByte();
-                            } else {
-                                v = byteStream.readByte();
-                            }
-                            /*
-                             * System.out.print("Read byte " + v);
-                             * System.out.println(" with meaning" + m);
-                             */
-                            i++;
-                            break;
-                        case T_SHORT:
-                            if (unsigned) {
-                                v = byteStream.readUnsignedShort();
-                            } else {
-                                v = byteStream.readShort();
-                            }
-                            i += 2;
-                            break;
-                        case T_INT:
-                            v = byteStream.readInt();
-                            i += 4;
-                            break;
-                        default:
-                            throw new IllegalStateException();
-                        }
-                        switch (m) {
-                        case M_BR:
-                            branchOffset = v;
-                            branchTarget = v + PC;
-                            branchFallThrough = i;
-                            break;
-                        case M_CP:
-                            constantRefOperand = getConstantPool().getConstant(v);
-                            if (constantRefOperand instanceof ConstantClass) {
-                                ConstantClass clazz = (ConstantClass) constantRefOperand;
-                                classConstantOperand = getStringFromIndex(clazz.getNameIndex());
-                                referencedClass = DescriptorFactory.createClassDescriptor(classConstantOperand);
-
-                            } else if (constantRefOperand instanceof ConstantInteger) {
-                                intConstant = ((ConstantInteger) constantRefOperand).getBytes();
-                            } else if (constantRefOperand instanceof ConstantLong) {
-                                longConstant = ((ConstantLong) constantRefOperand).getBytes();
-                            } else if (constantRefOperand instanceof ConstantFloat) {
-                                floatConstant = ((ConstantFloat) constantRefOperand).getBytes();
-                            } else if (constantRefOperand instanceof ConstantDouble) {
-                                doubleConstant = ((ConstantDouble) constantRefOperand).getBytes();
-                            } else if (constantRefOperand instanceof ConstantString) {
-                                int s = ((ConstantString) constantRefOperand).getStringIndex();
-
-                                stringConstantOperand = getStringFromIndex(s);
-                            } else if (constantRefOperand instanceof ConstantCP) {
-                                ConstantCP cp = (ConstantCP) constantRefOperand;
-                                ConstantClass clazz = (ConstantClass) getConstantPool().getConstant(cp.getClassIndex());
-                                classConstantOperand = getStringFromIndex(clazz.getNameIndex());
-                                referencedClass = DescriptorFactory.createClassDescriptor(classConstantOperand);
-                                referencedXClass = null;
-                                ConstantNameAndType sig = (ConstantNameAndType) getConstantPool().getConstant(
-                                        cp.getNameAndTypeIndex());
-                                nameConstantOperand = getStringFromIndex(sig.getNameIndex());
-                                sigConstantOperand = getStringFromIndex(sig.getSignatureIndex());
-                                refConstantOperand = null;
-                            } else if (constantRefOperand instanceof ConstantInvokeDynamic) {
-                                ConstantInvokeDynamic id = (ConstantInvokeDynamic) constantRefOperand;
-                                ConstantNameAndType sig = (ConstantNameAndType) getConstantPool().getConstant(
-                                        id.getNameAndTypeIndex());
-                                nameConstantOperand = getStringFromIndex(sig.getNameIndex());
-                                sigConstantOperand = getStringFromIndex(sig.getSignatureIndex());
-
-
-                            }
-                            break;
-                        case M_R:
-                            registerOperand = v;
-                            break;
-                        case M_UINT:
-                        case M_INT:
-                            intConstant = v;
-                            break;
-                        case M_PAD:
-                            break;
-                        default:
-                            throw new IllegalStateException("Unexpecting meaning " + m);
-                        }
-                    }
-
-                }
-                switch (opcode) {
-                case IINC:
-                    isRegisterLoad = true;
-                    isRegisterStore = true;
-                    break;
-                case ILOAD_0:
-                case ILOAD_1:
-                case ILOAD_2:
-                case ILOAD_3:
-                    registerOperand = opcode - ILOAD_0;
-                    isRegisterLoad = true;
-                    break;
-
-                case ALOAD_0:
-                case ALOAD_1:
-                case ALOAD_2:
-                case ALOAD_3:
-                    registerOperand = opcode - ALOAD_0;
-                    isRegisterLoad = true;
-                    break;
+        DecodedCode decodedCode = getSharedDecodedCode(obj);
+        if (decodedCode != null) {
+            visitDecodedCode(decodedCode);
+        } else {
+            decodeAndVisit();
+        }
+    }
 
-                case FLOAD_0:
-                case FLOAD_1:
-                case FLOAD_2:
-                case FLOAD_3:
-                    registerOperand = opcode - FLOAD_0;
-                    isRegisterLoad = true;
-                    break;
+    /**
+     * Visit the instructions of the Code being visited, decoding them from
+     * the byte stream as they are visited.
+     */
+    private void decodeAndVisit() {
+        ConstantPool constantPool = getConstantPool();
+        if (constantPool != constantOperandPool) {
+            constantOperandPool = constantPool;
+            constantOperandByIndex = null;
+        }
+        DecodedCode.Decoder decoder = new DecodedCode.Decoder(codeBytes, constantPool, constantOperandByIndex);
+        try {
+            while (decoder.hasNext()) {
+                decoder.next(instruction);
+                visitInstruction();
+            }
+        } catch (IOException e) {
+            AnalysisContext.logError("Error while dismantling bytecode", e);
+            assert false;
+        } finally {
+            constantOperandByIndex = decoder.getConstantOperandByIndex();
+        }
+    }
 
-                case DLOAD_0:
-                case DLOAD_1:
-                case DLOAD_2:
-                case DLOAD_3:
-                    registerOperand = opcode - DLOAD_0;
-                    isRegisterLoad = true;
-                    break;
+    /**
+     * Visit the instructions of the Code being visited, already decoded.
+     */
+    private void visitDecodedCode(DecodedCode decodedCode) {
+        int numInstructions = decodedCode.getNumInstructions();
+        for (int index = 0; index < numInstructions; index++) {
+            decodedCode.getInstruction(index, instruction);
+            visitInstruction();
+        }
+
+        Exception error = decodedCode.getError();
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error != null) {
+            AnalysisContext.logError("Error while dismantling bytecode", error);
+            assert false;
+        }
+    }
 
-                case LLOAD_0:
-                case LLOAD_1:
-                case LLOAD_2:
-                case LLOAD_3:
-                    registerOperand = opcode - LLOAD_0;
-                    isRegisterLoad = true;
-                    break;
-                case ILOAD:
-                case FLOAD:
-                case ALOAD:
-                case LLOAD:
-                case DLOAD:
-                    isRegisterLoad = true;
-                    break;
+    /**
+     * Set the state of the visitor to the current decoded instruction, and
+     * visit it.
+     */
+    private void visitInstruction() {
+        DecodedCode.Switch switchOperands = instruction.switchOperands;
+        loadInstruction();
 
-                case ISTORE_0:
-                case ISTORE_1:
-                case ISTORE_2:
-                case ISTORE_3:
-                    registerOperand = opcode - ISTORE_0;
-                    isRegisterStore = true;
-                    break;
+        sizePrevOpcodeBuffer++;
+        currentPosInPrevOpcodeBuffer++;
+        if (currentPosInPrevOpcodeBuffer >= prevOpcode.length) {
+            currentPosInPrevOpcodeBuffer = 0;
+        }
+        prevOpcode[currentPosInPrevOpcodeBuffer] = opcode;
 
-                case ASTORE_0:
-                case ASTORE_1:
-                case ASTORE_2:
-                case ASTORE_3:
-                    registerOperand = opcode - ASTORE_0;
-                    isRegisterStore = true;
-                    break;
+        if (beforeOpcode(opcode)) {
+            sawOpcode(opcode);
+        }
+        afterOpcode(opcode);
 
-                case FSTORE_0:
-                case FSTORE_1:
-                case FSTORE_2:
-                case FSTORE_3:
-                    registerOperand = opcode - FSTORE_0;
-                    isRegisterStore = true;
+        if (opcode == TABLESWITCH) {
+            sawInt(switchOperands.low);
+            sawInt(switchOperands.high);
+            for (int o = 0; o <= switchOperands.high - switchOperands.low; o++) {
+                sawBranchTo(switchOffsets[o] + PC);
+            }
+            sawBranchTo(defaultSwitchOffset + PC);
+        } else if (opcode == LOOKUPSWITCH) {
+            sawInt(switchOffsets.length);
+            for (int o = 0; o < switchOffsets.length; o++) {
+                sawBranchTo(switchOffsets[o] + PC);
+                sawInt(switchLabels[o]);
+            }
+            sawBranchTo(defaultSwitchOffset + PC);
+        } else {
+            for (int k = 0; k < TYPE_OF_OPERANDS[opcode].length; k++) {
+                int m = MEANING_OF_OPERANDS[opcode][k];
+                switch (m) {
+                case M_BR:
+                    sawBranchTo(branchOffset + PC);
                     break;
-
-                case DSTORE_0:
-                case DSTORE_1:
-                case DSTORE_2:
-                case DSTORE_3:
-                    registerOperand = opcode - DSTORE_0;
-                    isRegisterStore = true;
+                case M_CP:
+                    if (constantRefOperand instanceof ConstantInteger) {
+                        sawInt(intConstant);
+                    } else if (constantRefOperand instanceof ConstantLong) {
+                        sawLong(longConstant);
+                    } else if (constantRefOperand instanceof ConstantFloat) {
+                        sawFloat(floatConstant);
+                    } else if (constantRefOperand instanceof ConstantDouble) {
+                        sawDouble(doubleConstant);
+                    } else if (constantRefOperand instanceof ConstantString) {
+                        sawString(stringConstantOperand);
+                    } else if (constantRefOperand instanceof ConstantFieldref) {
+                        sawField();
+                    } else if (constantRefOperand instanceof ConstantMethodref) {
+                        sawMethod();
+                    } else if (constantRefOperand instanceof ConstantInterfaceMethodref) {
+                        sawIMethod();
+                    } else if (constantRefOperand instanceof ConstantClass) {
+                        sawClass();
+                    }
                     break;
-
-                case LSTORE_0:
-                case LSTORE_1:
-                case LSTORE_2:
-                case LSTORE_3:
-                    registerOperand = opcode - LSTORE_0;
-                    isRegisterStore = true;
+                case M_R:
+                    sawRegister(registerOperand);
                     break;
-                case ISTORE:
-                case FSTORE:
-                case ASTORE:
-                case LSTORE:
-                case DSTORE:
-                    isRegisterStore = true;
+                case M_INT:
+                    sawInt(intConstant);
                     break;
                 default:
                     break;
                 }
+            }
+        }
+    }
 
-                switch (opcode) {
-                case ILOAD:
-                case FLOAD:
-                case ALOAD:
-                case LLOAD:
-                case DLOAD:
-                    // registerKind = opcode - ILOAD;
-                    break;
-                case ISTORE:
-                case FSTORE:
-                case ASTORE:
-                case LSTORE:
-                case DSTORE:
-                    // registerKind = opcode - ISTORE;
-                    break;
-                case RET:
-                    // registerKind = R_REF;
-                    break;
-                case GETSTATIC:
-                case PUTSTATIC:
-                    refFieldIsStatic = true;
-                    break;
-                case GETFIELD:
-                case PUTFIELD:
-                    refFieldIsStatic = false;
-                    break;
-                default:
-                    break;
-                }
+    /**
+     * Get the decoded instructions of the Code being visited cached by the
+     * analysis cache, so that all the detectors visiting the method share
+     * them.
+     *
+     * @return the decoded instructions, or null if the Code is not the one of
+     *         the visited method or they could not be decoded
+     */
+    private @CheckForNull DecodedCode getSharedDecodedCode(Code obj) {
+        IAnalysisCache analysisCache = Global.getAnalysisCache();
+        MethodDescriptor methodDescriptor = getMethodDescriptor();
+        if (!shareDecodedCode || analysisCache == null || !visitingMethod() || methodDescriptor == null) {
+            return null;
+        }
+        try {
+            Method method = analysisCache.getMethodAnalysis(Method.class, methodDescriptor);
+            if (method != null && method.getCode() == obj) {
+                return analysisCache.getMethodAnalysis(DecodedCode.class, methodDescriptor);
+            }
+        } catch (CheckedAnalysisException e) {
+            AnalysisContext.logError("Error getting decoded code of " + methodDescriptor, e);
+        }
+        return null;
+    }
 
-                nextPC = i;
-                if (beforeOpcode(opcode)) {
-                    sawOpcode(opcode);
-                }
-                afterOpcode(opcode);
-
-                if (opcode == TABLESWITCH) {
-                    sawInt(switchLow);
-                    sawInt(switchHigh);
-                    //                    int prevOffset = i - PC;
-                    for (int o = 0; o <= switchHigh - switchLow; o++) {
-                        sawBranchTo(switchOffsets[o] + PC);
-                        //                        prevOffset = switchOffsets[o];
-                    }
-                    sawBranchTo(defaultSwitchOffset + PC);
-                } else if (opcode == LOOKUPSWITCH) {
-                    sawInt(switchOffsets.length);
-                    //                    int prevOffset = i - PC;
-                    for (int o = 0; o < switchOffsets.length; o++) {
-                        sawBranchTo(switchOffsets[o] + PC);
-                        //                        prevOffset = switchOffsets[o];
-                        sawInt(switchLabels[o]);
-                    }
-                    sawBranchTo(defaultSwitchOffset + PC);
-                } else {
-                    for (int k = 0; k < TYPE_OF_OPERANDS[opcode].length; k++) {
-                        int m = MEANING_OF_OPERANDS[opcode][k];
-                        switch (m) {
-                        case M_BR:
-                            sawBranchTo(branchOffset + PC);
-                            break;
-                        case M_CP:
-                            if (constantRefOperand instanceof ConstantInteger) {
-                                sawInt(intConstant);
-                            } else if (constantRefOperand instanceof ConstantLong) {
-                                sawLong(longConstant);
-                            } else if (constantRefOperand instanceof ConstantFloat) {
-                                sawFloat(floatConstant);
-                            } else if (constantRefOperand instanceof ConstantDouble) {
-                                sawDouble(doubleConstant);
-                            } else if (constantRefOperand instanceof ConstantString) {
-                                sawString(stringConstantOperand);
-                            } else if (constantRefOperand instanceof ConstantFieldref) {
-                                sawField();
-                            } else if (constantRefOperand instanceof ConstantMethodref) {
-                                sawMethod();
-                            } else if (constantRefOperand instanceof ConstantInterfaceMethodref) {
-                                sawIMethod();
-                            } else if (constantRefOperand instanceof ConstantClass) {
-                                sawClass();
-                            }
-                            break;
-                        case M_R:
-                            sawRegister(registerOperand);
-                            break;
-                        case M_INT:
-                            sawInt(intConstant);
-                            break;
-                        default:
-                            break;
-                        }
-                    }
-                }
+    /**
+     * Set the state of the visitor to the current decoded instruction.
+     */
+    private void loadInstruction() {
+        int opcodeAndFlags = instruction.opcodeAndFlags;
+        opcode = opcodeAndFlags & 0xff;
+        opcodeIsWide = (opcodeAndFlags & DecodedCode.WIDE_FLAG) != 0;
+        isRegisterLoad = (opcodeAndFlags & DecodedCode.REGISTER_LOAD_FLAG) != 0;
+        isRegisterStore = (opcodeAndFlags & DecodedCode.REGISTER_STORE_FLAG) != 0;
+        refFieldIsStatic = (opcodeAndFlags & DecodedCode.REF_FIELD_STATIC_FLAG) != 0;
+        PC = instruction.pc;
+        nextPC = instruction.nextPC;
+        registerOperand = instruction.registerOperand;
+        intConstant = instruction.intConstant;
+
+        branchOffset = instruction.branchOffset;
+        if (branchOffset == INVALID_OFFSET) {
+            branchTarget = branchFallThrough = defaultSwitchOffset = INVALID_OFFSET;
+            switchOffsets = switchLabels = null;
+        } else {
+            branchTarget = branchOffset + PC;
+            DecodedCode.Switch switchOperands = instruction.switchOperands;
+            if (switchOperands != null) {
+                branchFallThrough = INVALID_OFFSET;
+                defaultSwitchOffset = branchOffset;
+                switchOffsets = switchOperands.offsets;
+                switchLabels = switchOperands.labels;
+            } else {
+                branchFallThrough = nextPC;
+                defaultSwitchOffset = INVALID_OFFSET;
+                switchOffsets = switchLabels = null;
             }
-        } catch (IOException e) {
-            AnalysisContext.logError("Error while dismantling bytecode", e);
-            assert false;
         }
 
-        try {
-            byteStream.close();
-        } catch (IOException e) {
-            assert false;
+        DecodedCode.ConstantOperand constantOperand = instruction.constantOperand;
+        if (constantOperand == null) {
+            constantRefOperand = null;
+            classConstantOperand = nameConstantOperand = sigConstantOperand = stringConstantOperand = refConstantOperand = NOT_AVAILABLE;
+            referencedClass = null;
+        } else {
+            constantRefOperand = constantOperand.constant;
+            classConstantOperand = constantOperand.classConstant;
+            nameConstantOperand = constantOperand.nameConstant;
+            sigConstantOperand = constantOperand.sigConstant;
+            stringConstantOperand = constantOperand.stringConstant;
+            refConstantOperand = constantOperand.isRef ? null : NOT_AVAILABLE;
+            referencedClass = constantOperand.referencedClass;
+            if (constantRefOperand instanceof ConstantLong) {
+                longConstant = ((ConstantLong) constantRefOperand).getBytes();
+            } else if (constantRefOperand instanceof ConstantFloat) {
+                floatConstant = ((ConstantFloat) constantRefOperand).getBytes();
+            } else if (constantRefOperand instanceof ConstantDouble) {
+                doubleConstant = ((ConstantDouble) constantRefOperand).getBytes();
+            }
         }
+        dottedClassConstantOperand = null;
+        setReferencedXClass(null);
+        referencedMethod = null;
+        referencedXMethod = null;
+        referencedField = null;
+        referencedXField = null;
     }
 
     public void sawDouble(double seen) {
@@ -0,0 +1,66 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.workflow;
+
+import java.io.File;
+
+import edu.umd.cs.findbugs.BinaryBugCollection;
+import edu.umd.cs.findbugs.FindBugs;
+import edu.umd.cs.findbugs.SortedBugCollection;
+
+/**
+ * Convert a bug collection between the XML and the binary formats. By default
+ * the bug collection is converted to the format it isn't saved in.
+ *
+ * @see BinaryBugCollection
+ */
+public class ConvertBugCollection {
+    public static void main(String[] args) throws Exception {
+        Boolean toBinary = null;
+        int argCount = 0;
+        if (args.length > 0 && "-binary".equals(args[0])) {
+            toBinary = Boolean.TRUE;
+            argCount++;
+        } else if (args.length > 0 && "-xml".equals(args[0])) {
+            toBinary = Boolean.FALSE;
+            argCount++;
+        }
+        if (args.length - argCount != 2) {
+            System.out.println("Usage: " + ConvertBugCollection.class.getName()
+                    + " [-binary | -xml] <input bug collection> <output bug collection>");
+            System.exit(1);
+        }
+        File input = new File(args[argCount]);
+        String output = args[argCount + 1];
+        if (toBinary == null) {
+            toBinary = !BinaryBugCollection.isBinary(input);
+        }
+
+        FindBugs.setNoAnalysis();
+        SortedBugCollection bugCollection = new SortedBugCollection();
+        bugCollection.readXML(input);
+        if (toBinary) {
+            BinaryBugCollection.write(bugCollection, new File(output));
+        } else {
+            bugCollection.setWithMessages(true);
+            bugCollection.writeXML(output);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.workflow;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.CheckForNull;
+
+import org.dom4j.DocumentException;
+
+import edu.umd.cs.findbugs.SortedBugCollection;
+
+/**
+ * Read a sequence of bug collection files, in order, while the next ones are
+ * read by other threads. At most one collection per thread is read ahead, so
+ * that the collections are not all in memory at the same time.
+ */
+class PrefetchingBugCollectionReader {
+
+    private final List<String> fileNames;
+
+    private final ExecutorService executor;
+
+    private final LinkedList<Future<SortedBugCollection>> pending = new LinkedList<Future<SortedBugCollection>>();
+
+    private final int readAhead;
+
+    private int next;
+
+    private int submitted;
+
+    /**
+     * @param fileNames
+     *            the files to read
+     * @param threads
+     *            number of threads reading the files
+     */
+    PrefetchingBugCollectionReader(List<String> fileNames, int threads) {
+        this.fileNames = fileNames;
+        this.readAhead = Math.max(1, threads);
+        this.executor = Executors.newFixedThreadPool(readAhead);
+    }
+
+    boolean hasNext() {
+        return next < fileNames.size();
+    }
+
+    /**
+     * Get the next bug collection.
+     *
+     * @return the bug collection, or null if its file is empty
+     * @throws IOException
+     *             if the file cannot be read
+     * @throws DocumentException
+     *             if the file cannot be parsed
+     */
+    @CheckForNull
+    SortedBugCollection next() throws IOException, DocumentException {
+        while (submitted < fileNames.size() && submitted < next + readAhead) {
+            final String fileName = fileNames.get(submitted++);
+            pending.add(executor.submit(new Callable<SortedBugCollection>() {
+                @Override
+                public SortedBugCollection call() throws Exception {
+                    if (new File(fileName).length() == 0) {
+                        return null;
+                    }
+                    SortedBugCollection collection = new SortedBugCollection();
+                    collection.readXML(fileName);
+                    return collection;
+                }
+            }));
+        }
+        next++;
+        try {
+            return pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + fileNames.get(next - 1), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof DocumentException) {
+                throw (DocumentException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Error reading " + fileNames.get(next - 1), cause);
+        }
+    }
+
+    /**
+     * Stop reading the files.
+     */
+    void close() {
+        executor.shutdownNow();
+    }
+}
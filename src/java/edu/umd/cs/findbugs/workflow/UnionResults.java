@@ -20,7 +20,15 @@
 package edu.umd.cs.findbugs.workflow;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.annotation.CheckForNull;
 
 import org.dom4j.DocumentException;
 
@@ -43,9 +51,12 @@ public class UnionResults {
 
         boolean withMessages;
 
+        int threads = Runtime.getRuntime().availableProcessors();
+
         UnionResultsCommandLine() {
             addSwitch("-withMessages", "Generated XML should contain msgs for external processing");
             addOption("-output", "outputFile", "File in which to store combined results");
+            addOption("-threads", "number", "number of threads reading and merging the results");
         }
 
         /*
@@ -75,6 +86,8 @@ public class UnionResults {
         protected void handleOptionWithArgument(String option, String argument) throws IOException {
             if ("-output".equals(option)) {
                 outputFile = argument;
+            } else if ("-threads".equals(option)) {
+                threads = Integer.parseInt(argument);
             } else {
                 throw new IllegalArgumentException("Unknown option : " + option);
             }
@@ -114,34 +127,166 @@ public class UnionResults {
         return;
     }
 
-    public static void main(String[] argv) throws IOException {
+    /**
+     * The union of a range of the bug collection files, kept apart from any
+     * collection so that it can be merged into others without being counted
+     * in their statistics twice
+     */
+    static class PartialUnion {
+        /**
+         * Empty collection with the metadata of the first file of the range
+         * which could be read, or null if none could be read
+         */
+        SortedBugCollection metadata;
 
-        FindBugs.setNoAnalysis();
-        final UnionResultsCommandLine commandLine = new UnionResultsCommandLine();
+        final List<BugInstance> bugs = new ArrayList<BugInstance>();
 
-        int argCount = commandLine.parse(argv, 2, Integer.MAX_VALUE, "Usage: " + UnionResults.class.getName()
-                + " [options] [<results1> <results2> ... <resultsn>] ");
+        final HashSet<String> hashes = new HashSet<String>();
+
+        final ProjectStats stats = new ProjectStats();
+
+        final Project project = new Project();
+
+        final List<AnalysisError> errors = new ArrayList<AnalysisError>();
+
+        void add(SortedBugCollection collection) {
+            if (metadata == null) {
+                metadata = collection.createEmptyCollectionWithMetadata();
+            }
+            addBugs(collection.getCollection());
+            stats.addStats(collection.getProjectStats());
+            project.add(collection.getProject());
+            errors.addAll(collection.getErrors());
+        }
+
+        void add(PartialUnion partial) {
+            if (metadata == null) {
+                metadata = partial.metadata;
+            }
+            addBugs(partial.bugs);
+            stats.addStats(partial.stats);
+            project.add(partial.project);
+            errors.addAll(partial.errors);
+        }
 
-        SortedBugCollection results = null;
-        HashSet<String> hashes = new HashSet<String>();
+        private void addBugs(Collection<BugInstance> more) {
+            for (BugInstance bugInstance : more) {
+                if (hashes.add(bugInstance.getInstanceHash())) {
+                    bugs.add(bugInstance);
+                }
+            }
+        }
 
-        for (int i = argCount; i < argv.length; i++) {
-            try {
-                SortedBugCollection more = new SortedBugCollection();
+        /**
+         * Merge the union into a collection, as merge() does, and count its
+         * bugs in the statistics of the collection.
+         */
+        void mergeInto(SortedBugCollection into) {
+            for (BugInstance bugInstance : bugs) {
+                into.add(bugInstance);
+            }
+            ProjectStats intoStats = into.getProjectStats();
+            intoStats.addStats(stats);
+            into.getProject().add(project);
+            for (AnalysisError error : errors) {
+                into.addError(error);
+            }
 
-                more.readXML(argv[i]);
-                if (results == null) {
-                    results = more.createEmptyCollectionWithMetadata();
+            // The bug counts of the statistics of the collections include the
+            // duplicate bugs: count the bugs of the union instead
+            intoStats.clearBugCounts();
+            for (BugInstance bugInstance : into.getCollection()) {
+                if (!bugInstance.isDead()) {
+                    intoStats.addBug(bugInstance);
                 }
+            }
+        }
+    }
+
+    /**
+     * Compute the union of a range of bug collection files, by reading and
+     * merging the two halves of the range in parallel. The ranges are split
+     * the same way whatever the number of threads, and the union of each half
+     * is merged in the same order as when the files are merged one by one, so
+     * that the result doesn't depend on the number of threads.
+     */
+    static class UnionTask extends RecursiveTask<PartialUnion> {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Number of files read sequentially by a task
+         */
+        private static final int FILES_PER_TASK = 2;
 
-                merge(hashes, results, more);
+        private final List<String> fileNames;
+
+        UnionTask(List<String> fileNames) {
+            this.fileNames = fileNames;
+        }
+
+        @Override
+        protected PartialUnion compute() {
+            if (fileNames.size() <= FILES_PER_TASK) {
+                PartialUnion result = new PartialUnion();
+                for (String fileName : fileNames) {
+                    try {
+                        SortedBugCollection more = new SortedBugCollection();
+                        more.readXML(fileName);
+                        result.add(more);
+                    } catch (IOException e) {
+                        System.err.println("Trouble reading/parsing " + fileName);
+                    } catch (DocumentException e) {
+                        System.err.println("Trouble reading/parsing " + fileName);
+                    }
+                }
+                return result;
+            }
+            int middle = fileNames.size() / 2;
+            UnionTask second = new UnionTask(fileNames.subList(middle, fileNames.size()));
+            second.fork();
+            PartialUnion result = new UnionTask(fileNames.subList(0, middle)).compute();
+            result.add(second.join());
+            return result;
+        }
+    }
 
-            } catch (IOException e) {
-                System.err.println("Trouble reading/parsing " + argv[i]);
-            } catch (DocumentException e) {
-                System.err.println("Trouble reading/parsing " + argv[i]);
+    /**
+     * Compute the union of bug collection files. The files are read and merged
+     * by several threads, the result being the same as when they are merged
+     * one by one.
+     *
+     * @param fileNames
+     *            the bug collection files; those which cannot be read are
+     *            skipped
+     * @param threads
+     *            number of threads
+     * @return the union, or null if no file could be read
+     */
+    @CheckForNull
+    public static SortedBugCollection union(List<String> fileNames, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            PartialUnion partial = pool.invoke(new UnionTask(fileNames));
+            if (partial.metadata == null) {
+                return null;
             }
+            SortedBugCollection results = partial.metadata;
+            partial.mergeInto(results);
+            return results;
+        } finally {
+            pool.shutdown();
         }
+    }
+
+    public static void main(String[] argv) throws IOException {
+
+        FindBugs.setNoAnalysis();
+        final UnionResultsCommandLine commandLine = new UnionResultsCommandLine();
+
+        int argCount = commandLine.parse(argv, 2, Integer.MAX_VALUE, "Usage: " + UnionResults.class.getName()
+                + " [options] [<results1> <results2> ... <resultsn>] ");
+
+        SortedBugCollection results = union(Arrays.asList(argv).subList(argCount, argv.length), commandLine.threads);
 
         if (results == null) {
             System.err.println("No files successfully read");
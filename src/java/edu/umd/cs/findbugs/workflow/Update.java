@@ -19,16 +19,22 @@ package edu.umd.cs.findbugs.workflow;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
+import javax.annotation.CheckForNull;
+
 import org.dom4j.DocumentException;
 
 import edu.umd.cs.findbugs.AppVersion;
@@ -60,6 +66,12 @@ public class Update {
 
     static final int maxResurrection = SystemProperties.getInt("findbugs.maxResurrection", 90);
 
+    /**
+     * Match bugs by hashing rather than in a TreeMap, when the comparator
+     * supports it
+     */
+    boolean hashMatching = SystemProperties.getBoolean("findbugs.update.hashMatching", true);
+
     private static final String USAGE = "Usage: " + Update.class.getName() + " [options]  data1File data2File data3File ... ";
 
     private final Map<BugInstance, BugInstance> mapFromNewToOldBug = new IdentityHashMap<BugInstance, BugInstance>();
@@ -90,6 +102,8 @@ public class Update {
 
         boolean withMessages = false;
 
+        int threads = Runtime.getRuntime().availableProcessors();
+
         UpdateCommandLine() {
             addSwitch("-overrideRevisionNames", "override revision names for each version with names computed filenames");
             addSwitch("-noPackageMoves",
@@ -106,6 +120,7 @@ public class Update {
             addSwitch("-useAnalysisTimes", "use analysis timestamp rather than code timestamp in history");
             addSwitch("-withMessages", "Add bug description");
             addOption("-onlyMostRecent", "number", "only use the last # input files");
+            addOption("-threads", "number", "number of threads reading the input files");
         }
 
         @Override
@@ -156,6 +171,8 @@ public class Update {
                 maxRank = Integer.parseInt(argument);
             } else if ("-onlyMostRecent".equals(option)) {
                 mostRecent = Integer.parseInt(argument);
+            } else if ("-threads".equals(option)) {
+                threads = Integer.parseInt(argument);
             } else {
                 throw new IllegalArgumentException("Can't handle option " + option);
             }
@@ -498,49 +515,53 @@ public class Update {
 
         discardUnwantedBugs(origCollection);
 
-        while (argCount <= (args.length - 1)) {
+        // Read the next collections while merging one
+        PrefetchingBugCollectionReader reader = new PrefetchingBugCollectionReader(Arrays.asList(args).subList(argCount,
+                args.length), commandLine.threads);
+        try {
+            while (reader.hasNext()) {
 
-            BugCollection newCollection = new SortedBugCollection();
-
-            String newFilename = args[argCount++];
-            if (verbose) {
-                System.out.println("Merging " + newFilename);
-            }
-            try {
-                File f = new File(newFilename);
-                if (f.length() == 0) {
-                    if (verbose) {
-                        System.out.println("Empty input file: " + f);
-                    }
-                    continue;
+                String newFilename = args[argCount++];
+                if (verbose) {
+                    System.out.println("Merging " + newFilename);
                 }
-                newCollection.readXML(newFilename);
+                try {
+                    BugCollection newCollection = reader.next();
+                    if (newCollection == null) {
+                        if (verbose) {
+                            System.out.println("Empty input file: " + newFilename);
+                        }
+                        continue;
+                    }
 
-                if (commandLine.overrideRevisionNames || newCollection.getReleaseName() == null
-                        || newCollection.getReleaseName().length() == 0) {
-                    newCollection.setReleaseName(getFilePathParts(newFilename)[commonPrefix]);
-                }
-                if (useAnalysisTimes) {
-                    newCollection.setTimestamp(newCollection.getAnalysisTimestamp());
-                }
-                discardUnwantedBugs(newCollection);
+                    if (commandLine.overrideRevisionNames || newCollection.getReleaseName() == null
+                            || newCollection.getReleaseName().length() == 0) {
+                        newCollection.setReleaseName(getFilePathParts(newFilename)[commonPrefix]);
+                    }
+                    if (useAnalysisTimes) {
+                        newCollection.setTimestamp(newCollection.getAnalysisTimestamp());
+                    }
+                    discardUnwantedBugs(newCollection);
 
-                origCollection = mergeCollections(origCollection, newCollection, true, false);
-            } catch (IOException e) {
-                IOException e2 = new IOException("Error parsing " + newFilename);
-                e2.initCause(e);
-                if (verbose) {
-                    e2.printStackTrace();
-                }
-                throw e2;
-            } catch (DocumentException e) {
-                DocumentException e2 = new DocumentException("Error parsing " + newFilename);
-                e2.initCause(e);
-                if (verbose) {
-                    e2.printStackTrace();
+                    origCollection = mergeCollections(origCollection, newCollection, true, false);
+                } catch (IOException e) {
+                    IOException e2 = new IOException("Error parsing " + newFilename);
+                    e2.initCause(e);
+                    if (verbose) {
+                        e2.printStackTrace();
+                    }
+                    throw e2;
+                } catch (DocumentException e) {
+                    DocumentException e2 = new DocumentException("Error parsing " + newFilename);
+                    e2.initCause(e);
+                    if (verbose) {
+                        e2.printStackTrace();
+                    }
+                    throw e2;
                 }
-                throw e2;
             }
+        } finally {
+            reader.close();
         }
         /*
         if (false) {
@@ -601,11 +622,120 @@ public class Update {
 
     }
 
+    /**
+     * The old BugInstances which may be matched, grouped into classes of
+     * BugInstances which are equal according to a comparator. When the
+     * comparator can compute a consistent hash code for each BugInstance, the
+     * classes are found by hashing, and the comparator is only used between
+     * BugInstances with the same hash code; otherwise they are kept in a
+     * TreeMap.
+     */
+    static class OldBugIndex {
+        private final Comparator<BugInstance> comparator;
+
+        private final VersionInsensitiveBugComparator hashingComparator;
+
+        private final TreeMap<BugInstance, LinkedList<BugInstance>> sorted;
+
+        private final HashMap<Integer, List<EqualBugs>> hashed;
+
+        /**
+         * Old BugInstances equal to the first one added
+         */
+        private static class EqualBugs {
+            final BugInstance representative;
+
+            final LinkedList<BugInstance> bugs = new LinkedList<BugInstance>();
+
+            EqualBugs(BugInstance representative) {
+                this.representative = representative;
+            }
+        }
+
+        OldBugIndex(Comparator<BugInstance> comparator, boolean useHashing) {
+            this.comparator = comparator;
+            if (useHashing && comparator instanceof VersionInsensitiveBugComparator) {
+                hashingComparator = (VersionInsensitiveBugComparator) comparator;
+                sorted = null;
+                hashed = new HashMap<Integer, List<EqualBugs>>();
+            } else {
+                hashingComparator = null;
+                sorted = new TreeMap<BugInstance, LinkedList<BugInstance>>(comparator);
+                hashed = null;
+            }
+        }
+
+        void add(BugInstance bug) {
+            if (sorted != null) {
+                LinkedList<BugInstance> q = sorted.get(bug);
+                if (q == null) {
+                    q = new LinkedList<BugInstance>();
+                    sorted.put(bug, q);
+                }
+                q.add(bug);
+                return;
+            }
+            Integer hash = hashingComparator.bugHashCode(bug);
+            List<EqualBugs> bucket = hashed.get(hash);
+            if (bucket == null) {
+                bucket = new ArrayList<EqualBugs>(1);
+                hashed.put(hash, bucket);
+            }
+            EqualBugs equalBugs = find(bucket, bug);
+            if (equalBugs == null) {
+                equalBugs = new EqualBugs(bug);
+                bucket.add(equalBugs);
+            }
+            equalBugs.bugs.add(bug);
+        }
+
+        /**
+         * Get the old BugInstances, not matched yet, which are equal to a
+         * BugInstance.
+         *
+         * @return the BugInstances, in the order they were added, or null if
+         *         there are none
+         */
+        @CheckForNull
+        LinkedList<BugInstance> get(BugInstance bug) {
+            if (sorted != null) {
+                return sorted.get(bug);
+            }
+            List<EqualBugs> bucket = hashed.get(hashingComparator.bugHashCode(bug));
+            if (bucket == null) {
+                return null;
+            }
+            EqualBugs equalBugs = find(bucket, bug);
+            return equalBugs == null || equalBugs.bugs.isEmpty() ? null : equalBugs.bugs;
+        }
+
+        /**
+         * Note that all the old BugInstances equal to a BugInstance have been
+         * matched.
+         */
+        void remove(BugInstance bug) {
+            if (sorted != null) {
+                sorted.remove(bug);
+            }
+            // Emptied classes stay in their hash bucket, and are ignored by
+            // get()
+        }
+
+        @CheckForNull
+        private EqualBugs find(List<EqualBugs> bucket, BugInstance bug) {
+            for (EqualBugs equalBugs : bucket) {
+                if (comparator.compare(equalBugs.representative, bug) == 0) {
+                    return equalBugs;
+                }
+            }
+            return null;
+        }
+    }
+
     private void matchBugs(Comparator<BugInstance> bugInstanceComparator, BugCollection origCollection,
             BugCollection newCollection, MatchOldBugs matchOld) {
 
-        TreeMap<BugInstance, LinkedList<BugInstance>> set = new TreeMap<BugInstance, LinkedList<BugInstance>>(
-                bugInstanceComparator);
+        OldBugIndex set = new OldBugIndex(bugInstanceComparator, hashMatching);
         //        int oldBugs = 0;
         //        int newBugs = 0;
         //        int matchedBugs = 0;
@@ -613,12 +743,7 @@ public class Update {
             if (!matchedOldBugs.containsKey(bug)) {
                 if (matchOld.match(bug)) {
                     //                    oldBugs++;
-                    LinkedList<BugInstance> q = set.get(bug);
-                    if (q == null) {
-                        q = new LinkedList<BugInstance>();
-                        set.put(bug, q);
-                    }
-                    q.add(bug);
+                    set.add(bug);
                 }
 
             }
@@ -0,0 +1,115 @@
+package edu.umd.cs.findbugs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import junit.framework.TestCase;
+import edu.umd.cs.findbugs.charsets.UTF8;
+
+public class BinaryBugCollectionTest extends TestCase {
+
+    private static final String[] TYPES = { "NP_NULL_ON_SOME_PATH", "MS_MUTABLE_ARRAY", "DLS_DEAD_LOCAL_STORE" };
+
+    private SortedBugCollection bugCollection;
+
+    @Override
+    protected void setUp() throws Exception {
+        bugCollection = new SortedBugCollection();
+        bugCollection.getProject().addFile("/tmp/app.jar");
+        bugCollection.setReleaseName("1.0");
+        for (int i = 0; i < 30; i++) {
+            String className = "com.example.C" + (i % 7);
+            BugInstance bug = new BugInstance(TYPES[i % TYPES.length], Priorities.NORMAL_PRIORITY + i % 2);
+            bug.addClass(className, "C" + (i % 7) + ".java");
+            bug.addField(className, "f" + i, "[Ljava/lang/String;", i % 3 == 0);
+            bug.addString("text <with> & \"markup\" é中 " + i);
+            bug.setProperty("P", Integer.toString(i));
+            bugCollection.add(bug);
+        }
+        bugCollection.addError("Something failed");
+        bugCollection.addMissingClass("com.example.Missing");
+    }
+
+    private static String toXML(SortedBugCollection collection) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        collection.writeXML(out);
+        // Ignore the time and memory used by this JVM, which are computed
+        // when the collection is written
+        return new String(out.toByteArray(), UTF8.charset)
+                .replaceAll(" (cpu_seconds|clock_seconds|peak_mbytes|alloc_mbytes|gc_seconds)=\"[^\"]*\"", "")
+                .replaceAll("(?s)<FindBugsProfile>.*</FindBugsProfile>", "");
+    }
+
+    private byte[] toBinary() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryBugCollection.write(bugCollection, out);
+        return out.toByteArray();
+    }
+
+    public void testReadBinaryAsXML() throws Exception {
+        // Read the collection back from XML, so that it has the statistics
+        // saved with it rather than ones computed when writing
+        SortedBugCollection fromXML = new SortedBugCollection();
+        fromXML.readXML(new ByteArrayInputStream(toXML(bugCollection).getBytes(UTF8.charset)));
+        bugCollection = fromXML;
+
+        byte[] binary = toBinary();
+        assertTrue(BinaryBugCollection.isBinary(new ByteArrayInputStream(binary)));
+        SortedBugCollection fromBinary = new SortedBugCollection();
+        fromBinary.readXML(new ByteArrayInputStream(binary));
+        assertEquals(toXML(fromXML), toXML(fromBinary));
+        assertEquals(30, fromBinary.getCollection().size());
+        assertEquals(1, fromBinary.getErrors().size());
+        assertEquals("1.0", fromBinary.getReleaseName());
+    }
+
+    public void testLazyAccess() throws Exception {
+        BinaryBugCollection binary = new BinaryBugCollection(ByteBuffer.wrap(toBinary()), "test");
+        assertEquals(30, binary.getBugCount());
+        assertEquals(0, binary.getBugCollection().getCollection().size());
+        assertEquals("1.0", binary.getBugCollection().getReleaseName());
+
+        int i = 0;
+        for (BugInstance expected : bugCollection.getCollection()) {
+            assertEquals(expected.getType(), binary.getBugType(i));
+            assertEquals(expected.getPrimaryClass().getClassName(), binary.getPrimaryClassName(i));
+            assertEquals(expected.getInstanceHash(), binary.getInstanceHash(i));
+            BugInstance bug = binary.getBug(i);
+            assertEquals(expected.getInstanceKey(), bug.getInstanceKey());
+            assertEquals(expected.getPriority(), bug.getPriority());
+            assertEquals(expected.getProperty("P"), bug.getProperty("P"));
+            i++;
+        }
+        assertEquals(30, binary.getBugs().size());
+
+        List<BugInstance> bugs = binary.getBugsOfType("MS_MUTABLE_ARRAY");
+        assertEquals(10, bugs.size());
+        for (BugInstance bug : bugs) {
+            assertEquals("MS_MUTABLE_ARRAY", bug.getType());
+        }
+        bugs = binary.getBugsInClass("com.example.C3");
+        assertEquals(4, bugs.size());
+        for (BugInstance bug : bugs) {
+            assertEquals("com.example.C3", bug.getPrimaryClass().getClassName());
+        }
+        BugInstance first = binary.getBug(0);
+        bugs = binary.getBugsWithInstanceHash(first.getInstanceHash());
+        assertEquals(1, bugs.size());
+        assertEquals(first.getInstanceKey(), bugs.get(0).getInstanceKey());
+        assertTrue(binary.getBugsOfType("NO_SUCH_TYPE").isEmpty());
+    }
+
+    public void testNotBinary() throws Exception {
+        byte[] xml = toXML(bugCollection).getBytes(UTF8.charset);
+        assertFalse(BinaryBugCollection.isBinary(new ByteArrayInputStream(xml)));
+        try {
+            new BinaryBugCollection(ByteBuffer.wrap(xml), "test");
+            fail();
+        } catch (IOException e) {
+            assert true;
+        }
+    }
+}
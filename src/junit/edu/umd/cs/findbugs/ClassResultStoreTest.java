@@ -0,0 +1,112 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs;
+
+import static edu.umd.cs.findbugs.ThreadStartingClasses.createTempDir;
+import static edu.umd.cs.findbugs.ThreadStartingClasses.delete;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import edu.umd.cs.findbugs.config.UserPreferences;
+
+public class ClassResultStoreTest extends TestCase {
+
+    private File classDir;
+
+    private File storeDir;
+
+    private long storeHits;
+
+    @Override
+    protected void setUp() throws Exception {
+        classDir = createTempDir("classes");
+        storeDir = createTempDir("store");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(classDir);
+        delete(storeDir);
+    }
+
+    public void testRoundTrip() throws Exception {
+        writeClass("Base", "java/lang/Object", false);
+        BugInstance analyzed = getStartInConstructor(analyze());
+        assertEquals(0, storeHits);
+
+        BugInstance stored = getStartInConstructor(analyze());
+        assertEquals(1, storeHits);
+        assertEquals(analyzed.getInstanceKey(), stored.getInstanceKey());
+        assertEquals(analyzed.getPriority(), stored.getPriority());
+        assertEquals(analyzed.getPrimarySourceLineAnnotation().toString(), stored.getPrimarySourceLineAnnotation().toString());
+        assertEquals("StartInConstructor", stored.getDetectorFactory().getShortName());
+    }
+
+    public void testChangedClass() throws Exception {
+        writeClass("Base", "java/lang/Object", false);
+        analyze();
+        writeClass("Base", "java/lang/Object", true);
+        getStartInConstructor(analyze());
+        assertEquals(0, storeHits);
+    }
+
+    public void testNewSubclass() throws Exception {
+        writeClass("Base", "java/lang/Object", false);
+        assertEquals(Priorities.NORMAL_PRIORITY, getStartInConstructor(analyze()).getPriority());
+
+        // The warning is raised, and names the subclass, once there is one
+        writeClass("Sub", "Base", false);
+        BugInstance bug = getStartInConstructor(analyze());
+        assertEquals(Priorities.HIGH_PRIORITY, bug.getPriority());
+        assertEquals("Sub", bug.getAnnotationWithRole(ClassAnnotation.class, ClassAnnotation.SUBCLASS_ROLE).getClassName());
+
+        // Base is stored along with its subclass now
+        bug = getStartInConstructor(analyze());
+        assertEquals(2, storeHits);
+        assertEquals(Priorities.HIGH_PRIORITY, bug.getPriority());
+    }
+
+    private SortedBugCollection analyze() throws IOException, InterruptedException {
+        Project project = new Project();
+        project.addFile(classDir.getAbsolutePath());
+        FindBugs2 engine = new FindBugs2();
+        engine.setProject(project);
+        engine.setDetectorFactoryCollection(DetectorFactoryCollection.instance());
+        BugCollectionBugReporter bugReporter = new BugCollectionBugReporter(project);
+        bugReporter.setPriorityThreshold(Priorities.LOW_PRIORITY);
+        engine.setBugReporter(bugReporter);
+        engine.setUserPreferences(UserPreferences.createDefaultUserPreferences());
+        engine.setResultStore(storeDir);
+        engine.execute();
+        storeHits = bugReporter.getProjectStats().getProfiler().getCacheProfile(ClassResultStore.class).getHits();
+        return (SortedBugCollection) bugReporter.getBugCollection();
+    }
+
+    private static BugInstance getStartInConstructor(SortedBugCollection bugCollection) {
+        return ThreadStartingClasses.getStartInConstructor(bugCollection, "Base");
+    }
+
+    private void writeClass(String name, String superName, boolean withField) throws IOException {
+        ThreadStartingClasses.writeClass(classDir, name, superName, withField);
+    }
+}
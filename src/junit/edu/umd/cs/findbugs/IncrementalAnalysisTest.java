@@ -0,0 +1,122 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs;
+
+import static edu.umd.cs.findbugs.ThreadStartingClasses.createTempDir;
+import static edu.umd.cs.findbugs.ThreadStartingClasses.delete;
+import static edu.umd.cs.findbugs.ThreadStartingClasses.findStartInConstructor;
+import static edu.umd.cs.findbugs.ThreadStartingClasses.getStartInConstructor;
+import static edu.umd.cs.findbugs.ThreadStartingClasses.writeClass;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import edu.umd.cs.findbugs.config.UserPreferences;
+import edu.umd.cs.findbugs.detect.FindNullDeref;
+import edu.umd.cs.findbugs.detect.FindSelfComparison;
+import edu.umd.cs.findbugs.detect.Naming;
+import edu.umd.cs.findbugs.detect.UnreadFields;
+
+public class IncrementalAnalysisTest extends TestCase {
+
+    private File classDir;
+
+    private File previousResults;
+
+    @Override
+    protected void setUp() throws Exception {
+        classDir = createTempDir("classes");
+        previousResults = File.createTempFile("previous", ".xml");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(classDir);
+        previousResults.delete();
+    }
+
+    public void testDetectorsReportingAtEndOfPass() {
+        assertTrue(IncrementalAnalysis.isWorkDoneAtEndOfPass(UnreadFields.class));
+        assertTrue(IncrementalAnalysis.isWorkDoneAtEndOfPass(Naming.class));
+    }
+
+    public void testDetectorsReportingWhileVisitingClasses() {
+        assertFalse(IncrementalAnalysis.isWorkDoneAtEndOfPass(FindNullDeref.class));
+        assertFalse(IncrementalAnalysis.isWorkDoneAtEndOfPass(FindSelfComparison.class));
+    }
+
+    public void testNewSubclassAffectsSuperclass() throws Exception {
+        writeClass(classDir, "Base", "java/lang/Object", false);
+        SortedBugCollection bugs = analyze(null);
+        assertEquals(Priorities.NORMAL_PRIORITY, getStartInConstructor(bugs, "Base").getPriority());
+        bugs.writeXML(previousResults.getPath());
+
+        writeClass(classDir, "Sub", "Base", false);
+        bugs = analyze(Collections.singleton("Sub.class"));
+        assertEquals(Priorities.HIGH_PRIORITY, getStartInConstructor(bugs, "Base").getPriority());
+    }
+
+    public void testRemovedSubclassAffectsSuperclass() throws Exception {
+        writeClass(classDir, "Base", "java/lang/Object", false);
+        writeClass(classDir, "Sub", "Base", false);
+        SortedBugCollection bugs = analyze(null);
+        assertEquals(Priorities.HIGH_PRIORITY, getStartInConstructor(bugs, "Base").getPriority());
+        bugs.writeXML(previousResults.getPath());
+
+        assertTrue(new File(classDir, "Sub.class").delete());
+        bugs = analyze(Collections.singleton("Sub.class"));
+        assertEquals(Priorities.NORMAL_PRIORITY, getStartInConstructor(bugs, "Base").getPriority());
+    }
+
+    public void testUnrelatedClassNotAffected() throws Exception {
+        writeClass(classDir, "Base", "java/lang/Object", false);
+        writeClass(classDir, "Other", "java/lang/Object", false);
+        SortedBugCollection bugs = analyze(null);
+        getStartInConstructor(bugs, "Base");
+
+        // The warnings of the classes not affected are the previous ones
+        bugs.remove(getStartInConstructor(bugs, "Other"));
+        bugs.writeXML(previousResults.getPath());
+
+        writeClass(classDir, "Base", "java/lang/Object", true);
+        bugs = analyze(Collections.singleton("Base.class"));
+        getStartInConstructor(bugs, "Base");
+        assertNull(findStartInConstructor(bugs, "Other"));
+    }
+
+    private SortedBugCollection analyze(Collection<String> changedFiles) throws Exception {
+        Project project = new Project();
+        project.addFile(classDir.getAbsolutePath());
+        FindBugs2 engine = new FindBugs2();
+        engine.setProject(project);
+        engine.setDetectorFactoryCollection(DetectorFactoryCollection.instance());
+        BugCollectionBugReporter bugReporter = new BugCollectionBugReporter(project);
+        bugReporter.setPriorityThreshold(Priorities.LOW_PRIORITY);
+        engine.setBugReporter(bugReporter);
+        engine.setUserPreferences(UserPreferences.createDefaultUserPreferences());
+        if (changedFiles != null) {
+            engine.setIncrementalAnalysis(previousResults.getPath(), changedFiles);
+        }
+        engine.execute();
+        return (SortedBugCollection) bugReporter.getBugCollection();
+    }
+}
@@ -0,0 +1,66 @@
+package edu.umd.cs.findbugs;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import edu.umd.cs.findbugs.OpcodeStack.Item;
+import edu.umd.cs.findbugs.OpcodeStack.JumpInfo;
+import edu.umd.cs.findbugs.bcel.OpcodeStackDetector;
+import edu.umd.cs.findbugs.detect.CrossSiteScripting;
+
+public class OpcodeStackStateTraceTest extends TestCase {
+
+    static class PlainDetector extends OpcodeStackDetector {
+        @Override
+        public void sawOpcode(int seen) {
+        }
+    }
+
+    @OpcodeStack.CustomUserValue
+    static class UserValueDetector extends PlainDetector {
+    }
+
+    @OpcodeStack.ModifiesStack
+    static class ModifyingDetector extends PlainDetector {
+    }
+
+    static class JumpInfoDetector extends OpcodeStackDetector.WithCustomJumpInfo {
+        @Override
+        public JumpInfo customJumpInfo() {
+            return null;
+        }
+
+        @Override
+        public void sawOpcode(int seen) {
+        }
+    }
+
+    public void testDetectorsUsingSharedStates() {
+        assertTrue(new PlainDetector().isUsingSharedStates());
+        assertFalse(new UserValueDetector().isUsingSharedStates());
+        assertFalse(new ModifyingDetector().isUsingSharedStates());
+        assertFalse(new JumpInfoDetector().isUsingSharedStates());
+        assertTrue(CrossSiteScripting.class.isAnnotationPresent(OpcodeStack.ModifiesStack.class));
+    }
+
+    public void testJumpTargets() {
+        List<Item> empty = Collections.emptyList();
+        List<Integer> noUpdates = Collections.emptyList();
+        int[] jumpTargetSince = { Integer.MAX_VALUE, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, 1 };
+        OpcodeStack.StateTrace trace = new OpcodeStack.StateTrace(null, new int[] { 0, 2 }, Collections.nCopies(2, empty),
+                Collections.nCopies(2, empty), Collections.nCopies(2, noUpdates), new BitSet(), new BitSet(), jumpTargetSince,
+                100);
+        assertEquals(2, trace.getNumStates());
+        assertEquals(100, trace.getEstimatedSize());
+
+        assertTrue(trace.isJumpTarget(2, 0));
+        // Found to be a jump target while scanning the second instruction
+        assertFalse(trace.isJumpTarget(4, 0));
+        assertTrue(trace.isJumpTarget(4, 1));
+        assertFalse(trace.isJumpTarget(1, 1));
+        assertFalse(trace.isJumpTarget(-1, 1));
+        assertFalse(trace.isJumpTarget(10, 1));
+    }
+}
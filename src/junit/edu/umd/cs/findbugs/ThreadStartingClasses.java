@@ -0,0 +1,118 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import junit.framework.Assert;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Class files for the tests of the engine: the constructors of the classes
+ * not extending Base start a thread, which StartInConstructor reports with a
+ * high priority once the class has a subclass.
+ */
+class ThreadStartingClasses {
+
+    private ThreadStartingClasses() {
+    }
+
+    /**
+     * Write a public class whose constructor starts a thread, unless it
+     * extends Base.
+     */
+    static void writeClass(File classDir, String name, String superName, boolean withField) throws IOException {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, superName, null);
+        if (withField) {
+            cw.visitField(Opcodes.ACC_PUBLIC, "field", "I", null, null).visitEnd();
+        }
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+        if (!"Base".equals(superName)) {
+            mv.visitTypeInsn(Opcodes.NEW, "java/lang/Thread");
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Thread", "<init>", "()V", false);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Thread", "start", "()V", false);
+            // Not the last instruction, or the warning has a low priority
+            mv.visitInsn(Opcodes.ACONST_NULL);
+            mv.visitInsn(Opcodes.POP);
+            mv.visitInsn(Opcodes.ACONST_NULL);
+            mv.visitInsn(Opcodes.POP);
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        OutputStream out = new FileOutputStream(new File(classDir, name + ".class"));
+        try {
+            out.write(cw.toByteArray());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Return the SC_START_IN_CTOR warning reported in the given class, or
+     * null if there is none.
+     */
+    static BugInstance findStartInConstructor(SortedBugCollection bugCollection, String className) {
+        for (BugInstance bug : bugCollection) {
+            if ("SC_START_IN_CTOR".equals(bug.getType()) && className.equals(bug.getPrimaryClass().getClassName())) {
+                return bug;
+            }
+        }
+        return null;
+    }
+
+    static BugInstance getStartInConstructor(SortedBugCollection bugCollection, String className) {
+        BugInstance bug = findStartInConstructor(bugCollection, className);
+        if (bug == null) {
+            Assert.fail("SC_START_IN_CTOR not reported in " + bugCollection.getCollection());
+        }
+        return bug;
+    }
+
+    static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, null);
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Could not create temp dir");
+        }
+        return dir;
+    }
+
+    static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+}
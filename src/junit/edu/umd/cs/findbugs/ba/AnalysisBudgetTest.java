@@ -0,0 +1,206 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.ba;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import edu.umd.cs.findbugs.BugCollectionBugReporter;
+import edu.umd.cs.findbugs.Project;
+import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
+import edu.umd.cs.findbugs.classfile.DescriptorFactory;
+import edu.umd.cs.findbugs.classfile.Global;
+import edu.umd.cs.findbugs.classfile.IClassFactory;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+import edu.umd.cs.findbugs.classfile.IMethodAnalysisEngine;
+import edu.umd.cs.findbugs.classfile.MethodDescriptor;
+import edu.umd.cs.findbugs.classfile.impl.ClassFactory;
+
+public class AnalysisBudgetTest extends TestCase {
+
+    private static final long BUDGET_MILLIS = 100;
+
+    private final MethodDescriptor caller = DescriptorFactory.instance().getMethodDescriptor("Test", "caller", "()V", false);
+
+    private final MethodDescriptor callee = DescriptorFactory.instance().getMethodDescriptor("Test", "callee", "()V", false);
+
+    @Override
+    protected void setUp() throws Exception {
+        // Needed by MethodUnprofitableException
+        Project project = new Project();
+        IClassFactory classFactory = ClassFactory.instance();
+        Global.setAnalysisCacheForCurrentThread(classFactory.createAnalysisCache(classFactory.createClassPath(),
+                new BugCollectionBugReporter(project)));
+        AnalysisContext.setCurrentAnalysisContext(new AnalysisContext(project));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        AnalysisContext.removeCurrentAnalysisContext();
+        Global.removeAnalysisCacheForCurrentThread();
+    }
+
+    /**
+     * Engine spending the given time on its analysis, after computing the
+     * analysis of another method if there is one
+     */
+    private static class SlowEngine implements IMethodAnalysisEngine<String> {
+        private final AnalysisBudget budget;
+
+        private final long millis;
+
+        private final MethodDescriptor nested;
+
+        SlowEngine(AnalysisBudget budget, long millis, MethodDescriptor nested) {
+            this.budget = budget;
+            this.millis = millis;
+            this.nested = nested;
+        }
+
+        @Override
+        public String analyze(IAnalysisCache analysisCache, MethodDescriptor descriptor) throws CheckedAnalysisException {
+            if (nested != null) {
+                budget.analyze(analysisCache, new SlowEngine(budget, millis, null), CFG.class, nested);
+            }
+            sleep(millis);
+            return descriptor.getName();
+        }
+
+        @Override
+        public void registerWith(IAnalysisCache analysisCache) {
+        }
+    }
+
+    private static void sleep(long millis) {
+        long end = System.nanoTime() + TimeUnit.NANOSECONDS.convert(millis, TimeUnit.MILLISECONDS);
+        for (long now; (now = System.nanoTime()) < end;) {
+            try {
+                Thread.sleep(TimeUnit.MILLISECONDS.convert(end - now, TimeUnit.NANOSECONDS) + 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static AnalysisBudget budget(long methodMillis, long runMillis) {
+        return new AnalysisBudget(TimeUnit.NANOSECONDS.convert(methodMillis, TimeUnit.MILLISECONDS),
+                TimeUnit.NANOSECONDS.convert(runMillis, TimeUnit.MILLISECONDS));
+    }
+
+    public void testExhaustion() throws Exception {
+        AnalysisBudget budget = budget(BUDGET_MILLIS, 0);
+        assertEquals("caller", budget.analyze(null, new SlowEngine(budget, 0, null), CFG.class, caller));
+        assertFalse(budget.isExhausted(caller));
+
+        budget.analyze(null, new SlowEngine(budget, 2 * BUDGET_MILLIS, null), CFG.class, caller);
+        assertTrue(budget.isExhausted(caller));
+        assertTrue(budget.getExhaustedMethods().contains(caller));
+        assertFalse(budget.isExhausted(callee));
+
+        // Dataflow analyses are skipped, the others still computed
+        try {
+            budget.analyze(null, new SlowEngine(budget, 0, null), Dataflow.class, caller);
+            fail("the budget is exhausted");
+        } catch (MethodUnprofitableException e) {
+            assertEquals(caller, e.getMethod().getMethodDescriptor());
+        }
+        assertEquals("caller", budget.analyze(null, new SlowEngine(budget, 0, null), CFG.class, caller));
+        assertEquals("callee", budget.analyze(null, new SlowEngine(budget, 0, null), Dataflow.class, callee));
+    }
+
+    public void testNestedAnalysisChargedToItsMethod() throws Exception {
+        AnalysisBudget budget = budget(BUDGET_MILLIS, 0);
+        budget.analyze(null, new SlowEngine(budget, 2 * BUDGET_MILLIS, null), CFG.class, callee);
+        assertTrue(budget.isExhausted(callee));
+
+        // The caller computes the analysis of the callee, and both take the
+        // better part of the budget
+        budget = budget(BUDGET_MILLIS, 0);
+        budget.analyze(null, new SlowEngine(budget, 3 * BUDGET_MILLIS / 5, callee), CFG.class, caller);
+        assertFalse(budget.isExhausted(caller));
+        assertFalse(budget.isExhausted(callee));
+    }
+
+    public void testExhaustedWhileRunning() throws Exception {
+        final AnalysisBudget budget = budget(BUDGET_MILLIS, 0);
+        IMethodAnalysisEngine<String> dataflowEngine = new SlowEngine(budget, 0, null) {
+            @Override
+            public String analyze(IAnalysisCache analysisCache, MethodDescriptor descriptor) throws CheckedAnalysisException {
+                // Computes the callee's analysis, then iterates until its own
+                // budget is exhausted, as Dataflow does
+                budget.analyze(analysisCache, new SlowEngine(budget, 2 * BUDGET_MILLIS, null), CFG.class, callee);
+                assertFalse(budget.isExhausted(descriptor));
+                while (!budget.isExhausted(descriptor)) {
+                    sleep(BUDGET_MILLIS / 5);
+                }
+                throw new DataflowAnalysisException("Analysis budget exhausted");
+            }
+        };
+        try {
+            budget.analyze(null, dataflowEngine, Dataflow.class, caller);
+            fail("the budget is exhausted");
+        } catch (MethodUnprofitableException e) {
+            assertEquals(caller, e.getMethod().getMethodDescriptor());
+        }
+        assertTrue(budget.isExhausted(callee));
+    }
+
+    public void testDataflowFailure() throws Exception {
+        AnalysisBudget budget = budget(BUDGET_MILLIS, 0);
+        IMethodAnalysisEngine<String> failingEngine = new SlowEngine(budget, 0, null) {
+            @Override
+            public String analyze(IAnalysisCache analysisCache, MethodDescriptor descriptor) throws CheckedAnalysisException {
+                throw new DataflowAnalysisException("Too many iterations");
+            }
+        };
+        try {
+            budget.analyze(null, failingEngine, Dataflow.class, caller);
+            fail();
+        } catch (MethodUnprofitableException e) {
+            fail("the budget is not exhausted");
+        } catch (DataflowAnalysisException e) {
+            assertEquals("Too many iterations", e.getMessage());
+        }
+    }
+
+    public void testRunBudget() throws Exception {
+        AnalysisBudget budget = budget(10 * BUDGET_MILLIS, 1);
+        sleep(2);
+        assertTrue(budget.isRunExhausted());
+        assertTrue(budget.skipClass(false));
+        assertFalse(budget.skipClass(true));
+        assertTrue(budget.skipClass(false));
+        assertEquals(2, budget.getSkippedClasses());
+
+        // Methods only get a tenth of their budget
+        budget.analyze(null, new SlowEngine(budget, 2 * BUDGET_MILLIS, null), CFG.class, caller);
+        assertTrue(budget.isExhausted(caller));
+    }
+
+    public void testNoRunBudget() throws Exception {
+        AnalysisBudget budget = budget(BUDGET_MILLIS, 0);
+        sleep(2);
+        assertFalse(budget.isRunExhausted());
+        assertFalse(budget.skipClass(false));
+        assertEquals(0, budget.getSkippedClasses());
+    }
+}
@@ -0,0 +1,72 @@
+package edu.umd.cs.findbugs.ba;
+
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.apache.bcel.generic.BranchHandle;
+import org.apache.bcel.generic.GOTO;
+import org.apache.bcel.generic.ICONST;
+import org.apache.bcel.generic.IRETURN;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+
+public class CompactCFGTest extends TestCase {
+
+    private CFG cfg;
+
+    private BasicBlock body;
+
+    @Override
+    protected void setUp() throws Exception {
+        InstructionList il = new InstructionList();
+        InstructionHandle iconst = il.append(new ICONST(1));
+        BranchHandle jump = il.append(new GOTO(null));
+        InstructionHandle iret = il.append(new IRETURN());
+        jump.setTarget(iret);
+        il.setPositions();
+
+        cfg = new CFG();
+        body = cfg.allocate();
+        body.addInstruction(iconst);
+        body.addInstruction(jump);
+        BasicBlock ret = cfg.allocate();
+        ret.addInstruction(iret);
+        cfg.createEdge(cfg.getEntry(), body, EdgeTypes.START_EDGE);
+        cfg.createEdge(body, ret, EdgeTypes.GOTO_EDGE);
+        cfg.createEdge(body, cfg.getExit(), EdgeTypes.UNHANDLED_EXCEPTION_EDGE);
+        cfg.createEdge(ret, cfg.getExit(), EdgeTypes.RETURN_EDGE);
+    }
+
+    public void testEdges() {
+        CompactCFG compactCFG = new CompactCFG(cfg);
+        for (Iterator<BasicBlock> i = cfg.blockIterator(); i.hasNext();) {
+            BasicBlock block = i.next();
+            int label = block.getLabel();
+            assertSame(block, compactCFG.getBlock(label));
+
+            assertEquals(cfg.getNumOutgoingEdges(block), compactCFG.getNumOutgoingEdges(label));
+            int k = 0;
+            for (Iterator<Edge> j = cfg.outgoingEdgeIterator(block); j.hasNext();) {
+                assertSame(j.next(), compactCFG.getOutgoingEdge(label, k++));
+            }
+
+            assertEquals(cfg.getNumIncomingEdges(block), compactCFG.getNumIncomingEdges(label));
+            k = 0;
+            for (Iterator<Edge> j = cfg.incomingEdgeIterator(block); j.hasNext();) {
+                assertSame(j.next(), compactCFG.getIncomingEdge(label, k++));
+            }
+        }
+        assertEquals(2, compactCFG.getNumOutgoingEdges(body.getLabel()));
+        assertEquals(2, compactCFG.getNumIncomingEdges(cfg.getExit().getLabel()));
+    }
+
+    public void testModifiedCFG() {
+        cfg.removeEdge(cfg.lookupEdge(body, cfg.getExit()));
+        cfg.allocate();
+        CompactCFG compactCFG = new CompactCFG(cfg);
+        assertEquals(1, compactCFG.getNumOutgoingEdges(body.getLabel()));
+        assertEquals(1, compactCFG.getNumIncomingEdges(cfg.getExit().getLabel()));
+        assertEquals(cfg.getNumVertexLabels(), compactCFG.getNumBlockLabels());
+    }
+}
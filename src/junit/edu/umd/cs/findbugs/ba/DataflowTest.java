@@ -0,0 +1,303 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.ba;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+
+import junit.framework.TestCase;
+
+import org.apache.bcel.generic.InstructionHandle;
+
+import edu.umd.cs.findbugs.SystemProperties;
+
+public class DataflowTest extends TestCase {
+
+    private CFG cfg;
+
+    private BasicBlock a, b, c, d;
+
+    /**
+     * Forward analysis computing the blocks on the paths from the entry, and
+     * recording the blocks it transfers
+     */
+    static class ReachingBlocks extends BasicAbstractDataflowAnalysis<BitSet> {
+        private final DepthFirstSearch dfs;
+
+        final List<BasicBlock> transfers = new ArrayList<BasicBlock>();
+
+        /** Number of transfers when each iteration started */
+        final List<Integer> iterationStarts = new ArrayList<Integer>();
+
+        /** Distinct facts passed to meetInto() */
+        final Set<BitSet> meetFacts = Collections.newSetFromMap(new IdentityHashMap<BitSet, Boolean>());
+
+        boolean allowsFactReuse;
+
+        ReachingBlocks(DepthFirstSearch dfs) {
+            this.dfs = dfs;
+        }
+
+        @Override
+        public boolean allowsFactReuse() {
+            return allowsFactReuse;
+        }
+
+        @Override
+        public BitSet createFact() {
+            BitSet fact = new BitSet();
+            makeFactTop(fact);
+            return fact;
+        }
+
+        @Override
+        public void copy(BitSet source, BitSet dest) {
+            dest.clear();
+            dest.or(source);
+        }
+
+        @Override
+        public void initEntryFact(BitSet result) {
+            result.clear();
+        }
+
+        @Override
+        public void makeFactTop(BitSet fact) {
+            fact.clear();
+            fact.set(0);
+        }
+
+        @Override
+        public boolean isTop(BitSet fact) {
+            return fact.get(0);
+        }
+
+        @Override
+        public boolean isForwards() {
+            return true;
+        }
+
+        @Override
+        public BlockOrder getBlockOrder(CFG cfg) {
+            return new ReversePostOrder(cfg, dfs);
+        }
+
+        @Override
+        public boolean same(BitSet fact1, BitSet fact2) {
+            return fact1.equals(fact2);
+        }
+
+        @Override
+        public void meetInto(BitSet fact, Edge edge, BitSet result) {
+            meetFacts.add(fact);
+            if (isTop(fact)) {
+                return;
+            }
+            if (isTop(result)) {
+                copy(fact, result);
+            } else {
+                result.or(fact);
+            }
+        }
+
+        @Override
+        public void transfer(BasicBlock basicBlock, @CheckForNull InstructionHandle end, BitSet start, BitSet result) {
+            transfers.add(basicBlock);
+            copy(start, result);
+            if (!isTop(result)) {
+                result.set(basicBlock.getLabel() + 1);
+            }
+        }
+
+        @Override
+        public void startIteration() {
+            iterationStarts.add(transfers.size());
+        }
+    }
+
+    /**
+     * Analysis counting the blocks on the longest path from the entry, which
+     * never converges if there is a loop
+     */
+    static class PathLength extends ReachingBlocks {
+        PathLength(DepthFirstSearch dfs) {
+            super(dfs);
+        }
+
+        @Override
+        public void meetInto(BitSet fact, Edge edge, BitSet result) {
+            if (isTop(result) || fact.length() > result.length()) {
+                copy(fact, result);
+            }
+        }
+
+        @Override
+        public void transfer(BasicBlock basicBlock, @CheckForNull InstructionHandle end, BitSet start, BitSet result) {
+            copy(start, result);
+            if (!isTop(result)) {
+                result.set(Math.max(1, result.length()));
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        // entry -> a -> b <-> c, b -> d -> exit
+        cfg = new CFG();
+        a = cfg.allocate();
+        d = cfg.allocate();
+        c = cfg.allocate();
+        b = cfg.allocate();
+        cfg.createEdge(cfg.getEntry(), a, EdgeTypes.START_EDGE);
+        cfg.createEdge(a, b, EdgeTypes.FALL_THROUGH_EDGE);
+        cfg.createEdge(b, c, EdgeTypes.FALL_THROUGH_EDGE);
+        cfg.createEdge(c, b, EdgeTypes.GOTO_EDGE);
+        cfg.createEdge(b, d, EdgeTypes.IFCMP_EDGE);
+        cfg.createEdge(d, cfg.getExit(), EdgeTypes.RETURN_EDGE);
+        Dataflow.setWorklistSolver(ReachingBlocks.class, true);
+        Dataflow.setWorklistSolver(PathLength.class, true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Dataflow.setWorklistSolver(ReachingBlocks.class, false);
+        Dataflow.setWorklistSolver(PathLength.class, false);
+    }
+
+    private DepthFirstSearch search() {
+        DepthFirstSearch dfs = new DepthFirstSearch(cfg);
+        dfs.search();
+        return dfs;
+    }
+
+    private ReachingBlocks execute(boolean worklist) throws DataflowAnalysisException {
+        return execute(worklist, false);
+    }
+
+    private ReachingBlocks execute(boolean worklist, boolean allowsFactReuse) throws DataflowAnalysisException {
+        Dataflow.setWorklistSolver(ReachingBlocks.class, worklist);
+        ReachingBlocks analysis = new ReachingBlocks(search());
+        analysis.allowsFactReuse = allowsFactReuse;
+        new Dataflow<BitSet, ReachingBlocks>(cfg, analysis).execute();
+        return analysis;
+    }
+
+    private void assertSameResults(ReachingBlocks expected, ReachingBlocks actual) {
+        for (Iterator<BasicBlock> i = cfg.blockIterator(); i.hasNext();) {
+            BasicBlock block = i.next();
+            assertEquals(expected.getStartFact(block), actual.getStartFact(block));
+            assertEquals(expected.getResultFact(block), actual.getResultFact(block));
+        }
+    }
+
+    private static BitSet blocks(BasicBlock... blocks) {
+        BitSet result = new BitSet();
+        for (BasicBlock block : blocks) {
+            result.set(block.getLabel() + 1);
+        }
+        return result;
+    }
+
+    public void testConvergence() throws Exception {
+        ReachingBlocks analysis = execute(true);
+        BasicBlock entry = cfg.getEntry();
+        assertEquals(blocks(entry, a), analysis.getResultFact(a));
+        assertEquals(blocks(entry, a, b, c), analysis.getStartFact(b));
+        assertEquals(blocks(entry, a, b, c), analysis.getResultFact(c));
+        assertEquals(blocks(entry, a, b, c, d), analysis.getResultFact(d));
+        assertEquals(blocks(entry, a, b, c, d, cfg.getExit()), analysis.getResultFact(cfg.getExit()));
+    }
+
+    public void testSameResultsAsSweep() throws Exception {
+        assertSameResults(execute(false), execute(true));
+    }
+
+    public void testFactReuse() throws Exception {
+        for (boolean worklist : new boolean[] { false, true }) {
+            ReachingBlocks analysis = execute(worklist, false);
+            assertTrue(analysis.meetFacts.size() > 1);
+
+            // A single edge fact, with the same results
+            ReachingBlocks reusing = execute(worklist, true);
+            assertEquals(1, reusing.meetFacts.size());
+            assertSameResults(analysis, reusing);
+        }
+    }
+
+    public void testComponentOrder() throws Exception {
+        ReachingBlocks analysis = execute(true);
+        List<BasicBlock> transfers = analysis.transfers.subList(0, analysis.iterationStarts.get(1));
+
+        // The loop is stable before the blocks after it are visited
+        int firstD = transfers.indexOf(d);
+        assertTrue(transfers.lastIndexOf(b) < firstD);
+        assertTrue(transfers.lastIndexOf(c) < firstD);
+        assertTrue(transfers.indexOf(a) < transfers.indexOf(b));
+
+        // Only the blocks of the loop are visited more than once
+        assertEquals(1, count(transfers, a));
+        assertEquals(1, count(transfers, d));
+        assertEquals(1, count(transfers, cfg.getExit()));
+        assertTrue(count(transfers, b) > 1);
+    }
+
+    public void testLastIterationVisitsEveryBlock() throws Exception {
+        ReachingBlocks analysis = execute(true);
+        assertEquals(2, analysis.iterationStarts.size());
+        List<BasicBlock> lastIteration = analysis.transfers.subList(analysis.iterationStarts.get(1),
+                analysis.transfers.size());
+        Set<BasicBlock> expected = new HashSet<BasicBlock>();
+        for (Iterator<BasicBlock> i = cfg.blockIterator(); i.hasNext();) {
+            expected.add(i.next());
+        }
+        assertEquals(cfg.getNumBasicBlocks(), lastIteration.size());
+        assertEquals(expected, new HashSet<BasicBlock>(lastIteration));
+    }
+
+    public void testTooManyIterations() throws Exception {
+        PathLength analysis = new PathLength(search());
+        Dataflow<BitSet, PathLength> dataflow = new Dataflow<BitSet, PathLength>(cfg, analysis);
+        try {
+            dataflow.execute();
+            fail("the analysis does not converge");
+        } catch (DataflowAnalysisException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Too many iterations"));
+        }
+        assertTrue(dataflow.getNumIterations() > SystemProperties.getInt("dataflow.maxiters", 97));
+    }
+
+    private static int count(List<BasicBlock> blocks, BasicBlock block) {
+        int count = 0;
+        for (BasicBlock other : blocks) {
+            if (other == block) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.ba;
+
+import junit.framework.TestCase;
+
+public class FrameTest extends TestCase {
+
+    private static class StringFrame extends Frame<String> {
+        StringFrame(int numLocals) {
+            super(numLocals);
+        }
+    }
+
+    private static StringFrame frame(String... values) {
+        StringFrame frame = new StringFrame(2);
+        frame.setValid();
+        frame.setValue(0, "l0");
+        frame.setValue(1, "l1");
+        for (String value : values) {
+            frame.pushValue(value);
+        }
+        return frame;
+    }
+
+    public void testCopiesAreIndependent() throws Exception {
+        StringFrame a = frame("s0", "s1");
+        StringFrame b = new StringFrame(2);
+        b.copyFrom(a);
+        assertTrue(b.sameAs(a));
+
+        b.setValue(0, "x");
+        b.pushValue("s2");
+        assertEquals("l0", a.getValue(0));
+        assertEquals(4, a.getNumSlots());
+        assertEquals("x", b.getValue(0));
+        assertEquals(5, b.getNumSlots());
+
+        assertEquals("s1", a.popValue());
+        a.pushValue("y");
+        assertEquals("s2", b.popValue());
+        assertEquals("s1", b.popValue());
+        assertEquals("y", a.getTopValue());
+    }
+
+    public void testCopyBackAndForth() throws Exception {
+        StringFrame a = frame("s0");
+        StringFrame b = frame();
+        for (int i = 0; i < 5; i++) {
+            b.copyFrom(a);
+            b.pushValue("b" + i);
+            a.copyFrom(b);
+            a.setValue(1, "a" + i);
+            assertEquals("b" + i, b.getTopValue());
+            assertEquals(i == 0 ? "l1" : "a" + (i - 1), b.getValue(1));
+            assertEquals("a" + i, a.getValue(1));
+        }
+        assertEquals(8, a.getNumSlots());
+        assertEquals("b4", a.getTopValue());
+        assertFalse(a.sameAs(b));
+    }
+
+    public void testClearStackOfCopy() throws Exception {
+        StringFrame a = frame("s0", "s1");
+        StringFrame b = new StringFrame(2);
+        b.copyFrom(a);
+        b.clearStack();
+        assertEquals(0, b.getStackDepth());
+        assertEquals(2, a.getStackDepth());
+        assertEquals("s1", a.getTopValue());
+        assertEquals(2, b.allSlots().size());
+        assertEquals(4, a.allSlots().size());
+    }
+
+    public void testGetValueOutOfRange() {
+        StringFrame a = frame("s0");
+        try {
+            a.getValue(3);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+}
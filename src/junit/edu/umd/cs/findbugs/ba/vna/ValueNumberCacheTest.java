@@ -0,0 +1,75 @@
+package edu.umd.cs.findbugs.ba.vna;
+
+import junit.framework.TestCase;
+
+import org.apache.bcel.generic.ICONST;
+import org.apache.bcel.generic.IINC;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+
+public class ValueNumberCacheTest extends TestCase {
+
+    private InstructionHandle first, second;
+
+    @Override
+    protected void setUp() throws Exception {
+        InstructionList il = new InstructionList();
+        first = il.append(new ICONST(0));
+        second = il.append(new IINC(1, 1));
+        il.setPositions();
+    }
+
+    public void testLookupWithReusedArray() {
+        ValueNumberFactory factory = new ValueNumberFactory();
+        ValueNumber a = factory.createFreshValue();
+        ValueNumber b = factory.createFreshValue();
+        ValueNumber[] output = { factory.createFreshValue() };
+
+        ValueNumberCache cache = new ValueNumberCache();
+        ValueNumber[] input = { a, b };
+        assertNull(cache.lookupOutputValues(second, input));
+        cache.addOutputValues(second, input, output);
+
+        // The cache copied the input values
+        input[1] = a;
+        assertNull(cache.lookupOutputValues(second, input));
+        assertSame(output, cache.lookupOutputValues(second, new ValueNumber[] { a, b }));
+        assertSame(output, cache.lookupOutputValues(new ValueNumberCache.Entry(second, new ValueNumber[] { a, b })));
+        assertNull(cache.lookupOutputValues(first, new ValueNumber[] { a, b }));
+    }
+
+    public void testManyEntries() {
+        ValueNumberFactory factory = new ValueNumberFactory();
+        ValueNumberCache cache = new ValueNumberCache();
+        ValueNumber[] values = new ValueNumber[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = factory.createFreshValue();
+            cache.addOutputValues(new ValueNumberCache.Entry(first, new ValueNumber[] { values[i] }),
+                    new ValueNumber[] { values[i] });
+        }
+        for (ValueNumber value : values) {
+            assertSame(value, cache.lookupOutputValues(first, new ValueNumber[] { value })[0]);
+            assertNull(cache.lookupOutputValues(second, new ValueNumber[] { value }));
+        }
+    }
+
+    public void testOverwrite() {
+        ValueNumberCache cache = new ValueNumberCache();
+        ValueNumber[] output = { ValueNumber.createValueNumber(1) };
+        cache.addOutputValues(first, new ValueNumber[0], output);
+        try {
+            cache.addOutputValues(first, new ValueNumber[0], output);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testInternedValueNumbers() {
+        assertSame(ValueNumber.createValueNumber(5, ValueNumber.PHI_NODE),
+                ValueNumber.createValueNumber(5, ValueNumber.PHI_NODE));
+        assertSame(ValueNumber.createValueNumber(10000), ValueNumber.createValueNumber(10000));
+        assertNotSame(ValueNumber.createValueNumber(5), ValueNumber.createValueNumber(5, ValueNumber.PHI_NODE));
+        assertEquals(ValueNumber.createValueNumber(1 << 20), ValueNumber.createValueNumber(1 << 20));
+    }
+}
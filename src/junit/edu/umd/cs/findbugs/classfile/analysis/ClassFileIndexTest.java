@@ -0,0 +1,62 @@
+package edu.umd.cs.findbugs.classfile.analysis;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import edu.umd.cs.findbugs.FindBugsTestCase;
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.DescriptorFactory;
+import edu.umd.cs.findbugs.classfile.IClassConstants;
+import edu.umd.cs.findbugs.classfile.InvalidClassFileFormatException;
+
+public class ClassFileIndexTest extends TestCase {
+
+    public void testHeader() throws Exception {
+        ClassFileIndex index = new ClassFileIndex(ByteBuffer.wrap(FindBugsTestCase.EMPTY_CLASS_DATA), null, null);
+        assertEquals(50, index.getMajorVersion());
+        assertEquals(0, index.getMinorVersion());
+        assertEquals(IClassConstants.CONSTANT_Class, index.getConstantTag(2));
+        assertEquals(0, index.getConstantTag(0));
+
+        ClassDescriptor object = DescriptorFactory.createClassDescriptor("java/lang/Object");
+        assertEquals(DescriptorFactory.createClassDescriptor("Empty"), index.getClassDescriptor());
+        assertEquals(object, index.getSuperclassDescriptor());
+        assertEquals(0, index.getInterfaceDescriptorList().length);
+        assertTrue(index.getReferencedClassDescriptors().contains(object));
+
+        ClassNameAndSuperclassInfo.Builder builder = new ClassNameAndSuperclassInfo.Builder();
+        index.fillIn(builder);
+        ClassNameAndSuperclassInfo info = builder.build();
+        assertEquals(index.getClassDescriptor(), info.getClassDescriptor());
+        assertEquals(50, info.getMajorVersion());
+        assertEquals(index.getAccessFlags(), info.getAccessFlags());
+    }
+
+    public void testSharedByClassData() throws Exception {
+        ClassData classData = new ClassData(DescriptorFactory.createClassDescriptor("Empty"), null,
+                FindBugsTestCase.EMPTY_CLASS_DATA);
+        assertSame(classData.getIndex(), classData.getIndex());
+    }
+
+    public void testTruncated() {
+        byte[] data = Arrays.copyOf(FindBugsTestCase.EMPTY_CLASS_DATA, 40);
+        try {
+            new ClassFileIndex(ByteBuffer.wrap(data), null, null);
+            fail();
+        } catch (InvalidClassFileFormatException e) {
+            // Expected
+        }
+    }
+
+    public void testBadMagic() {
+        byte[] data = FindBugsTestCase.EMPTY_CLASS_DATA.clone();
+        data[0] = 0;
+        try {
+            new ClassFileIndex(ByteBuffer.wrap(data), null, null);
+            fail();
+        } catch (InvalidClassFileFormatException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package edu.umd.cs.findbugs.classfile.engine.bcel;
+
+import junit.framework.TestCase;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.ConstantUtf8;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+
+public class LazyConstantPoolGenTest extends TestCase {
+
+    private ConstantPool constantPool;
+
+    private int toString;
+
+    private int lineNumberTable;
+
+    @Override
+    protected void setUp() throws Exception {
+        ClassGen classGen = new ClassGen("Test", "java.lang.Object", "Test.java", Constants.ACC_PUBLIC, new String[0]);
+        ConstantPoolGen cpg = classGen.getConstantPool();
+        toString = cpg.addMethodref("java.lang.Object", "toString", "()Ljava/lang/String;");
+        lineNumberTable = cpg.addUtf8("LineNumberTable");
+        constantPool = cpg.getFinalConstantPool();
+    }
+
+    public void testReadInPlace() {
+        LazyConstantPoolGen cpg = new LazyConstantPoolGen(constantPool);
+        assertSame(constantPool, cpg.getConstantPool());
+        assertSame(constantPool.getConstant(toString), cpg.getConstant(toString));
+        assertEquals(constantPool.getLength(), cpg.getSize());
+
+        assertEquals(lineNumberTable, cpg.addUtf8("LineNumberTable"));
+        assertEquals(lineNumberTable, cpg.lookupUtf8("LineNumberTable"));
+        assertEquals(-1, cpg.lookupUtf8("LocalVariableTable"));
+        assertFalse(cpg.isGenerated());
+    }
+
+    public void testLookup() {
+        LazyConstantPoolGen cpg = new LazyConstantPoolGen(constantPool);
+        assertEquals(toString, cpg.lookupMethodref("java.lang.Object", "toString", "()Ljava/lang/String;"));
+        assertTrue(cpg.isGenerated());
+        assertEquals(lineNumberTable, cpg.lookupUtf8("LineNumberTable"));
+    }
+
+    public void testAddLeavesClassUnchanged() {
+        LazyConstantPoolGen cpg = new LazyConstantPoolGen(constantPool);
+        int length = constantPool.getLength();
+        int index = cpg.addUtf8("LocalVariableTable");
+        assertTrue(cpg.isGenerated());
+        assertEquals(length, index);
+        assertEquals("LocalVariableTable", ((ConstantUtf8) cpg.getConstant(index)).getBytes());
+        assertEquals(length + 1, cpg.getSize());
+        assertEquals(length, constantPool.getLength());
+    }
+}
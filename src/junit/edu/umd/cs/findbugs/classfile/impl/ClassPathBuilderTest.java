@@ -0,0 +1,169 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.classfile.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+import edu.umd.cs.findbugs.NoOpFindBugsProgress;
+import edu.umd.cs.findbugs.PrintingBugReporter;
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.Global;
+import edu.umd.cs.findbugs.classfile.IClassFactory;
+import edu.umd.cs.findbugs.classfile.IClassPath;
+import edu.umd.cs.findbugs.classfile.IClassPathBuilder;
+import edu.umd.cs.findbugs.classfile.ICodeBase;
+import edu.umd.cs.findbugs.classfile.ICodeBaseScanProgress;
+import edu.umd.cs.findbugs.io.IO;
+
+public class ClassPathBuilderTest extends TestCase {
+
+    private static final Class<?>[] CLASSES = { Object.class, String.class, Integer.class, List.class,
+        ArrayList.class, Iterator.class, TestCase.class, IO.class };
+
+    private File dir;
+
+    private List<File> jars;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("classpath", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        jars = new ArrayList<File>();
+        for (int i = 0; i < 6; i++) {
+            File jar = new File(dir, "lib" + i + ".jar");
+            FileOutputStream out = new FileOutputStream(jar);
+            try {
+                writeJar(out, i);
+            } finally {
+                out.close();
+            }
+            jars.add(jar);
+        }
+
+        // An archive nesting jars
+        File war = new File(dir, "app.war");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(war));
+        try {
+            for (int i = 0; i < 4; i++) {
+                out.putNextEntry(new ZipEntry("WEB-INF/lib/nested" + i + ".jar"));
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                writeJar(bytes, i + 3);
+                out.write(bytes.toByteArray());
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        jars.add(war);
+    }
+
+    /**
+     * Write a jar holding some of the classes, some of them under the wrong
+     * resource name.
+     */
+    private static void writeJar(OutputStream stream, int n) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(stream);
+        for (int i = 0; i < 3; i++) {
+            Class<?> c = CLASSES[(n + i) % CLASSES.length];
+            String resourceName = c.getName().replace('.', '/') + ".class";
+            out.putNextEntry(new ZipEntry(i == 0 ? resourceName : "misplaced" + n + "/C" + i + ".class"));
+            InputStream in = ClassPathBuilderTest.class.getResourceAsStream("/" + resourceName);
+            try {
+                IO.copy(in, out);
+            } finally {
+                in.close();
+            }
+            out.closeEntry();
+        }
+        out.finish();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File jar : jars) {
+            jar.delete();
+        }
+        dir.delete();
+    }
+
+    private abstract static class ScanProgress extends NoOpFindBugsProgress implements ICodeBaseScanProgress {
+    }
+
+    private String build(int threads) throws Exception {
+        IClassFactory classFactory = ClassFactory.instance();
+        IClassPath classPath = classFactory.createClassPath();
+        PrintingBugReporter bugReporter = new PrintingBugReporter();
+        Global.setAnalysisCacheForCurrentThread(classFactory.createAnalysisCache(classPath, bugReporter));
+        try {
+            IClassPathBuilder builder = classFactory.createClassPathBuilder(bugReporter);
+            for (int i = 0; i < jars.size(); i++) {
+                builder.addCodeBase(classFactory.createFilesystemCodeBaseLocator(jars.get(i).getPath()), i % 2 == 0);
+            }
+            builder.scanNestedArchives(true);
+            builder.setThreads(threads);
+            final StringBuilder result = new StringBuilder();
+            builder.build(classPath, new ScanProgress() {
+                @Override
+                public void reportCodeBaseScanTime(String name, long millis) {
+                    assertTrue(millis >= 0);
+                    result.append("scanned ").append(name).append('\n');
+                }
+            });
+
+            for (Iterator<? extends ICodeBase> i = classPath.appCodeBaseIterator(); i.hasNext();) {
+                result.append(i.next().getCodeBaseLocator()).append('\n');
+            }
+            for (Iterator<? extends ICodeBase> i = classPath.auxCodeBaseIterator(); i.hasNext();) {
+                result.append(i.next().getCodeBaseLocator()).append('\n');
+            }
+            for (ClassDescriptor c : builder.getAppClassList()) {
+                ICodeBase codeBase = classPath.lookupResource(c.toResourceName()).getCodeBase();
+                result.append(c).append(" in ").append(codeBase.getCodeBaseLocator()).append('\n');
+            }
+            classPath.close();
+            return result.toString();
+        } finally {
+            Global.removeAnalysisCacheForCurrentThread();
+        }
+    }
+
+    public void testParallelBuildIsDeterministic() throws Exception {
+        String expected = build(1);
+        assertTrue(expected, expected.contains("java/lang/String in"));
+        assertTrue(expected, expected.contains("nested0.jar"));
+        assertFalse(expected, expected.contains("misplaced"));
+        assertTrue(expected, expected.contains("scanned "));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(expected, build(4));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.classfile.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.umd.cs.findbugs.PrintingBugReporter;
+import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.DescriptorFactory;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+import edu.umd.cs.findbugs.classfile.IClassAnalysisEngine;
+
+public class ConcurrentAnalysisCacheTest {
+
+    private static final int THREADS = 8;
+
+    private ConcurrentAnalysisCache cache;
+
+    private final ClassDescriptor descriptor = DescriptorFactory.createClassDescriptor("test/Foo");
+
+    static class CountingEngine implements IClassAnalysisEngine<String> {
+        final AtomicInteger invocations = new AtomicInteger();
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final boolean fail;
+
+        CountingEngine(boolean fail) {
+            this.fail = fail;
+        }
+
+        @Override
+        public String analyze(IAnalysisCache analysisCache, ClassDescriptor descriptor) throws CheckedAnalysisException {
+            invocations.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (fail) {
+                throw new CheckedAnalysisException("analysis of " + descriptor + " failed");
+            }
+            return descriptor.getClassName();
+        }
+
+        @Override
+        public void registerWith(IAnalysisCache analysisCache) {
+            analysisCache.registerClassAnalysisEngine(String.class, this);
+        }
+
+        @Override
+        public boolean canRecompute() {
+            return true;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        cache = new ConcurrentAnalysisCache(new ClassPathImpl(), new PrintingBugReporter(), THREADS, 0);
+    }
+
+    private Thread[] startLookups(final Object[] results) {
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results[n] = cache.getClassAnalysis(String.class, descriptor);
+                    } catch (CheckedAnalysisException e) {
+                        results[n] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        return threads;
+    }
+
+    @Test
+    public void computesResultOnceUnderContention() throws Exception {
+        CountingEngine engine = new CountingEngine(false);
+        engine.registerWith(cache);
+
+        Object[] results = new Object[THREADS];
+        Thread[] threads = startLookups(results);
+        // Give the threads time to pile up on the pending result
+        Thread.sleep(100);
+        engine.release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, engine.invocations.get());
+        for (Object result : results) {
+            assertEquals("test/Foo", result);
+        }
+        assertEquals("test/Foo", cache.probeClassAnalysis(String.class, descriptor));
+    }
+
+    @Test
+    public void cachesFailedAnalysis() throws Exception {
+        CountingEngine engine = new CountingEngine(true);
+        engine.registerWith(cache);
+
+        Object[] results = new Object[THREADS];
+        Thread[] threads = startLookups(results);
+        Thread.sleep(100);
+        engine.release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, engine.invocations.get());
+        for (Object result : results) {
+            assertTrue(result instanceof CheckedAnalysisException);
+        }
+        try {
+            cache.getClassAnalysis(String.class, descriptor);
+            fail("failed analysis should be rethrown");
+        } catch (CheckedAnalysisException e) {
+            assertSame(results[0], e);
+        }
+        assertEquals(1, engine.invocations.get());
+        assertNull(cache.probeClassAnalysis(String.class, descriptor));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.classfile.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+import edu.umd.cs.findbugs.classfile.IBufferedCodeBaseEntry;
+import edu.umd.cs.findbugs.classfile.ICodeBaseEntry;
+import edu.umd.cs.findbugs.classfile.ICodeBaseIterator;
+import edu.umd.cs.findbugs.io.IO;
+
+public class MappedZipFileCodeBaseTest extends TestCase {
+
+    private File zipFile;
+
+    private byte[] compressible;
+
+    private byte[] random;
+
+    @Override
+    protected void setUp() throws Exception {
+        compressible = new byte[100000];
+        for (int i = 0; i < compressible.length; i++) {
+            compressible[i] = (byte) (i % 17);
+        }
+        random = new byte[5000];
+        new Random(42).nextBytes(random);
+
+        zipFile = File.createTempFile("mapped", ".jar");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile));
+        try {
+            out.putNextEntry(new ZipEntry("dir/"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("dir/Deflated.class"));
+            out.write(compressible);
+            out.closeEntry();
+            ZipEntry stored = new ZipEntry("dir/Stored.class");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(random.length);
+            CRC32 crc = new CRC32();
+            crc.update(random);
+            stored.setCrc(crc.getValue());
+            out.putNextEntry(stored);
+            out.write(random);
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("dir/Empty.txt"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("dir/\u00e9t\u00e9.txt"));
+            out.write(random, 0, 10);
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        zipFile.delete();
+    }
+
+    private MappedZipFileCodeBase open() throws IOException {
+        return new MappedZipFileCodeBase(new FilesystemCodeBaseLocator(zipFile.getPath()), zipFile);
+    }
+
+    private static ByteBuffer getBuffer(ICodeBaseEntry entry) throws IOException {
+        return ((IBufferedCodeBaseEntry) entry).getBuffer();
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+
+    public void testIteratorSkipsDirectories() throws Exception {
+        MappedZipFileCodeBase codeBase = open();
+        List<String> names = new ArrayList<String>();
+        for (ICodeBaseIterator i = codeBase.iterator(); i.hasNext();) {
+            names.add(i.next().getResourceName());
+        }
+        assertEquals(Arrays.asList("dir/Deflated.class", "dir/Stored.class", "dir/Empty.txt", "dir/\u00e9t\u00e9.txt"), names);
+        assertTrue(codeBase.getLastModifiedTime() > 0);
+        codeBase.close();
+    }
+
+    public void testReadsEntries() throws Exception {
+        MappedZipFileCodeBase codeBase = open();
+        ICodeBaseEntry deflated = codeBase.lookupResource("dir/Deflated.class");
+        assertEquals(compressible.length, deflated.getNumBytes());
+        assertTrue(Arrays.equals(compressible, toArray(getBuffer(deflated))));
+        assertTrue(Arrays.equals(compressible, IO.readAll(deflated.openResource())));
+
+        ICodeBaseEntry stored = codeBase.lookupResource("dir/Stored.class");
+        assertTrue(Arrays.equals(random, toArray(getBuffer(stored))));
+        assertTrue(Arrays.equals(random, IO.readAll(stored.openResource(), random.length)));
+
+        assertEquals(0, getBuffer(codeBase.lookupResource("dir/Empty.txt")).remaining());
+        assertTrue(Arrays.equals(Arrays.copyOf(random, 10), toArray(getBuffer(codeBase.lookupResource("dir/\u00e9t\u00e9.txt")))));
+        assertNull(codeBase.lookupResource("dir/Missing.class"));
+
+        codeBase.close();
+        assertNull(codeBase.lookupResource("dir/Stored.class"));
+        try {
+            getBuffer(stored);
+            fail("reading from a closed codebase should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testClosedStream() throws Exception {
+        MappedZipFileCodeBase codeBase = open();
+        InputStream in = codeBase.lookupResource("dir/Deflated.class").openResource();
+        assertEquals(compressible[0], in.read());
+        in.close();
+        in.close();
+        assertEquals(0, in.available());
+        try {
+            in.read(new byte[10]);
+            fail("reading from a closed stream should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        codeBase.close();
+    }
+
+    public void testRejectsOtherFiles() throws Exception {
+        FileOutputStream out = new FileOutputStream(zipFile);
+        try {
+            out.write(random);
+        } finally {
+            out.close();
+        }
+        try {
+            open();
+            fail("not a zip file");
+        } catch (ZipException e) {
+            // expected
+        }
+    }
+}
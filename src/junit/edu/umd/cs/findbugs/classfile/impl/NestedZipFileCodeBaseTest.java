@@ -0,0 +1,123 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.classfile.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+import edu.umd.cs.findbugs.classfile.ICodeBaseEntry;
+import edu.umd.cs.findbugs.classfile.ICodeBaseIterator;
+import edu.umd.cs.findbugs.io.IO;
+
+public class NestedZipFileCodeBaseTest extends TestCase {
+
+    private File zipFile;
+
+    private byte[] classData;
+
+    @Override
+    protected void setUp() throws Exception {
+        classData = new byte[10000];
+        for (int i = 0; i < classData.length; i++) {
+            classData[i] = (byte) (i % 13);
+        }
+        byte[] innerJar = makeInnerJar();
+
+        zipFile = File.createTempFile("outer", ".war");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile));
+        try {
+            ZipEntry stored = new ZipEntry("WEB-INF/lib/stored.jar");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(innerJar.length);
+            CRC32 crc = new CRC32();
+            crc.update(innerJar);
+            stored.setCrc(crc.getValue());
+            out.putNextEntry(stored);
+            out.write(innerJar);
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("WEB-INF/lib/deflated.jar"));
+            out.write(innerJar);
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+    }
+
+    private byte[] makeInnerJar() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(bytes);
+        try {
+            out.putNextEntry(new ZipEntry("p/A.class"));
+            out.write(classData);
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("p/B.class"));
+            out.write(classData, 0, 100);
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        zipFile.delete();
+    }
+
+    private void checkNested(String resourceName) throws Exception {
+        MappedZipFileCodeBase outer = new MappedZipFileCodeBase(new FilesystemCodeBaseLocator(zipFile.getPath()), zipFile);
+        NestedZipFileCodeBase nested = new NestedZipFileCodeBase(new NestedZipFileCodeBaseLocator(outer, resourceName));
+        try {
+            assertTrue(nested.isInMemory());
+            List<String> names = new ArrayList<String>();
+            for (ICodeBaseIterator i = nested.iterator(); i.hasNext();) {
+                names.add(i.next().getResourceName());
+            }
+            assertEquals(Arrays.asList("p/A.class", "p/B.class"), names);
+
+            ICodeBaseEntry entry = nested.lookupResource("p/A.class");
+            assertEquals(classData.length, entry.getNumBytes());
+            assertTrue(Arrays.equals(classData, IO.readAll(entry.openResource())));
+            assertTrue(Arrays.equals(Arrays.copyOf(classData, 100), IO.readAll(nested.lookupResource("p/B.class")
+                    .openResource())));
+            assertNull(nested.lookupResource("p/C.class"));
+        } finally {
+            nested.close();
+            outer.close();
+        }
+    }
+
+    public void testStoredNestedJar() throws Exception {
+        checkNested("WEB-INF/lib/stored.jar");
+    }
+
+    public void testDeflatedNestedJar() throws Exception {
+        checkNested("WEB-INF/lib/deflated.jar");
+    }
+}
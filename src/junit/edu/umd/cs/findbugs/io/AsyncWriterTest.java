@@ -0,0 +1,87 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.io;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import junit.framework.TestCase;
+
+public class AsyncWriterTest extends TestCase {
+
+    public void testOrder() throws IOException {
+        StringWriter out = new StringWriter();
+        StringBuilder expected = new StringBuilder();
+        PrintWriter writer = new PrintWriter(new AsyncWriter(out));
+        for (int i = 0; i < 10000; i++) {
+            writer.print(i);
+            writer.println(" bug");
+            expected.append(i).append(" bug").append(System.getProperty("line.separator"));
+        }
+        writer.close();
+        assertFalse(writer.checkError());
+        assertEquals(expected.toString(), out.toString());
+    }
+
+    public void testDrain() throws IOException {
+        StringWriter out = new StringWriter();
+        AsyncWriter writer = new AsyncWriter(out);
+        writer.write("abc");
+        writer.write("defgh".toCharArray(), 1, 3);
+        writer.drain();
+        assertEquals("abcefg", out.toString());
+
+        // Written directly once drained
+        writer.write("xyz", 1, 1);
+        assertEquals("abcefgy", out.toString());
+        writer.drain();
+        writer.close();
+    }
+
+    public void testFailure() {
+        AsyncWriter writer = new AsyncWriter(new StringWriter() {
+            @Override
+            public void write(String str) {
+                throw new IllegalArgumentException();
+            }
+        });
+        try {
+            writer.write("abc");
+            writer.close();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    public void testClose() throws IOException {
+        final boolean[] closed = new boolean[1];
+        Writer writer = new AsyncWriter(new StringWriter() {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+            }
+        });
+        writer.close();
+        assertTrue(closed[0]);
+    }
+}
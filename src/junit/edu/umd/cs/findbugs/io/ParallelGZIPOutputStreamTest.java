@@ -0,0 +1,90 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+public class ParallelGZIPOutputStreamTest extends TestCase {
+
+    private static byte[] data(int size) {
+        Random random = new Random(size);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            // Compressible, with repetitions across block boundaries
+            data[i] = (byte) (i % 3 == 0 ? random.nextInt(4) : "<BugInstance type=".charAt(i % 18));
+        }
+        return data;
+    }
+
+    private static byte[] compress(byte[] data, int blockSize, int threads, int writeSize) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(bytes, Deflater.DEFAULT_COMPRESSION, blockSize, threads);
+        for (int off = 0; off < data.length; off += writeSize) {
+            if (writeSize == 1) {
+                out.write(data[off]);
+            } else {
+                out.write(data, off, Math.min(writeSize, data.length - off));
+            }
+            if (off % 10000 == 0) {
+                out.flush();
+            }
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IO.copy(in, out);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testRoundTrip() throws IOException {
+        for (int size : new int[] { 0, 1, 1000, 100000, 300000 }) {
+            byte[] data = data(size);
+            for (int threads = 1; threads <= 4; threads += 3) {
+                for (int writeSize : new int[] { 1, 777, 65536 }) {
+                    byte[] compressed = compress(data, 16 * 1024, threads, writeSize);
+                    assertTrue(Arrays.equals(data, decompress(compressed)));
+                }
+            }
+        }
+    }
+
+    public void testOutputDoesNotDependOnThreads() throws IOException {
+        byte[] data = data(500000);
+        byte[] expected = compress(data, ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE, 1, 4096);
+        assertTrue(expected.length < data.length / 2);
+        assertTrue(Arrays.equals(expected, compress(data, ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE, 4, 4096)));
+    }
+}
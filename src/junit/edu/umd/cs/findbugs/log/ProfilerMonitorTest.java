@@ -0,0 +1,111 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2007 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.log;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import junit.framework.TestCase;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+
+import edu.umd.cs.findbugs.ba.npe.IsNullValueAnalysis;
+import edu.umd.cs.findbugs.classfile.engine.bcel.ValueNumberDataflowFactory;
+import edu.umd.cs.findbugs.detect.FindNullDeref;
+
+public class ProfilerMonitorTest extends TestCase {
+
+    private Profiler profiler;
+
+    @Override
+    protected void setUp() throws Exception {
+        profiler = new Profiler();
+        profiler.start(FindNullDeref.class);
+        profiler.start(ValueNumberDataflowFactory.class);
+        Thread.sleep(2);
+        profiler.end(ValueNumberDataflowFactory.class);
+        profiler.end(FindNullDeref.class);
+        profiler.cacheMiss(String.class);
+        profiler.cacheHit(String.class);
+        profiler.cacheHit(String.class);
+        profiler.dataflowExecuted(IsNullValueAnalysis.class, 3);
+        profiler.dataflowExecuted(IsNullValueAnalysis.class, 5);
+        profiler.classAnalyzed();
+        ProfilerMonitor.instance().startMonitoring(profiler);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ProfilerMonitor.instance().stopMonitoring(profiler);
+    }
+
+    public void testMXBean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ProfilerMonitor.OBJECT_NAME);
+        assertEquals(Long.valueOf(1), server.getAttribute(name, "AnalyzedClasses"));
+        TabularData detectors = (TabularData) server.getAttribute(name, "DetectorMilliseconds");
+        assertEquals(1, detectors.size());
+        assertNotNull(detectors.get(new Object[] { FindNullDeref.class.getName() }));
+        TabularData engines = (TabularData) server.getAttribute(name, "AnalysisEngineMilliseconds");
+        assertNotNull(engines.get(new Object[] { ValueNumberDataflowFactory.class.getName() }));
+        TabularData hitRates = (TabularData) server.getAttribute(name, "CacheHitRates");
+        assertEquals(2.0 / 3, hitRates.get(new Object[] { String.class.getName() }).get("value"));
+        TabularData iterations = (TabularData) server.getAttribute(name, "DataflowIterations");
+        assertEquals(Long.valueOf(8), iterations.get(new Object[] { IsNullValueAnalysis.class.getName() }).get("value"));
+    }
+
+    public void testStopMonitoring() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ProfilerMonitor.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        ProfilerMonitor.instance().stopMonitoring(new Profiler());
+        assertSame(profiler, ProfilerMonitor.instance().getProfiler());
+
+        ProfilerMonitor.instance().stopMonitoring(profiler);
+        assertFalse(server.isRegistered(name));
+        assertNull(ProfilerMonitor.instance().getProfiler());
+    }
+
+    public void testSnapshot() throws Exception {
+        File file = File.createTempFile("snapshot", ".xml");
+        try {
+            ProfilerMonitor.instance().writeSnapshot(file.getPath());
+            Document document = new SAXReader().read(file);
+            Element root = document.getRootElement();
+            assertEquals("ProfilerSnapshot", root.getName());
+            assertEquals("1", root.attributeValue("analyzedClasses"));
+            assertEquals(2, root.elements("ClassProfile").size());
+            Element dataflow = root.element("DataflowProfile");
+            assertEquals(IsNullValueAnalysis.class.getName(), dataflow.attributeValue("name"));
+            assertEquals("2", dataflow.attributeValue("executions"));
+            assertEquals("5", dataflow.attributeValue("maxIterations"));
+            assertEquals("engine", ProfilerMonitor.getKind(ValueNumberDataflowFactory.class));
+            assertEquals("detector", ProfilerMonitor.getKind(FindNullDeref.class));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class WeightedMapCacheTest extends TestCase {
+
+    static class LengthWeigher implements WeightedMapCache.Weigher<String, String> {
+        @Override
+        public int weigh(String key, String value) {
+            return value.length();
+        }
+    }
+
+    static class EvictionRecorder implements WeightedMapCache.RemovalListener<String, String> {
+        final List<String> evicted = new ArrayList<String>();
+
+        @Override
+        public void removed(String key, String value, boolean wasEvicted) {
+            if (wasEvicted) {
+                evicted.add(key);
+            }
+        }
+    }
+
+    public void testParseSize() {
+        assertEquals(1000, CacheBudget.parseSize("1000"));
+        assertEquals(100L << 10, CacheBudget.parseSize("100k"));
+        assertEquals(512L << 20, CacheBudget.parseSize("512M"));
+        assertEquals(2L << 30, CacheBudget.parseSize("2g"));
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        CacheBudget budget = new CacheBudget(10);
+        EvictionRecorder recorder = new EvictionRecorder();
+        WeightedMapCache<String, String> cache = new WeightedMapCache<String, String>(budget, new LengthWeigher(), recorder);
+        cache.put("a", "1234");
+        cache.put("b", "1234");
+        cache.get("a");
+        cache.put("c", "1234");
+
+        assertEquals(1, recorder.evicted.size());
+        assertEquals("b", recorder.evicted.get(0));
+        assertTrue(cache.containsKey("a"));
+        assertTrue(cache.containsKey("c"));
+        assertEquals(8, cache.getWeight());
+        assertEquals(8, budget.getWeight());
+    }
+
+    public void testNeverEvictsEntryJustAdded() {
+        CacheBudget budget = new CacheBudget(4);
+        WeightedMapCache<String, String> cache = new WeightedMapCache<String, String>(budget, new LengthWeigher(), null);
+        cache.put("a", "123");
+        cache.put("b", "12345678");
+        assertEquals(1, cache.size());
+        assertTrue(cache.containsKey("b"));
+        assertTrue(budget.isExceeded());
+    }
+
+    public void testSharedBudget() {
+        CacheBudget budget = new CacheBudget(10);
+        WeightedMapCache<String, String> first = new WeightedMapCache<String, String>(budget, new LengthWeigher(), null);
+        WeightedMapCache<String, String> second = new WeightedMapCache<String, String>(budget, new LengthWeigher(), null);
+        first.put("a", "123");
+        first.put("b", "123");
+        second.put("c", "123");
+        assertEquals(9, budget.getWeight());
+
+        // The second cache is within its fair share: the first one has to
+        // give up entries when it is updated
+        second.put("d", "12");
+        assertEquals(2, second.size());
+        first.put("e", "1");
+        assertFalse(first.containsKey("a"));
+        assertFalse(budget.isExceeded());
+
+        first.clear();
+        second.release();
+        assertEquals(0, budget.getWeight());
+        assertEquals(2, second.size());
+    }
+}
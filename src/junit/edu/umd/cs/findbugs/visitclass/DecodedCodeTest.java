@@ -0,0 +1,103 @@
+package edu.umd.cs.findbugs.visitclass;
+
+import junit.framework.TestCase;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.generic.BIPUSH;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.IINC;
+import org.apache.bcel.generic.ILOAD;
+import org.apache.bcel.generic.INVOKEVIRTUAL;
+import org.apache.bcel.generic.IRETURN;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.LOOKUPSWITCH;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.Type;
+
+public class DecodedCodeTest extends TestCase {
+
+    private ConstantPool constantPool;
+
+    private Code code;
+
+    @Override
+    protected void setUp() throws Exception {
+        ClassGen classGen = new ClassGen("Test", "java.lang.Object", "Test.java", Constants.ACC_PUBLIC, new String[0]);
+        ConstantPoolGen cpg = classGen.getConstantPool();
+        int toString = cpg.addMethodref("java.lang.Object", "toString", "()Ljava/lang/String;");
+
+        InstructionList il = new InstructionList();
+        il.append(new BIPUSH((byte) 42));
+        il.append(new IINC(300, 1));
+        il.append(new INVOKEVIRTUAL(toString));
+        il.append(new INVOKEVIRTUAL(toString));
+        il.append(new ILOAD(1));
+        InstructionHandle ret = il.append(new IRETURN());
+        il.insert(ret, new LOOKUPSWITCH(new int[] { 7, 3 }, new InstructionHandle[] { ret, ret }, ret));
+        MethodGen methodGen = new MethodGen(Constants.ACC_STATIC, Type.INT, new Type[] { Type.OBJECT, Type.INT }, null,
+                "test", "Test", il, cpg);
+        methodGen.setMaxStack();
+        methodGen.setMaxLocals();
+        code = methodGen.getMethod().getCode();
+        constantPool = cpg.getFinalConstantPool();
+    }
+
+    public void testDecode() {
+        DecodedCode decoded = DecodedCode.decode(code, constantPool);
+        assertSame(code, decoded.getCode());
+        assertNull(decoded.getError());
+        assertEquals(7, decoded.getNumInstructions());
+
+        assertEquals(Constants.BIPUSH, decoded.getOpcodeAndFlags(0));
+        assertEquals(42, decoded.getIntConstant(0));
+
+        int iinc = decoded.getOpcodeAndFlags(1);
+        assertEquals(Constants.IINC, iinc & 0xff);
+        assertTrue((iinc & DecodedCode.WIDE_FLAG) != 0);
+        assertTrue((iinc & DecodedCode.REGISTER_LOAD_FLAG) != 0);
+        assertTrue((iinc & DecodedCode.REGISTER_STORE_FLAG) != 0);
+        assertEquals(300, decoded.getRegisterOperand(1));
+        assertEquals(1, decoded.getIntConstant(1));
+        assertEquals(decoded.getNextPC(0), decoded.getPC(1));
+        assertEquals(decoded.getPC(1) + 6, decoded.getNextPC(1));
+
+        DecodedCode.ConstantOperand method = decoded.getConstantOperand(2);
+        assertEquals("java/lang/Object", method.classConstant);
+        assertEquals("toString", method.nameConstant);
+        assertEquals("()Ljava/lang/String;", method.sigConstant);
+        assertEquals(DecodedCode.NOT_AVAILABLE, method.stringConstant);
+        assertTrue(method.isRef);
+        assertSame(method, decoded.getConstantOperand(3));
+        // The int constant keeps its value when an instruction has none
+        assertEquals(1, decoded.getIntConstant(3));
+
+        assertEquals(Constants.ILOAD_1, decoded.getOpcodeAndFlags(4) & 0xff);
+        assertEquals(1, decoded.getRegisterOperand(4));
+        assertNull(decoded.getSwitch(4));
+        assertEquals(DecodedCode.INVALID_OFFSET, decoded.getBranchOffset(4));
+
+        DecodedCode.Switch lookupSwitch = decoded.getSwitch(5);
+        assertEquals(Constants.LOOKUPSWITCH, decoded.getOpcodeAndFlags(5));
+        assertEquals(decoded.getPC(6) - decoded.getPC(5), decoded.getBranchOffset(5));
+        assertEquals(2, lookupSwitch.labels.length);
+        assertEquals(lookupSwitch.offsets[0], lookupSwitch.offsets[1]);
+        assertEquals(code.getCode().length, decoded.getNextPC(6));
+    }
+
+    public void testTruncatedCode() {
+        int fullSize = DecodedCode.decode(code, constantPool).getEstimatedSize();
+        byte[] bytes = code.getCode();
+        // Cut the wide iinc
+        code.setCode(new byte[] { bytes[0], bytes[1], bytes[2], bytes[3] });
+        DecodedCode decoded = DecodedCode.decode(code, constantPool);
+        assertEquals(1, decoded.getNumInstructions());
+        assertEquals(2, decoded.getNextPC(0));
+        assertNotNull(decoded.getError());
+        assertTrue(decoded.getEstimatedSize() > DecodedCode.DECODED_CODE_SIZE);
+        assertTrue(decoded.getEstimatedSize() < fullSize);
+    }
+}
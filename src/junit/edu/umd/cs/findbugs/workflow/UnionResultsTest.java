@@ -0,0 +1,72 @@
+package edu.umd.cs.findbugs.workflow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.Priorities;
+import edu.umd.cs.findbugs.SortedBugCollection;
+import edu.umd.cs.findbugs.charsets.UTF8;
+
+public class UnionResultsTest extends TestCase {
+
+    private List<File> files;
+
+    @Override
+    protected void setUp() throws Exception {
+        files = new ArrayList<File>();
+        for (int i = 0; i < 7; i++) {
+            SortedBugCollection collection = new SortedBugCollection();
+            collection.setReleaseName("module" + i);
+            collection.getProject().addFile("module" + i + ".jar");
+            // Each module shares some bugs with the previous one
+            for (int j = i * 3; j < i * 3 + 5; j++) {
+                BugInstance bug = new BugInstance("NP_NULL_ON_SOME_PATH", Priorities.NORMAL_PRIORITY);
+                bug.addClass("p.C" + j);
+                bug.addMethod("p.C" + j, "m", "()V", false);
+                collection.add(bug, false);
+            }
+            collection.addError("error in module " + i);
+            File file = File.createTempFile("union", ".xml");
+            collection.writeXML(file);
+            files.add(file);
+        }
+        files.add(3, new File(files.get(0).getPath() + ".missing"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private String union(int threads) throws Exception {
+        List<String> fileNames = new ArrayList<String>();
+        for (File file : files) {
+            fileNames.add(file.getPath());
+        }
+        SortedBugCollection union = UnionResults.union(fileNames, threads);
+        assertEquals(7 * 3 + 2, union.getCollection().size());
+        assertEquals(7, union.getErrors().size());
+        assertEquals(7 * 3 + 2, union.getProjectStats().getTotalBugs());
+        assertEquals("module0", union.getReleaseName());
+        assertEquals(7, union.getProject().getFileCount());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        union.writeXML(out);
+        // Ignore the time and memory used to read the files
+        return new String(out.toByteArray(), UTF8.charset)
+                .replaceAll(" (cpu_seconds|clock_seconds|peak_mbytes|alloc_mbytes|gc_seconds)=\"[^\"]*\"", "")
+                .replaceAll("(?s)<FindBugsProfile>.*</FindBugsProfile>", "");
+    }
+
+    public void testUnionDoesNotDependOnThreads() throws Exception {
+        String expected = union(1);
+        assertEquals(expected, union(3));
+        assertEquals(expected, union(8));
+    }
+}
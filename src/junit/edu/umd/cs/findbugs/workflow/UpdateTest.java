@@ -0,0 +1,90 @@
+package edu.umd.cs.findbugs.workflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import edu.umd.cs.findbugs.BugCollection;
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.LocalVariableAnnotation;
+import edu.umd.cs.findbugs.Priorities;
+import edu.umd.cs.findbugs.SortedBugCollection;
+import edu.umd.cs.findbugs.SourceLineAnnotation;
+import edu.umd.cs.findbugs.VersionInsensitiveBugComparator;
+
+public class UpdateTest extends TestCase {
+
+    private static BugInstance bug(String type, String className, String method, int line) {
+        BugInstance bug = new BugInstance(type, Priorities.NORMAL_PRIORITY);
+        bug.addClass(className);
+        bug.addMethod(className, method, "()V", false);
+        bug.addSourceLine(new SourceLineAnnotation(className, "C.java", line, line, -1, -1));
+        return bug;
+    }
+
+    private static BugCollection version(int version, BugInstance... bugs) {
+        SortedBugCollection collection = new SortedBugCollection();
+        collection.setReleaseName("v" + version);
+        collection.setTimestamp(version * 1000L);
+        for (BugInstance bug : bugs) {
+            collection.add(bug, false);
+        }
+        return collection;
+    }
+
+    private static List<String> history(boolean hashMatching) {
+        Update update = new Update();
+        update.hashMatching = hashMatching;
+        BugCollection history = version(0,
+                bug("NP_NULL_ON_SOME_PATH", "p.A", "m1", 10),
+                bug("NP_NULL_ON_SOME_PATH", "p.A", "m1", 20),
+                bug("DLS_DEAD_LOCAL_STORE", "p.A", "m2", 30),
+                bug("MS_MUTABLE_ARRAY", "p.Moved", "m3", 40),
+                bug("SE_BAD_FIELD", "p.B", "m4", 50));
+        // Lines shift, a bug is fixed, a class moves to another package
+        history = update.mergeCollections(history, version(1,
+                bug("NP_NULL_ON_SOME_PATH", "p.A", "m1", 15),
+                bug("NP_NULL_ON_SOME_PATH", "p.A", "m1", 25),
+                bug("DLS_DEAD_LOCAL_STORE", "p.A", "m2", 35),
+                bug("MS_MUTABLE_ARRAY", "q.Moved", "m3", 45)), true, false);
+        // The fixed bug comes back, a bug is added
+        history = update.mergeCollections(history, version(2,
+                bug("NP_NULL_ON_SOME_PATH", "p.A", "m1", 15),
+                bug("DLS_DEAD_LOCAL_STORE", "p.A", "m2", 35),
+                bug("MS_MUTABLE_ARRAY", "q.Moved", "m3", 45),
+                bug("SE_BAD_FIELD", "p.B", "m4", 50),
+                bug("SE_BAD_FIELD", "p.B", "m5", 60)), true, false);
+
+        List<String> result = new ArrayList<String>();
+        for (BugInstance bug : history.getCollection()) {
+            result.add(bug.getPrimaryClass().getClassName() + "." + bug.getPrimaryMethod().getMethodName() + " "
+                    + bug.getFirstVersion() + ".." + bug.getLastVersion());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    public void testHashMatchingGivesSameHistory() {
+        List<String> expected = history(false);
+        assertEquals(expected, history(true));
+        assertTrue(expected.toString(), expected.contains("q.Moved.m3 0..-1"));
+        assertTrue(expected.toString(), expected.contains("p.A.m1 0..1"));
+        assertTrue(expected.toString(), expected.contains("p.B.m4 0..-1"));
+        assertTrue(expected.toString(), expected.contains("p.B.m5 2..-1"));
+    }
+
+    public void testBugHashCodeIsConsistentWithComparator() {
+        VersionInsensitiveBugComparator comparator = new VersionInsensitiveBugComparator();
+        BugInstance a = bug("NP_NULL_ON_SOME_PATH", "p.A", "m1", 10);
+        BugInstance b = bug("NP_NULL_ON_SOME_PATH", "p.A", "m1", 99);
+        b.add(new LocalVariableAnnotation("?", 1, 1, 1));
+        assertEquals(0, comparator.compare(a, b));
+        assertEquals(comparator.bugHashCode(a), comparator.bugHashCode(b));
+
+        comparator.setExactBugPatternMatch(false);
+        BugInstance c = bug("NP_NULL_ON_SOME_PATH_EXCEPTION", "p.A", "m1", 10);
+        assertEquals(0, comparator.compare(a, c));
+        assertEquals(comparator.bugHashCode(a), comparator.bugHashCode(c));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.tools;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.umd.cs.findbugs.PrintingBugReporter;
+import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.DescriptorFactory;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+import edu.umd.cs.findbugs.classfile.IClassAnalysisEngine;
+import edu.umd.cs.findbugs.classfile.IConcurrentClassFactory;
+import edu.umd.cs.findbugs.classfile.impl.ClassFactory;
+
+/**
+ * Measure the throughput of class analysis lookups in the analysis cache when
+ * several threads use it at the same time. Compares the single-threaded
+ * analysis cache (whose accesses are serialized) with the concurrent one used
+ * by multi-threaded analyses.
+ * <p>
+ * Every thread looks up results of a synthetic analysis for classes chosen at
+ * random, most of them from a small set of "hot" classes, like detectors
+ * looking up the XClass of commonly referenced classes. The number of times
+ * the analysis engine was invoked shows how often a result was computed more
+ * than once.
+ * <p>
+ * Usage: AnalysisCacheBenchmark [lookups per thread] [number of classes]
+ */
+public class AnalysisCacheBenchmark {
+
+    private static final int[] THREAD_COUNTS = { 1, 4, 16 };
+
+    /**
+     * Synthetic analysis result.
+     */
+    static class Result {
+        final int value;
+
+        Result(int value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Analysis engine which spends some CPU time to produce a result.
+     */
+    static class Engine implements IClassAnalysisEngine<Result> {
+        final AtomicInteger invocations = new AtomicInteger();
+
+        @Override
+        public Result analyze(IAnalysisCache analysisCache, ClassDescriptor descriptor) throws CheckedAnalysisException {
+            invocations.incrementAndGet();
+            int h = descriptor.hashCode();
+            for (int i = 0; i < 20000; i++) {
+                h = h * 31 + i;
+            }
+            return new Result(h);
+        }
+
+        @Override
+        public void registerWith(IAnalysisCache analysisCache) {
+            analysisCache.registerClassAnalysisEngine(Result.class, this);
+        }
+
+        @Override
+        public boolean canRecompute() {
+            return true;
+        }
+    }
+
+    private final int lookups;
+
+    private final ClassDescriptor[] classes;
+
+    AnalysisCacheBenchmark(int lookups, int numClasses) {
+        this.lookups = lookups;
+        this.classes = new ClassDescriptor[numClasses];
+        for (int i = 0; i < numClasses; i++) {
+            classes[i] = DescriptorFactory.createClassDescriptor("bench/C" + i);
+        }
+    }
+
+    /**
+     * Run the benchmark for one cache and thread count.
+     *
+     * @return elapsed time in milliseconds
+     */
+    long run(final IAnalysisCache cache, int threads) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger checksum = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        int sum = 0;
+                        int hot = Math.max(1, classes.length / 20);
+                        for (int i = 0; i < lookups; i++) {
+                            int n = random.nextInt(10) < 8 ? random.nextInt(hot) : random.nextInt(classes.length);
+                            sum += cache.getClassAnalysis(Result.class, classes[n]).value;
+                        }
+                        checksum.addAndGet(sum);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (CheckedAnalysisException e) {
+                        throw new IllegalStateException(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return (System.nanoTime() - begin) / 1000000;
+    }
+
+    void runAll() throws InterruptedException {
+        IConcurrentClassFactory factory = (IConcurrentClassFactory) ClassFactory.instance();
+        System.out.println("cache       threads    time(ms)  lookups/ms  computations");
+        for (int threads : THREAD_COUNTS) {
+            for (int concurrent = 0; concurrent < 2; concurrent++) {
+                // Warm up, then measure with a fresh cache
+                for (int round = 0; round < 2; round++) {
+                    PrintingBugReporter reporter = new PrintingBugReporter();
+                    IAnalysisCache cache = concurrent == 0 ? factory.createAnalysisCache(factory.createClassPath(), reporter)
+                            : factory.createAnalysisCache(factory.createClassPath(), reporter, Math.max(2, threads), 0);
+                    Engine engine = new Engine();
+                    engine.registerWith(cache);
+                    long time = run(cache, threads);
+                    if (round == 1) {
+                        long total = (long) lookups * threads;
+                        System.out.printf("%-10s  %7d  %10d  %10d  %12d%n", concurrent == 0 ? "serialized" : "concurrent",
+                                threads, time, total / Math.max(1, time), engine.invocations.get());
+                    }
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int numClasses = args.length > 1 ? Integer.parseInt(args[1]) : 8000;
+        new AnalysisCacheBenchmark(lookups, numClasses).runAll();
+    }
+}
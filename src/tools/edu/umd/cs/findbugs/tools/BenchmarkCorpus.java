@@ -0,0 +1,169 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.tools;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+
+import edu.umd.cs.findbugs.FindBugs2;
+import edu.umd.cs.findbugs.NoOpFindBugsProgress;
+import edu.umd.cs.findbugs.PrintingBugReporter;
+import edu.umd.cs.findbugs.Project;
+import edu.umd.cs.findbugs.ba.AnalysisContext;
+import edu.umd.cs.findbugs.ba.XClass;
+import edu.umd.cs.findbugs.ba.XFactory;
+import edu.umd.cs.findbugs.bcel.BCELUtil;
+import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.DescriptorFactory;
+import edu.umd.cs.findbugs.classfile.Global;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+import edu.umd.cs.findbugs.classfile.IClassFactory;
+import edu.umd.cs.findbugs.classfile.IClassPath;
+import edu.umd.cs.findbugs.classfile.IClassPathBuilder;
+import edu.umd.cs.findbugs.classfile.MethodDescriptor;
+import edu.umd.cs.findbugs.classfile.impl.ClassFactory;
+
+/**
+ * The classes analyzed by a benchmark: sets up the class path, analysis cache
+ * and analysis context of the current thread for a project, and interns the
+ * application classes, like FindBugs2 does before running the detectors.
+ */
+class BenchmarkCorpus {
+
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final IClassPath classPath;
+
+    private final IAnalysisCache analysisCache;
+
+    private final List<ClassDescriptor> appClassList;
+
+    BenchmarkCorpus(Project project) throws Exception {
+        IClassFactory classFactory = ClassFactory.instance();
+        classPath = classFactory.createClassPath();
+        PrintingBugReporter bugReporter = new PrintingBugReporter();
+        analysisCache = classFactory.createAnalysisCache(classPath, bugReporter);
+        FindBugs2.registerBuiltInAnalysisEngines(analysisCache);
+        Global.setAnalysisCacheForCurrentThread(analysisCache);
+        FindBugs2.createAnalysisContext(project, new ArrayList<ClassDescriptor>(), null);
+
+        IClassPathBuilder builder = classFactory.createClassPathBuilder(bugReporter);
+        for (String path : project.getFileArray()) {
+            builder.addCodeBase(classFactory.createFilesystemCodeBaseLocator(path), true);
+        }
+        for (String path : project.getAuxClasspathEntryList()) {
+            builder.addCodeBase(classFactory.createFilesystemCodeBaseLocator(path), false);
+        }
+        builder.build(classPath, new NoOpFindBugsProgress());
+        appClassList = builder.getAppClassList();
+        FindBugs2.setAppClassList(appClassList);
+        XFactory factory = AnalysisContext.currentXFactory();
+        for (ClassDescriptor classDescriptor : appClassList) {
+            factory.intern(analysisCache.getClassAnalysis(XClass.class, classDescriptor));
+        }
+    }
+
+    IAnalysisCache getAnalysisCache() {
+        return analysisCache;
+    }
+
+    List<ClassDescriptor> getAppClassList() {
+        return appClassList;
+    }
+
+    /**
+     * Get the largest methods with code of the application classes, largest
+     * first.
+     *
+     * @param maxMethods
+     *            maximum number of methods to return
+     * @param analyses
+     *            analyses computed (and cached) for each method: methods for
+     *            which one of them fails are skipped
+     */
+    List<MethodDescriptor> getLargestMethods(int maxMethods, Class<?>... analyses) throws CheckedAnalysisException {
+        final List<Integer> sizes = new ArrayList<Integer>();
+        List<MethodDescriptor> candidates = new ArrayList<MethodDescriptor>();
+        for (ClassDescriptor classDescriptor : appClassList) {
+            JavaClass javaClass = analysisCache.getClassAnalysis(JavaClass.class, classDescriptor);
+            for (Method method : javaClass.getMethods()) {
+                Code code = method.getCode();
+                if (code != null) {
+                    candidates.add(BCELUtil.getMethodDescriptor(javaClass, method));
+                    sizes.add(code.getCode().length);
+                }
+            }
+        }
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < candidates.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return sizes.get(o2) - sizes.get(o1);
+            }
+        });
+        List<MethodDescriptor> methods = new ArrayList<MethodDescriptor>();
+        for (int i = 0; i < order.size() && methods.size() < maxMethods; i++) {
+            MethodDescriptor method = candidates.get(order.get(i));
+            try {
+                for (Class<?> analysis : analyses) {
+                    analysisCache.getMethodAnalysis(analysis, method);
+                }
+            } catch (CheckedAnalysisException e) {
+                continue;
+            }
+            methods.add(method);
+        }
+        return methods;
+    }
+
+    /**
+     * Release the analysis context and analysis cache of the current thread,
+     * and close the class path.
+     */
+    void close() {
+        DescriptorFactory.clearInstance();
+        AnalysisContext.removeCurrentAnalysisContext();
+        Global.removeAnalysisCacheForCurrentThread();
+        classPath.close();
+    }
+
+    /**
+     * Get the number of bytes allocated by the current thread so far, or -1 if
+     * the JVM does not measure it.
+     */
+    static long allocatedBytes() {
+        if (THREAD_BEAN instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREAD_BEAN).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
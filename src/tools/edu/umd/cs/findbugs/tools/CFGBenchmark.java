@@ -0,0 +1,171 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.bcel.generic.MethodGen;
+
+import edu.umd.cs.findbugs.Project;
+import edu.umd.cs.findbugs.ba.CFG;
+import edu.umd.cs.findbugs.ba.CFGBuilder;
+import edu.umd.cs.findbugs.ba.CFGBuilderFactory;
+import edu.umd.cs.findbugs.ba.CompactCFG;
+import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+import edu.umd.cs.findbugs.classfile.MethodDescriptor;
+
+/**
+ * Compare building the CFGs of the largest methods of an application with
+ * BetterCFGBuilder2 to building their compact form ({@link CompactCFG}): time
+ * and memory allocated per iteration, and heap retained per method.
+ * <p>
+ * The allocation figures are only available on JVMs whose ThreadMXBean
+ * measures allocated bytes (e.g. HotSpot).
+ * <p>
+ * Usage: CFGBenchmark [-methods n] [-iterations n] jarfile [auxclasspath
+ * entries...]
+ */
+public class CFGBenchmark {
+
+    private final List<MethodDescriptor> methods;
+
+    private final List<MethodGen> methodGens = new ArrayList<MethodGen>();
+
+    private CFGBenchmark(Project project, int numMethods) throws Exception {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(project);
+        IAnalysisCache analysisCache = corpus.getAnalysisCache();
+        methods = corpus.getLargestMethods(numMethods, MethodGen.class);
+        int totalSize = 0;
+        for (MethodDescriptor method : methods) {
+            MethodGen methodGen = analysisCache.getMethodAnalysis(MethodGen.class, method);
+            methodGens.add(methodGen);
+            totalSize += methodGen.getInstructionList().getByteCode().length;
+        }
+        System.out.println(methods.size() + " methods, " + totalSize + " bytes of bytecode");
+    }
+
+    private CFG[] buildCFGs() throws CheckedAnalysisException {
+        CFG[] cfgs = new CFG[methods.size()];
+        for (int k = 0; k < cfgs.length; k++) {
+            CFGBuilder builder = CFGBuilderFactory.create(methods.get(k), methodGens.get(k));
+            builder.build();
+            cfgs[k] = builder.getCFG();
+        }
+        return cfgs;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void print(String name, long time, long allocated, int iterations) {
+        System.out.printf("%-25s %12.2f %16.2f%n", name, time / 1e6 / iterations, allocated < 0 ? -1.0 : allocated
+                / 1048576.0 / iterations);
+    }
+
+    private void run(int iterations) throws CheckedAnalysisException {
+        // Warm up
+        for (int i = 0; i < 3; i++) {
+            for (CFG cfg : buildCFGs()) {
+                new CompactCFG(cfg);
+            }
+        }
+
+        System.out.println("                          ms/iteration  MB allocated/iteration");
+        long time = 0;
+        long allocated = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            long startAllocated = BenchmarkCorpus.allocatedBytes();
+            buildCFGs();
+            time += System.nanoTime() - start;
+            allocated = startAllocated < 0 ? -1 : allocated + BenchmarkCorpus.allocatedBytes() - startAllocated;
+        }
+        print("BetterCFGBuilder2", time, allocated, iterations);
+
+        time = 0;
+        allocated = 0;
+        for (int i = 0; i < iterations; i++) {
+            CFG[] cfgs = buildCFGs();
+            long start = System.nanoTime();
+            long startAllocated = BenchmarkCorpus.allocatedBytes();
+            for (CFG cfg : cfgs) {
+                new CompactCFG(cfg);
+            }
+            time += System.nanoTime() - start;
+            allocated = startAllocated < 0 ? -1 : allocated + BenchmarkCorpus.allocatedBytes() - startAllocated;
+        }
+        print("compact form", time, allocated, iterations);
+    }
+
+    /**
+     * Measure the heap retained by the CFGs and by their compact forms. The
+     * compact forms share the blocks and edges of the CFGs, so their retained
+     * heap only counts their own arrays.
+     */
+    private void measureRetainedHeap() throws CheckedAnalysisException {
+        long used = usedHeap();
+        CFG[] cfgs = buildCFGs();
+        long cfgHeap = usedHeap() - used;
+        CompactCFG[] compactCFGs = new CompactCFG[cfgs.length];
+        for (int k = 0; k < cfgs.length; k++) {
+            compactCFGs[k] = new CompactCFG(cfgs[k]);
+        }
+        long compactHeap = usedHeap() - used - cfgHeap;
+        System.out.printf("retained heap per method:  CFG %d bytes, compact form %d bytes%n", cfgHeap / cfgs.length,
+                compactHeap / compactCFGs.length);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numMethods = 100;
+        int iterations = 20;
+        int argCount = 0;
+        while (argCount < args.length && args[argCount].startsWith("-")) {
+            String option = args[argCount++];
+            if ("-methods".equals(option)) {
+                numMethods = Integer.parseInt(args[argCount++]);
+            } else if ("-iterations".equals(option)) {
+                iterations = Integer.parseInt(args[argCount++]);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (argCount >= args.length) {
+            System.err.println("Usage: " + CFGBenchmark.class.getName()
+                    + " [-methods n] [-iterations n] jarfile [auxclasspath entries...]");
+            System.exit(1);
+        }
+        Project project = new Project();
+        project.addFile(args[argCount++]);
+        while (argCount < args.length) {
+            project.addAuxClasspathEntry(args[argCount++]);
+        }
+
+        CFGBenchmark benchmark = new CFGBenchmark(project, numMethods);
+        benchmark.run(iterations);
+        benchmark.measureRetainedHeap();
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.tools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.bcel.classfile.Method;
+
+import edu.umd.cs.findbugs.Project;
+import edu.umd.cs.findbugs.ba.BasicBlock;
+import edu.umd.cs.findbugs.ba.Dataflow;
+import edu.umd.cs.findbugs.ba.DataflowAnalysis;
+import edu.umd.cs.findbugs.ba.LiveLocalStoreDataflow;
+import edu.umd.cs.findbugs.ba.constant.ConstantDataflow;
+import edu.umd.cs.findbugs.ba.deref.UnconditionalValueDerefDataflow;
+import edu.umd.cs.findbugs.ba.npe.IsNullValueDataflow;
+import edu.umd.cs.findbugs.ba.vna.ValueNumberAnalysis;
+import edu.umd.cs.findbugs.classfile.CheckedAnalysisException;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+import edu.umd.cs.findbugs.classfile.IMethodAnalysisEngine;
+import edu.umd.cs.findbugs.classfile.MethodDescriptor;
+import edu.umd.cs.findbugs.classfile.engine.bcel.ConstantDataflowFactory;
+import edu.umd.cs.findbugs.classfile.engine.bcel.IsNullValueDataflowFactory;
+import edu.umd.cs.findbugs.classfile.engine.bcel.LiveLocalStoreDataflowFactory;
+import edu.umd.cs.findbugs.classfile.engine.bcel.TypeDataflowFactory;
+import edu.umd.cs.findbugs.classfile.engine.bcel.UnconditionalValueDerefDataflowFactory;
+import edu.umd.cs.findbugs.classfile.engine.bcel.ValueNumberDataflowFactory;
+
+/**
+ * Measure the time and memory allocated by the main dataflow analyses (value
+ * numbers, null values, types, constants, live stores, unconditional
+ * dereferences) on the largest methods of an application. The analyses of
+ * each method are computed once so that the analyses they depend on (CFG,
+ * value numbers...) are cached, then each analysis is recomputed for every
+ * method, without caching its results.
+ * <p>
+ * Each analysis is measured with the default solver and with the worklist
+ * solver. With -verify, the start and result facts of every block computed by
+ * both solvers are compared instead (value numbers being compared up to their
+ * numbering, which depends on the order in which the blocks are visited).
+ * <p>
+ * The allocation figures are only available on JVMs whose ThreadMXBean
+ * measures allocated bytes (e.g. HotSpot).
+ * <p>
+ * Usage: DataflowBenchmark [-methods n] [-iterations n] [-verify] jarfile
+ * [auxclasspath entries...]
+ */
+public class DataflowBenchmark {
+
+    private final IAnalysisCache analysisCache;
+
+    private final List<MethodDescriptor> methods;
+
+    private DataflowBenchmark(Project project, int numMethods) throws Exception {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(project);
+        analysisCache = corpus.getAnalysisCache();
+        // Cache the analyses the benchmarked ones depend on
+        methods = corpus.getLargestMethods(numMethods, IsNullValueDataflow.class, ConstantDataflow.class,
+                LiveLocalStoreDataflow.class, UnconditionalValueDerefDataflow.class);
+        int totalSize = 0;
+        for (MethodDescriptor method : methods) {
+            totalSize += analysisCache.getMethodAnalysis(Method.class, method).getCode().getCode().length;
+        }
+        System.out.println(methods.size() + " methods, " + totalSize + " bytes of bytecode");
+    }
+
+    private void run(String name, IMethodAnalysisEngine<?> engine, int iterations) throws CheckedAnalysisException {
+        Dataflow.setWorklistSolver(false);
+        measure(name, engine, iterations);
+        Dataflow.setWorklistSolver(true);
+        measure(name + " (worklist)", engine, iterations);
+        Dataflow.setWorklistSolver(false);
+    }
+
+    private void measure(String name, IMethodAnalysisEngine<?> engine, int iterations) throws CheckedAnalysisException {
+        // Warm up
+        for (MethodDescriptor method : methods) {
+            engine.analyze(analysisCache, method);
+        }
+
+        // The analysis cache only keeps the analyses of a few classes, so each
+        // method is analyzed once more before being measured, to make sure
+        // the analyses it depends on are cached
+        long allocated = 0;
+        long time = 0;
+        for (MethodDescriptor method : methods) {
+            engine.analyze(analysisCache, method);
+            long methodAllocated = BenchmarkCorpus.allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                engine.analyze(analysisCache, method);
+            }
+            time += System.nanoTime() - start;
+            allocated = methodAllocated < 0 ? -1 : allocated + BenchmarkCorpus.allocatedBytes() - methodAllocated;
+        }
+        System.out.printf("%-25s %12.2f %16.2f%n", name, time / 1e6 / iterations, allocated < 0 ? -1.0 : allocated
+                / 1048576.0 / iterations);
+    }
+
+    /**
+     * Compute an analysis of each method with both solvers, and compare the
+     * facts at the start and result of each block.
+     *
+     * @return number of methods whose facts differ
+     */
+    private int verify(String name, IMethodAnalysisEngine<?> engine) throws CheckedAnalysisException {
+        int mismatches = 0;
+        for (MethodDescriptor method : methods) {
+            Dataflow.setWorklistSolver(false);
+            List<String> expected = getFacts((Dataflow<?, ?>) engine.analyze(analysisCache, method));
+            Dataflow.setWorklistSolver(true);
+            List<String> actual = getFacts((Dataflow<?, ?>) engine.analyze(analysisCache, method));
+            Dataflow.setWorklistSolver(false);
+            if (!expected.equals(actual)) {
+                mismatches++;
+                System.out.println(name + ": facts differ in " + method);
+                for (int k = 0; k < expected.size(); k++) {
+                    if (!expected.get(k).equals(actual.get(k))) {
+                        System.out.println("  default solver:  " + expected.get(k));
+                        System.out.println("  worklist solver: " + actual.get(k));
+                        break;
+                    }
+                }
+            }
+        }
+        System.out.printf("%-25s %d/%d methods with identical facts%n", name, methods.size() - mismatches, methods.size());
+        return mismatches;
+    }
+
+    private static final Pattern VALUE_NUMBER = Pattern.compile("(\\d+)(\\(\\d+\\))?,");
+
+    private static <Fact, AnalysisType extends DataflowAnalysis<Fact>> List<String> getFacts(Dataflow<Fact, AnalysisType> dataflow) {
+        AnalysisType analysis = dataflow.getAnalysis();
+        List<String> facts = new ArrayList<String>();
+        Iterator<BasicBlock> i = dataflow.getCFG().blockIterator();
+        while (i.hasNext()) {
+            BasicBlock block = i.next();
+            facts.add(block.getLabel() + ": " + analysis.factToString(dataflow.getStartFact(block)) + " -> "
+                    + analysis.factToString(dataflow.getResultFact(block)));
+        }
+        if (analysis instanceof ValueNumberAnalysis) {
+            // Number the values in the order they first appear
+            Map<String, Integer> numbers = new HashMap<String, Integer>();
+            for (int k = 0; k < facts.size(); k++) {
+                Matcher m = VALUE_NUMBER.matcher(facts.get(k));
+                StringBuffer buf = new StringBuffer();
+                while (m.find()) {
+                    Integer number = numbers.get(m.group(1));
+                    if (number == null) {
+                        number = numbers.size();
+                        numbers.put(m.group(1), number);
+                    }
+                    m.appendReplacement(buf, number + (m.group(2) == null ? "" : m.group(2)) + ",");
+                }
+                m.appendTail(buf);
+                facts.set(k, buf.toString());
+            }
+        }
+        return facts;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numMethods = 100;
+        int iterations = 20;
+        boolean verify = false;
+        int argCount = 0;
+        while (argCount < args.length && args[argCount].startsWith("-")) {
+            String option = args[argCount++];
+            if ("-methods".equals(option)) {
+                numMethods = Integer.parseInt(args[argCount++]);
+            } else if ("-iterations".equals(option)) {
+                iterations = Integer.parseInt(args[argCount++]);
+            } else if ("-verify".equals(option)) {
+                verify = true;
+            } else {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (argCount >= args.length) {
+            System.err.println("Usage: " + DataflowBenchmark.class.getName()
+                    + " [-methods n] [-iterations n] [-verify] jarfile [auxclasspath entries...]");
+            System.exit(1);
+        }
+        Project project = new Project();
+        project.addFile(args[argCount++]);
+        while (argCount < args.length) {
+            project.addAuxClasspathEntry(args[argCount++]);
+        }
+
+        DataflowBenchmark benchmark = new DataflowBenchmark(project, numMethods);
+        if (verify) {
+            int mismatches = benchmark.verify("value numbers", new ValueNumberDataflowFactory());
+            mismatches += benchmark.verify("null values", new IsNullValueDataflowFactory());
+            mismatches += benchmark.verify("types", new TypeDataflowFactory());
+            mismatches += benchmark.verify("constants", new ConstantDataflowFactory());
+            mismatches += benchmark.verify("live stores", new LiveLocalStoreDataflowFactory());
+            mismatches += benchmark.verify("derefs", new UnconditionalValueDerefDataflowFactory());
+            System.exit(mismatches == 0 ? 0 : 1);
+        }
+        System.out.println("analysis                   ms/iteration  MB allocated/iteration");
+        benchmark.run("value numbers", new ValueNumberDataflowFactory(), iterations);
+        benchmark.run("null values", new IsNullValueDataflowFactory(), iterations);
+        benchmark.run("types", new TypeDataflowFactory(), iterations);
+        benchmark.run("constants", new ConstantDataflowFactory(), iterations);
+        benchmark.run("live stores", new LiveLocalStoreDataflowFactory(), iterations);
+        benchmark.run("derefs", new UnconditionalValueDerefDataflowFactory(), iterations);
+    }
+}
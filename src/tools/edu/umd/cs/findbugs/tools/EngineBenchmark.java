@@ -0,0 +1,657 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.CheckForNull;
+
+import org.apache.bcel.generic.MethodGen;
+import org.objectweb.asm.ClassReader;
+
+import edu.umd.cs.findbugs.BugCollectionBugReporter;
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugRanker;
+import edu.umd.cs.findbugs.BytecodeScanningDetector;
+import edu.umd.cs.findbugs.Detector;
+import edu.umd.cs.findbugs.Detector2;
+import edu.umd.cs.findbugs.DetectorFactory;
+import edu.umd.cs.findbugs.DetectorFactoryCollection;
+import edu.umd.cs.findbugs.FindBugs2;
+import edu.umd.cs.findbugs.OpcodeStack;
+import edu.umd.cs.findbugs.Priorities;
+import edu.umd.cs.findbugs.Project;
+import edu.umd.cs.findbugs.SortedBugCollection;
+import edu.umd.cs.findbugs.Version;
+import edu.umd.cs.findbugs.ba.BetterCFGBuilder2;
+import edu.umd.cs.findbugs.ba.ClassContext;
+import edu.umd.cs.findbugs.ba.npe.IsNullValueDataflow;
+import edu.umd.cs.findbugs.bcel.OpcodeStackDetector;
+import edu.umd.cs.findbugs.classfile.ClassDescriptor;
+import edu.umd.cs.findbugs.classfile.IAnalysisCache;
+import edu.umd.cs.findbugs.classfile.IMethodAnalysisEngine;
+import edu.umd.cs.findbugs.classfile.MethodDescriptor;
+import edu.umd.cs.findbugs.classfile.analysis.ClassData;
+import edu.umd.cs.findbugs.classfile.analysis.ClassInfo;
+import edu.umd.cs.findbugs.classfile.engine.ClassParserUsingASM;
+import edu.umd.cs.findbugs.classfile.engine.bcel.IsNullValueDataflowFactory;
+import edu.umd.cs.findbugs.classfile.engine.bcel.TypeDataflowFactory;
+import edu.umd.cs.findbugs.classfile.engine.bcel.ValueNumberDataflowFactory;
+import edu.umd.cs.findbugs.config.UserPreferences;
+import edu.umd.cs.findbugs.log.Profiler;
+import edu.umd.cs.findbugs.visitclass.DismantleBytecode;
+
+/**
+ * Benchmarks of the hot paths of the analysis engine, run on a fixed set of
+ * class files, to track the performance of FindBugs from one version to the
+ * next:
+ * <ul>
+ * <li>parse: parsing the application classes with ClassParserUsingASM</li>
+ * <li>cfg: building the CFG of every method with BetterCFGBuilder2</li>
+ * <li>dataflow: executing the value number, null value and type dataflow
+ * analyses of every method</li>
+ * <li>opcodestack: scanning every class with an OpcodeStackDetector, and with
+ * {@value #OPCODE_STACK_SCANNERS} OpcodeStackDetectors, like a pass of
+ * detectors, simulating the stack in every detector or replaying the states of
+ * the stack recorded once per method</li>
+ * <li>dismantle: scanning every class with {@value #DISMANTLE_SCANNERS}
+ * BytecodeScanningDetectors, like a pass of detectors, with the instructions of
+ * each method decoded by every detector or decoded once and shared</li>
+ * <li>findbugs: whole FindBugs2 runs with the default detectors, along with the
+ * time spent in each detector and analysis engine, or with each of the
+ * detectors given with -detectors (and the non-reporting detectors)</li>
+ * <li>threads: whole FindBugs2 runs with the default detectors on 1, 2, 4...
+ * threads, up to the number of processors or the -threads given, checking
+ * that every run reports the same warnings. Along with the time of the runs,
+ * the CPU time of the analysis thread and of the whole JVM is reported: the
+ * work left on the analysis thread bounds the speedup the worker threads can
+ * bring, even where there are fewer processors than threads.</li>
+ * <li>xml: writing and reading the resulting SortedBugCollection as XML</li>
+ * </ul>
+ * The results are written as CSV, one line per benchmark: the FindBugs version
+ * (or the -label given), the benchmark, its parameter, the number of measured
+ * iterations, the mean, minimum, maximum and standard deviation of the time of
+ * an iteration in milliseconds, and the megabytes allocated per iteration (-1
+ * if the JVM cannot tell). With -output, the lines are appended to a file, so
+ * that the results of several versions can be compared.
+ * <p>
+ * Usage: EngineBenchmark [-benchmarks name,...] [-detectors name,...]
+ * [-warmup n] [-iterations n] [-runs n] [-threads n] [-label label] [-output file.csv]
+ * jarfile [auxclasspath entries...]
+ */
+public class EngineBenchmark {
+
+    private static final List<String> BENCHMARKS = Arrays.asList("parse", "cfg", "dataflow", "opcodestack", "dismantle",
+            "findbugs", "threads", "xml");
+
+    /** Number of detectors scanning each class in the dismantle benchmark */
+    static final int DISMANTLE_SCANNERS = 10;
+
+    /** Number of detectors scanning each class in the opcodestack benchmark */
+    static final int OPCODE_STACK_SCANNERS = 10;
+
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+    private static final String HEADER = "label,benchmark,parameter,iterations,mean_ms,min_ms,max_ms,stddev_ms,allocated_mb";
+
+    /**
+     * A measured operation.
+     */
+    abstract static class Task {
+        /**
+         * Set when the warmup iterations are done.
+         */
+        boolean measuring;
+
+        abstract void run() throws Exception;
+    }
+
+    private final Project project;
+
+    private final PrintWriter out;
+
+    private String label = Version.RELEASE;
+
+    private Set<String> benchmarks = new LinkedHashSet<String>(BENCHMARKS);
+
+    private List<String> detectors = new ArrayList<String>();
+
+    private int warmup = 2;
+
+    private int iterations = 5;
+
+    private int runs = 3;
+
+    private int maxThreads = Runtime.getRuntime().availableProcessors();
+
+    private SortedBugCollection bugCollection;
+
+    EngineBenchmark(Project project, PrintWriter out) {
+        this.project = project;
+        this.out = out;
+    }
+
+    private void measure(String benchmark, String parameter, int warmupCount, int count, Task task) throws Exception {
+        for (int i = 0; i < warmupCount; i++) {
+            task.run();
+        }
+        task.measuring = true;
+        long[] times = new long[count];
+        long allocated = BenchmarkCorpus.allocatedBytes();
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            task.run();
+            times[i] = System.nanoTime() - start;
+        }
+        allocated = allocated < 0 ? -1 : BenchmarkCorpus.allocatedBytes() - allocated;
+        report(benchmark, parameter, times, allocated);
+    }
+
+    private void report(String benchmark, String parameter, long[] times, long allocated) {
+        double sum = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (long time : times) {
+            sum += time;
+            min = Math.min(min, time);
+            max = Math.max(max, time);
+        }
+        double mean = sum / times.length;
+        double squares = 0;
+        for (long time : times) {
+            squares += (time - mean) * (time - mean);
+        }
+        double stddev = Math.sqrt(squares / times.length);
+        out.printf(Locale.ROOT, "%s,%s,%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f%n", label, benchmark, parameter, times.length, mean / 1e6,
+                min / 1e6, max / 1e6, stddev / 1e6, allocated < 0 ? -1.0 : allocated / 1048576.0 / times.length);
+        out.flush();
+    }
+
+    void run() throws Exception {
+        if (benchmarks.contains("parse") || benchmarks.contains("cfg") || benchmarks.contains("dataflow")
+                || benchmarks.contains("opcodestack") || benchmarks.contains("dismantle")) {
+            BenchmarkCorpus corpus = new BenchmarkCorpus(project);
+            try {
+                runAnalysisBenchmarks(corpus);
+            } finally {
+                corpus.close();
+            }
+        }
+        if (benchmarks.contains("findbugs")) {
+            runFindBugsBenchmarks();
+        }
+        if (benchmarks.contains("threads")) {
+            runThreadsBenchmarks();
+        }
+        if (benchmarks.contains("xml")) {
+            runXmlBenchmarks();
+        }
+    }
+
+    private void runAnalysisBenchmarks(BenchmarkCorpus corpus) throws Exception {
+        final IAnalysisCache analysisCache = corpus.getAnalysisCache();
+        final List<ClassDescriptor> appClassList = corpus.getAppClassList();
+
+        if (benchmarks.contains("parse")) {
+            final List<ClassData> classes = new ArrayList<ClassData>();
+            for (ClassDescriptor classDescriptor : appClassList) {
+                classes.add(analysisCache.getClassAnalysis(ClassData.class, classDescriptor));
+            }
+            measure("parse", "ClassParserUsingASM", warmup, iterations, new Task() {
+                @Override
+                void run() throws Exception {
+                    for (ClassData classData : classes) {
+                        ClassParserUsingASM parser = new ClassParserUsingASM(new ClassReader(classData.getData()),
+                                classData.getClassDescriptor(), classData.getCodeBaseEntry());
+                        parser.parse(new ClassInfo.Builder());
+                    }
+                }
+            });
+        }
+
+        // The methods whose dataflow analyses can be computed, along with the
+        // analyses they depend on
+        final List<MethodDescriptor> methods = corpus.getLargestMethods(Integer.MAX_VALUE, IsNullValueDataflow.class);
+        if (benchmarks.contains("cfg")) {
+            final List<MethodGen> methodGens = new ArrayList<MethodGen>();
+            for (MethodDescriptor method : methods) {
+                methodGens.add(analysisCache.getMethodAnalysis(MethodGen.class, method));
+            }
+            measure("cfg", "BetterCFGBuilder2", warmup, iterations, new Task() {
+                @Override
+                void run() throws Exception {
+                    for (int i = 0; i < methods.size(); i++) {
+                        new BetterCFGBuilder2(methods.get(i), methodGens.get(i)).build();
+                    }
+                }
+            });
+        }
+        if (benchmarks.contains("dataflow")) {
+            measureDataflow("ValueNumber", new ValueNumberDataflowFactory(), analysisCache, methods);
+            measureDataflow("IsNullValue", new IsNullValueDataflowFactory(), analysisCache, methods);
+            measureDataflow("Type", new TypeDataflowFactory(), analysisCache, methods);
+        }
+
+        if (benchmarks.contains("opcodestack")) {
+            final List<ClassContext> classContexts = new ArrayList<ClassContext>();
+            for (ClassDescriptor classDescriptor : appClassList) {
+                classContexts.add(analysisCache.getClassAnalysis(ClassContext.class, classDescriptor));
+            }
+            final OpcodeStackScanner[] scanners = new OpcodeStackScanner[OPCODE_STACK_SCANNERS];
+            for (int i = 0; i < scanners.length; i++) {
+                scanners[i] = new OpcodeStackScanner();
+            }
+            Task task = new Task() {
+                @Override
+                void run() throws Exception {
+                    // Record the states again in each iteration, as in each
+                    // pass
+                    analysisCache.purgeAllMethodAnalysis();
+                    for (ClassContext classContext : classContexts) {
+                        for (OpcodeStackScanner scanner : scanners) {
+                            scanner.visitClassContext(classContext);
+                        }
+                    }
+                }
+            };
+            try {
+                OpcodeStack.setShareStates(false);
+                measure("opcodestack", "OpcodeStackDetector", warmup, iterations, new Task() {
+                    @Override
+                    void run() throws Exception {
+                        for (ClassContext classContext : classContexts) {
+                            new OpcodeStackScanner().visitClassContext(classContext);
+                        }
+                    }
+                });
+                measure("opcodestack", "simulated by each detector", warmup, iterations, task);
+                OpcodeStack.setShareStates(true);
+                measure("opcodestack", "states shared", warmup, iterations, task);
+            } finally {
+                OpcodeStack.setShareStates(true);
+            }
+        }
+
+        if (benchmarks.contains("dismantle")) {
+            final List<ClassContext> classContexts = new ArrayList<ClassContext>();
+            for (ClassDescriptor classDescriptor : appClassList) {
+                classContexts.add(analysisCache.getClassAnalysis(ClassContext.class, classDescriptor));
+            }
+            final OperandScanner[] scanners = new OperandScanner[DISMANTLE_SCANNERS];
+            for (int i = 0; i < scanners.length; i++) {
+                scanners[i] = new OperandScanner();
+            }
+            Task task = new Task() {
+                @Override
+                void run() throws Exception {
+                    // Decode the instructions again in each iteration, as
+                    // in each pass
+                    analysisCache.purgeAllMethodAnalysis();
+                    for (ClassContext classContext : classContexts) {
+                        for (OperandScanner scanner : scanners) {
+                            scanner.visitClassContext(classContext);
+                        }
+                    }
+                }
+            };
+            try {
+                DismantleBytecode.setShareDecodedCode(false);
+                measure("dismantle", "decoded by each detector", warmup, iterations, task);
+                DismantleBytecode.setShareDecodedCode(true);
+                measure("dismantle", "decoded once", warmup, iterations, task);
+            } finally {
+                DismantleBytecode.setShareDecodedCode(true);
+            }
+        }
+    }
+
+    private void measureDataflow(String analysis, final IMethodAnalysisEngine<?> engine, final IAnalysisCache analysisCache,
+            final List<MethodDescriptor> methods) throws Exception {
+        measure("dataflow", analysis, warmup, iterations, new Task() {
+            @Override
+            void run() throws Exception {
+                for (MethodDescriptor method : methods) {
+                    engine.analyze(analysisCache, method);
+                }
+            }
+        });
+    }
+
+    /**
+     * Detector doing nothing but maintaining the operand stack.
+     */
+    static class OpcodeStackScanner extends OpcodeStackDetector {
+        int depth;
+
+        @Override
+        public void sawOpcode(int seen) {
+            depth += stack.getStackDepth();
+        }
+    }
+
+    /**
+     * Detector doing nothing but looking at the operands of the instructions.
+     */
+    static class OperandScanner extends BytecodeScanningDetector {
+        int count;
+
+        @Override
+        public void sawOpcode(int seen) {
+            if (isMethodCall()) {
+                count += getNameConstantOperand().length();
+            } else if (isRegisterLoad()) {
+                count += getRegisterOperand();
+            } else if (isBranch(seen)) {
+                count += getBranchTarget();
+            }
+        }
+    }
+
+    /**
+     * A whole FindBugs2 run, keeping the profiles of the measured runs.
+     */
+    private class FindBugsRun extends Task {
+        final UserPreferences preferences;
+
+        final List<Profiler> profilers = new ArrayList<Profiler>();
+
+        int threads = 1;
+
+        FindBugsRun(UserPreferences preferences) {
+            this.preferences = preferences;
+        }
+
+        @Override
+        void run() throws Exception {
+            FindBugs2 engine = new FindBugs2();
+            engine.setProject(project);
+            engine.setDetectorFactoryCollection(DetectorFactoryCollection.instance());
+            BugCollectionBugReporter bugReporter = new BugCollectionBugReporter(project);
+            bugReporter.setPriorityThreshold(Priorities.LOW_PRIORITY);
+            bugReporter.setRankThreshold(BugRanker.VISIBLE_RANK_MAX);
+            engine.setBugReporter(bugReporter);
+            engine.setUserPreferences(preferences);
+            engine.setThreads(threads);
+            engine.execute();
+            bugCollection = (SortedBugCollection) bugReporter.getBugCollection();
+            if (measuring) {
+                profilers.add(bugReporter.getProjectStats().getProfiler());
+            }
+        }
+    }
+
+    private void runFindBugsBenchmarks() throws Exception {
+        if (detectors.isEmpty()) {
+            FindBugsRun run = new FindBugsRun(UserPreferences.createDefaultUserPreferences());
+            measure("findbugs", "default", 1, runs, run);
+
+            // Time spent in each detector and analysis engine
+            Map<String, long[]> profiles = new TreeMap<String, long[]>();
+            for (int i = 0; i < run.profilers.size(); i++) {
+                Profiler profiler = run.profilers.get(i);
+                for (Class<?> c : profiler.getProfiledClasses()) {
+                    if (c == FindBugs2.class) {
+                        continue;
+                    }
+                    String kind = Detector.class.isAssignableFrom(c) || Detector2.class.isAssignableFrom(c) ? "detector"
+                            : "engine";
+                    String key = kind + "," + c.getName();
+                    long[] times = profiles.get(key);
+                    if (times == null) {
+                        times = new long[run.profilers.size()];
+                        profiles.put(key, times);
+                    }
+                    times[i] = profiler.getProfile(c).getTotalTime();
+                }
+            }
+            for (Map.Entry<String, long[]> e : profiles.entrySet()) {
+                String key = e.getKey();
+                int comma = key.indexOf(',');
+                report(key.substring(0, comma), key.substring(comma + 1), e.getValue(), -1);
+            }
+        } else {
+            // The non-reporting detectors compute the databases the others
+            // use: measure them alone first
+            measure("findbugs", "none", 1, runs, new FindBugsRun(createPreferences(null)));
+            for (String name : detectors) {
+                DetectorFactory factory = DetectorFactoryCollection.instance().getFactory(name);
+                if (factory == null) {
+                    throw new IllegalArgumentException("Unknown detector " + name);
+                }
+                measure("findbugs", name, 1, runs, new FindBugsRun(createPreferences(factory)));
+            }
+        }
+    }
+
+    /**
+     * Create preferences disabling the reporting detectors, except the given
+     * one. The non-reporting detectors keep their default setting.
+     */
+    private static UserPreferences createPreferences(@CheckForNull DetectorFactory enabled) {
+        UserPreferences preferences = UserPreferences.createDefaultUserPreferences();
+        for (Iterator<DetectorFactory> i = DetectorFactoryCollection.instance().factoryIterator(); i.hasNext();) {
+            DetectorFactory factory = i.next();
+            if (factory == enabled) {
+                preferences.enableDetector(factory, true);
+            } else if (factory.isReportingDetector()) {
+                preferences.enableDetector(factory, false);
+            }
+        }
+        return preferences;
+    }
+
+    private void runThreadsBenchmarks() throws Exception {
+        List<FindBugsRun> threadRuns = new ArrayList<FindBugsRun>();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            FindBugsRun run = new FindBugsRun(UserPreferences.createDefaultUserPreferences());
+            run.threads = threads;
+            run.run();
+            threadRuns.add(run);
+        }
+
+        // The runs of the thread counts are interleaved, so that the
+        // state of the JVM (heap size, compiled code) drifting from one run
+        // to the next affects them all alike
+        long[][] times = new long[threadRuns.size()][runs];
+        long[][] analysisThreadTimes = new long[threadRuns.size()][runs];
+        long[][] cpuTimes = new long[threadRuns.size()][runs];
+        String warnings = null;
+        for (int i = 0; i < runs; i++) {
+            for (int j = 0; j < threadRuns.size(); j++) {
+                FindBugsRun run = threadRuns.get(j);
+                long threadTime = THREAD_BEAN.getCurrentThreadCpuTime();
+                long cpuTime = getProcessCpuTime();
+                long start = System.nanoTime();
+                run.run();
+                times[j][i] = System.nanoTime() - start;
+                analysisThreadTimes[j][i] = THREAD_BEAN.getCurrentThreadCpuTime() - threadTime;
+                cpuTimes[j][i] = cpuTime < 0 ? 0 : getProcessCpuTime() - cpuTime;
+
+                // The detectors on the worker threads must report what they
+                // report on the analysis thread
+                StringBuilder builder = new StringBuilder();
+                for (BugInstance bug : bugCollection) {
+                    builder.append(bug.getInstanceKey()).append(' ').append(bug.getPrimarySourceLineAnnotation()).append('\n');
+                }
+                if (warnings == null) {
+                    warnings = builder.toString();
+                } else if (!warnings.equals(builder.toString())) {
+                    throw new IllegalStateException("The warnings reported with " + run.threads
+                            + " threads differ from those reported with one thread");
+                }
+            }
+        }
+        for (int j = 0; j < threadRuns.size(); j++) {
+            String threads = Integer.toString(threadRuns.get(j).threads);
+            report("threads", threads, times[j], -1);
+            report("threads", threads + " analysis thread cpu", analysisThreadTimes[j], -1);
+            if (getProcessCpuTime() >= 0) {
+                report("threads", threads + " process cpu", cpuTimes[j], -1);
+            }
+        }
+    }
+
+    /**
+     * Get the CPU time used by the JVM so far in nanoseconds, or -1 if the
+     * JVM does not measure it.
+     */
+    private static long getProcessCpuTime() {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    private void runXmlBenchmarks() throws Exception {
+        if (bugCollection == null) {
+            new FindBugsRun(UserPreferences.createDefaultUserPreferences()).run();
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        measure("xml", "write", warmup, iterations, new Task() {
+            @Override
+            void run() throws Exception {
+                bytes.reset();
+                bugCollection.writeXML(bytes);
+            }
+        });
+        final byte[] xml = bytes.toByteArray();
+        measure("xml", "read", warmup, iterations, new Task() {
+            @Override
+            void run() throws Exception {
+                new SortedBugCollection(project).readXML(new ByteArrayInputStream(xml));
+            }
+        });
+    }
+
+    private static void usage() {
+        System.err.println("Usage: " + EngineBenchmark.class.getName()
+                + " [-benchmarks name,...] [-detectors name,...] [-warmup n] [-iterations n] [-runs n] [-threads n]"
+                + " [-label label] [-output file.csv] jarfile [auxclasspath entries...]");
+        System.err.println("Benchmarks: " + BENCHMARKS);
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int argCount = 0;
+        String label = null;
+        String output = null;
+        List<String> benchmarks = null;
+        List<String> detectors = null;
+        int warmup = -1;
+        int iterations = -1;
+        int runs = -1;
+        int threads = -1;
+        while (argCount < args.length && args[argCount].startsWith("-")) {
+            String option = args[argCount++];
+            if (argCount >= args.length) {
+                usage();
+            }
+            String value = args[argCount++];
+            if ("-benchmarks".equals(option)) {
+                benchmarks = Arrays.asList(value.split(","));
+                if (!BENCHMARKS.containsAll(benchmarks)) {
+                    usage();
+                }
+            } else if ("-detectors".equals(option)) {
+                detectors = Arrays.asList(value.split(","));
+            } else if ("-warmup".equals(option)) {
+                warmup = Integer.parseInt(value);
+            } else if ("-iterations".equals(option)) {
+                iterations = Integer.parseInt(value);
+            } else if ("-runs".equals(option)) {
+                runs = Integer.parseInt(value);
+            } else if ("-threads".equals(option)) {
+                threads = Integer.parseInt(value);
+            } else if ("-label".equals(option)) {
+                label = value;
+            } else if ("-output".equals(option)) {
+                output = value;
+            } else {
+                usage();
+            }
+        }
+        if (argCount >= args.length) {
+            usage();
+        }
+        Project project = new Project();
+        project.addFile(args[argCount++]);
+        while (argCount < args.length) {
+            project.addAuxClasspathEntry(args[argCount++]);
+        }
+
+        PrintWriter out;
+        if (output != null) {
+            File file = new File(output);
+            boolean exists = file.exists() && file.length() > 0;
+            out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+            if (!exists) {
+                out.println(HEADER);
+            }
+        } else {
+            out = new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"));
+            out.println(HEADER);
+        }
+        try {
+            EngineBenchmark benchmark = new EngineBenchmark(project, out);
+            if (label != null) {
+                benchmark.label = label;
+            }
+            if (benchmarks != null) {
+                benchmark.benchmarks = new LinkedHashSet<String>(benchmarks);
+            }
+            if (detectors != null) {
+                benchmark.detectors = detectors;
+            }
+            if (warmup >= 0) {
+                benchmark.warmup = warmup;
+            }
+            if (iterations > 0) {
+                benchmark.iterations = iterations;
+            }
+            if (runs > 0) {
+                benchmark.runs = runs;
+            }
+            if (threads > 0) {
+                benchmark.maxThreads = threads;
+            }
+            benchmark.run();
+        } finally {
+            out.close();
+        }
+    }
+}
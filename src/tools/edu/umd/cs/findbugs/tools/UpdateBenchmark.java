@@ -0,0 +1,192 @@
+/*
+ * FindBugs - Find Bugs in Java programs
+ * Copyright (C) 2003-2008 University of Maryland
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.umd.cs.findbugs.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import edu.umd.cs.findbugs.BugCollection;
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.DetectorFactoryCollection;
+import edu.umd.cs.findbugs.FindBugs;
+import edu.umd.cs.findbugs.Priorities;
+import edu.umd.cs.findbugs.SortedBugCollection;
+import edu.umd.cs.findbugs.SourceLineAnnotation;
+import edu.umd.cs.findbugs.workflow.Update;
+
+/**
+ * Measure the time taken by workflow.Update to build the history of a
+ * synthetic application, with warnings appearing and disappearing, lines
+ * shifting and classes moving between packages from one version to the next.
+ * The history is built by matching the warnings with hashing (the default),
+ * then in TreeMaps (findbugs.update.hashMatching=false), and the histories are
+ * checked to be the same.
+ * <p>
+ * Usage: UpdateBenchmark [-versions n] [-bugs n] [-seed n]
+ */
+public class UpdateBenchmark {
+
+    private static final String[] TYPES = { "NP_NULL_ON_SOME_PATH", "DLS_DEAD_LOCAL_STORE", "MS_MUTABLE_ARRAY",
+        "SE_BAD_FIELD", "EI_EXPOSE_REP", "URF_UNREAD_FIELD", "RV_RETURN_VALUE_IGNORED", "SIC_INNER_SHOULD_BE_STATIC" };
+
+    /**
+     * A warning of the synthetic application, which lasts for some versions
+     */
+    private static class Warning {
+        final String type;
+
+        final int classNumber;
+
+        final String method;
+
+        final int line;
+
+        Warning(String type, int classNumber, String method, int line) {
+            this.type = type;
+            this.classNumber = classNumber;
+            this.method = method;
+            this.line = line;
+        }
+    }
+
+    private final Random random;
+
+    private final int numClasses;
+
+    private final String[] packages;
+
+    private final List<Warning> warnings = new ArrayList<Warning>();
+
+    private int nextMethod;
+
+    private UpdateBenchmark(int numBugs, long seed) {
+        random = new Random(seed);
+        numClasses = Math.max(1, numBugs / 10);
+        packages = new String[numClasses];
+        for (int i = 0; i < numClasses; i++) {
+            packages[i] = "com.example.p" + (i % 50);
+        }
+        for (int i = 0; i < numBugs; i++) {
+            warnings.add(newWarning());
+        }
+    }
+
+    private Warning newWarning() {
+        return new Warning(TYPES[random.nextInt(TYPES.length)], random.nextInt(numClasses), "m" + nextMethod++,
+                random.nextInt(1000) + 1);
+    }
+
+    /**
+     * Get the warnings of the next version: some are fixed, some are added,
+     * the lines of the others shift and a class moves to another package.
+     */
+    private BugCollection nextVersion(int version) {
+        for (int i = 0; i < warnings.size(); i++) {
+            if (random.nextInt(100) == 0) {
+                warnings.set(i, newWarning());
+            }
+        }
+        packages[random.nextInt(numClasses)] = "com.example.moved" + version;
+
+        SortedBugCollection collection = new SortedBugCollection();
+        collection.setReleaseName("v" + version);
+        collection.setTimestamp(version * 86400000L);
+        int shift = random.nextInt(20);
+        for (Warning w : warnings) {
+            String className = packages[w.classNumber] + ".C" + w.classNumber;
+            String sourceFile = "C" + w.classNumber + ".java";
+            BugInstance bug = new BugInstance(w.type, Priorities.NORMAL_PRIORITY);
+            bug.addClass(className, sourceFile);
+            bug.addMethod(className, w.method, "()V", false);
+            bug.addSourceLine(new SourceLineAnnotation(className, sourceFile, w.line + shift, w.line + shift, -1, -1));
+            collection.add(bug, false);
+        }
+        return collection;
+    }
+
+    /**
+     * Build the history of all the versions, and return a summary of it.
+     */
+    private static List<String> buildHistory(List<BugCollection> versions, boolean hashMatching) {
+        System.setProperty("findbugs.update.hashMatching", Boolean.toString(hashMatching));
+        Update update = new Update();
+        long start = System.nanoTime();
+        BugCollection history = versions.get(0);
+        for (int i = 1; i < versions.size(); i++) {
+            history = update.mergeCollections(history, versions.get(i), true, false);
+        }
+        long time = System.nanoTime() - start;
+        System.out.printf("%-12s %10.1f ms %8d warnings in history%n", hashMatching ? "hashing" : "TreeMap", time / 1e6,
+                history.getCollection().size());
+
+        List<String> result = new ArrayList<String>();
+        for (BugInstance bug : history.getCollection()) {
+            result.add(bug.getInstanceKey() + " " + bug.getFirstVersion() + " " + bug.getLastVersion());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numVersions = 200;
+        int numBugs = 2500;
+        long seed = 1;
+        int argCount = 0;
+        while (argCount < args.length && args[argCount].startsWith("-")) {
+            String option = args[argCount++];
+            if ("-versions".equals(option)) {
+                numVersions = Integer.parseInt(args[argCount++]);
+            } else if ("-bugs".equals(option)) {
+                numBugs = Integer.parseInt(args[argCount++]);
+            } else if ("-seed".equals(option)) {
+                seed = Long.parseLong(args[argCount++]);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (argCount != args.length || numVersions < 2) {
+            System.err.println("Usage: " + UpdateBenchmark.class.getName() + " [-versions n] [-bugs n] [-seed n]");
+            System.exit(1);
+        }
+        FindBugs.setNoAnalysis();
+        DetectorFactoryCollection.instance();
+
+        UpdateBenchmark benchmark = new UpdateBenchmark(numBugs, seed);
+        List<BugCollection> versions = new ArrayList<BugCollection>();
+        for (int i = 0; i < numVersions; i++) {
+            versions.add(benchmark.nextVersion(i));
+        }
+        System.out.println(numVersions + " versions, " + numBugs + " warnings per version");
+
+        // Warm up
+        List<BugCollection> warmup = versions.subList(0, Math.min(numVersions, 10));
+        buildHistory(warmup, true);
+        buildHistory(warmup, false);
+
+        List<String> hashed = buildHistory(versions, true);
+        List<String> sorted = buildHistory(versions, false);
+        if (!hashed.equals(sorted)) {
+            System.err.println("Hashing and TreeMap matching give different histories");
+            System.exit(1);
+        }
+    }
+}